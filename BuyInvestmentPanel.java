@@ -5,6 +5,8 @@ package ePortfolio;
 import javax.swing.*;
 import javax.swing.border.*;
 import java.awt.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /** 
  *  The BuyInvestmentPanel class creates a panel that allows the user to buy an investment.
@@ -149,9 +151,9 @@ public class BuyInvestmentPanel extends JPanel
             double price = Double.parseDouble(priceStr);
             if (price <= 0) throw new IllegalArgumentException("Price must be a positive number.");
 
-            // Add the investment
-            String result = Investment.addInvestment(type, symbol, name, quantity, price);
-            messageArea.setText(result);
+            // Add the investment in the background, keeping the button off until it is done
+            buyButton.setEnabled(false);
+            showResult(PortfolioService.addInvestment(type, symbol, name, quantity, price));
 
         } 
 
@@ -168,4 +170,24 @@ public class BuyInvestmentPanel extends JPanel
             messageArea.setText("Error: " + e.getMessage());
         }
     }
+
+    /*
+     * Method to display the result of a trade on the event dispatch thread once it completes, and turn the button back on.
+     */
+    private void showResult(CompletableFuture<String> trade) 
+    {
+        trade.whenCompleteAsync((result, error) -> 
+        {
+            buyButton.setEnabled(true);
+
+            // Show error message if the trade was refused
+            if (error != null) 
+            {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                messageArea.setText("Error: " + cause.getMessage());
+                return;
+            }
+            messageArea.setText(result);
+        }, PortfolioService.EDT);
+    }
 }
\ No newline at end of file
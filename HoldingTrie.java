@@ -0,0 +1,344 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The HoldingTrie class is an immutable, structurally shared map from investment ID to a
+ * read-only investment copy. It is a 32-way trie keyed by the bits of the ID: setting a slot
+ * copies only the nodes on the path to it, so every older version stays valid and shares the
+ * rest of its nodes. Each node counts its live entries, which lets the trie find the n-th
+ * investment in ID order without walking the holdings before it.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+final class HoldingTrie implements Iterable<Investment>
+{
+    // Branching factor of the trie
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    // The empty trie
+    static final HoldingTrie EMPTY = new HoldingTrie(null, 0);
+
+    // Root node (null when empty) and the bit shift of its level
+    private final Node root;
+    private final int shift;
+
+    private HoldingTrie(Node root, int shift)
+    {
+        this.root = root;
+        this.shift = shift;
+    }
+
+    /**
+     * Returns a trie with the slot of an ID replaced.
+     *
+     * @param id    The investment ID.
+     * @param value The read-only investment to store, or null to clear the slot.
+     * @return The updated trie; this trie is left unchanged.
+     */
+    HoldingTrie set(int id, Investment value)
+    {
+        // Add levels on top until the ID fits under the root
+        Node newRoot = root;
+        int newShift = shift;
+        while ((id >>> newShift) >= WIDTH)
+        {
+            if (newRoot != null)
+            {
+                Object[] slots = new Object[WIDTH];
+                slots[0] = newRoot;
+                newRoot = new Node(slots, newRoot.count);
+            }
+            newShift += BITS;
+        }
+
+        // Copy the path down to the slot
+        return new HoldingTrie(set(newRoot, newShift, id, value), newShift);
+    }
+
+    /**
+     * Returns a trie with the slots of several IDs replaced, copying each affected node only once.
+     *
+     * @param ids    The investment IDs in ascending order, without duplicates.
+     * @param values The read-only investments to store, or null to clear a slot, matching the IDs.
+     * @param count  The number of IDs in the arrays.
+     * @return The updated trie; this trie is left unchanged.
+     */
+    HoldingTrie setAll(int[] ids, Investment[] values, int count)
+    {
+        if (count == 0) return this;
+
+        // Add levels on top until the largest ID fits under the root
+        Node newRoot = root;
+        int newShift = shift;
+        while ((ids[count - 1] >>> newShift) >= WIDTH)
+        {
+            if (newRoot != null)
+            {
+                Object[] slots = new Object[WIDTH];
+                slots[0] = newRoot;
+                newRoot = new Node(slots, newRoot.count);
+            }
+            newShift += BITS;
+        }
+
+        // Copy the paths down to every slot
+        return new HoldingTrie(setAll(newRoot, newShift, ids, values, 0, count), newShift);
+    }
+
+    /**
+     * Returns the number of investments stored.
+     *
+     * @return The number of non-empty slots.
+     */
+    int size()
+    {
+        return root == null ? 0 : root.count;
+    }
+
+    /**
+     * Returns the investment stored under an ID.
+     *
+     * @param id The investment ID.
+     * @return The investment, or null if the slot is empty.
+     */
+    Investment find(int id)
+    {
+        // IDs beyond the top level are not stored
+        if (root == null || (id >>> shift) >= WIDTH) return null;
+
+        // Follow the bits of the ID down to the leaf slot
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS)
+        {
+            node = (Node) node.slots[(id >>> level) & MASK];
+            if (node == null) return null;
+        }
+        return (Investment) node.slots[id & MASK];
+    }
+
+    /**
+     * Returns the investment at a position in ID order.
+     *
+     * @param index The position, from 0 to size() - 1.
+     * @return The investment at that position.
+     */
+    Investment get(int index)
+    {
+        // Check if the index is valid
+        if (index < 0 || index >= size())
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+        }
+
+        // Descend into the child whose running count covers the index
+        Node node = root;
+        int level = shift;
+        while (true)
+        {
+            for (Object slot : node.slots)
+            {
+                int count = countOf(slot, level);
+                if (index < count)
+                {
+                    if (level == 0) return (Investment) slot;
+                    node = (Node) slot;
+                    break;
+                }
+                index -= count;
+            }
+            level -= BITS;
+        }
+    }
+
+    /**
+     * Returns the position of an ID's investment in ID order, the inverse of get.
+     *
+     * @param id The investment ID.
+     * @return The position, or -1 if the slot is empty.
+     */
+    int indexOf(int id)
+    {
+        // IDs beyond the top level are not stored
+        if (root == null || (id >>> shift) >= WIDTH) return -1;
+
+        // Follow the bits of the ID down, counting the investments in the slots before it at each level
+        Node node = root;
+        int index = 0;
+        for (int level = shift; ; level -= BITS)
+        {
+            int slot = (id >>> level) & MASK;
+            for (int i = 0; i < slot; i++) index += countOf(node.slots[i], level);
+            if (node.slots[slot] == null) return -1;
+            if (level == 0) return index;
+            node = (Node) node.slots[slot];
+        }
+    }
+
+    /**
+     * Iterates over the investments in ID order.
+     *
+     * @return An iterator over the stored investments.
+     */
+    @Override
+    public Iterator<Investment> iterator()
+    {
+        return new TrieIterator();
+    }
+
+    /*
+     * Recursively copies the path to an ID, returning null for nodes left empty.
+     */
+    private static Node set(Node node, int level, int id, Object value)
+    {
+        Object[] slots = node == null ? new Object[WIDTH] : node.slots.clone();
+        int index = (id >>> level) & MASK;
+        int before = countOf(slots[index], level);
+
+        // Replace the leaf or the updated child
+        if (level == 0)
+        {
+            slots[index] = value;
+        }
+
+        else
+        {
+            slots[index] = set((Node) slots[index], level - BITS, id, value);
+        }
+
+        // Drop nodes that no longer hold anything
+        int count = (node == null ? 0 : node.count) + countOf(slots[index], level) - before;
+        return count == 0 ? null : new Node(slots, count);
+    }
+
+    /*
+     * Recursively copies the paths to a sorted run of IDs, visiting each child once for all of its IDs.
+     */
+    private static Node setAll(Node node, int level, int[] ids, Investment[] values, int from, int to)
+    {
+        Object[] slots = node == null ? new Object[WIDTH] : node.slots.clone();
+        int count = node == null ? 0 : node.count;
+
+        // Group the IDs by the slot they fall into at this level
+        int start = from;
+        while (start < to)
+        {
+            int index = (ids[start] >>> level) & MASK;
+            int end = start + 1;
+            while (end < to && ((ids[end] >>> level) & MASK) == index) end++;
+
+            // Replace the leaf or rebuild the child for the whole group
+            int before = countOf(slots[index], level);
+            if (level == 0)
+            {
+                slots[index] = values[start];
+            }
+
+            else
+            {
+                slots[index] = setAll((Node) slots[index], level - BITS, ids, values, start, end);
+            }
+            count += countOf(slots[index], level) - before;
+            start = end;
+        }
+
+        // Drop nodes that no longer hold anything
+        return count == 0 ? null : new Node(slots, count);
+    }
+
+    /*
+     * Counts the investments under a slot at the given level.
+     */
+    private static int countOf(Object slot, int level)
+    {
+        if (slot == null) return 0;
+        return level == 0 ? 1 : ((Node) slot).count;
+    }
+
+    /**
+     * A trie node holding either child nodes or, on the bottom level, investments.
+     */
+    private static final class Node
+    {
+        final Object[] slots;
+        final int count;
+
+        Node(Object[] slots, int count)
+        {
+            this.slots = slots;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Depth-first iterator keeping one node and slot position per level.
+     */
+    private final class TrieIterator implements Iterator<Investment>
+    {
+        private final Node[] nodes = new Node[shift / BITS + 1];
+        private final int[] positions = new int[shift / BITS + 1];
+        private int depth;
+        private Investment next;
+
+        TrieIterator()
+        {
+            nodes[0] = root;
+            depth = root == null ? -1 : 0;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        @Override
+        public Investment next()
+        {
+            if (next == null) throw new NoSuchElementException();
+            Investment current = next;
+            advance();
+            return current;
+        }
+
+        /*
+         * Moves to the next non-empty leaf slot, climbing and descending as needed.
+         */
+        private void advance()
+        {
+            next = null;
+            while (depth >= 0)
+            {
+                // Climb once every slot of the current node has been visited
+                if (positions[depth] == WIDTH)
+                {
+                    depth--;
+                    continue;
+                }
+
+                Object slot = nodes[depth].slots[positions[depth]++];
+                if (slot == null) continue;
+
+                // Stop at a leaf, otherwise descend into the child
+                if (depth == nodes.length - 1)
+                {
+                    next = (Investment) slot;
+                    return;
+                }
+
+                depth++;
+                nodes[depth] = (Node) slot;
+                positions[depth] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,736 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * The IdBitmap class is a compressed bitmap of non-negative investment IDs.
+ * IDs are split into 16-bit chunks, and each chunk is stored either as a sorted char array
+ * (sparse chunks) or as a 1024-word bitset (dense chunks), so posting lists stay compact
+ * without boxing and intersections run chunk by chunk.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+final class IdBitmap
+{
+    // Chunks holding at most this many IDs are stored as sorted arrays
+    private static final int ARRAY_LIMIT = 4096;
+
+    // Sorted chunk keys (high 16 bits of the ID) and their containers
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int chunkCount;
+
+    /**
+     * Adds an ID to the bitmap.
+     *
+     * @param id The ID to add.
+     */
+    void add(int id)
+    {
+        // Find the chunk for the high bits of the ID
+        char key = (char) (id >>> 16);
+        int position = findChunk(key);
+
+        // Create the chunk if it does not exist yet
+        if (position < 0)
+        {
+            position = -position - 1;
+            insertChunk(position, key, new ArrayContainer());
+        }
+
+        // Add the low bits, letting the container switch representation if needed
+        containers[position] = containers[position].add((char) id);
+    }
+
+    /**
+     * Removes an ID from the bitmap.
+     *
+     * @param id The ID to remove.
+     */
+    void remove(int id)
+    {
+        // Nothing to do if the chunk does not exist
+        int position = findChunk((char) (id >>> 16));
+        if (position < 0) return;
+
+        // Remove the low bits and drop the chunk once it is empty
+        Container container = containers[position].remove((char) id);
+        if (container.cardinality() == 0)
+        {
+            removeChunk(position);
+        }
+
+        else
+        {
+            containers[position] = container;
+        }
+    }
+
+    /**
+     * Returns a bitmap with an ID added, leaving this bitmap unchanged; this one if the ID is already there.
+     * The copy shares every chunk but the one the ID falls in, so a bitmap that other threads
+     * may be reading can be replaced rather than changed.
+     *
+     * @param id The ID to add.
+     * @return The new bitmap.
+     */
+    IdBitmap with(int id)
+    {
+        // Replace the chunk's container, or insert a new chunk
+        char key = (char) (id >>> 16);
+        int position = findChunk(key);
+        if (position < 0)
+        {
+            IdBitmap copy = copyChunks();
+            copy.insertChunk(-position - 1, key, new ArrayContainer().add((char) id));
+            return copy;
+        }
+        Container container = containers[position].with((char) id);
+        if (container == containers[position]) return this;
+        IdBitmap copy = copyChunks();
+        copy.containers[position] = container;
+        return copy;
+    }
+
+    /**
+     * Returns a bitmap with an ID removed, leaving this bitmap unchanged; this one if the ID is not there.
+     * The copy shares every chunk but the one the ID falls in.
+     *
+     * @param id The ID to remove.
+     * @return The new bitmap.
+     */
+    IdBitmap without(int id)
+    {
+        // Nothing to do if the chunk does not exist
+        int position = findChunk((char) (id >>> 16));
+        if (position < 0) return this;
+
+        // Replace the chunk's container, or drop the chunk once it is empty
+        Container container = containers[position].without((char) id);
+        if (container == containers[position]) return this;
+        IdBitmap copy = copyChunks();
+        if (container.cardinality() == 0)
+        {
+            copy.removeChunk(position);
+        }
+
+        else
+        {
+            copy.containers[position] = container;
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a bitmap with many IDs removed and then many added, leaving this bitmap unchanged.
+     * Each chunk the IDs fall in is copied once and changed in place, so a batch costs one copy
+     * per chunk it touches rather than one per ID, as with and without would. Both arrays must be
+     * in ascending order.
+     *
+     * @param removed      The IDs to remove.
+     * @param removedCount The number of IDs to remove.
+     * @param added        The IDs to add.
+     * @param addedCount   The number of IDs to add.
+     * @return The new bitmap.
+     */
+    IdBitmap change(int[] removed, int removedCount, int[] added, int addedCount)
+    {
+        IdBitmap copy = copyChunks();
+
+        // Remove chunk by chunk, dropping chunks that empty
+        for (int i = 0; i < removedCount; )
+        {
+            char key = (char) (removed[i] >>> 16);
+            int position = copy.findChunk(key);
+            if (position < 0)
+            {
+                while (i < removedCount && (char) (removed[i] >>> 16) == key) i++;
+                continue;
+            }
+            Container container = copy.containers[position].copy();
+            for (; i < removedCount && (char) (removed[i] >>> 16) == key; i++)
+            {
+                container = container.remove((char) removed[i]);
+            }
+            if (container.cardinality() == 0)
+            {
+                copy.removeChunk(position);
+            }
+
+            else
+            {
+                copy.containers[position] = container;
+            }
+        }
+
+        // Add chunk by chunk, creating chunks that do not exist yet
+        for (int i = 0; i < addedCount; )
+        {
+            char key = (char) (added[i] >>> 16);
+            int position = copy.findChunk(key);
+            Container container;
+            if (position < 0)
+            {
+                position = -position - 1;
+                container = new ArrayContainer();
+                copy.insertChunk(position, key, container);
+            }
+
+            else
+            {
+                container = copy.containers[position].copy();
+            }
+            for (; i < addedCount && (char) (added[i] >>> 16) == key; i++)
+            {
+                container = container.add((char) added[i]);
+            }
+            copy.containers[position] = container;
+        }
+        return copy;
+    }
+
+    /**
+     * Checks whether the bitmap contains an ID.
+     *
+     * @param id The ID to look for.
+     * @return True if the ID is present.
+     */
+    boolean contains(int id)
+    {
+        int position = findChunk((char) (id >>> 16));
+        return position >= 0 && containers[position].contains((char) id);
+    }
+
+    /**
+     * Counts the IDs in the bitmap.
+     *
+     * @return The number of IDs stored.
+     */
+    int cardinality()
+    {
+        int total = 0;
+        for (int i = 0; i < chunkCount; i++)
+        {
+            total += containers[i].cardinality();
+        }
+        return total;
+    }
+
+    /**
+     * Checks whether the bitmap is empty.
+     *
+     * @return True if no IDs are stored.
+     */
+    boolean isEmpty()
+    {
+        return chunkCount == 0;
+    }
+
+    /**
+     * Intersects this bitmap with another one.
+     * Neither input is modified.
+     *
+     * @param other The bitmap to intersect with.
+     * @return A new bitmap holding the IDs present in both.
+     */
+    IdBitmap and(IdBitmap other)
+    {
+        IdBitmap result = new IdBitmap();
+        int i = 0;
+        int j = 0;
+
+        // Walk both sorted key arrays and intersect chunks with matching keys
+        while (i < chunkCount && j < other.chunkCount)
+        {
+            if (keys[i] < other.keys[j])
+            {
+                i++;
+            }
+
+            else if (keys[i] > other.keys[j])
+            {
+                j++;
+            }
+
+            else
+            {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality() > 0)
+                {
+                    result.insertChunk(result.chunkCount, keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+
+        // Return the intersection
+        return result;
+    }
+
+    /**
+     * Visits every ID in ascending order.
+     *
+     * @param action The action to run for each ID.
+     */
+    void forEach(IntConsumer action)
+    {
+        for (int i = 0; i < chunkCount; i++)
+        {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    /**
+     * Copies every ID in ascending order into an array.
+     *
+     * @param target The array to copy into, with room for every ID.
+     * @param offset The position of the first copied ID.
+     * @return The position after the last copied ID.
+     */
+    int copyTo(int[] target, int offset)
+    {
+        for (int i = 0; i < chunkCount; i++)
+        {
+            offset = containers[i].copyTo(keys[i] << 16, target, offset);
+        }
+        return offset;
+    }
+
+    /*
+     * Copies the chunk arrays, sharing the containers, so chunks can be replaced without touching this bitmap.
+     */
+    private IdBitmap copyChunks()
+    {
+        IdBitmap copy = new IdBitmap();
+        copy.keys = Arrays.copyOf(keys, keys.length);
+        copy.containers = Arrays.copyOf(containers, containers.length);
+        copy.chunkCount = chunkCount;
+        return copy;
+    }
+
+    /*
+     * Binary search for a chunk key, returning (-(insertion point) - 1) when absent.
+     */
+    private int findChunk(char key)
+    {
+        return Arrays.binarySearch(keys, 0, chunkCount, key);
+    }
+
+    /*
+     * Inserts a chunk at the given position, growing the arrays when full.
+     */
+    private void insertChunk(int position, char key, Container container)
+    {
+        if (chunkCount == keys.length)
+        {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            containers = Arrays.copyOf(containers, chunkCount * 2);
+        }
+        System.arraycopy(keys, position, keys, position + 1, chunkCount - position);
+        System.arraycopy(containers, position, containers, position + 1, chunkCount - position);
+        keys[position] = key;
+        containers[position] = container;
+        chunkCount++;
+    }
+
+    /*
+     * Removes the chunk at the given position.
+     */
+    private void removeChunk(int position)
+    {
+        System.arraycopy(keys, position + 1, keys, position, chunkCount - position - 1);
+        System.arraycopy(containers, position + 1, containers, position, chunkCount - position - 1);
+        chunkCount--;
+        containers[chunkCount] = null;
+    }
+
+    /**
+     * The Changes class collects the IDs a batch removes from and adds to one bitmap, so an index
+     * can group a batch by posting list and replace each list once with change.
+     */
+    static final class Changes
+    {
+        // IDs to remove and to add, in the order recorded
+        private int[] removed = new int[4];
+        private int removedCount;
+        private int[] added = new int[4];
+        private int addedCount;
+
+        /**
+         * Records an ID to remove. IDs must be recorded in ascending order.
+         *
+         * @param id The ID to remove.
+         */
+        void remove(int id)
+        {
+            if (removedCount == removed.length) removed = Arrays.copyOf(removed, removedCount * 2);
+            removed[removedCount++] = id;
+        }
+
+        /**
+         * Records an ID to add. IDs must be recorded in ascending order.
+         *
+         * @param id The ID to add.
+         */
+        void add(int id)
+        {
+            if (addedCount == added.length) added = Arrays.copyOf(added, addedCount * 2);
+            added[addedCount++] = id;
+        }
+
+        /**
+         * Applies the recorded changes to a bitmap, leaving it unchanged.
+         *
+         * @param bitmap The bitmap to change, or null for an empty one.
+         * @return The changed bitmap, or null if it is empty.
+         */
+        IdBitmap applyTo(IdBitmap bitmap)
+        {
+            IdBitmap changed = (bitmap == null ? new IdBitmap() : bitmap).change(removed, removedCount, added, addedCount);
+            return changed.isEmpty() ? null : changed;
+        }
+    }
+
+    /**
+     * A container for the low 16 bits of the IDs within one chunk.
+     * Mutators return the container to keep using, which may be a converted copy.
+     */
+    private abstract static class Container
+    {
+        abstract Container add(char value);
+        abstract Container remove(char value);
+        abstract Container with(char value);
+        abstract Container without(char value);
+        abstract Container copy();
+        abstract boolean contains(char value);
+        abstract int cardinality();
+        abstract Container and(Container other);
+        abstract void forEach(int base, IntConsumer action);
+        abstract int copyTo(int base, int[] target, int offset);
+    }
+
+    /**
+     * Sparse container storing its values as a sorted char array.
+     */
+    private static final class ArrayContainer extends Container
+    {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer()
+        {
+            this.values = new char[4];
+        }
+
+        ArrayContainer(char[] values, int cardinality)
+        {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container with(char value)
+        {
+            // Copy into an array one longer with the value in place, or into a bitset once the array is full
+            int position = Arrays.binarySearch(values, 0, cardinality, value);
+            if (position >= 0) return this;
+            if (cardinality == ARRAY_LIMIT) return toBitmap().add(value);
+            position = -position - 1;
+            char[] copy = new char[cardinality + 1];
+            System.arraycopy(values, 0, copy, 0, position);
+            copy[position] = value;
+            System.arraycopy(values, position, copy, position + 1, cardinality - position);
+            return new ArrayContainer(copy, cardinality + 1);
+        }
+
+        @Override
+        Container without(char value)
+        {
+            // Copy into an array one shorter without the value
+            int position = Arrays.binarySearch(values, 0, cardinality, value);
+            if (position < 0) return this;
+            char[] copy = new char[Math.max(cardinality - 1, 1)];
+            System.arraycopy(values, 0, copy, 0, position);
+            System.arraycopy(values, position + 1, copy, position, cardinality - position - 1);
+            return new ArrayContainer(copy, cardinality - 1);
+        }
+
+        @Override
+        Container copy()
+        {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 4)), cardinality);
+        }
+
+        @Override
+        Container add(char value)
+        {
+            // Ignore values that are already present
+            int position = Arrays.binarySearch(values, 0, cardinality, value);
+            if (position >= 0) return this;
+
+            // Switch to a bitset once the array would grow past the limit
+            if (cardinality == ARRAY_LIMIT)
+            {
+                return toBitmap().add(value);
+            }
+
+            // Insert the value keeping the array sorted
+            position = -position - 1;
+            if (cardinality == values.length)
+            {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, cardinality * 2));
+            }
+            System.arraycopy(values, position, values, position + 1, cardinality - position);
+            values[position] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value)
+        {
+            int position = Arrays.binarySearch(values, 0, cardinality, value);
+            if (position >= 0)
+            {
+                System.arraycopy(values, position + 1, values, position, cardinality - position - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value)
+        {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality()
+        {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other)
+        {
+            char[] result = new char[Math.min(cardinality, other.cardinality())];
+            int count = 0;
+
+            // Merge two sorted arrays
+            if (other instanceof ArrayContainer)
+            {
+                ArrayContainer that = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < that.cardinality)
+                {
+                    if (values[i] < that.values[j]) i++;
+                    else if (values[i] > that.values[j]) j++;
+                    else
+                    {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+
+            // Probe the bitset for each array value
+            else
+            {
+                for (int i = 0; i < cardinality; i++)
+                {
+                    if (other.contains(values[i])) result[count++] = values[i];
+                }
+            }
+
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        void forEach(int base, IntConsumer action)
+        {
+            for (int i = 0; i < cardinality; i++)
+            {
+                action.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        int copyTo(int base, int[] target, int offset)
+        {
+            for (int i = 0; i < cardinality; i++)
+            {
+                target[offset++] = base | values[i];
+            }
+            return offset;
+        }
+
+        /*
+         * Converts this array container into an equivalent bitset container.
+         */
+        private BitmapContainer toBitmap()
+        {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++)
+            {
+                bitmap.words[values[i] >>> 6] |= 1L << values[i];
+            }
+            bitmap.cardinality = cardinality;
+            return bitmap;
+        }
+    }
+
+    /**
+     * Dense container storing its values as a 65536-bit bitset.
+     */
+    private static final class BitmapContainer extends Container
+    {
+        private final long[] words = new long[1024];
+        private int cardinality;
+
+        @Override
+        Container with(char value)
+        {
+            return contains(value) ? this : copy().add(value);
+        }
+
+        @Override
+        Container without(char value)
+        {
+            return contains(value) ? copy().remove(value) : this;
+        }
+
+        @Override
+        BitmapContainer copy()
+        {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        Container add(char value)
+        {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            words[value >>> 6] = after;
+            if (before != after) cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value)
+        {
+            long before = words[value >>> 6];
+            long after = before & ~(1L << value);
+            words[value >>> 6] = after;
+
+            // Switch back to an array once the chunk becomes sparse again
+            if (before != after && --cardinality <= ARRAY_LIMIT)
+            {
+                return toArray(words, cardinality);
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value)
+        {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality()
+        {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other)
+        {
+            // Let the sparse side drive the intersection
+            if (other instanceof ArrayContainer)
+            {
+                return other.and(this);
+            }
+
+            // Intersect word by word
+            BitmapContainer that = (BitmapContainer) other;
+            long[] result = new long[1024];
+            int count = 0;
+            for (int i = 0; i < result.length; i++)
+            {
+                result[i] = words[i] & that.words[i];
+                count += Long.bitCount(result[i]);
+            }
+
+            // Keep the result as a bitset only if it is still dense
+            if (count <= ARRAY_LIMIT)
+            {
+                return toArray(result, count);
+            }
+
+            BitmapContainer bitmap = new BitmapContainer();
+            System.arraycopy(result, 0, bitmap.words, 0, result.length);
+            bitmap.cardinality = count;
+            return bitmap;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer action)
+        {
+            for (int i = 0; i < words.length; i++)
+            {
+                long word = words[i];
+                while (word != 0)
+                {
+                    action.accept(base | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        int copyTo(int base, int[] target, int offset)
+        {
+            for (int i = 0; i < words.length; i++)
+            {
+                long word = words[i];
+                while (word != 0)
+                {
+                    target[offset++] = base | (i << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return offset;
+        }
+
+        /*
+         * Packs the set bits of a bitset into a sorted array container.
+         */
+        private static ArrayContainer toArray(long[] words, int cardinality)
+        {
+            char[] values = new char[Math.max(cardinality, 4)];
+            int count = 0;
+            for (int i = 0; i < words.length; i++)
+            {
+                long word = words[i];
+                while (word != 0)
+                {
+                    values[count++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The IncrementalSearch class answers search-as-you-type queries on symbol and name prefixes.
+ * It keeps a PrefixIndex of the portfolio and the matches of the last query, so each keystroke
+ * that extends the query narrows the previous matches instead of searching the portfolio again.
+ *
+ * The index describes one snapshot. When the portfolio changes, small portfolios are re-indexed
+ * on the next query; large ones keep answering from the previous snapshot while a new index is
+ * built on the portfolio service threads, and each Result reports whether it is current.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class IncrementalSearch
+{
+    // Portfolios up to this size are re-indexed before answering, which takes a few tens of milliseconds
+    private static final int SYNC_BUILD_LIMIT = 50_000;
+
+    // Index in use, whether a newer one is being built, and the matches of the last query
+    private volatile PrefixIndex index;
+    private final AtomicBoolean building = new AtomicBoolean();
+    private PrefixIndex.Matches previous;
+
+    /**
+     * Finds the investments whose symbol starts with the symbol prefix and whose name has a keyword
+     * starting with each of the keyword prefixes, ignoring case.
+     *
+     * @param symbol   The symbol prefix, or blank for any symbol.
+     * @param keywords The name keyword prefixes, or blank for any name.
+     * @param minPrice The minimum price, or null.
+     * @param maxPrice The maximum price, or null.
+     * @return The matching investments, in the order they were added.
+     */
+    public synchronized Result search(String symbol, String keywords, Double minPrice, Double maxPrice)
+    {
+        // Re-index small portfolios now and large ones in the background
+        PortfolioSnapshot current = Investment.snapshot();
+        PrefixIndex searched = index;
+        if (searched == null || (searched.snapshot().getVersion() != current.getVersion() && current.size() <= SYNC_BUILD_LIMIT))
+        {
+            searched = index = PrefixIndex.build(current);
+        }
+        else if (searched.snapshot().getVersion() != current.getVersion())
+        {
+            rebuild();
+        }
+
+        // Run the query, narrowing the last matches when it extends them
+        previous = searched.search(symbol, keywords, minPrice, maxPrice, previous);
+        return new Result(previous);
+    }
+
+    /**
+     * Forgets the last query, so the next one starts from the whole portfolio.
+     */
+    public synchronized void reset()
+    {
+        previous = null;
+    }
+
+    /*
+     * Builds an index of the current snapshot on the service threads, unless one is already being built.
+     */
+    private void rebuild()
+    {
+        if (!building.compareAndSet(false, true)) return;
+        PortfolioService.execute(() ->
+        {
+            try
+            {
+                index = PrefixIndex.build(Investment.snapshot());
+            }
+            finally
+            {
+                building.set(false);
+            }
+        });
+    }
+
+    /**
+     * The Result class holds the investments matching one query.
+     */
+    public static final class Result
+    {
+        // Matches of the query
+        private final PrefixIndex.Matches matches;
+
+        // Constructor
+        private Result(PrefixIndex.Matches matches)
+        {
+            this.matches = matches;
+        }
+
+        /**
+         * Returns the matching investments as a list read from the index without copying.
+         *
+         * @return Read-only copies of the matching investments.
+         */
+        public List<Investment> getInvestments()
+        {
+            return new Investments(matches);
+        }
+
+        /**
+         * Returns the number of matching investments.
+         *
+         * @return The number of matches.
+         */
+        public int size()
+        {
+            return matches.size();
+        }
+
+        /**
+         * Reports whether the query was answered by narrowing the previous query's matches.
+         *
+         * @return True if the previous matches were filtered.
+         */
+        public boolean isRefined()
+        {
+            return matches.isRefined();
+        }
+
+        /**
+         * Reports whether the matches describe the current portfolio, rather than a snapshot
+         * from before a change that is still being indexed.
+         *
+         * @return True if no change has been made since the searched snapshot.
+         */
+        public boolean isCurrent()
+        {
+            return matches.snapshot().isCurrent();
+        }
+    }
+
+    /*
+     * List view of matches.
+     */
+    private static final class Investments extends AbstractList<Investment> implements RandomAccess
+    {
+        // Matches viewed
+        private final PrefixIndex.Matches matches;
+
+        // Constructor
+        Investments(PrefixIndex.Matches matches)
+        {
+            this.matches = matches;
+        }
+
+        @Override
+        public Investment get(int index)
+        {
+            return matches.get(index);
+        }
+
+        @Override
+        public int size()
+        {
+            return matches.size();
+        }
+    }
+}
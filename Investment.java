@@ -3,12 +3,23 @@ package ePortfolio;
 
 // Libraries
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 /**
- * The Investment superclass manages the investment portfolio.
- * It supports adding, selling, updating prices, getting total gains, searching, and managing stocks and mutual funds.
+ * The Investment superclass is one holding of a portfolio, a stock or a mutual fund.
+ * Its static methods add, sell, update prices, get total gains and search on the default portfolio
+ * (see Portfolio, which owns the holdings and does the work; other portfolios are used directly).
+ * 
+ * Prices, book values and every amount derived from them are held in micros as longs and computed
+ * with Money, so they carry no floating-point drift however many trades a holding sees; the
+ * double getters and the methods taking double prices convert at the edge.
+ * 
+ * Each purchase of a symbol already held opens a new tax lot (see TaxLots), and a sale takes its
+ * units from the lots by average cost, FIFO, LIFO or named lots. A holding bought only once keeps
+ * no lot columns at all: it is a single lot numbered 1.
+ * 
+ * The portfolio methods are thread-safe; a live investment belongs to one portfolio and is only
+ * changed under its lock stripes, while the read-only copies in snapshots can be shared freely.
  * 
  * @author Markus Gavra
  * @version 3.0
@@ -17,16 +28,24 @@ import java.util.List;
 
 public abstract class Investment 
 {
-    // Attributes for each investment
+    // Attributes for each investment; price and book value are in micros
     protected String symbol;
     protected String name;
     protected int quantity;
-    protected double price;
-    protected double bookValue;
+    protected long price;
+    protected long bookValue;
+
+    // Tax lots of the holding, or null while it is a single lot holding every unit at the book value
+    TaxLots lots;
 
-    // Static list of all investments and a keyword index for searching
-    private static final ArrayList<Investment> investmentList = new ArrayList<>();
-    private static final HashMap<String, List<Integer>> keywordIndex = new HashMap<>();
+    // Stable ID assigned when the investment joins a portfolio (-1 until then)
+    int id = -1;
+
+    // Set on the read-only copies handed out by snapshots
+    boolean readOnly;
+
+    // For a live investment, the read-only copy of its state in the current snapshot (null once sold out)
+    Investment published;
 
     // Constructor
     public Investment(String symbol, String name, int quantity, double price) 
@@ -34,8 +53,8 @@ public abstract class Investment
         this.symbol = symbol;
         this.name = name;
         this.quantity = quantity;
-        this.price = price;
-        this.bookValue = calculateBookValue(quantity, price);
+        this.price = Money.of(price);
+        this.bookValue = calculateBookValue(quantity, this.price);
     }
 
     // Copy constructor for Investment
@@ -46,12 +65,14 @@ public abstract class Investment
         this.quantity = other.quantity;
         this.price = other.price;
         this.bookValue = other.bookValue;
+        this.lots = other.lots;
+        this.id = other.id;
     }
 
-    // Abstract method for calculating book value
-    protected abstract double calculateBookValue(int quantity, double price);
-    public abstract double calculatePayment(int quantity, double price);
-    public abstract double calculateGain(int quantity, double payment);
+    // Abstract methods for calculating book value, payment and gain, all in micros
+    protected abstract long calculateBookValue(int quantity, long price);
+    public abstract long calculatePayment(int quantity, long price);
+    public abstract long calculateGain(int quantity, long payment);
 
     // Getters and setters
     public String getSymbol() 
@@ -61,6 +82,7 @@ public abstract class Investment
     
     public void setSymbol(String symbol) 
     { 
+        checkWritable();
         this.symbol = symbol; 
     }
 
@@ -71,6 +93,7 @@ public abstract class Investment
     
     public void setName(String name) 
     { 
+        checkWritable();
         this.name = name; 
     }
 
@@ -81,28 +104,124 @@ public abstract class Investment
 
     public void setQuantity(int quantity) 
     { 
+        checkWritable();
         this.quantity = quantity; 
     }
 
     public double getPrice() 
     { 
-        return price; 
+        return Money.toDouble(price); 
     }
 
     public void setPrice(double price) 
     { 
+        setPriceMicros(Money.of(price));
+    }
+
+    public long getPriceMicros() 
+    { 
+        return price; 
+    }
+
+    public void setPriceMicros(long price) 
+    { 
+        checkWritable();
         this.price = price; 
     }
 
     public double getBookValue() 
     { 
-        return bookValue; 
+        return Money.toDouble(bookValue); 
     }
     public void setBookValue(double bookValue) 
     { 
+        setBookValueMicros(Money.of(bookValue));
+    }
+
+    public long getBookValueMicros() 
+    { 
+        return bookValue; 
+    }
+
+    public void setBookValueMicros(long bookValue) 
+    { 
+        checkWritable();
         this.bookValue = bookValue; 
     }
 
+    /**
+     * Returns the market value of the investment, its price times its quantity.
+     *
+     * @return The market value in micros.
+     */
+    public long getMarketValueMicros() 
+    { 
+        return Money.times(price, quantity); 
+    }
+
+    /**
+     * Returns the tax lots of the investment.
+     * The lot costs add up to the book value, less any cost pooled by average-cost sales, which is
+     * shared evenly by every unit and taken out pro rata whichever lots a later sale uses.
+     *
+     * @return The lots, oldest first.
+     */
+    public TaxLots getLots() 
+    { 
+        return lots != null ? lots : TaxLots.of(quantity, bookValue); 
+    }
+
+    /*
+     * Returns the tax lots as stored, or null while the investment is a single lot.
+     */
+    TaxLots storedLots() 
+    { 
+        return lots; 
+    }
+
+    /*
+     * Replaces the tax lots of the investment, as read back from storage; null makes it a single lot.
+     */
+    void setLots(TaxLots lots) 
+    { 
+        checkWritable();
+        if (lots != null && lots.getQuantity() != quantity) throw new IllegalArgumentException("Tax lots do not match the quantity held.");
+        this.lots = lots; 
+    }
+
+    /*
+     * Returns the book value left on the units that remain after selling some, rounded once to the micro.
+     * The book value of the units sold is the rest, so the two always add up to the book value before the sale.
+     */
+    long remainingBookValue(int quantitySold) 
+    { 
+        return Money.prorate(bookValue, quantity - quantitySold, quantity, Money.ROUNDING); 
+    }
+
+    /*
+     * Returns the stable ID of the investment, or -1 if it was never added to the portfolio.
+     */
+    int getId() 
+    { 
+        return id; 
+    }
+
+    /*
+     * Rejects changes to the read-only copies held by snapshots.
+     */
+    private void checkWritable() 
+    {
+        if (readOnly) throw new UnsupportedOperationException("Snapshot investments are read-only.");
+    }
+
+    /*
+     * Makes a plain copy of an investment, keeping its type.
+     */
+    static Investment copyOf(Investment investment) 
+    {
+        return investment instanceof Stock ? new Stock((Stock) investment) : new MutualFund((MutualFund) investment);
+    }
+
     /*
      * Overridden equals method to compare two investments based on their attributes.
      */
@@ -115,8 +234,8 @@ public abstract class Investment
         Investment that = (Investment) other;
 
         return quantity == that.quantity &&
-               Double.compare(that.price, price) == 0 &&
-               Double.compare(that.bookValue, bookValue) == 0 &&
+               that.price == price &&
+               that.bookValue == bookValue &&
                symbol.equalsIgnoreCase(that.symbol) &&
                name.equalsIgnoreCase(that.name);
     }
@@ -128,125 +247,74 @@ public abstract class Investment
     public String toString() 
     {
         return String.format(
-            "Current Investment Details:\nType: %s\nSymbol: %s\nName: %s\nQuantity: %d\nPrice: $%.2f\nBook Value: $%.2f\n",
+            "Current Investment Details:\nType: %s\nSymbol: %s\nName: %s\nQuantity: %d\nPrice: $%.2f\nBook Value: $%.2f\nTax Lots: %d (numbered up to #%d)\n",
             this.getClass().getSimpleName(),
             symbol,
             name,
             quantity,
-            price,
-            bookValue
+            getPrice(),
+            getBookValue(),
+            lots != null ? lots.size() : 1,
+            lots != null ? lots.getNextId() - 1 : 1
         );
     }
 
+
     /**
-     * Adds a new investment to the portfolio.
-     * If an investment with the same symbol exists, updates its quantity and book value.
+     * Converts a validated positive price to micros, reporting prices too large to hold as invalid.
      *
-     * @param type     The type of investment (Stock or Mutual Fund).
-     * @param symbol   The investment symbol.
-     * @param name     The investment name.
-     * @param quantity The investment quantity.
-     * @param price    The investment price per unit.
-     * @return A message indicating the result of the operation.
+     * @param price The price in dollars.
+     * @return The price in micros.
+     * @throws IllegalArgumentException If the price does not fit in a long number of micros.
      */
-    public static String addInvestment(String type, String symbol, String name, int quantity, double price) 
+    static long micros(double price) 
     {
-        // Validate symbol, name, quantity, and price
-        if (symbol == null || symbol.isEmpty()) 
-        {
-            // Return an error message if the symbol is empty
-            throw new IllegalArgumentException("Symbol cannot be empty.");
-        }
-
-        if (name == null || name.isEmpty()) 
+        try 
         {
-            // Return an error message if the name is empty
-            throw new IllegalArgumentException("Name cannot be empty.");
-        }
-
-        if (quantity <= 0) 
+            return Money.of(price);
+        } 
+        catch (ArithmeticException e) 
         {
-            // Return an error message if the quantity is not positive
-            throw new IllegalArgumentException("Quantity must be greater than zero.");
+            throw new IllegalArgumentException("Price is too large.");
         }
+    }
 
-        if (price <= 0) 
+    /**
+     * Checks that a trade's value, with any fee, fits in a long number of micros.
+     *
+     * @param price    The price per unit in micros.
+     * @param quantity The number of units traded.
+     * @throws IllegalArgumentException If the trade value is too large.
+     */
+    static void checkValue(long price, int quantity) 
+    {
+        try 
         {
-            // Return an error message if the price is not positive
-            throw new IllegalArgumentException("Price must be greater than zero.");
-        }
-    
-        // Check if the investment already exists
-        for (Investment investment : investmentList) 
+            Money.add(Money.times(price, quantity), Math.max(Stock.COMMISSION_FEE, MutualFund.REDEMPTION_FEE));
+        } 
+        catch (ArithmeticException e) 
         {
-            // Update existing investment if the symbol matches
-            if (investment.getSymbol().equalsIgnoreCase(symbol)) 
-            {
-                // Update stock investment
-                if (investment instanceof Stock) 
-                {
-                    // Stock-specific commission fee
-                    double commissionFee = 9.99; 
-                    double additionalBookValue = (quantity * price) + commissionFee;
-                    investment.setQuantity(investment.getQuantity() + quantity);
-                    investment.setBookValue(investment.getBookValue() + additionalBookValue);
-                    
-                    // Return success message and display the updated investment
-                    return "Existing investment updated successfully.\n\n" + investment;
-                } 
-
-                // Update mutualfund investment
-                else if (investment instanceof MutualFund)
-                {
-                    // Mutual fund does not have a commission fee
-                    double additionalBookValue = (quantity * price);
-                    investment.setQuantity(investment.getQuantity() + quantity);
-                    investment.setBookValue(investment.getBookValue() + additionalBookValue);
-                    
-                    // Return success message and display the updated investment
-                    return "Existing investment updated successfully.\n\n" + investment;
-                }
-            }
+            throw new IllegalArgumentException("Trade value is too large.");
         }
-    
-        // Create and add a new investment
-        Investment newInvestment = switch (type.toLowerCase()) 
-        {
-            // Create a new investment based on the type
-            case "stock" -> new Stock(symbol, name, quantity, price);
-            case "mutual fund" -> new MutualFund(symbol, name, quantity, price);
-            default -> null;
-        };
-        
-        // Return an error message if the investment type is invalid
-        if (newInvestment == null) return "Invalid investment type.";
-    
-        // Add the new investment to the list
-        investmentList.add(newInvestment);
-        updateKeywordIndex(newInvestment, investmentList.size() - 1);
-    
-        // Return success message and display the new investment
-        return "New investment added successfully.\n\n" + newInvestment;
     }
-    
 
     /**
-     * Updates the keyword index for a newly added investment.
+     * Adds an investment to the default portfolio, as Portfolio.addInvestment does.
+     *
+     * @param type     The type of investment (Stock or Mutual Fund).
+     * @param symbol   The investment symbol.
+     * @param name     The investment name.
+     * @param quantity The investment quantity.
+     * @param price    The investment price per unit.
+     * @return A message indicating the result of the operation.
      */
-    private static void updateKeywordIndex(Investment investment, int position) 
+    public static String addInvestment(String type, String symbol, String name, int quantity, double price) 
     {
-        // Split the investment name into keywords
-        String[] keywords = investment.getName().toLowerCase().split("\\s+");
-        
-        // Add each keyword to the index
-        for (String keyword : keywords) 
-        {
-            keywordIndex.computeIfAbsent(keyword, k -> new ArrayList<>()).add(position);
-        }
+        return Portfolio.getDefault().addInvestment(type, symbol, name, quantity, price);
     }
 
     /**
-     * Sells an investment from the portfolio.
+     * Sells an investment from the default portfolio at average cost, as Portfolio.sellInvestment does.
      *
      * @param symbol   The symbol of the investment to sell.
      * @param quantity The quantity of the investment to sell.
@@ -255,264 +323,200 @@ public abstract class Investment
      */
     public static String sellInvestment(String symbol, int quantityToSell, double price) 
     {
-        // Validate symbol, quantity, and price
-        if (symbol == null || symbol.isEmpty()) 
-        {
-            // Return an error message if the symbol is empty
-            throw new IllegalArgumentException("Symbol cannot be empty.");
-        }
-
-        if (quantityToSell <= 0) 
-        {
-            // Return an error message if the quantity to sell is not positive
-            throw new IllegalArgumentException("Quantity to sell must be greater than zero.");
-        }
-
-        if (price <= 0) 
-        {
-            // Return an error message if the price is not positive
-            throw new IllegalArgumentException("Price must be greater than zero.");
-        }
-
-        // Search for the investment with the given symbol
-        Investment investmentToSell = null;
-        for (Investment investment : investmentList) 
-        {
-            // Find the investment with the matching symbol
-            if (investment.getSymbol().equalsIgnoreCase(symbol)) 
-            {
-                // Set the investment to sell
-                investmentToSell = investment;
-                break;
-            }
-        }
-
-        // If no matching investment is found, return an error message
-        if (investmentToSell == null) 
-        {
-            // Return an error message if the investment is not found
-            throw new IllegalArgumentException("Investment with symbol '" + symbol + "' not found.");
-        }
-
-        // Check if the quantity is valid
-        if (quantityToSell <= 0) 
-        {
-            // Return an error message if the quantity to sell is not positive
-            throw new IllegalArgumentException("Error: Quantity to sell must be a positive number.");
-        }
-
-        if (quantityToSell > investmentToSell.getQuantity()) 
-        {
-            // Return an error message if the quantity to sell is more than the available quantity
-            throw new IllegalArgumentException("Not enough quantity available to sell.");
-        }
-
-        // Update the investment's price before proceeding with the sale
-        investmentToSell.setPrice(price);
-
-        // Calculate payment and gain
-        double payment = investmentToSell.calculatePayment(quantityToSell, price);
-        double gain = investmentToSell.calculateGain(quantityToSell, payment);
-
-        // Update the investment's quantity and book value
-        int remainingQuantity = investmentToSell.getQuantity() - quantityToSell;
-
-        if (remainingQuantity == 0) 
-        {
-            // Remove the investment from the portfolio if all shares/units are sold
-            investmentList.remove(investmentToSell);
-            return String.format(
-                "Sale completed. All units sold. Payment: $%.2f, Gain: $%.2f. \n\n Investment removed from the portfolio.\n\n",
-                payment, gain
-            );
-        } 
-
-        else 
-        {
-            // Update the investment's quantity
-            investmentToSell.setQuantity(remainingQuantity);
+        return Portfolio.getDefault().sellInvestment(symbol, quantityToSell, price);
+    }
 
-            // Update the book value proportionally
-            double newBookValue = investmentToSell.getBookValue() * remainingQuantity / (remainingQuantity + quantityToSell);
-            investmentToSell.setBookValue(newBookValue);
+    /**
+     * Sells an investment from the default portfolio by a tax lot method, as Portfolio.sellInvestment does.
+     *
+     * @param symbol   The symbol of the investment to sell.
+     * @param quantity The quantity of the investment to sell.
+     * @param price    The price at which to sell the investment.
+     * @param method   AVERAGE_COST, FIFO or LIFO; specific lots are sold by naming them.
+     * @return A message indicating the result of the operation.
+     */
+    public static String sellInvestment(String symbol, int quantityToSell, double price, TaxLots.Method method) 
+    {
+        return Portfolio.getDefault().sellInvestment(symbol, quantityToSell, price, method);
+    }
 
-            return String.format(
-                "Sale completed. Payment: $%.2f, Gain: $%.2f. Remaining units: %d\n\n%s",
-                payment, gain, remainingQuantity, investmentToSell.toString()
-            );
-        }
+    /**
+     * Sells an investment from the named tax lots of the default portfolio, as Portfolio.sellInvestment does.
+     *
+     * @param symbol   The symbol of the investment to sell.
+     * @param quantity The quantity of the investment to sell.
+     * @param price    The price at which to sell the investment.
+     * @param lotIds   The numbers of the lots to sell from.
+     * @return A message indicating the result of the operation.
+     */
+    public static String sellInvestment(String symbol, int quantityToSell, double price, int[] lotIds) 
+    {
+        return Portfolio.getDefault().sellInvestment(symbol, quantityToSell, price, lotIds);
     }
 
     /**
-     * Updates the prices of investments interactively.
-     * Enables navigation through investments and allows the user to update the price of each investment.
-     * 
-     * @param index The index of the investment to be updated.
+     * Updates the price of an investment in the default portfolio, as Portfolio.updatePrices does.
+     *
+     * @param symbol   The investment symbol.
+     * @param name     The investment name.
      * @param newPrice The new price to be set for the investment.
-     * @return A message indicating the result of the operation.
+     * @return A read-only copy of the updated investment.
      */
     public static Investment updatePrices(String symbol, String name, double newPrice) 
     {
-        // Check if the investment list is empty
-        if (investmentList.isEmpty()) 
-        {
-            // Return an error message if the investment list is empty
-            throw new IllegalStateException("No investments available to update.");
-        }
-
-        // Search for the investment matching the symbol and name
-        Investment investmentToUpdate = null;
-        for (Investment investment : investmentList) 
-        {
-            if (investment.getSymbol().equalsIgnoreCase(symbol) && investment.getName().equalsIgnoreCase(name)) 
-            {
-                investmentToUpdate = investment;
-                break;
-            }
-        }
-
-        // Check if the investment was found
-        if (investmentToUpdate == null) 
-        {
-            // Return an error message if the investment is not found
-            throw new IllegalArgumentException(String.format("No investment found with Symbol: %s and Name: %s.", symbol, name));
-        }
-
-        // Validate the new price
-        if (newPrice <= 0) 
-        {
-            // Return an error message if the price is not positive
-            throw new IllegalArgumentException("Price must be a positive number.");
-        }
+        return Portfolio.getDefault().updatePrices(symbol, name, newPrice);
+    }
 
-        // Update the price of the investment
-        investmentToUpdate.setPrice(newPrice);
+    /**
+     * Applies a batch of price ticks to the default portfolio, as Portfolio.updatePrices does.
+     *
+     * @param batch The price ticks to apply.
+     * @return The numbers of applied, unknown, superseded and rejected ticks.
+     */
+    public static PriceBatch.Result updatePrices(PriceBatch batch) 
+    {
+        return Portfolio.getDefault().updatePrices(batch);
+    }
 
-        // Return the updated investment
-        return investmentToUpdate;
+    /**
+     * Applies a batch of buys and sells to the default portfolio, as Portfolio.applyTrades does.
+     *
+     * @param batch The trades to apply.
+     * @return The number of trades applied.
+     */
+    public static int applyTrades(TradeBatch batch) 
+    {
+        return Portfolio.getDefault().applyTrades(batch);
     }
 
     /**
-     * Retrieves the investment at the specified index for displaying its details.
+     * Retrieves the investment at the specified index of the default portfolio.
      * 
      * @param index The index of the investment.
-     * @return The investment at the specified index, or null if the index is invalid.
+     * @return A read-only copy of the investment at the specified index, or null if the index is invalid.
      */
     public static Investment getInvestmentAtIndex(int index) 
     {
-        // Check if the index is valid
-        if (index < 0 || index >= investmentList.size()) 
-        {
-            // Return null if the index is invalid
-            System.err.println("Invalid index: " + index + ". Index must be between 0 and " + (investmentList.size() - 1));
-            return null;
-        }
-
-        // Return the investment at the specified index
-        return investmentList.get(index);
+        return Portfolio.getDefault().getInvestmentAtIndex(index);
     }
 
     /**
-     * Calculates the total gain for the investment portfolio.
+     * Calculates the total gain of the default portfolio.
      *
      * @return The total gain for the investment portfolio.
      */
     public static double calculateTotalGain() 
     {
-        // Initialize total gain
-        double totalGain = 0.0;
-        
-        // Calculate the total gain for each investment
-        for (Investment investment : investmentList) 
-        {
-            // Calculate the gain for each investment
-            double gain = (investment.getPrice() * investment.getQuantity()) - investment.getBookValue();
-            totalGain += gain;
-        }
-        
-        // Return the total gain for the investment portfolio
-        return totalGain;
+        return Portfolio.getDefault().calculateTotalGain();
     }
 
     /**
-     * Searches for investments based on criteria such as symbol, keywords, and price range.
+     * Calculates the total gain for one type of investment in the default portfolio.
+     *
+     * @param type The type of investment (Stock or Mutual Fund).
+     * @return The total gain for investments of that type.
+     */
+    public static double calculateTotalGain(String type) 
+    {
+        return Portfolio.getDefault().calculateTotalGain(type);
+    }
+
+    /**
+     * Returns the total market value of the default portfolio.
+     *
+     * @return The total market value.
+     */
+    public static double getTotalMarketValue() 
+    {
+        return Portfolio.getDefault().getTotalMarketValue();
+    }
+
+    /**
+     * Returns the total book value of the default portfolio.
+     *
+     * @return The total book value.
+     */
+    public static double getTotalBookValue() 
+    {
+        return Portfolio.getDefault().getTotalBookValue();
+    }
+
+    /**
+     * Debug check of the default portfolio's running totals, as Portfolio.verifyTotals does.
+     *
+     * @return True if the totals match.
+     * @throws IllegalStateException If a running total has drifted.
+     */
+    public static boolean verifyTotals() 
+    {
+        return Portfolio.getDefault().verifyTotals();
+    }
+
+    /**
+     * Searches the default portfolio, as Portfolio.searchInvestments does.
      *
      * @param symbol     The symbol to search for.
      * @param nameKeywords The keywords to search for in the investment name.
      * @param minPrice   The minimum price for filtering.
      * @param maxPrice   The maximum price for filtering.
-     * @return A list of investments matching the search criteria.
+     * @return A list of read-only copies of the investments matching the search criteria.
      */
     public static List<Investment> searchInvestments(String symbol, String nameKeywords, Double minPrice, Double maxPrice) 
     {
-        // Validate the search criteria
-        if (minPrice != null && minPrice < 0) 
-        {
-            // Return an error message if the minimum price is negative
-            throw new IllegalArgumentException("Minimum price cannot be negative.");
-        }
-
-        if (maxPrice != null && maxPrice < 0) 
-        {
-            // Return an error message if the maximum price is negative
-            throw new IllegalArgumentException("Maximum price cannot be negative.");
-        }
-
-        if (minPrice != null && maxPrice != null && minPrice > maxPrice) 
-        {
-            // Return an error message if the minimum price is greater than the maximum price
-            throw new IllegalArgumentException("Minimum price cannot be greater than maximum price.");
-        }
+        return Portfolio.getDefault().searchInvestments(symbol, nameKeywords, minPrice, maxPrice);
+    }
 
-        // Create a list to store the search results
-        List<Investment> results = new ArrayList<>();
+    /**
+     * Static method to get a defensive copy of the default portfolio's investment list.
+     * Copies every investment; use snapshot() for cheap read-only access.
+     */
+    public static ArrayList<Investment> getInvestments() 
+    {
+        return Portfolio.getDefault().getInvestments();
+    }
 
-        // Iterate over all investments and filter based on search criteria
-        for (Investment investment : investmentList) 
-        {
-            // Check if the investment matches the search criteria
-            boolean matchesSymbol = symbol.isEmpty() || investment.getSymbol().equalsIgnoreCase(symbol);
-            boolean matchesKeywords = nameKeywords.isEmpty() || investment.getName().toLowerCase().contains(nameKeywords.toLowerCase());
-            boolean matchesPrice = (minPrice == null || investment.getPrice() >= minPrice) && (maxPrice == null || investment.getPrice() <= maxPrice);
-
-            // Add the investment to the results if it matches all criteria
-            if (matchesSymbol && matchesKeywords && matchesPrice) 
-            {
-                // Add the investment to the search results
-                results.add(investment);
-            }
-        }
+    /**
+     * Loads saved holdings into the default portfolio, as Portfolio.loadPortfolio does.
+     *
+     * @param investments The holdings to load, such as an open PortfolioFile.
+     * @return The number of holdings loaded.
+     * @throws IllegalStateException If the portfolio already holds investments.
+     * @throws IllegalArgumentException If two holdings share a symbol.
+     * @throws RuntimeException Whatever reading the holdings throws; the portfolio is left empty.
+     */
+    public static int loadPortfolio(Iterable<Investment> investments) 
+    {
+        return Portfolio.getDefault().loadPortfolio(investments);
+    }
 
-        // Return the list of search results
-        return results;
+    /**
+     * Returns an immutable snapshot of the default portfolio.
+     *
+     * @return The snapshot of the current portfolio version.
+     */
+    public static PortfolioSnapshot snapshot() 
+    {
+        return Portfolio.getDefault().snapshot();
     }
 
     /**
-     * Static method to get a defensive copy of the investment list.
+     * Returns the publisher of the default portfolio's changes, as Portfolio.events does.
+     *
+     * @return The publisher.
      */
-    public static ArrayList<Investment> getInvestments() 
+    public static PortfolioEvents events() 
     {
-        // Create a new list and copy each investment to the new list
-        ArrayList<Investment> copyList = new ArrayList<>();
-        
-        // Copy each investment to the new list
-        for (Investment investment : investmentList) 
-        {
-            // Copy stock investments
-            if (investment instanceof Stock) 
-            {
-                copyList.add(new Stock((Stock) investment));
-            } 
-            
-            // Copy mutual fund investments
-            else if (investment instanceof MutualFund) 
-            {
-                copyList.add(new MutualFund((MutualFund) investment));
-            }
-        }
+        return Portfolio.getDefault().events();
+    }
 
-        // Return the copied list
-        return copyList;
+    /**
+     * Returns the current version of the default portfolio.
+     *
+     * @return The version number.
+     */
+    public static long getVersion() 
+    {
+        return Portfolio.getDefault().getVersion();
     }
 
     /**
@@ -520,8 +524,8 @@ public abstract class Investment
      */
     public static class Stock extends Investment 
     {
-        // Constants
-        private static final double COMMISSION_FEE = 9.99;
+        // Constants, in micros
+        static final long COMMISSION_FEE = 9_990_000;
 
         // Constructor
         public Stock(String symbol, String name, int quantity, double price) 
@@ -539,28 +543,28 @@ public abstract class Investment
          * Calculate the book value for stock investments.
          */
         @Override
-        protected double calculateBookValue(int quantity, double price) 
+        protected long calculateBookValue(int quantity, long price) 
         {
-            return quantity * price + COMMISSION_FEE;
+            return Money.add(Money.times(price, quantity), COMMISSION_FEE);
         }
 
         /*
          * Calculate the payment for selling stock investments.
          */
         @Override
-        public double calculatePayment(int quantity, double price) 
+        public long calculatePayment(int quantity, long price) 
         {
-            double sellingFee = 9.99; // Stock-specific selling fee
-            return (price * quantity) - sellingFee;
+            long sellingFee = COMMISSION_FEE; // Stock-specific selling fee
+            return Money.subtract(Money.times(price, quantity), sellingFee);
         }
 
         /*
          * Calculate the gain for selling stock investments.
          */
         @Override
-        public double calculateGain(int quantity, double payment) 
+        public long calculateGain(int quantity, long payment) 
         {
-            return payment - (this.bookValue * quantity / this.quantity);
+            return Money.subtract(payment, this.bookValue - remainingBookValue(quantity));
         }
 
         /*
@@ -578,6 +582,9 @@ public abstract class Investment
      */
     public static class MutualFund extends Investment 
     {
+        // Constants, in micros
+        static final long REDEMPTION_FEE = 45_000_000;
+
         // Constructor
         public MutualFund(String symbol, String name, int quantity, double price) 
         {
@@ -594,28 +601,28 @@ public abstract class Investment
          * Calculate the book value for mutual fund investments.
          */
         @Override
-        protected double calculateBookValue(int quantity, double price) 
+        protected long calculateBookValue(int quantity, long price) 
         {
-            return quantity * price;
+            return Money.times(price, quantity);
         }
 
         /*
          * Calculate the payment for selling mutual fund investments.
          */
         @Override
-        public double calculatePayment(int quantity, double price) 
+        public long calculatePayment(int quantity, long price) 
         {
-            double sellingFee = 45.00; // MutualFund-specific selling fee
-            return (price * quantity) - sellingFee;
+            long sellingFee = REDEMPTION_FEE; // MutualFund-specific selling fee
+            return Money.subtract(Money.times(price, quantity), sellingFee);
         }
 
         /*
          * Calculate the gain for selling mutual fund investments.
          */
         @Override
-        public double calculateGain(int quantity, double payment) 
+        public long calculateGain(int quantity, long payment) 
         {
-            return payment - (this.bookValue * quantity / this.quantity);
+            return Money.subtract(payment, this.bookValue - remainingBookValue(quantity));
         }
 
         /*
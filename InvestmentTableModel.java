@@ -0,0 +1,349 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * The InvestmentTableModel class is a TableModel over a list of investments that builds nothing per row.
+ * A JTable only asks for the cells it paints, so each visible cell is read straight from the
+ * investment when it is shown, and opening a view on a portfolio snapshot costs the same however
+ * many holdings it has. Sorting by a column keeps one int per row mapping table rows to list
+ * positions; the totals of every row are kept separately for a footer that stays in view.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class InvestmentTableModel extends AbstractTableModel
+{
+    /**
+     * The columns of the table.
+     */
+    public static final int TYPE = 0, SYMBOL = 1, NAME = 2, QUANTITY = 3, PRICE = 4, BOOK_VALUE = 5, MARKET_VALUE = 6, GAIN = 7;
+
+    // Most changed rows to tell the table about one by one
+    private static final int ROW_UPDATE_LIMIT = 256;
+
+    // Column headings and the class of each column's values
+    private static final String[] COLUMN_NAMES = {"Type", "Symbol", "Name", "Quantity", "Price", "Book Value", "Market Value", "Gain"};
+    private static final Class<?>[] COLUMN_CLASSES = {String.class, String.class, String.class, Integer.class, Double.class, Double.class, Double.class, Double.class};
+
+    // Investments shown, the same rows as a snapshot view when they come from one, the table row to
+    // list position mapping when sorted and its inverse, and the totals of every row in micros
+    private List<Investment> rows = List.of();
+    private SnapshotRows snapshotRows;
+    private int[] order;
+    private int[] rowOf;
+    private long bookValue, marketValue;
+
+    // Last row read, since a row's cells are asked for one after another
+    private int cachedRow = -1;
+    private Investment cachedInvestment;
+
+    /**
+     * Shows every investment in a snapshot, in the order they were added.
+     * Rows are read from the snapshot as they are painted and the totals are the snapshot's own,
+     * so this takes the same time and memory for any size of portfolio.
+     *
+     * @param snapshot The snapshot to show.
+     */
+    public void show(PortfolioSnapshot snapshot)
+    {
+        SnapshotRows view = new SnapshotRows(snapshot);
+        setRows(view, snapshot.getTotalBookValueMicros(), snapshot.getTotalMarketValueMicros());
+        snapshotRows = view;
+    }
+
+    /**
+     * Brings rows shown from an earlier snapshot up to a later one, telling the table only about the
+     * rows that changed, so a price tick repaints one row and the totals. Rows keep their place,
+     * even when sorted by a column whose values changed, until the rows are next sorted or shown.
+     *
+     * @param snapshot The later snapshot.
+     * @param events   The changes since the rows were shown.
+     * @return True if the rows were updated; false if they did not come from a snapshot or holdings
+     *         joined or left by the later snapshot, in which case the caller shows it instead.
+     */
+    public boolean update(PortfolioSnapshot snapshot, List<PortfolioEvent> events)
+    {
+        // Holdings joining or leaving move rows, so only changes in place are applied here. The later
+        // snapshot can be ahead of the events, so its layout is checked as well as theirs: a holding
+        // removed and another added since would keep the size but shift the positions
+        if (snapshotRows == null || snapshot.getLayoutVersion() != snapshotRows.snapshot.getLayoutVersion()) return false;
+        for (PortfolioEvent event : events)
+        {
+            if (event.getKind() == PortfolioEvent.Kind.ADDED || event.getKind() == PortfolioEvent.Kind.REMOVED) return false;
+        }
+
+        // Read the same positions from the later snapshot, with its totals; the rows stay the same
+        // list, so a sort being worked out for them still applies
+        snapshotRows.snapshot = snapshot;
+        bookValue = snapshot.getTotalBookValueMicros();
+        marketValue = snapshot.getTotalMarketValueMicros();
+        cachedRow = -1;
+        cachedInvestment = null;
+
+        // Repaint the rows that changed, or everything in view when that is cheaper than finding them
+        if (events.size() > ROW_UPDATE_LIMIT)
+        {
+            fireTableRowsUpdated(0, rows.size() - 1);
+            return true;
+        }
+        for (PortfolioEvent event : events)
+        {
+            int position = snapshot.indexOf(event.getId());
+            if (position < 0) continue;
+            int row = rowOf == null ? position : rowOf[position];
+            fireTableRowsUpdated(row, row);
+        }
+        return true;
+    }
+
+    /**
+     * Shows a list of investments, such as search results, in list order.
+     *
+     * @param investments The investments to show.
+     */
+    public void show(List<Investment> investments)
+    {
+        // Add up the totals of the listed investments
+        long book = 0, market = 0;
+        for (Investment investment : investments)
+        {
+            book = Money.add(book, investment.getBookValueMicros());
+            market = Money.add(market, investment.getMarketValueMicros());
+        }
+        setRows(investments, book, market);
+    }
+
+    /*
+     * Replaces the rows and totals, dropping any sort order, and tells the table.
+     */
+    private void setRows(List<Investment> investments, long book, long market)
+    {
+        rows = investments;
+        snapshotRows = null;
+        order = null;
+        rowOf = null;
+        bookValue = book;
+        marketValue = market;
+        cachedRow = -1;
+        cachedInvestment = null;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Returns the investments shown, in list order.
+     *
+     * @return The investments.
+     */
+    public List<Investment> getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Works out the order that sorts a list of investments by one column. Ties keep their list order.
+     * This reads every investment, so callers with large lists run it off the event dispatch thread.
+     *
+     * @param investments The investments to sort.
+     * @param column      The column to sort by.
+     * @param ascending   True to sort smallest first.
+     * @return The list position to show in each table row.
+     */
+    public static int[] sortOrder(List<Investment> investments, int column, boolean ascending)
+    {
+        // Read the sort key of every investment once
+        int size = investments.size();
+        int[] order = new int[size];
+        IntBinaryOperator comparator;
+        if (COLUMN_CLASSES[column] == String.class)
+        {
+            String[] keys = new String[size];
+            int i = 0;
+            for (Investment investment : investments)
+            {
+                order[i] = i;
+                keys[i++] = (String) valueOf(investment, column);
+            }
+            comparator = (a, b) -> keys[a].compareToIgnoreCase(keys[b]);
+        }
+        else
+        {
+            double[] keys = new double[size];
+            int i = 0;
+            for (Investment investment : investments)
+            {
+                order[i] = i;
+                keys[i++] = ((Number) valueOf(investment, column)).doubleValue();
+            }
+            comparator = (a, b) -> Double.compare(keys[a], keys[b]);
+        }
+
+        // Sort the positions by their keys, largest first if asked
+        IntBinaryOperator direction = ascending ? comparator : (a, b) -> comparator.applyAsInt(b, a);
+        PositionSort.sort(order, direction);
+        return order;
+    }
+
+    /**
+     * Shows the rows in a sort order from sortOrder, if they are still the rows it was worked out for.
+     *
+     * @param investments The investments the order was worked out for.
+     * @param sorted      The order, or null for list order.
+     * @return True if the order was applied, false if the rows have changed since.
+     */
+    public boolean setOrder(List<Investment> investments, int[] sorted)
+    {
+        // Drop an order worked out for rows no longer shown
+        if (investments != rows) return false;
+
+        order = sorted;
+        rowOf = null;
+        if (sorted != null)
+        {
+            rowOf = new int[sorted.length];
+            for (int row = 0; row < sorted.length; row++) rowOf[sorted[row]] = row;
+        }
+        cachedRow = -1;
+        cachedInvestment = null;
+        fireTableDataChanged();
+        return true;
+    }
+
+    /**
+     * Returns the investment shown in a table row.
+     *
+     * @param row The table row.
+     * @return The investment.
+     */
+    public Investment getInvestment(int row)
+    {
+        // Reuse the last row read
+        if (row != cachedRow)
+        {
+            cachedInvestment = rows.get(order == null ? row : order[row]);
+            cachedRow = row;
+        }
+        return cachedInvestment;
+    }
+
+    /**
+     * Returns the total of a column over every row, for the footer; null where a total has no meaning.
+     *
+     * @param column The column.
+     * @return The column total, or a label or null.
+     */
+    public Object getTotal(int column)
+    {
+        switch (column)
+        {
+            case TYPE:
+                return "Total";
+            case NAME:
+                return String.format("%,d investments", rows.size());
+            case BOOK_VALUE:
+                return Money.toDouble(bookValue);
+            case MARKET_VALUE:
+                return Money.toDouble(marketValue);
+            case GAIN:
+                return Money.toDouble(Money.subtract(marketValue, bookValue));
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * Reads one column's value from an investment.
+     */
+    private static Object valueOf(Investment investment, int column)
+    {
+        switch (column)
+        {
+            case TYPE:
+                return investment.getClass().getSimpleName();
+            case SYMBOL:
+                return investment.getSymbol();
+            case NAME:
+                return investment.getName();
+            case QUANTITY:
+                return investment.getQuantity();
+            case PRICE:
+                return investment.getPrice();
+            case BOOK_VALUE:
+                return investment.getBookValue();
+            case MARKET_VALUE:
+                return Money.toDouble(investment.getMarketValueMicros());
+            default:
+                return Money.toDouble(investment.getMarketValueMicros() - investment.getBookValueMicros());
+        }
+    }
+
+    @Override
+    public int getRowCount()
+    {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount()
+    {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column)
+    {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column)
+    {
+        return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column)
+    {
+        return valueOf(getInvestment(row), column);
+    }
+
+    /*
+     * A snapshot viewed as a list without copying it. Updates swap in a later snapshot with the same
+     * holdings in the same positions, which background sorts reading the list may see midway.
+     */
+    private static final class SnapshotRows extends AbstractList<Investment>
+    {
+        volatile PortfolioSnapshot snapshot;
+
+        SnapshotRows(PortfolioSnapshot snapshot)
+        {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public Investment get(int index)
+        {
+            return snapshot.get(index);
+        }
+
+        @Override
+        public int size()
+        {
+            return snapshot.size();
+        }
+
+        @Override
+        public Iterator<Investment> iterator()
+        {
+            return snapshot.iterator();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import javax.swing.*;
+import javax.swing.table.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+
+/**
+ *  The InvestmentTablePanel class shows investments in a table with a totals row pinned below it.
+ *  The table is backed by an InvestmentTableModel, so only the rows in view are ever read or drawn.
+ *  Clicking a column heading sorts by that column, and clicking it again reverses the order;
+ *  the sort is worked out on the portfolio service threads and kept when new rows are shown.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class InvestmentTablePanel extends JPanel
+{
+    // Arrows added to the heading of the sorted column
+    private static final String ASCENDING = " \u25B2", DESCENDING = " \u25BC";
+
+    // GUI Components
+    private final InvestmentTableModel model = new InvestmentTableModel();
+    private final JTable table;
+    private final JTable totalsTable;
+
+    // Column sorted by, or -1 for the order rows were given in
+    private int sortColumn = -1;
+    private boolean ascending = true;
+
+    // Constructor
+    public InvestmentTablePanel()
+    {
+        // Set the layout for the main panel
+        setLayout(new BorderLayout());
+
+        // Create the table, drawing money with two decimals
+        table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        table.getTableHeader().setReorderingAllowed(false);
+        table.setDefaultRenderer(Double.class, new MoneyRenderer());
+
+        // Sort by a column when its heading is clicked
+        table.getTableHeader().addMouseListener(new MouseAdapter()
+        {
+            @Override
+            public void mouseClicked(MouseEvent e)
+            {
+                int column = table.columnAtPoint(e.getPoint());
+                if (column >= 0) sortBy(table.convertColumnIndexToModel(column));
+            }
+        });
+        JScrollPane scrollPane = new JScrollPane(table, ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+
+        // Create the totals row, sharing the table's columns so their widths stay in line
+        AbstractTableModel totalsModel = new AbstractTableModel()
+        {
+            @Override
+            public int getRowCount()
+            {
+                return 1;
+            }
+
+            @Override
+            public int getColumnCount()
+            {
+                return model.getColumnCount();
+            }
+
+            @Override
+            public Class<?> getColumnClass(int column)
+            {
+                return model.getColumnClass(column);
+            }
+
+            @Override
+            public Object getValueAt(int row, int column)
+            {
+                return model.getTotal(column);
+            }
+        };
+        totalsTable = new JTable(totalsModel, table.getColumnModel());
+        totalsTable.setDefaultRenderer(Double.class, new MoneyRenderer());
+        totalsTable.setFocusable(false);
+        totalsTable.setRowSelectionAllowed(false);
+        totalsTable.setFont(totalsTable.getFont().deriveFont(Font.BOLD));
+        model.addTableModelListener(e -> totalsModel.fireTableDataChanged());
+
+        // Line the totals row up with the table, leaving room for its scroll bar
+        JPanel totalsPanel = new JPanel(new BorderLayout());
+        totalsPanel.add(totalsTable, BorderLayout.CENTER);
+        totalsPanel.setBorder(BorderFactory.createEmptyBorder(0, 1, 1, scrollPane.getVerticalScrollBar().getPreferredSize().width + 1));
+
+        // Add components to the main panel
+        add(scrollPane, BorderLayout.CENTER);
+        add(totalsPanel, BorderLayout.SOUTH);
+    }
+
+    /**
+     * Shows every investment in a portfolio snapshot.
+     *
+     * @param snapshot The snapshot to show.
+     */
+    public void show(PortfolioSnapshot snapshot)
+    {
+        model.show(snapshot);
+        resort();
+    }
+
+    /**
+     * Brings the investments shown from an earlier snapshot up to a later one, repainting only the
+     * rows that changed, or shows the later snapshot if holdings joined or left.
+     *
+     * @param snapshot The later snapshot.
+     * @param events   The changes since the rows were shown.
+     */
+    public void update(PortfolioSnapshot snapshot, List<PortfolioEvent> events)
+    {
+        if (!model.update(snapshot, events)) show(snapshot);
+    }
+
+    /**
+     * Shows a list of investments, such as search results.
+     *
+     * @param investments The investments to show.
+     */
+    public void show(List<Investment> investments)
+    {
+        model.show(investments);
+        resort();
+    }
+
+    /**
+     * Clears the table.
+     */
+    public void clear()
+    {
+        model.show(List.<Investment>of());
+    }
+
+    /*
+     * Method to sort by a column, reversing the order if it is already sorted by it.
+     */
+    private void sortBy(int column)
+    {
+        ascending = column != sortColumn || !ascending;
+        sortColumn = column;
+
+        // Mark the sorted column's heading
+        TableColumnModel columns = table.getColumnModel();
+        for (int i = 0; i < columns.getColumnCount(); i++)
+        {
+            TableColumn tableColumn = columns.getColumn(i);
+            int index = tableColumn.getModelIndex();
+            tableColumn.setHeaderValue(model.getColumnName(index) + (index == sortColumn ? (ascending ? ASCENDING : DESCENDING) : ""));
+        }
+        table.getTableHeader().repaint();
+        resort();
+    }
+
+    /*
+     * Method to work out the current sort order in the background and apply it if the rows have not changed since.
+     */
+    private void resort()
+    {
+        if (sortColumn < 0) return;
+
+        List<Investment> rows = model.getRows();
+        int column = sortColumn;
+        boolean order = ascending;
+        PortfolioService.supply(() -> InvestmentTableModel.sortOrder(rows, column, order))
+            .thenAcceptAsync(sorted ->
+            {
+                // Apply only the latest sort of the rows still shown
+                if (column == sortColumn && order == ascending) model.setOrder(rows, sorted);
+            }, PortfolioService.EDT);
+    }
+
+    /*
+     * Renders money right-aligned with two decimals.
+     */
+    private static class MoneyRenderer extends DefaultTableCellRenderer
+    {
+        // Constructor
+        MoneyRenderer()
+        {
+            setHorizontalAlignment(SwingConstants.RIGHT);
+        }
+
+        @Override
+        protected void setValue(Object value)
+        {
+            setText(value == null ? "" : String.format("%,.2f", (Double) value));
+        }
+    }
+}
@@ -0,0 +1,386 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Json class reads and writes the small JSON documents the headless command line and the HTTP
+ * API exchange. Reading turns a document into maps, lists, strings, longs, doubles, booleans and
+ * nulls; writing appends strings and money amounts straight to a StringBuilder, so answers are
+ * built without any intermediate objects. Money is written from micros as an exact decimal.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+final class Json
+{
+    // Text being parsed and the position of the next character
+    private final String text;
+    private int position;
+
+    // Constructor
+    private Json(String text)
+    {
+        this.text = text;
+    }
+
+    /**
+     * Parses a JSON object.
+     *
+     * @param text The document.
+     * @return The object's members in document order.
+     * @throws IllegalArgumentException If the text is not a single JSON object.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> parseObject(String text)
+    {
+        Json parser = new Json(text);
+        parser.skipSpace();
+        if (!parser.peek('{')) throw new IllegalArgumentException("Expected a JSON object.");
+        Object value = parser.value();
+        parser.skipSpace();
+        if (parser.position != text.length()) throw parser.error("Unexpected text after the object");
+        return (Map<String, Object>) value;
+    }
+
+    /**
+     * Returns a required string member.
+     *
+     * @param object The object.
+     * @param name   The member name.
+     * @return The string.
+     * @throws IllegalArgumentException If the member is missing or not a string.
+     */
+    static String getString(Map<String, Object> object, String name)
+    {
+        Object value = object.get(name);
+        if (!(value instanceof String)) throw new IllegalArgumentException("\"" + name + "\" must be a string.");
+        return (String) value;
+    }
+
+    /**
+     * Returns an optional string member.
+     *
+     * @param object   The object.
+     * @param name     The member name.
+     * @param fallback The value when the member is missing or null.
+     * @return The string.
+     * @throws IllegalArgumentException If the member is not a string.
+     */
+    static String getString(Map<String, Object> object, String name, String fallback)
+    {
+        return object.get(name) == null ? fallback : getString(object, name);
+    }
+
+    /**
+     * Returns a required whole number member that fits in an int.
+     *
+     * @param object The object.
+     * @param name   The member name.
+     * @return The number.
+     * @throws IllegalArgumentException If the member is missing, not a whole number or out of range.
+     */
+    static int getInt(Map<String, Object> object, String name)
+    {
+        Object value = object.get(name);
+        if (!(value instanceof Long) || (Long) value != ((Long) value).intValue()) throw new IllegalArgumentException("\"" + name + "\" must be a whole number.");
+        return ((Long) value).intValue();
+    }
+
+    /**
+     * Returns a required number member.
+     *
+     * @param object The object.
+     * @param name   The member name.
+     * @return The number.
+     * @throws IllegalArgumentException If the member is missing or not a number.
+     */
+    static double getDouble(Map<String, Object> object, String name)
+    {
+        Object value = object.get(name);
+        if (!(value instanceof Number)) throw new IllegalArgumentException("\"" + name + "\" must be a number.");
+        return ((Number) value).doubleValue();
+    }
+
+    /**
+     * Returns an optional array of whole numbers.
+     *
+     * @param object The object.
+     * @param name   The member name.
+     * @return The numbers, or null when the member is missing or null.
+     * @throws IllegalArgumentException If the member is not an array of whole numbers that fit in an int.
+     */
+    static int[] getIntArray(Map<String, Object> object, String name)
+    {
+        Object value = object.get(name);
+        if (value == null) return null;
+        if (!(value instanceof List)) throw new IllegalArgumentException("\"" + name + "\" must be an array of whole numbers.");
+        List<?> list = (List<?>) value;
+        int[] numbers = new int[list.size()];
+        for (int i = 0; i < numbers.length; i++)
+        {
+            Object element = list.get(i);
+            if (!(element instanceof Long) || (Long) element != ((Long) element).intValue()) throw new IllegalArgumentException("\"" + name + "\" must be an array of whole numbers.");
+            numbers[i] = ((Long) element).intValue();
+        }
+        return numbers;
+    }
+
+    /**
+     * Appends an amount in micros as an exact decimal number of dollars, with at least two and at most six decimals.
+     *
+     * @param json   The text to append to.
+     * @param micros The amount in micros.
+     */
+    static void appendMoney(StringBuilder json, long micros)
+    {
+        // Split off the sign without overflowing on the most negative amount
+        if (micros < 0) json.append('-');
+        long dollars = Math.abs(micros / Money.SCALE);
+        long fraction = Math.abs(micros % Money.SCALE);
+        json.append(dollars).append('.');
+
+        // Write the six decimals, then drop trailing zeros beyond the cents
+        int start = json.length();
+        String digits = Long.toString(fraction);
+        for (int i = digits.length(); i < 6; i++) json.append('0');
+        json.append(digits);
+        int end = json.length();
+        while (end > start + 2 && json.charAt(end - 1) == '0') end--;
+        json.setLength(end);
+    }
+
+    /**
+     * Appends a string as a JSON string literal, or null.
+     *
+     * @param json  The text to append to.
+     * @param value The string.
+     */
+    static void appendString(StringBuilder json, String value)
+    {
+        if (value == null)
+        {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default ->
+                {
+                    if (c >= 0x20) json.append(c);
+                    else json.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    /*
+     * Parses the value at the current position.
+     */
+    private Object value()
+    {
+        skipSpace();
+        if (position == text.length()) throw error("Unexpected end of the document");
+        char c = text.charAt(position);
+        switch (c)
+        {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                return number();
+        }
+    }
+
+    /*
+     * Parses an object, keeping its members in document order.
+     */
+    private Map<String, Object> object()
+    {
+        Map<String, Object> members = new LinkedHashMap<>();
+        position++;
+        skipSpace();
+        if (peek('}'))
+        {
+            position++;
+            return members;
+        }
+        while (true)
+        {
+            skipSpace();
+            if (!peek('"')) throw error("Expected a member name");
+            String name = string();
+            skipSpace();
+            expect(':');
+            members.put(name, value());
+            skipSpace();
+            if (peek(','))
+            {
+                position++;
+                continue;
+            }
+            expect('}');
+            return members;
+        }
+    }
+
+    /*
+     * Parses an array.
+     */
+    private List<Object> array()
+    {
+        List<Object> elements = new ArrayList<>();
+        position++;
+        skipSpace();
+        if (peek(']'))
+        {
+            position++;
+            return elements;
+        }
+        while (true)
+        {
+            elements.add(value());
+            skipSpace();
+            if (peek(','))
+            {
+                position++;
+                continue;
+            }
+            expect(']');
+            return elements;
+        }
+    }
+
+    /*
+     * Parses a string literal.
+     */
+    private String string()
+    {
+        StringBuilder value = new StringBuilder();
+        position++;
+        while (true)
+        {
+            if (position >= text.length()) throw error("Unclosed string");
+            char c = text.charAt(position++);
+            if (c == '"') return value.toString();
+            if (c != '\\')
+            {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length()) throw error("Unclosed string");
+            char escaped = text.charAt(position++);
+            switch (escaped)
+            {
+                case '"', '\\', '/' -> value.append(escaped);
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'u' ->
+                {
+                    if (position + 4 > text.length()) throw error("Bad unicode escape");
+                    try
+                    {
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        throw error("Bad unicode escape");
+                    }
+                    position += 4;
+                }
+                default -> throw error("Bad escape");
+            }
+        }
+    }
+
+    /*
+     * Parses a number: a Long when it is a whole number that fits, otherwise a Double.
+     */
+    private Object number()
+    {
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) position++;
+        String number = text.substring(start, position);
+        try
+        {
+            boolean whole = number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0;
+            return whole ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+        }
+        catch (NumberFormatException e)
+        {
+            if (number.isEmpty()) throw error("Unexpected character");
+            return Double.parseDouble(number);
+        }
+    }
+
+    /*
+     * Parses a literal word.
+     */
+    private Object literal(String word, Object value)
+    {
+        if (!text.startsWith(word, position)) throw error("Unexpected character");
+        position += word.length();
+        return value;
+    }
+
+    /*
+     * Skips whitespace.
+     */
+    private void skipSpace()
+    {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) position++;
+    }
+
+    /*
+     * Checks whether the next character is the given one.
+     */
+    private boolean peek(char c)
+    {
+        return position < text.length() && text.charAt(position) == c;
+    }
+
+    /*
+     * Consumes the given character or reports what was found instead.
+     */
+    private void expect(char c)
+    {
+        if (!peek(c)) throw error("Expected '" + c + "'");
+        position++;
+    }
+
+    /*
+     * Builds the exception for a syntax error at the current position.
+     */
+    private IllegalArgumentException error(String problem)
+    {
+        return new IllegalArgumentException(problem + " at character " + position + " of the JSON.");
+    }
+}
@@ -0,0 +1,146 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The KeywordIndex class is an inverted index from lower-case name keywords to investment IDs.
+ * Each keyword maps to a compressed IdBitmap posting list, and multi-keyword queries are
+ * answered by intersecting the posting lists from the smallest one up.
+ *
+ * A posting list is never changed once it is in the index: adding or removing an ID replaces it
+ * with an updated copy. Trades on different symbols can therefore update the index at the same
+ * time, and a search can read it while they do.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+final class KeywordIndex
+{
+    // Shared empty result for queries with no matches
+    private static final IdBitmap EMPTY = new IdBitmap();
+
+    // Posting lists keyed by keyword
+    private final ConcurrentHashMap<String, IdBitmap> postings = new ConcurrentHashMap<>();
+
+    /**
+     * Splits a name or query into lower-case keywords.
+     *
+     * @param text The text to split.
+     * @return The keywords, without empty entries.
+     */
+    static String[] tokenize(String text)
+    {
+        // Nothing to split for blank text
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) return new String[0];
+
+        // Split the text on whitespace, lowercasing in the root locale so keywords match whatever the default locale is
+        return trimmed.toLowerCase(Locale.ROOT).split("\\s+");
+    }
+
+    /**
+     * Indexes every keyword of a name under the given ID.
+     *
+     * @param id   The investment ID.
+     * @param name The investment name.
+     */
+    void add(int id, String name)
+    {
+        for (String keyword : tokenize(name))
+        {
+            postings.compute(keyword, (k, posting) -> (posting == null ? new IdBitmap() : posting).with(id));
+        }
+    }
+
+    /**
+     * Removes every keyword of a name from the given ID.
+     *
+     * @param id   The investment ID.
+     * @param name The name the ID was indexed under.
+     */
+    void remove(int id, String name)
+    {
+        for (String keyword : tokenize(name))
+        {
+            // Drop the posting list once its last ID is gone
+            postings.computeIfPresent(keyword, (k, posting) ->
+            {
+                IdBitmap rest = posting.without(id);
+                return rest.isEmpty() ? null : rest;
+            });
+        }
+    }
+
+    /**
+     * Moves many IDs in the index at once. Each ID loses the keywords of its removed name and then
+     * gains those of its added name; a null name leaves that side alone. Every posting list the
+     * batch touches is replaced once, rather than once per ID as add and remove do, so loading or
+     * importing many holdings does not copy a list for each of them.
+     *
+     * @param ids     The investment IDs, in ascending order.
+     * @param removed The names to remove each ID from, or null entries.
+     * @param added   The names to index each ID under, or null entries.
+     * @param count   The number of IDs.
+     */
+    void changeAll(int[] ids, String[] removed, String[] added, int count)
+    {
+        // Group the batch by keyword
+        HashMap<String, IdBitmap.Changes> changes = new HashMap<>();
+        for (int i = 0; i < count; i++)
+        {
+            if (removed[i] != null)
+            {
+                for (String keyword : tokenize(removed[i])) changes.computeIfAbsent(keyword, k -> new IdBitmap.Changes()).remove(ids[i]);
+            }
+            if (added[i] != null)
+            {
+                for (String keyword : tokenize(added[i])) changes.computeIfAbsent(keyword, k -> new IdBitmap.Changes()).add(ids[i]);
+            }
+        }
+
+        // Replace each posting list once, dropping the ones left empty
+        changes.forEach((keyword, change) -> postings.compute(keyword, (k, posting) -> change.applyTo(posting)));
+    }
+
+    /**
+     * Finds the IDs whose names contain every keyword of the query.
+     * The returned bitmap may be shared with the index and must not be modified. Safe to call
+     * while the index is being changed, though the answer then need not match any one state of it.
+     *
+     * @param keywords The query keywords.
+     * @return The matching IDs, or null if the query has no keywords.
+     */
+    IdBitmap query(String keywords)
+    {
+        // No keyword filter for a blank query
+        String[] tokens = tokenize(keywords);
+        if (tokens.length == 0) return null;
+
+        // Look up every posting list, failing fast on an unknown keyword
+        IdBitmap[] lists = new IdBitmap[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+        {
+            lists[i] = postings.get(tokens[i]);
+            if (lists[i] == null) return EMPTY;
+        }
+
+        // Intersect from the smallest list so intermediate results stay small
+        Arrays.sort(lists, Comparator.comparingInt(IdBitmap::cardinality));
+        IdBitmap result = lists[0];
+        for (int i = 1; i < lists.length && !result.isEmpty(); i++)
+        {
+            result = result.and(lists[i]);
+        }
+
+        // Return the intersection
+        return result;
+    }
+}
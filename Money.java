@@ -0,0 +1,203 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.math.RoundingMode;
+
+/**
+ * The Money class does fixed-point money arithmetic on amounts held as a long number of micros,
+ * millionths of a dollar. Prices, book values, fees, payments, gains and portfolio totals are all
+ * kept this way, so adding and subtracting them is exact, and every step that has to round
+ * (converting a typed price, splitting a book value across a partial sale) rounds once, with an
+ * explicit mode, to a whole micro. Rounding to the micro rather than the cent keeps the error of
+ * thousands of partial sales on one holding below a cent. Nothing here allocates, so the trade
+ * paths stay garbage-free.
+ *
+ * Arithmetic that would overflow a long throws an ArithmeticException instead of wrapping.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class Money
+{
+    /**
+     * Micros per dollar.
+     */
+    public static final long SCALE = 1_000_000;
+
+    /**
+     * The rounding used unless another is asked for: half to even, so rounding errors do not lean one way.
+     */
+    public static final RoundingMode ROUNDING = RoundingMode.HALF_EVEN;
+
+    // Largest scaled double that still converts to a long
+    private static final double LIMIT = 0x1p63;
+
+    // Units in the last place a scaled double may be off by and still count as a whole or half micro
+    private static final double TOLERANCE_ULPS = 4.0;
+
+    // No instances
+    private Money()
+    {
+    }
+
+    /**
+     * Converts a dollar amount to micros with the default rounding.
+     *
+     * @param amount The amount in dollars.
+     * @return The amount in micros.
+     * @throws ArithmeticException If the amount is not a finite number that fits in a long number of micros.
+     */
+    public static long of(double amount)
+    {
+        return of(amount, ROUNDING);
+    }
+
+    /**
+     * Converts a dollar amount to micros.
+     * A double cannot hold most decimal amounts exactly, so a scaled value within a few units in the
+     * last place of a whole or half micro is taken to be exactly that; 0.29 is 290,000 micros and 0.0000005 is a tie.
+     *
+     * @param amount The amount in dollars.
+     * @param mode   How to round amounts between two micros.
+     * @return The amount in micros.
+     * @throws ArithmeticException If the amount is not a finite number that fits in a long number of micros,
+     *                             or mode is UNNECESSARY and the amount is not a whole number of micros.
+     */
+    public static long of(double amount, RoundingMode mode)
+    {
+        // Scale to micros, rejecting NaN, infinities and amounts too large for a long
+        double scaled = amount * SCALE;
+        if (!(Math.abs(scaled) < LIMIT)) throw new ArithmeticException("Amount out of range: " + amount);
+
+        // Whole micros need no rounding
+        double tolerance = TOLERANCE_ULPS * Math.ulp(scaled);
+        double nearest = Math.rint(scaled);
+        if (Math.abs(scaled - nearest) <= tolerance) return (long) nearest;
+
+        // Otherwise classify the dropped fraction as below, at or above half a micro, in quarters
+        long truncated = (long) scaled;
+        double fraction = Math.abs(scaled - truncated);
+        long quarters = Math.abs(fraction - 0.5) <= tolerance ? 2 : fraction < 0.5 ? 1 : 3;
+        return round(truncated, scaled < 0 ? -quarters : quarters, 4, mode);
+    }
+
+    /**
+     * Converts micros to dollars.
+     *
+     * @param micros The amount in micros.
+     * @return The nearest double to the amount in dollars.
+     */
+    public static double toDouble(long micros)
+    {
+        return micros / (double) SCALE;
+    }
+
+    /**
+     * Adds two amounts.
+     *
+     * @param a The first amount in micros.
+     * @param b The second amount in micros.
+     * @return The sum in micros.
+     * @throws ArithmeticException If the sum overflows.
+     */
+    public static long add(long a, long b)
+    {
+        return Math.addExact(a, b);
+    }
+
+    /**
+     * Subtracts one amount from another.
+     *
+     * @param a The amount in micros.
+     * @param b The amount to take away, in micros.
+     * @return The difference in micros.
+     * @throws ArithmeticException If the difference overflows.
+     */
+    public static long subtract(long a, long b)
+    {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * Multiplies a unit price by a quantity.
+     *
+     * @param price    The price per unit in micros.
+     * @param quantity The number of units.
+     * @return The total in micros.
+     * @throws ArithmeticException If the total overflows.
+     */
+    public static long times(long price, int quantity)
+    {
+        return Math.multiplyExact(price, (long) quantity);
+    }
+
+    /**
+     * Returns the share of an amount that part of a whole carries, amount * part / whole, rounded once.
+     * The product is never formed, so this cannot overflow for any amount.
+     *
+     * @param amount The amount in micros.
+     * @param part   The part, from 0 to whole.
+     * @param whole  The whole, greater than zero.
+     * @param mode   How to round a share between two micros.
+     * @return The share in micros.
+     * @throws ArithmeticException If mode is UNNECESSARY and the share is not a whole number of micros.
+     */
+    public static long prorate(long amount, int part, int whole, RoundingMode mode)
+    {
+        if (part < 0 || part > whole) throw new IllegalArgumentException("Part " + part + " is not within 0.." + whole + ".");
+
+        // Split the amount into whole multiples of the whole and a remainder below it, so each product fits in a long
+        long quotient = amount / whole;
+        long remainder = amount % whole;
+        long spread = remainder * part;
+        return round(quotient * part + spread / whole, spread % whole, whole, mode);
+    }
+
+    /**
+     * Divides one amount by another, rounding once.
+     *
+     * @param dividend The amount to divide.
+     * @param divisor  The amount to divide by; not zero.
+     * @param mode     How to round a quotient between two whole numbers.
+     * @return The quotient.
+     * @throws ArithmeticException If the divisor is zero or the quotient overflows,
+     *                             or mode is UNNECESSARY and the division is inexact.
+     */
+    public static long divide(long dividend, long divisor, RoundingMode mode)
+    {
+        if (dividend == Long.MIN_VALUE && divisor == -1) throw new ArithmeticException("long overflow");
+        return round(dividend / divisor, dividend % divisor, divisor, mode);
+    }
+
+    /*
+     * Rounds a truncated quotient given the remainder and divisor of the division that produced it.
+     * The remainder has the sign of the dividend, as Java's % gives it.
+     */
+    private static long round(long quotient, long remainder, long divisor, RoundingMode mode)
+    {
+        // Exact results need no rounding
+        if (remainder == 0) return quotient;
+
+        // Work out which way is away from zero and how the dropped part compares with a half
+        int sign = (remainder < 0) == (divisor < 0) ? 1 : -1;
+        long dropped = Math.abs(remainder);
+        int half = Long.compare(dropped, Math.abs(divisor) - dropped);
+
+        // Decide whether to round away from zero
+        boolean away = switch (mode)
+        {
+            case UP -> true;
+            case DOWN -> false;
+            case CEILING -> sign > 0;
+            case FLOOR -> sign < 0;
+            case HALF_UP -> half >= 0;
+            case HALF_DOWN -> half > 0;
+            case HALF_EVEN -> half > 0 || (half == 0 && (quotient & 1) != 0);
+            case UNNECESSARY -> throw new ArithmeticException("Rounding necessary");
+        };
+        return away ? Math.addExact(quotient, sign) : quotient;
+    }
+}
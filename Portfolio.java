@@ -0,0 +1,1545 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The Portfolio class is one investment portfolio: it owns its holdings, their lock stripes, search
+ * indexes, snapshots and running totals, and an optional journal. It supports adding, selling,
+ * updating prices, getting total gains and searching. Any number of portfolios can live side by
+ * side in one JVM, each independent of the others; the static methods of Investment act on the
+ * default portfolio, which the GUI uses, and a PortfolioRegistry holds many client portfolios.
+ * 
+ * The methods are thread-safe. Trades on one symbol are serialized by that symbol's lock stripe
+ * while trades on other symbols run in parallel; every completed change is published as a new
+ * immutable snapshot, so total gain, positional reads and search results come from snapshots
+ * and never see a half-applied trade. Searches read the indexes without taking a lock and check
+ * afterwards, stripe by stripe, that no trade changed them meanwhile.
+ * 
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class Portfolio 
+{
+    /**
+     * Receives every change to the holdings of a portfolio, as read-only copies of a holding before and
+     * after the change: before is null for a holding that joined and after is null for one that left.
+     * It is called on the trading thread while the holding's lock stripe is held, once the new snapshot
+     * is installed, so it must be quick and must not trade on the portfolio.
+     */
+    interface Listener 
+    {
+        void changed(Investment before, Investment after);
+
+        /*
+         * Called just before changed(before, null) when a holding leaves because every unit was sold,
+         * with the price of that sale, which the removal itself cannot carry.
+         */
+        default void soldOut(Investment before, long priceMicros) 
+        {
+        }
+    }
+
+    // The portfolio the static methods of Investment act on
+    private static final Portfolio DEFAULT = new Portfolio();
+
+    // Number of lock stripes guarding the holdings; symbols hash onto a stripe
+    private static final int LOCK_STRIPES = 64;
+
+    // Optimistic tries a search makes before it waits for trades changing names or prices
+    private static final int OPTIMISTIC_SEARCH_ATTEMPTS = 4;
+
+    // Per-symbol lock stripes serializing trades on the same holding
+    private final ReentrantLock[] symbolLocks = new ReentrantLock[LOCK_STRIPES];
+
+    // Live investments by case-normalized symbol, and the next stable ID to hand out
+    private final ConcurrentHashMap<String, Investment> symbolIndex = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    // Keyword and price indexes for searching, with an index lock per stripe: a trade changing a name or
+    // price holds its stripe's lock in write mode while it updates the indexes and swaps the snapshot,
+    // and a search checks afterwards that no stripe's lock was taken while it read
+    private final KeywordIndex keywordIndex = new KeywordIndex();
+    private final PriceIndex priceIndex = new PriceIndex();
+    private final StampedLock[] indexLocks = new StampedLock[LOCK_STRIPES];
+
+    // Journal recording every change, or null when changes are not journaled
+    private volatile TradeJournal journal;
+
+    // Current snapshot: structurally shared read-only copies of the investments plus their running totals
+    private final AtomicReference<PortfolioSnapshot> currentSnapshot = new AtomicReference<>(new PortfolioSnapshot(this));
+
+    // Listeners told about every change, replaced whole when one is added or removed
+    private volatile Listener[] listeners = new Listener[0];
+
+    // Publisher of the changes to subscribers such as the GUI's views
+    private final PortfolioEvents events = new PortfolioEvents();
+
+    // Money paid for purchases less payments received for sales, changed under the traded symbol's lock stripe
+    private final LongAdder netFlow = new LongAdder();
+
+    /**
+     * Creates an empty portfolio.
+     */
+    public Portfolio() 
+    {
+        for (int i = 0; i < LOCK_STRIPES; i++) 
+        {
+            symbolLocks[i] = new ReentrantLock();
+            indexLocks[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Returns the default portfolio, the one the static methods of Investment, the GUI and its journal use.
+     *
+     * @return The default portfolio.
+     */
+    public static Portfolio getDefault() 
+    {
+        return DEFAULT;
+    }
+
+
+    /*
+     * Returns the lock stripe guarding a symbol.
+     */
+    private ReentrantLock lockFor(String symbol) 
+    {
+        return symbolLocks[stripeOf(symbolKey(symbol))];
+    }
+
+    /*
+     * Returns the lock stripe number of a symbol key.
+     */
+    private static int stripeOf(String key) 
+    {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    /*
+     * Publishes the current state of a live investment, or its removal when remove is set.
+     * Brings the search indexes in line with the change and swaps in the next snapshot.
+     * The caller must hold the investment's lock stripe.
+     */
+    private Investment publish(Investment investment, boolean remove) 
+    {
+        // Freeze a read-only copy of the new state
+        Investment before = investment.published;
+        Investment after = null;
+        if (!remove) 
+        {
+            after = Investment.copyOf(investment);
+            after.readOnly = true;
+        }
+
+        // Changes to indexed fields update the indexes and the snapshot together under the stripe's index lock
+        boolean reindex = before == null || after == null 
+            || before.price != after.price 
+            || !before.name.equals(after.name);
+
+        if (reindex) 
+        {
+            StampedLock indexLock = indexLocks[stripeOf(symbolKey(investment.symbol))];
+            long stamp = indexLock.writeLock();
+            try 
+            {
+                updateIndexes(investment.id, before, after);
+                swapSnapshot(investment.id, before, after);
+            } 
+            finally 
+            {
+                indexLock.unlockWrite(stamp);
+            }
+        }
+
+        // Quantity and book value changes only need the snapshot swap
+        else 
+        {
+            swapSnapshot(investment.id, before, after);
+        }
+
+        investment.published = after;
+        for (Listener listener : listeners) 
+        {
+            // Only a sale of every unit removes a holding, and the live investment still has its price
+            if (after == null) listener.soldOut(before, investment.getPriceMicros());
+            listener.changed(before, after);
+        }
+        events.publish(before, after);
+        return after;
+    }
+
+    /*
+     * Moves an investment's keyword and price index entries from its old state to its new one.
+     */
+    private void updateIndexes(int id, Investment before, Investment after) 
+    {
+        if (before != null && (after == null || !before.name.equals(after.name))) keywordIndex.remove(id, before.name);
+        if (after != null && (before == null || !before.name.equals(after.name))) keywordIndex.add(id, after.name);
+        if (before != null) priceIndex.remove(id, before.getPrice());
+        if (after != null) priceIndex.add(id, after.getPrice());
+    }
+
+    /*
+     * Moves many investments' index entries at once, given in ascending ID order. Each posting list and
+     * price bucket the batch touches is copied once and filled in place, where updateIndexes would copy
+     * it for every investment, so loading or importing many holdings stays linear.
+     */
+    private void updateIndexes(int[] ids, Investment[] before, Investment[] after, int count) 
+    {
+        // Work out which names and prices each investment leaves and joins
+        String[] removedNames = new String[count];
+        String[] addedNames = new String[count];
+        double[] removedPrices = new double[count];
+        double[] addedPrices = new double[count];
+        for (int i = 0; i < count; i++) 
+        {
+            boolean renamed = before[i] == null || after[i] == null || !before[i].name.equals(after[i].name);
+            boolean repriced = before[i] == null || after[i] == null || before[i].price != after[i].price;
+            removedNames[i] = renamed && before[i] != null ? before[i].name : null;
+            addedNames[i] = renamed && after[i] != null ? after[i].name : null;
+            removedPrices[i] = repriced && before[i] != null ? before[i].getPrice() : Double.NaN;
+            addedPrices[i] = repriced && after[i] != null ? after[i].getPrice() : Double.NaN;
+        }
+
+        keywordIndex.changeAll(ids, removedNames, addedNames, count);
+        priceIndex.changeAll(ids, removedPrices, addedPrices, count);
+    }
+
+    /*
+     * Takes the index locks of the marked stripes in write mode, in ascending order. The caller must
+     * hold the same symbol lock stripes, which already keep other writers out; this only holds off searches.
+     */
+    private long[] lockIndexes(boolean[] stripes) 
+    {
+        long[] stamps = new long[LOCK_STRIPES];
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) 
+        {
+            if (stripes[stripe]) stamps[stripe] = indexLocks[stripe].writeLock();
+        }
+        return stamps;
+    }
+
+    /*
+     * Releases the index locks taken by lockIndexes.
+     */
+    private void unlockIndexes(boolean[] stripes, long[] stamps) 
+    {
+        for (int stripe = LOCK_STRIPES - 1; stripe >= 0; stripe--) 
+        {
+            if (stripes[stripe]) indexLocks[stripe].unlockWrite(stamps[stripe]);
+        }
+    }
+
+    /*
+     * Installs the next snapshot, retrying if another thread published first.
+     */
+    private void swapSnapshot(int id, Investment before, Investment after) 
+    {
+        PortfolioSnapshot current;
+        do 
+        {
+            current = currentSnapshot.get();
+        } 
+        while (!currentSnapshot.compareAndSet(current, current.change(id, before, after)));
+    }
+
+    /*
+     * Starts recording every change in a journal.
+     */
+    synchronized void attachJournal(TradeJournal journal) 
+    {
+        this.journal = journal;
+    }
+
+    /*
+     * Stops recording changes in a journal, if it is the attached one. A journal that has failed is
+     * kept, so the portfolio goes on rejecting the changes it can no longer make durable.
+     */
+    synchronized void detachJournal(TradeJournal journal) 
+    {
+        if (this.journal == journal && journal.getFailure() == null) this.journal = null;
+    }
+
+    /*
+     * Returns the attached journal, or null, after checking it can still record changes. Called
+     * holding a change's lock stripes before anything changes, so a change is rejected rather than
+     * applied once the journal has failed.
+     */
+    private TradeJournal writableJournal() 
+    {
+        TradeJournal journal = this.journal;
+        if (journal != null) journal.checkWritable();
+        return journal;
+    }
+
+    /*
+     * Waits until a journaled change is durable; does nothing when no journal was attached.
+     */
+    private static void awaitJournal(TradeJournal journal, long sequence) 
+    {
+        if (journal != null && sequence >= 0) journal.awaitDurable(sequence);
+    }
+
+    /*
+     * Runs an action while every trade is paused between changes, returning the snapshot at that point.
+     * Every change in the snapshot has been handed to the journal, and no later one has.
+     */
+    PortfolioSnapshot quiesce(Runnable action) 
+    {
+        for (ReentrantLock lock : symbolLocks) lock.lock();
+        try 
+        {
+            action.run();
+            return currentSnapshot.get();
+        } 
+        finally 
+        {
+            for (ReentrantLock lock : symbolLocks) lock.unlock();
+        }
+    }
+
+    /*
+     * Starts telling a listener about every change. Call it from quiesce's action so the snapshot
+     * quiesce returns is exactly the state the first change the listener hears about applies to.
+     */
+    synchronized void addListener(Listener listener) 
+    {
+        Listener[] next = Arrays.copyOf(listeners, listeners.length + 1);
+        next[listeners.length] = listener;
+        listeners = next;
+    }
+
+    /*
+     * Stops telling a listener about changes; from quiesce's action, for the same reason as addListener.
+     */
+    synchronized void removeListener(Listener listener) 
+    {
+        for (int i = 0; i < listeners.length; i++) 
+        {
+            if (listeners[i] != listener) continue;
+            Listener[] next = Arrays.copyOf(listeners, listeners.length - 1);
+            System.arraycopy(listeners, i + 1, next, i, listeners.length - i - 1);
+            listeners = next;
+            return;
+        }
+    }
+
+    /*
+     * Tells the listeners and the event subscribers about a batch of changes that were just published.
+     * Holdings the batch sold out are told with the price of their live investment in owners, which
+     * may be null when the batch removes nothing.
+     */
+    private void notifyListeners(Investment[] before, Investment[] after, Investment[] owners, int count) 
+    {
+        for (Listener listener : listeners) 
+        {
+            for (int i = 0; i < count; i++) 
+            {
+                if (after[i] == null) listener.soldOut(before[i], owners[i].getPriceMicros());
+                listener.changed(before[i], after[i]);
+            }
+        }
+        events.publishAll(before, after, count);
+    }
+
+    /*
+     * Normalizes a symbol into its symbol index key, matching equalsIgnoreCase comparisons. The
+     * root locale keeps the key the same whatever the default locale is, so that under a Turkish
+     * locale "INFY" and "infy" still share one.
+     */
+    static String symbolKey(String symbol) 
+    {
+        return symbol.toLowerCase(Locale.ROOT);
+    }
+
+    /*
+     * Looks up the live investment held under a symbol, ignoring case.
+     */
+    private Investment findBySymbol(String symbol) 
+    {
+        return symbolIndex.get(symbolKey(symbol));
+    }
+
+
+    /**
+     * Adds a new investment to the portfolio.
+     * If an investment with the same symbol exists, updates its quantity and book value.
+     *
+     * @param type     The type of investment (Stock or Mutual Fund).
+     * @param symbol   The investment symbol.
+     * @param name     The investment name.
+     * @param quantity The investment quantity.
+     * @param price    The investment price per unit.
+     * @return A message indicating the result of the operation.
+     */
+    public String addInvestment(String type, String symbol, String name, int quantity, double price) 
+    {
+        // Validate symbol, name, quantity, and price
+        checkPurchase(symbol, name, quantity, price);
+
+        // Hold the symbol's lock stripe so the lookup, the change and its journal record happen as one step
+        ReentrantLock lock = lockFor(symbol);
+        TradeJournal journal;
+        String result;
+        long sequence = -1;
+        lock.lock();
+        try 
+        {
+            // Refuse the change up front if it could not be journaled
+            journal = writableJournal();
+
+            // Update the existing investment or create a new one
+            Investment investment = purchase(type, symbol, name, quantity, price);
+
+            // Return an error message if the investment type is invalid
+            if (investment == null) return "Invalid investment type.";
+
+            // Build the success message displaying the updated or new investment
+            boolean existing = investment.published != null;
+            result = (existing ? "Existing investment updated successfully.\n\n" : "New investment added successfully.\n\n") + publish(investment, false);
+
+            // Journal the change before the lock is released
+            if (journal != null) sequence = journal.logAdd(type, symbol, name, quantity, price);
+        } 
+        finally 
+        {
+            lock.unlock();
+        }
+
+        // Return the success message once the change is durable
+        awaitJournal(journal, sequence);
+        return result;
+    }
+
+    /*
+     * Validates the symbol, name, quantity and price of a purchase.
+     */
+    private static void checkPurchase(String symbol, String name, int quantity, double price) 
+    {
+        if (symbol == null || symbol.isEmpty()) 
+        {
+            // Return an error message if the symbol is empty
+            throw new IllegalArgumentException("Symbol cannot be empty.");
+        }
+
+        if (name == null || name.isEmpty()) 
+        {
+            // Return an error message if the name is empty
+            throw new IllegalArgumentException("Name cannot be empty.");
+        }
+
+        if (quantity <= 0) 
+        {
+            // Return an error message if the quantity is not positive
+            throw new IllegalArgumentException("Quantity must be greater than zero.");
+        }
+
+        if (price <= 0 || Investment.micros(price) <= 0) 
+        {
+            // Return an error message if the price is not positive
+            throw new IllegalArgumentException("Price must be greater than zero.");
+        }
+
+        // Return an error message if the cost of the purchase cannot be held in micros
+        Investment.checkValue(Investment.micros(price), quantity);
+    }
+
+    /*
+     * Applies a validated purchase to the live investments without publishing it.
+     * Returns the investment that was updated or created, or null if a new investment was needed
+     * and the type is invalid. The caller must hold the symbol's lock stripe.
+     */
+    private Investment purchase(String type, String symbol, String name, int quantity, double price) 
+    {
+        // Check if the investment already exists
+        Investment investment = findBySymbol(symbol);
+
+        // Update existing investment if the symbol matches
+        if (investment != null) 
+        {
+            // The book value grows by the cost of the units, plus the commission fee for stocks
+            long additionalBookValue = investment.calculateBookValue(quantity, Money.of(price));
+
+            // Work out the new totals and open a lot for the units before changing anything, so a purchase that cannot be held leaves the investment as it was
+            int newQuantity;
+            long newBookValue;
+            TaxLots newLots;
+            try 
+            {
+                newQuantity = Math.addExact(investment.getQuantity(), quantity);
+                newBookValue = Money.add(investment.bookValue, additionalBookValue);
+                newLots = investment.getLots().add(quantity, additionalBookValue);
+            } 
+            catch (ArithmeticException e) 
+            {
+                throw new IllegalArgumentException("Holding would be too large.");
+            }
+            investment.setQuantity(newQuantity);
+            investment.setBookValueMicros(newBookValue);
+            investment.lots = newLots;
+            netFlow.add(additionalBookValue);
+            return investment;
+        }
+
+        // Create a new investment based on the type
+        Investment newInvestment = switch (type == null ? "" : type.toLowerCase()) 
+        {
+            case "stock" -> new Investment.Stock(symbol, name, quantity, price);
+            case "mutual fund" -> new Investment.MutualFund(symbol, name, quantity, price);
+            default -> null;
+        };
+        if (newInvestment == null) return null;
+
+        // Add the new investment to the portfolio under a new stable ID
+        newInvestment.id = nextId.getAndIncrement();
+        symbolIndex.put(symbolKey(symbol), newInvestment);
+        netFlow.add(newInvestment.bookValue);
+        return newInvestment;
+    }
+
+
+    /**
+     * Sells an investment from the portfolio, costing the units sold at the average cost of the holding.
+     *
+     * @param symbol   The symbol of the investment to sell.
+     * @param quantity The quantity of the investment to sell.
+     * @param price    The price at which to sell the investment.
+     * @return A message indicating the result of the operation.
+     */
+    public String sellInvestment(String symbol, int quantityToSell, double price) 
+    {
+        long[] amounts = new long[2];
+        return saleMessage(sell(symbol, quantityToSell, price, TaxLots.Method.AVERAGE_COST, null, amounts), amounts);
+    }
+
+    /**
+     * Sells an investment from the portfolio, taking the units from its tax lots by the given method.
+     *
+     * @param symbol   The symbol of the investment to sell.
+     * @param quantity The quantity of the investment to sell.
+     * @param price    The price at which to sell the investment.
+     * @param method   AVERAGE_COST, FIFO or LIFO; specific lots are sold by naming them.
+     * @return A message indicating the result of the operation.
+     */
+    public String sellInvestment(String symbol, int quantityToSell, double price, TaxLots.Method method) 
+    {
+        if (method == null) throw new IllegalArgumentException("Choose how to pick the lots to sell from.");
+        if (method == TaxLots.Method.SPECIFIC_ID) throw new IllegalArgumentException("Name the lots to sell from.");
+        long[] amounts = new long[2];
+        return saleMessage(sell(symbol, quantityToSell, price, method, null, amounts), amounts);
+    }
+
+    /**
+     * Sells an investment from the portfolio, taking the units from the named tax lots in the order given.
+     *
+     * @param symbol   The symbol of the investment to sell.
+     * @param quantity The quantity of the investment to sell.
+     * @param price    The price at which to sell the investment.
+     * @param lotIds   The numbers of the lots to sell from.
+     * @return A message indicating the result of the operation.
+     */
+    public String sellInvestment(String symbol, int quantityToSell, double price, int[] lotIds) 
+    {
+        if (lotIds == null || lotIds.length == 0) throw new IllegalArgumentException("Name the lots to sell from.");
+        long[] amounts = new long[2];
+        return saleMessage(sell(symbol, quantityToSell, price, TaxLots.Method.SPECIFIC_ID, lotIds.clone(), amounts), amounts);
+    }
+
+    /*
+     * Sells as the public methods do, naming lots only with SPECIFIC_ID, stores the payment and the gain
+     * of the sale in micros in amounts[0] and amounts[1], and returns the read-only holding left after
+     * the sale, or null if every unit was sold.
+     */
+    Investment sellInvestment(String symbol, int quantityToSell, double price, TaxLots.Method method, int[] lotIds, long[] amounts) 
+    {
+        if (method == null) throw new IllegalArgumentException("Choose how to pick the lots to sell from.");
+        if ((method == TaxLots.Method.SPECIFIC_ID) != (lotIds != null && lotIds.length > 0)) throw new IllegalArgumentException("Name the lots to sell from, and only with specific lots.");
+        return sell(symbol, quantityToSell, price, method, lotIds == null ? null : lotIds.clone(), amounts);
+    }
+
+    /*
+     * Sells units of an investment, taking them from its tax lots by the given method, and reports the payment and gain in amounts.
+     * Returns the read-only holding left after the sale, or null if every unit was sold.
+     */
+    private Investment sell(String symbol, int quantityToSell, double price, TaxLots.Method method, int[] lotIds, long[] amounts) 
+    {
+        // Validate symbol, quantity, and price
+        checkSale(symbol, quantityToSell, price);
+
+        // Hold the symbol's lock stripe for the whole sale and its journal record
+        ReentrantLock lock = lockFor(symbol);
+        TradeJournal journal;
+        Investment result;
+        long sequence = -1;
+        lock.lock();
+        try 
+        {
+            // Refuse the sale up front if it could not be journaled
+            journal = writableJournal();
+
+            // Look up the investment with the given symbol
+            Investment investmentToSell = findForSale(symbol, quantityToSell);
+
+            // Calculate the payment
+            long priceMicros = Money.of(price);
+            long payment = investmentToSell.calculatePayment(quantityToSell, priceMicros);
+
+            // Take the units out of the investment's lots, quantity and book value; the gain is the payment less their cost
+            int remainingQuantity = investmentToSell.getQuantity() - quantityToSell;
+            long gain = Money.subtract(payment, completeSale(investmentToSell, quantityToSell, method, lotIds));
+            netFlow.add(-payment);
+            amounts[0] = payment;
+            amounts[1] = gain;
+
+            // Update the investment's price
+            investmentToSell.setPriceMicros(priceMicros);
+
+            if (remainingQuantity == 0) 
+            {
+                // The investment left the portfolio, so remove it from the snapshot and indexes too
+                publish(investmentToSell, true);
+                result = null;
+            } 
+
+            else 
+            {
+                result = publish(investmentToSell, false);
+            }
+
+            // Journal the sale before the lock is released
+            if (journal != null) 
+            {
+                sequence = method == TaxLots.Method.AVERAGE_COST 
+                    ? journal.logSell(symbol, quantityToSell, price) 
+                    : journal.logSellLots(symbol, quantityToSell, price, method, lotIds);
+            }
+        } 
+        finally 
+        {
+            lock.unlock();
+        }
+
+        // Return what is left of the holding once the sale is durable
+        awaitJournal(journal, sequence);
+        return result;
+    }
+
+    /*
+     * Builds the summary of a sale from the holding left after it, or null if every unit was sold, and its payment and gain in amounts.
+     */
+    private static String saleMessage(Investment remaining, long[] amounts) 
+    {
+        if (remaining == null) 
+        {
+            return String.format(
+                "Sale completed. All units sold. Payment: $%.2f, Gain: $%.2f. \n\n Investment removed from the portfolio.\n\n",
+                Money.toDouble(amounts[0]), Money.toDouble(amounts[1])
+            );
+        }
+        return String.format(
+            "Sale completed. Payment: $%.2f, Gain: $%.2f. Remaining units: %d\n\n%s",
+            Money.toDouble(amounts[0]), Money.toDouble(amounts[1]), remaining.getQuantity(), remaining.toString()
+        );
+    }
+
+    /*
+     * Validates the symbol, quantity and price of a sale.
+     */
+    private static void checkSale(String symbol, int quantityToSell, double price) 
+    {
+        if (symbol == null || symbol.isEmpty()) 
+        {
+            // Return an error message if the symbol is empty
+            throw new IllegalArgumentException("Symbol cannot be empty.");
+        }
+
+        if (quantityToSell <= 0) 
+        {
+            // Return an error message if the quantity to sell is not positive
+            throw new IllegalArgumentException("Quantity to sell must be greater than zero.");
+        }
+
+        if (price <= 0 || Investment.micros(price) <= 0) 
+        {
+            // Return an error message if the price is not positive
+            throw new IllegalArgumentException("Price must be greater than zero.");
+        }
+
+        // Return an error message if the proceeds of the sale cannot be held in micros
+        Investment.checkValue(Investment.micros(price), quantityToSell);
+    }
+
+    /*
+     * Looks up the live investment to sell from, checking it holds enough units.
+     * The caller must hold the symbol's lock stripe.
+     */
+    private Investment findForSale(String symbol, int quantityToSell) 
+    {
+        Investment investmentToSell = findBySymbol(symbol);
+
+        // If no matching investment is found, return an error message
+        if (investmentToSell == null) 
+        {
+            // Return an error message if the investment is not found
+            throw new IllegalArgumentException("Investment with symbol '" + symbol + "' not found.");
+        }
+
+        if (quantityToSell > investmentToSell.getQuantity()) 
+        {
+            // Return an error message if the quantity to sell is more than the available quantity
+            throw new IllegalArgumentException("Not enough quantity available to sell.");
+        }
+        return investmentToSell;
+    }
+
+    /*
+     * Takes sold units out of a live investment's lots without publishing the change, and returns the book value
+     * of the units sold. The lots are checked before anything changes, so a sale naming lots that cannot supply
+     * the units leaves the investment as it was. An investment with no units left is removed from the symbol index.
+     * The caller must hold the symbol's lock stripe.
+     */
+    private long completeSale(Investment investmentToSell, int quantityToSell, TaxLots.Method method, int[] lotIds) 
+    {
+        int quantity = investmentToSell.getQuantity();
+        int remainingQuantity = quantity - quantityToSell;
+        long bookValue = investmentToSell.bookValue;
+        long remainingBookValue;
+        TaxLots lots = investmentToSell.lots;
+        TaxLots remainingLots = null;
+
+        if (lots == null) 
+        {
+            // A single lot numbered 1 holds every unit, so every method splits the book value pro rata
+            if (method == TaxLots.Method.SPECIFIC_ID) investmentToSell.getLots().take(lotIds, quantityToSell);
+            remainingBookValue = investmentToSell.remainingBookValue(quantityToSell);
+        } 
+
+        else 
+        {
+            // Take the units from the lots by the method
+            remainingLots = switch (method) 
+            {
+                case AVERAGE_COST, FIFO -> lots.takeFirst(quantityToSell);
+                case LIFO -> lots.takeLast(quantityToSell);
+                case SPECIFIC_ID -> lots.take(lotIds, quantityToSell);
+            };
+
+            if (method == TaxLots.Method.AVERAGE_COST) 
+            {
+                // Average cost splits the book value pro rata; what the lots gave up differently stays pooled
+                remainingBookValue = investmentToSell.remainingBookValue(quantityToSell);
+            } 
+            else 
+            {
+                // The units sold carry their lots' cost plus their share of the cost pooled by average-cost sales
+                long pooled = bookValue - lots.getTotalCost();
+                remainingBookValue = bookValue - remainingLots.getTakenCost() - (pooled - Money.prorate(pooled, remainingQuantity, quantity, Money.ROUNDING));
+            }
+        }
+
+        if (remainingQuantity == 0) 
+        {
+            // Remove the investment from the portfolio if all shares/units are sold
+            symbolIndex.remove(symbolKey(investmentToSell.getSymbol()));
+        } 
+
+        else 
+        {
+            // Update the book value and lots, then the investment's quantity
+            investmentToSell.setBookValueMicros(remainingBookValue);
+            investmentToSell.lots = remainingLots;
+            investmentToSell.setQuantity(remainingQuantity);
+        }
+        return bookValue - remainingBookValue;
+    }
+
+    /**
+     * Updates the prices of investments interactively.
+     * Enables navigation through investments and allows the user to update the price of each investment.
+     * 
+     * @param index The index of the investment to be updated.
+     * @param newPrice The new price to be set for the investment.
+     * @return A read-only copy of the updated investment.
+     */
+    public Investment updatePrices(String symbol, String name, double newPrice) 
+    {
+        // Check if the investment list is empty
+        if (currentSnapshot.get().isEmpty()) 
+        {
+            // Return an error message if the investment list is empty
+            throw new IllegalStateException("No investments available to update.");
+        }
+        return update(symbol, name, newPrice);
+    }
+
+    /*
+     * Sets the price of a holding, keeping whatever name it has when the lock is taken, and returns a read-only copy of the updated holding.
+     */
+    Investment updatePrice(String symbol, double newPrice) 
+    {
+        return update(symbol, null, newPrice);
+    }
+
+    /*
+     * Sets the price of the holding with the given symbol and, unless the name is null, the given name.
+     * Returns a read-only copy of the updated holding once the update is durable.
+     */
+    private Investment update(String symbol, String name, double newPrice) 
+    {
+        // Hold the symbol's lock stripe while the price changes and is journaled
+        ReentrantLock lock = lockFor(symbol);
+        TradeJournal journal;
+        Investment result;
+        long sequence = -1;
+        lock.lock();
+        try 
+        {
+            // Refuse the update up front if it could not be journaled
+            journal = writableJournal();
+
+            // Look up the investment by symbol and make sure the name matches too, if one is given
+            Investment investmentToUpdate = findBySymbol(symbol);
+            if (investmentToUpdate != null && name != null && !investmentToUpdate.getName().equalsIgnoreCase(name)) 
+            {
+                investmentToUpdate = null;
+            }
+
+            // Check if the investment was found
+            if (investmentToUpdate == null) 
+            {
+                // Return an error message if the investment is not found
+                throw new IllegalArgumentException(name == null 
+                    ? String.format("Investment with symbol '%s' not found.", symbol) 
+                    : String.format("No investment found with Symbol: %s and Name: %s.", symbol, name));
+            }
+
+            // Validate the new price
+            if (newPrice <= 0 || Investment.micros(newPrice) <= 0) 
+            {
+                // Return an error message if the price is not positive
+                throw new IllegalArgumentException("Price must be a positive number.");
+            }
+
+            // Update the price of the investment
+            investmentToUpdate.setPrice(newPrice);
+            result = publish(investmentToUpdate, false);
+
+            // Journal the update before the lock is released
+            if (journal != null) sequence = journal.logPrice(symbol, investmentToUpdate.getName(), newPrice);
+        } 
+        finally 
+        {
+            lock.unlock();
+        }
+
+        // Return the updated investment once the update is durable
+        awaitJournal(journal, sequence);
+        return result;
+    }
+
+    /**
+     * Applies a batch of price ticks to the portfolio in one pass.
+     * Only the last tick for each symbol is applied, the price index is updated under one
+     * acquisition of the batch's index locks, and the whole batch is published as one new snapshot version.
+     *
+     * @param batch The price ticks to apply.
+     * @return The numbers of applied, unknown, superseded and rejected ticks.
+     */
+    public PriceBatch.Result updatePrices(PriceBatch batch) 
+    {
+        // Work out which lock stripes the batch touches
+        int size = batch.size();
+        boolean[] stripes = new boolean[LOCK_STRIPES];
+        for (int i = 0; i < size; i++) 
+        {
+            stripes[stripeOf(symbolKey(batch.symbol(i)))] = true;
+        }
+
+        // Take them in ascending order so batches never deadlock with each other or with single trades
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) 
+        {
+            if (stripes[stripe]) symbolLocks[stripe].lock();
+        }
+
+        TradeJournal journal;
+        PriceBatch.Result result;
+        long sequence = -1;
+        try 
+        {
+            // Refuse the batch up front if it could not be journaled
+            journal = writableJournal();
+
+            // Set the price of every known holding, recording its position in the batch ordered by ID
+            Investment[] changed = new Investment[size];
+            long[] order = new long[size];
+            int count = 0;
+            long unknown = 0;
+            for (int i = 0; i < size; i++) 
+            {
+                Investment investment = findBySymbol(batch.symbol(i));
+                if (investment == null) 
+                {
+                    unknown++;
+                    continue;
+                }
+
+                investment.setPriceMicros(batch.price(i));
+                changed[count] = investment;
+                order[count] = ((long) investment.id << 32) | count;
+                count++;
+            }
+            Arrays.sort(order, 0, count);
+
+            // Freeze read-only copies of the changed holdings in ID order
+            int[] ids = new int[count];
+            Investment[] before = new Investment[count];
+            Investment[] after = new Investment[count];
+            for (int i = 0; i < count; i++) 
+            {
+                Investment investment = changed[(int) order[i]];
+                ids[i] = investment.id;
+                before[i] = investment.published;
+                after[i] = Investment.copyOf(investment);
+                after[i].readOnly = true;
+            }
+
+            // Move the price index entries and publish the batch as one snapshot under the batch's index locks
+            long[] stamps = lockIndexes(stripes);
+            try 
+            {
+                updateIndexes(ids, before, after, count);
+
+                PortfolioSnapshot current;
+                do 
+                {
+                    current = currentSnapshot.get();
+                } 
+                while (!currentSnapshot.compareAndSet(current, current.changeAll(ids, before, after, count)));
+            } 
+            finally 
+            {
+                unlockIndexes(stripes, stamps);
+            }
+
+            for (int i = 0; i < count; i++) 
+            {
+                changed[(int) order[i]].published = after[i];
+            }
+            notifyListeners(before, after, null, count);
+
+            // Journal the prices that were applied before the locks are released
+            if (journal != null && count > 0) 
+            {
+                String[] symbols = new String[count];
+                double[] prices = new double[count];
+                for (int i = 0; i < count; i++) 
+                {
+                    symbols[i] = after[i].symbol;
+                    prices[i] = after[i].getPrice();
+                }
+                sequence = journal.logPrices(symbols, prices, count);
+            }
+
+            // Count what happened to every tick
+            result = new PriceBatch.Result(count, unknown, batch.getSuperseded(), batch.getRejected());
+        } 
+        finally 
+        {
+            for (int stripe = LOCK_STRIPES - 1; stripe >= 0; stripe--) 
+            {
+                if (stripes[stripe]) symbolLocks[stripe].unlock();
+            }
+        }
+
+        // Report the counts once the batch is durable
+        awaitJournal(journal, sequence);
+        return result;
+    }
+
+    /**
+     * Applies a batch of buys and sells to the portfolio in order, as one step.
+     * The lock stripes the batch touches are taken once, every holding the batch changes is published
+     * once with its final state, and the whole batch becomes one new snapshot version. Trades that fail
+     * are marked in the batch with the reason and skipped; the rest are still applied.
+     *
+     * @param batch The trades to apply.
+     * @return The number of trades applied.
+     */
+    public int applyTrades(TradeBatch batch) 
+    {
+        // Validate every trade up front and work out which lock stripes the valid ones touch
+        int size = batch.size();
+        boolean[] valid = new boolean[size];
+        boolean[] stripes = new boolean[LOCK_STRIPES];
+        for (int i = 0; i < size; i++) 
+        {
+            try 
+            {
+                if (batch.isSale(i)) checkSale(batch.symbol(i), batch.quantity(i), batch.price(i));
+                else checkPurchase(batch.symbol(i), batch.name(i), batch.quantity(i), batch.price(i));
+                valid[i] = true;
+                stripes[stripeOf(symbolKey(batch.symbol(i)))] = true;
+            } 
+            catch (IllegalArgumentException e) 
+            {
+                batch.reject(i, e.getMessage());
+            }
+        }
+
+        // Take them in ascending order so batches never deadlock with each other or with single trades
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) 
+        {
+            if (stripes[stripe]) symbolLocks[stripe].lock();
+        }
+
+        TradeJournal journal;
+        int applied = 0;
+        long sequence = -1;
+        try 
+        {
+            // Refuse the batch up front if it could not be journaled, then apply the trades in order,
+            // remembering each changed holding's published state before the batch
+            journal = writableJournal();
+            IdentityHashMap<Investment, Investment> changed = new IdentityHashMap<>();
+            for (int i = 0; i < size; i++) 
+            {
+                if (!valid[i]) continue;
+                try 
+                {
+                    Investment investment;
+                    if (batch.isSale(i)) 
+                    {
+                        investment = findForSale(batch.symbol(i), batch.quantity(i));
+                        investment.setPriceMicros(Money.of(batch.price(i)));
+                        completeSale(investment, batch.quantity(i), TaxLots.Method.AVERAGE_COST, null);
+                        netFlow.add(-investment.calculatePayment(batch.quantity(i), investment.getPriceMicros()));
+                    } 
+                    else 
+                    {
+                        investment = purchase(batch.type(i), batch.symbol(i), batch.name(i), batch.quantity(i), batch.price(i));
+                        if (investment == null) throw new IllegalArgumentException("Invalid investment type.");
+                    }
+                    changed.putIfAbsent(investment, investment.published);
+                    applied++;
+
+                    // Journal each trade as the single-trade methods would, before the locks are released
+                    if (journal != null) 
+                    {
+                        sequence = batch.isSale(i) 
+                            ? journal.logSell(batch.symbol(i), batch.quantity(i), batch.price(i)) 
+                            : journal.logAdd(batch.type(i), batch.symbol(i), batch.name(i), batch.quantity(i), batch.price(i));
+                    }
+                } 
+                catch (IllegalArgumentException e) 
+                {
+                    batch.reject(i, e.getMessage());
+                }
+            }
+
+            // Publish the final state of every changed holding as one snapshot
+            publishAll(changed);
+        } 
+        finally 
+        {
+            for (int stripe = LOCK_STRIPES - 1; stripe >= 0; stripe--) 
+            {
+                if (stripes[stripe]) symbolLocks[stripe].unlock();
+            }
+        }
+
+        // Report the count once every journaled trade is durable
+        awaitJournal(journal, sequence);
+        return applied;
+    }
+
+    /*
+     * Publishes a set of changed live investments, given with their published state before the change,
+     * as one new snapshot. Investments no longer in the symbol index are published as removed, and ones
+     * that joined and left within the change are skipped. The caller must hold their lock stripes.
+     */
+    private void publishAll(Map<Investment, Investment> changed) 
+    {
+        // Order the changes by ID, as the snapshot's batch update expects
+        Investment[] live = new Investment[changed.size()];
+        long[] order = new long[changed.size()];
+        int count = 0;
+        for (Investment investment : changed.keySet()) 
+        {
+            live[count] = investment;
+            order[count] = ((long) investment.id << 32) | count;
+            count++;
+        }
+        Arrays.sort(order, 0, count);
+
+        // Freeze read-only copies of the holdings still in the portfolio
+        int[] ids = new int[count];
+        Investment[] before = new Investment[count];
+        Investment[] after = new Investment[count];
+        Investment[] owners = new Investment[count];
+        int kept = 0;
+        for (int i = 0; i < count; i++) 
+        {
+            Investment investment = live[(int) order[i]];
+            Investment copy = null;
+            if (symbolIndex.get(symbolKey(investment.symbol)) == investment) 
+            {
+                copy = Investment.copyOf(investment);
+                copy.readOnly = true;
+            }
+            if (investment.published == null && copy == null) continue;
+
+            ids[kept] = investment.id;
+            before[kept] = investment.published;
+            after[kept] = copy;
+            owners[kept] = investment;
+            kept++;
+        }
+        if (kept == 0) return;
+
+        // Update the indexes and install the snapshot under the index locks of the changed holdings' stripes
+        boolean[] stripes = new boolean[LOCK_STRIPES];
+        for (int i = 0; i < kept; i++) 
+        {
+            stripes[stripeOf(symbolKey(owners[i].symbol))] = true;
+        }
+        long[] stamps = lockIndexes(stripes);
+        try 
+        {
+            // Only holdings that joined, left, or changed price or name move in the indexes
+            updateIndexes(ids, before, after, kept);
+
+            PortfolioSnapshot current;
+            do 
+            {
+                current = currentSnapshot.get();
+            } 
+            while (!currentSnapshot.compareAndSet(current, current.changeAll(ids, before, after, kept)));
+        } 
+        finally 
+        {
+            unlockIndexes(stripes, stamps);
+        }
+
+        for (int i = 0; i < kept; i++) 
+        {
+            owners[i].published = after[i];
+        }
+        notifyListeners(before, after, owners, kept);
+    }
+
+    /**
+     * Retrieves the investment at the specified index for displaying its details.
+     * 
+     * @param index The index of the investment.
+     * @return A read-only copy of the investment at the specified index, or null if the index is invalid.
+     */
+    public Investment getInvestmentAtIndex(int index) 
+    {
+        // Read from one snapshot so the bounds check and the lookup agree
+        PortfolioSnapshot investments = currentSnapshot.get();
+
+        // Check if the index is valid
+        if (index < 0 || index >= investments.size()) 
+        {
+            // Return null if the index is invalid
+            System.err.println("Invalid index: " + index + ". Index must be between 0 and " + (investments.size() - 1));
+            return null;
+        }
+
+        // Return the investment at the specified index
+        return investments.get(index);
+    }
+
+    /**
+     * Calculates the total gain for the investment portfolio.
+     * Reads the running totals of the current snapshot, so it never blocks and does not depend on the number of investments.
+     *
+     * @return The total gain for the investment portfolio.
+     */
+    public double calculateTotalGain() 
+    {
+        // Check the running totals against a full recompute when assertions are enabled
+        assert verifyTotals();
+
+        // Return the total gain for the investment portfolio
+        return currentSnapshot.get().getTotalGain();
+    }
+
+    /**
+     * Calculates the total gain for one type of investment in the portfolio.
+     *
+     * @param type The type of investment (Stock or Mutual Fund).
+     * @return The total gain for investments of that type.
+     */
+    public double calculateTotalGain(String type) 
+    {
+        return currentSnapshot.get().getTotalGain(type);
+    }
+
+    /**
+     * Returns the total market value (price times quantity) of the investment portfolio.
+     *
+     * @return The total market value.
+     */
+    public double getTotalMarketValue() 
+    {
+        return currentSnapshot.get().getTotalMarketValue();
+    }
+
+    /**
+     * Returns the total book value of the investment portfolio.
+     *
+     * @return The total book value.
+     */
+    public double getTotalBookValue() 
+    {
+        return currentSnapshot.get().getTotalBookValue();
+    }
+
+    /**
+     * Debug check comparing the running totals with a full recompute over every investment.
+     * Called from calculateTotalGain when the JVM runs with assertions enabled (java -ea).
+     *
+     * @return True if the totals match.
+     * @throws IllegalStateException If a running total has drifted.
+     */
+    public boolean verifyTotals() 
+    {
+        currentSnapshot.get().verifyTotals();
+        return true;
+    }
+
+    /**
+     * Searches for investments based on criteria such as symbol, keywords, and price range.
+     * The most selective of the symbol, keyword, and price indexes drives the search, so only candidate investments are visited.
+     * Searches never hold up trades: they read the indexes optimistically and search again if a trade changed
+     * a name or price meanwhile, and only wait for such trades after several tries.
+     *
+     * @param symbol     The symbol to search for.
+     * @param nameKeywords The keywords to search for in the investment name; every keyword must appear as a word in the name.
+     * @param minPrice   The minimum price for filtering.
+     * @param maxPrice   The maximum price for filtering.
+     * @return A list of read-only copies of the investments matching the search criteria.
+     */
+    public List<Investment> searchInvestments(String symbol, String nameKeywords, Double minPrice, Double maxPrice) 
+    {
+        // Validate the search criteria
+        if (minPrice != null && minPrice < 0) 
+        {
+            // Return an error message if the minimum price is negative
+            throw new IllegalArgumentException("Minimum price cannot be negative.");
+        }
+
+        if (maxPrice != null && maxPrice < 0) 
+        {
+            // Return an error message if the maximum price is negative
+            throw new IllegalArgumentException("Maximum price cannot be negative.");
+        }
+
+        if (minPrice != null && maxPrice != null && minPrice > maxPrice) 
+        {
+            // Return an error message if the minimum price is greater than the maximum price
+            throw new IllegalArgumentException("Minimum price cannot be greater than maximum price.");
+        }
+
+        // Search without blocking trades, then check no stripe changed a name or price while the indexes were read
+        long[] stamps = new long[LOCK_STRIPES];
+        for (int attempt = 0; attempt < OPTIMISTIC_SEARCH_ATTEMPTS; attempt++) 
+        {
+            if (!tryOptimisticReads(stamps)) 
+            {
+                Thread.onSpinWait();
+                continue;
+            }
+            List<Investment> results = searchIndexes(symbol, nameKeywords, minPrice, maxPrice);
+            if (validateReads(stamps)) return results;
+        }
+
+        // Trades kept changing names or prices, so hold every index lock in shared mode and search once more
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) 
+        {
+            stamps[stripe] = indexLocks[stripe].readLock();
+        }
+        try 
+        {
+            return searchIndexes(symbol, nameKeywords, minPrice, maxPrice);
+        } 
+        finally 
+        {
+            for (int stripe = LOCK_STRIPES - 1; stripe >= 0; stripe--) 
+            {
+                indexLocks[stripe].unlockRead(stamps[stripe]);
+            }
+        }
+    }
+
+    /*
+     * Takes an optimistic read stamp of every index lock, returning false if a trade holds one now.
+     */
+    private boolean tryOptimisticReads(long[] stamps) 
+    {
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) 
+        {
+            stamps[stripe] = indexLocks[stripe].tryOptimisticRead();
+            if (stamps[stripe] == 0) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Checks that no index lock has been taken for writing since its stamp was read.
+     */
+    private boolean validateReads(long[] stamps) 
+    {
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) 
+        {
+            if (!indexLocks[stripe].validate(stamps[stripe])) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Runs a search against the indexes and the current snapshot. Without the index locks held, the
+     * indexes may name investments the snapshot does not have; those are skipped, and the caller
+     * throws the results away anyway because its stamps no longer validate.
+     */
+    private List<Investment> searchIndexes(String symbol, String nameKeywords, Double minPrice, Double maxPrice) 
+    {
+        // Create a list to store the search results
+        List<Investment> results = new ArrayList<>();
+
+        // Look up the investments containing every keyword (null when there is no keyword filter)
+        PortfolioSnapshot investments = currentSnapshot.get();
+        IdBitmap keywordMatches = keywordIndex.query(nameKeywords);
+        boolean hasPriceFilter = minPrice != null || maxPrice != null;
+
+        // A symbol names at most one investment, so it is always the most selective index
+        if (!symbol.isEmpty()) 
+        {
+            Investment live = findBySymbol(symbol);
+            Investment investment = live == null ? null : investments.find(live.id);
+            if (investment != null && (keywordMatches == null || keywordMatches.contains(investment.id)) && matchesSearch(investment, symbol, minPrice, maxPrice)) 
+            {
+                results.add(investment);
+            }
+        }
+
+        // Drive from the price index when the price band is narrower than the keyword matches
+        else if (hasPriceFilter && (keywordMatches == null || priceIndex.countInRange(minPrice, maxPrice, keywordMatches.cardinality()) < keywordMatches.cardinality())) 
+        {
+            for (int id : priceIndex.idsInRange(minPrice, maxPrice)) 
+            {
+                // Add the investment to the results if it also contains every keyword
+                Investment investment = investments.find(id);
+                if (investment != null && (keywordMatches == null || keywordMatches.contains(id))) 
+                {
+                    results.add(investment);
+                }
+            }
+        }
+
+        // Otherwise drive from the keyword matches, which come back in the order they were added
+        else if (keywordMatches != null) 
+        {
+            keywordMatches.forEach(id -> 
+            {
+                // Add the investment to the results if it matches the remaining criteria
+                Investment investment = investments.find(id);
+                if (investment != null && matchesSearch(investment, symbol, minPrice, maxPrice)) 
+                {
+                    results.add(investment);
+                }
+            });
+        }
+
+        // Without any filter, every investment matches
+        else 
+        {
+            for (Investment investment : investments) 
+            {
+                results.add(investment);
+            }
+        }
+
+        // Return the list of search results
+        return results;
+    }
+
+    /*
+     * Checks an investment against the symbol and price range search criteria.
+     */
+    private static boolean matchesSearch(Investment investment, String symbol, Double minPrice, Double maxPrice) 
+    {
+        boolean matchesSymbol = symbol.isEmpty() || investment.getSymbol().equalsIgnoreCase(symbol);
+        boolean matchesPrice = (minPrice == null || investment.getPrice() >= minPrice) && (maxPrice == null || investment.getPrice() <= maxPrice);
+        return matchesSymbol && matchesPrice;
+    }
+
+    /**
+     * Returns a defensive copy of the investment list.
+     * Copies every investment; use snapshot() for cheap read-only access.
+     */
+    public ArrayList<Investment> getInvestments() 
+    {
+        // Create a new list and copy each investment to the new list
+        ArrayList<Investment> copyList = new ArrayList<>();
+        
+        // Copy each investment of the current snapshot to the new list
+        for (Investment investment : currentSnapshot.get()) 
+        {
+            copyList.add(Investment.copyOf(investment));
+        }
+
+        // Return the copied list
+        return copyList;
+    }
+
+    /**
+     * Loads saved holdings into an empty portfolio in one step.
+     * The holdings are indexed together and published as a single snapshot version.
+     *
+     * @param investments The holdings to load, such as an open PortfolioFile.
+     * @return The number of holdings loaded.
+     * @throws IllegalStateException If the portfolio already holds investments.
+     * @throws IllegalArgumentException If two holdings share a symbol.
+     * @throws RuntimeException Whatever reading the holdings throws, such as an UncheckedIOException
+     *                          for a damaged file; the portfolio is left empty.
+     */
+    public int loadPortfolio(Iterable<Investment> investments) 
+    {
+        // Take every lock stripe so no trade can run while the portfolio is filled
+        for (ReentrantLock lock : symbolLocks) lock.lock();
+        try 
+        {
+            if (!symbolIndex.isEmpty()) 
+            {
+                throw new IllegalStateException("Investments can only be loaded into an empty portfolio.");
+            }
+
+            // Create a live investment under a new stable ID for every saved holding
+            ArrayList<Investment> loaded = new ArrayList<>();
+            int firstId = nextId.get();
+            try 
+            {
+                for (Investment saved : investments) 
+                {
+                    Investment investment = Investment.copyOf(saved);
+                    investment.id = nextId.getAndIncrement();
+                    if (symbolIndex.putIfAbsent(symbolKey(investment.getSymbol()), investment) != null) 
+                    {
+                        throw new IllegalArgumentException("Duplicate investment symbol '" + investment.getSymbol() + "'.");
+                    }
+                    loaded.add(investment);
+                }
+            } 
+            catch (RuntimeException e) 
+            {
+                // Undo the partial load, whether a holding was a duplicate or the source failed part way, so the portfolio stays empty
+                symbolIndex.clear();
+                nextId.set(firstId);
+                throw e;
+            }
+
+            // Freeze read-only copies; IDs were handed out in ascending order
+            int count = loaded.size();
+            int[] ids = new int[count];
+            Investment[] before = new Investment[count];
+            Investment[] after = new Investment[count];
+            for (int i = 0; i < count; i++) 
+            {
+                Investment investment = loaded.get(i);
+                ids[i] = investment.id;
+                after[i] = Investment.copyOf(investment);
+                after[i].readOnly = true;
+                investment.published = after[i];
+            }
+
+            // Index the holdings and publish them as one snapshot under every index lock
+            boolean[] stripes = new boolean[LOCK_STRIPES];
+            Arrays.fill(stripes, true);
+            long[] stamps = lockIndexes(stripes);
+            try 
+            {
+                updateIndexes(ids, before, after, count);
+
+                PortfolioSnapshot current;
+                do 
+                {
+                    current = currentSnapshot.get();
+                } 
+                while (!currentSnapshot.compareAndSet(current, current.changeAll(ids, before, after, count)));
+            } 
+            finally 
+            {
+                unlockIndexes(stripes, stamps);
+            }
+            notifyListeners(before, after, null, count);
+
+            // Return the number of holdings loaded
+            return count;
+        } 
+        finally 
+        {
+            for (ReentrantLock lock : symbolLocks) lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of the portfolio.
+     * Taking a snapshot does not copy anything, and the snapshot keeps showing the same
+     * investments however the portfolio changes afterwards.
+     *
+     * @return The snapshot of the current portfolio version.
+     */
+    public PortfolioSnapshot snapshot() 
+    {
+        return currentSnapshot.get();
+    }
+
+    /**
+     * Returns the publisher of the portfolio's changes.
+     * Subscribers receive batches of events, merged per holding while they have not asked for more.
+     *
+     * @return The publisher.
+     */
+    public PortfolioEvents events() 
+    {
+        return events;
+    }
+
+    /**
+     * Returns the current portfolio version, which goes up by one with every change.
+     *
+     * @return The version number.
+     */
+    public long getVersion() 
+    {
+        return currentSnapshot.get().getVersion();
+    }
+
+    /*
+     * Returns the money paid for purchases, fees included, less the payments received for sales since
+     * the portfolio was created, in micros. Read it from quiesce's action to match the snapshot quiesce returns.
+     */
+    long getNetFlowMicros() 
+    {
+        return netFlow.sum();
+    }
+}
@@ -0,0 +1,368 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The PortfolioCli class runs the portfolio without a GUI, for servers and scripts. It takes one
+ * command from its arguments, or one command per line from a script file or standard input, and
+ * answers each with one line of JSON, so its output can be read by other programs. It never
+ * touches Swing or AWT, so nothing of either is loaded and the JVM starts as fast as it can.
+ *
+ * Commands (names and values with spaces go in double quotes in scripts; # starts a comment):
+ *   buy stock|fund SYMBOL NAME QUANTITY PRICE
+ *   sell SYMBOL QUANTITY PRICE [average|fifo|lifo|LOT,LOT,...]
+ *   update SYMBOL PRICE
+ *   search [symbol=SYMBOL] [keywords=WORDS] [min=PRICE] [max=PRICE]
+ *   gain [stock|fund]
+ *
+ * Each answer has "command" and "ok"; a failed command has "error" with the reason and the rest
+ * of the script still runs. Amounts are exact decimal dollars. The exit status is 0 when every
+ * command succeeded, 1 when any failed and 2 when the arguments could not be understood.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java
+ * Run Command: java -cp bin ePortfolio.PortfolioCli [--file portfolio.dat | --journal directory] [--script file|-] [command ...]
+ * With --file, the portfolio is loaded at startup (if the file exists) and saved after the commands
+ * if they changed it. With --journal, it is recovered from the journal directory and every change
+ * is made durable as it happens.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PortfolioCli
+{
+    // Journal records between automatic checkpoints, as in the GUI
+    private static final long JOURNAL_CHECKPOINT_INTERVAL = 100_000;
+
+    // Exit statuses
+    private static final int OK = 0;
+    private static final int FAILED = 1;
+    private static final int USAGE = 2;
+
+    // Commands on the portfolio and where the answers go
+    private final PortfolioCommands commands;
+    private final Writer out;
+
+    // Whether any command has failed
+    private boolean failed;
+
+    // Constructor
+    PortfolioCli(Portfolio portfolio, Writer out)
+    {
+        this.commands = new PortfolioCommands(portfolio);
+        this.out = out;
+    }
+
+    // Main method to run the commands
+    public static void main(String[] args) throws IOException
+    {
+        // Read the options
+        Path file = null;
+        Path journalDirectory = null;
+        String script = null;
+        int next = 0;
+        while (next < args.length && args[next].startsWith("--"))
+        {
+            String option = args[next++];
+            if (next == args.length) System.exit(usage("Option " + option + " needs a value."));
+            switch (option)
+            {
+                case "--file" -> file = Paths.get(args[next++]);
+                case "--journal" -> journalDirectory = Paths.get(args[next++]);
+                case "--script" -> script = args[next++];
+                default -> System.exit(usage("Unknown option " + option + "."));
+            }
+        }
+        if (file != null && journalDirectory != null) System.exit(usage("Use either --file or --journal, not both."));
+        if ((script == null) == (next == args.length)) System.exit(usage("Give either a command or a --script, but not both."));
+
+        // Load or recover the portfolio
+        Portfolio portfolio = Portfolio.getDefault();
+        TradeJournal journal = null;
+        try
+        {
+            if (journalDirectory != null) journal = TradeJournal.open(portfolio, journalDirectory, JOURNAL_CHECKPOINT_INTERVAL);
+            else if (file != null && Files.exists(file))
+            {
+                try (PortfolioFile saved = PortfolioFile.open(file))
+                {
+                    portfolio.loadPortfolio(saved);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            System.err.println("Could not load the portfolio: " + e.getMessage());
+            System.exit(FAILED);
+        }
+        long loadedVersion = portfolio.getVersion();
+
+        // Run the command or the script, answering on standard output
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        PortfolioCli cli = new PortfolioCli(portfolio, out);
+        if (script == null)
+        {
+            List<String> command = new ArrayList<>();
+            for (int i = next; i < args.length; i++) command.add(args[i]);
+            cli.run(command);
+        }
+        else if (script.equals("-"))
+        {
+            cli.runScript(new InputStreamReader(System.in, StandardCharsets.UTF_8), true);
+        }
+        else
+        {
+            try (Reader reader = Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8))
+            {
+                cli.runScript(reader, false);
+            }
+        }
+        out.flush();
+
+        // Save the portfolio or close the journal
+        try
+        {
+            if (file != null && portfolio.getVersion() != loadedVersion) PortfolioFile.save(portfolio, file);
+            if (journal != null) journal.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not save the portfolio: " + e.getMessage());
+            System.exit(FAILED);
+        }
+        System.exit(cli.failed ? FAILED : OK);
+    }
+
+    /*
+     * Prints a usage message and returns the usage exit status.
+     */
+    private static int usage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println("Usage: java -cp bin ePortfolio.PortfolioCli [--file portfolio.dat | --journal directory] [--script file|-] [command ...]");
+        return USAGE;
+    }
+
+    /**
+     * Runs one command per line of a script, skipping blank lines and comments.
+     *
+     * @param script      The script.
+     * @param interactive Whether to flush each answer as soon as it is written, for a person or program waiting on it.
+     * @throws IOException If the script cannot be read or an answer cannot be written.
+     */
+    void runScript(Reader script, boolean interactive) throws IOException
+    {
+        BufferedReader reader = script instanceof BufferedReader ? (BufferedReader) script : new BufferedReader(script);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null)
+        {
+            lineNumber++;
+            try
+            {
+                List<String> command = split(line);
+                if (command.isEmpty()) continue;
+                run(command);
+            }
+            catch (IllegalArgumentException e)
+            {
+                // A line that cannot even be split is answered like a failed command
+                failed = true;
+                StringBuilder answer = new StringBuilder("{\"command\":null,\"ok\":false,\"line\":").append(lineNumber).append(",\"error\":");
+                Json.appendString(answer, e.getMessage());
+                write(answer.append('}'));
+            }
+            if (interactive) out.flush();
+        }
+    }
+
+    /**
+     * Runs one command and writes its answer.
+     *
+     * @param command The command name followed by its arguments.
+     * @throws IOException If the answer cannot be written.
+     */
+    void run(List<String> command) throws IOException
+    {
+        String name = command.get(0).toLowerCase(Locale.ROOT);
+        StringBuilder answer = new StringBuilder("{\"command\":");
+        Json.appendString(answer, name);
+        try
+        {
+            // Run the command, which adds its results to the answer
+            List<String> arguments = command.subList(1, command.size());
+            StringBuilder results = new StringBuilder();
+            switch (name)
+            {
+                case "buy" -> buy(arguments, results);
+                case "sell" -> sell(arguments, results);
+                case "update" -> update(arguments, results);
+                case "search" -> search(arguments, results);
+                case "gain" -> gain(arguments, results);
+                default -> throw new IllegalArgumentException("Unknown command. Use buy, sell, update, search or gain.");
+            }
+            answer.append(",\"ok\":true").append(results);
+        }
+        catch (RuntimeException e)
+        {
+            // Bad numbers, refused trades and journal failures all fail just this command
+            failed = true;
+            answer.append(",\"ok\":false,\"error\":");
+            Json.appendString(answer, e instanceof NumberFormatException ? "Quantities and prices must be valid numbers." : e.getMessage());
+        }
+        write(answer.append('}'));
+    }
+
+    /*
+     * buy stock|fund SYMBOL NAME QUANTITY PRICE
+     */
+    private void buy(List<String> arguments, StringBuilder results)
+    {
+        expect(arguments, 5, 5, "buy stock|fund SYMBOL NAME QUANTITY PRICE");
+        commands.buy(arguments.get(0), arguments.get(1), arguments.get(2), Integer.parseInt(arguments.get(3)), Double.parseDouble(arguments.get(4)), results);
+    }
+
+    /*
+     * sell SYMBOL QUANTITY PRICE [average|fifo|lifo|LOT,LOT,...]
+     */
+    private void sell(List<String> arguments, StringBuilder results)
+    {
+        expect(arguments, 3, 4, "sell SYMBOL QUANTITY PRICE [average|fifo|lifo|LOT,LOT,...]");
+
+        // Work out how to pick the lots; anything but a method name is a list of lot numbers
+        String method = arguments.size() == 4 ? arguments.get(3).toLowerCase(Locale.ROOT) : null;
+        int[] lotIds = null;
+        if (method != null && !method.equals("average") && !method.equals("fifo") && !method.equals("lifo"))
+        {
+            String[] lots = method.split(",");
+            lotIds = new int[lots.length];
+            for (int i = 0; i < lots.length; i++) lotIds[i] = Integer.parseInt(lots[i].trim());
+        }
+        commands.sell(arguments.get(0), Integer.parseInt(arguments.get(1)), Double.parseDouble(arguments.get(2)), method, lotIds, results);
+    }
+
+    /*
+     * update SYMBOL PRICE
+     */
+    private void update(List<String> arguments, StringBuilder results)
+    {
+        expect(arguments, 2, 2, "update SYMBOL PRICE");
+        commands.update(arguments.get(0), Double.parseDouble(arguments.get(1)), results);
+    }
+
+    /*
+     * search [symbol=SYMBOL] [keywords=WORDS] [min=PRICE] [max=PRICE]
+     */
+    private void search(List<String> arguments, StringBuilder results)
+    {
+        // Read the filters
+        String symbol = "";
+        String keywords = "";
+        Double minPrice = null;
+        Double maxPrice = null;
+        for (String argument : arguments)
+        {
+            int equals = argument.indexOf('=');
+            String value = argument.substring(equals + 1);
+            switch (equals < 0 ? "" : argument.substring(0, equals).toLowerCase(Locale.ROOT))
+            {
+                case "symbol" -> symbol = value;
+                case "keywords" -> keywords = value;
+                case "min" -> minPrice = Double.parseDouble(value);
+                case "max" -> maxPrice = Double.parseDouble(value);
+                default -> throw new IllegalArgumentException("Usage: search [symbol=SYMBOL] [keywords=WORDS] [min=PRICE] [max=PRICE]");
+            }
+        }
+        commands.search(symbol, keywords, minPrice, maxPrice, results);
+    }
+
+    /*
+     * gain [stock|fund]
+     */
+    private void gain(List<String> arguments, StringBuilder results)
+    {
+        expect(arguments, 0, 1, "gain [stock|fund]");
+        commands.gain(arguments.isEmpty() ? null : arguments.get(0), results);
+    }
+
+    /*
+     * Checks the number of arguments of a command.
+     */
+    private static void expect(List<String> arguments, int min, int max, String usage)
+    {
+        if (arguments.size() < min || arguments.size() > max) throw new IllegalArgumentException("Usage: " + usage);
+    }
+
+    /*
+     * Writes one answer line.
+     */
+    private void write(CharSequence answer) throws IOException
+    {
+        out.append(answer).append('\n');
+    }
+
+    /**
+     * Splits a script line into words at spaces and tabs. Double quotes group words with spaces,
+     * a backslash inside them escapes the next character, and # outside them starts a comment.
+     *
+     * @param line The line.
+     * @return The words, empty for a blank or comment line.
+     * @throws IllegalArgumentException If a quote is not closed.
+     */
+    static List<String> split(String line)
+    {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            if (quoted)
+            {
+                if (c == '"') quoted = false;
+                else if (c == '\\' && i + 1 < line.length()) word.append(line.charAt(++i));
+                else word.append(c);
+            }
+            else if (c == '"')
+            {
+                quoted = true;
+                inWord = true;
+            }
+            else if (c == ' ' || c == '\t')
+            {
+                if (inWord) words.add(word.toString());
+                word.setLength(0);
+                inWord = false;
+            }
+            else if (c == '#' && !inWord)
+            {
+                break;
+            }
+            else
+            {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("Unclosed quote.");
+        if (inWord) words.add(word.toString());
+        return words;
+    }
+}
@@ -0,0 +1,188 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The PortfolioCommands class carries out the headless commands on a portfolio and writes their
+ * results as JSON members, so the command line and the HTTP API give the same answers. Each
+ * command appends its results, starting with a comma, to the members of an answer object that the
+ * caller has opened; a command that is refused throws instead and appends nothing. It never
+ * touches Swing or AWT.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+final class PortfolioCommands
+{
+    // Portfolio the commands act on
+    private final Portfolio portfolio;
+
+    // Constructor
+    PortfolioCommands(Portfolio portfolio)
+    {
+        this.portfolio = portfolio;
+    }
+
+    /**
+     * Buys units of an investment and reports the holding after the purchase.
+     *
+     * @param type     The investment type: stock or fund.
+     * @param symbol   The symbol.
+     * @param name     The name.
+     * @param quantity The units bought.
+     * @param price    The price per unit.
+     * @param results  The answer to add the results to.
+     * @throws IllegalArgumentException If the type is unknown or the purchase is refused.
+     */
+    void buy(String type, String symbol, String name, int quantity, double price, StringBuilder results)
+    {
+        portfolio.addInvestment(type(type), symbol, name, quantity, price);
+        appendHolding(results.append(",\"holding\":"), find(symbol));
+    }
+
+    /**
+     * Sells units of a holding and reports the payment, the gain and what is left.
+     *
+     * @param symbol   The symbol.
+     * @param quantity The units sold.
+     * @param price    The price per unit.
+     * @param method   How to pick the lots: average, fifo or lifo; ignored when lot numbers are given.
+     * @param lotIds   The lot numbers to sell from in order, or null to pick them by method.
+     * @param results  The answer to add the results to.
+     * @throws IllegalArgumentException If the method is unknown or the sale is refused.
+     */
+    void sell(String symbol, int quantity, double price, String method, int[] lotIds, StringBuilder results)
+    {
+        long[] amounts = new long[2];
+        Investment holding = portfolio.sellInvestment(symbol, quantity, price, lotIds != null ? TaxLots.Method.SPECIFIC_ID : method(method), lotIds, amounts);
+        Json.appendMoney(results.append(",\"payment\":"), amounts[0]);
+        Json.appendMoney(results.append(",\"gain\":"), amounts[1]);
+        appendHolding(results.append(",\"holding\":"), holding);
+    }
+
+    /**
+     * Sets the price of a holding, keeping its name, and reports the holding after the update.
+     *
+     * @param symbol  The symbol.
+     * @param price   The new price per unit.
+     * @param results The answer to add the results to.
+     * @throws IllegalArgumentException If the symbol is not held or the price is refused.
+     */
+    void update(String symbol, double price, StringBuilder results)
+    {
+        appendHolding(results.append(",\"holding\":"), portfolio.updatePrice(symbol, price));
+    }
+
+    /**
+     * Lists the holdings matching every filter given.
+     *
+     * @param symbol   The exact symbol, or empty for any.
+     * @param keywords The words the name must contain, or empty for any.
+     * @param minPrice The lowest price, or null for none.
+     * @param maxPrice The highest price, or null for none.
+     * @param results  The answer to add the results to.
+     */
+    void search(String symbol, String keywords, Double minPrice, Double maxPrice, StringBuilder results)
+    {
+        List<Investment> matches = portfolio.searchInvestments(symbol, keywords, minPrice, maxPrice);
+        results.append(",\"count\":").append(matches.size()).append(",\"results\":[");
+        for (int i = 0; i < matches.size(); i++)
+        {
+            if (i > 0) results.append(',');
+            appendHolding(results, matches.get(i));
+        }
+        results.append(']');
+    }
+
+    /**
+     * Reports the total gain with the market and book value behind it, or the gain of one type of investment.
+     *
+     * @param type    The investment type, stock or fund, or null for the whole portfolio.
+     * @param results The answer to add the results to.
+     * @throws IllegalArgumentException If the type is unknown.
+     */
+    void gain(String type, StringBuilder results)
+    {
+        // Read every total from one snapshot so they agree with each other
+        PortfolioSnapshot snapshot = portfolio.snapshot();
+        if (type == null)
+        {
+            Json.appendMoney(results.append(",\"gain\":"), snapshot.getTotalGainMicros());
+            Json.appendMoney(results.append(",\"marketValue\":"), snapshot.getTotalMarketValueMicros());
+            Json.appendMoney(results.append(",\"bookValue\":"), snapshot.getTotalBookValueMicros());
+            results.append(",\"holdings\":").append(snapshot.size());
+            return;
+        }
+        String investmentType = type(type);
+        results.append(",\"type\":");
+        Json.appendString(results, investmentType);
+        Json.appendMoney(results.append(",\"gain\":"), snapshot.getTotalGainMicros(investmentType));
+    }
+
+    /**
+     * Returns the read-only holding of a symbol.
+     *
+     * @param symbol The symbol.
+     * @return The holding, or null if it is not held.
+     */
+    Investment find(String symbol)
+    {
+        List<Investment> matches = portfolio.searchInvestments(symbol, "", null, null);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /*
+     * Maps a command's investment type to the portfolio's.
+     */
+    private static String type(String type)
+    {
+        return switch (type.toLowerCase(Locale.ROOT))
+        {
+            case "stock" -> "stock";
+            case "fund", "mutualfund", "mutual fund" -> "mutual fund";
+            default -> throw new IllegalArgumentException("Type must be stock or fund.");
+        };
+    }
+
+    /*
+     * Maps a command's lot method to the portfolio's; null means average cost.
+     */
+    private static TaxLots.Method method(String method)
+    {
+        if (method == null) return TaxLots.Method.AVERAGE_COST;
+        return switch (method.toLowerCase(Locale.ROOT))
+        {
+            case "average" -> TaxLots.Method.AVERAGE_COST;
+            case "fifo" -> TaxLots.Method.FIFO;
+            case "lifo" -> TaxLots.Method.LIFO;
+            default -> throw new IllegalArgumentException("Method must be average, fifo or lifo.");
+        };
+    }
+
+    /*
+     * Appends a holding as a JSON object, or null.
+     */
+    private static void appendHolding(StringBuilder json, Investment holding)
+    {
+        if (holding == null)
+        {
+            json.append("null");
+            return;
+        }
+        json.append("{\"type\":");
+        Json.appendString(json, holding instanceof Investment.Stock ? "stock" : "fund");
+        json.append(",\"symbol\":");
+        Json.appendString(json, holding.getSymbol());
+        json.append(",\"name\":");
+        Json.appendString(json, holding.getName());
+        json.append(",\"quantity\":").append(holding.getQuantity());
+        Json.appendMoney(json.append(",\"price\":"), holding.getPriceMicros());
+        Json.appendMoney(json.append(",\"bookValue\":"), holding.getBookValueMicros());
+        json.append(",\"lots\":").append(holding.getLots().size()).append('}');
+    }
+}
@@ -0,0 +1,146 @@
+// Package
+package ePortfolio;
+
+/**
+ * The PortfolioEvent class describes one change to one holding of a portfolio, as the read-only
+ * holding before and after it. Events are immutable. Several changes to the same holding that a
+ * subscriber has not yet received are merged into one event from the first state to the last, so
+ * a burst of price ticks reaches it as a single price change.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PortfolioEvent
+{
+    /**
+     * The kinds of change, from the holding before and after it.
+     */
+    public enum Kind
+    {
+        /** The holding joined the portfolio. */
+        ADDED,
+        /** The number of units held changed; the price and book value may have changed with it. */
+        QUANTITY_CHANGED,
+        /** The price, or the name, changed and the number of units did not. */
+        PRICE_CHANGED,
+        /** The holding left the portfolio. */
+        REMOVED
+    }
+
+    // Investment ID, the kind of change and the holding before and after it
+    private final int id;
+    private final Kind kind;
+    private final Investment before;
+    private final Investment after;
+
+    // Constructor
+    private PortfolioEvent(int id, Kind kind, Investment before, Investment after)
+    {
+        this.id = id;
+        this.kind = kind;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Returns the event for one change to a holding.
+     *
+     * @param before The read-only holding before the change, or null if it is joining the portfolio.
+     * @param after  The read-only holding after the change, or null if it is leaving the portfolio.
+     * @return The event, or null if the holding neither joined, left nor changed.
+     */
+    static PortfolioEvent of(Investment before, Investment after)
+    {
+        Kind kind;
+        if (before == null && after == null) return null;
+        else if (before == null) kind = Kind.ADDED;
+        else if (after == null) kind = Kind.REMOVED;
+        else if (before.getQuantity() != after.getQuantity()) kind = Kind.QUANTITY_CHANGED;
+        else if (before.getPriceMicros() != after.getPriceMicros() || !before.getName().equals(after.getName())) kind = Kind.PRICE_CHANGED;
+        else if (before.getBookValueMicros() != after.getBookValueMicros()) kind = Kind.QUANTITY_CHANGED;
+        else return null;
+        return new PortfolioEvent(after != null ? after.id : before.id, kind, before, after);
+    }
+
+    /**
+     * Returns this event followed by a later one for the same holding, as one event.
+     *
+     * @param later The later event.
+     * @return The merged event, or null if the two cancel out, such as a holding that joined and left.
+     */
+    PortfolioEvent merge(PortfolioEvent later)
+    {
+        return of(before, later.after);
+    }
+
+    /*
+     * Returns the ID of the investment that changed.
+     */
+    int getId()
+    {
+        return id;
+    }
+
+    /**
+     * Returns the kind of change.
+     *
+     * @return The kind.
+     */
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * Returns the symbol of the holding that changed.
+     *
+     * @return The symbol.
+     */
+    public String getSymbol()
+    {
+        return after != null ? after.getSymbol() : before.getSymbol();
+    }
+
+    /**
+     * Returns the holding before the change.
+     *
+     * @return A read-only copy, or null for an added holding.
+     */
+    public Investment getBefore()
+    {
+        return before;
+    }
+
+    /**
+     * Returns the holding after the change.
+     *
+     * @return A read-only copy, or null for a removed holding.
+     */
+    public Investment getAfter()
+    {
+        return after;
+    }
+
+    /**
+     * Returns how much the change moved the portfolio's total gain, so a running total can be kept without rereading the holdings.
+     *
+     * @return The gain after the change minus the gain before it, in micros.
+     */
+    public long getGainChangeMicros()
+    {
+        long gainBefore = before == null ? 0 : Money.subtract(before.getMarketValueMicros(), before.getBookValueMicros());
+        long gainAfter = after == null ? 0 : Money.subtract(after.getMarketValueMicros(), after.getBookValueMicros());
+        return Money.subtract(gainAfter, gainBefore);
+    }
+
+    /*
+     * Overridden toString method to display the change.
+     */
+    @Override
+    public String toString()
+    {
+        return kind + " " + getSymbol();
+    }
+}
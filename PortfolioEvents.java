@@ -0,0 +1,255 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The PortfolioEvents class publishes the changes to a portfolio's holdings as a Flow of
+ * PortfolioEvent batches, so views can apply what changed instead of rebuilding from the whole
+ * portfolio. Each item a subscriber receives is the list of holdings that changed since its last
+ * item, one event per holding in the order they first changed.
+ *
+ * Trading never waits for a subscriber. Changes a subscriber has not asked for yet are held for it
+ * and merged per holding, so a subscriber that asks for one batch at a time and is slow, such as
+ * one on the event dispatch thread during a burst of price ticks, gets one event per holding for
+ * the whole burst, and what is held for it never grows past one event per holding. Items are
+ * delivered on the executor given when subscribing, one at a time. The flow never completes.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PortfolioEvents implements Flow.Publisher<List<PortfolioEvent>>
+{
+    // Current subscriptions, replaced whole when one is added or removed
+    private volatile EventSubscription[] subscriptions = new EventSubscription[0];
+
+    // Constructor; Portfolio creates one per portfolio and tells it every change
+    PortfolioEvents()
+    {
+    }
+
+    /**
+     * Subscribes to the changes, delivering batches on the common fork-join pool.
+     *
+     * @param subscriber The subscriber.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<PortfolioEvent>> subscriber)
+    {
+        subscribe(subscriber, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Subscribes to the changes made from now on, delivering batches on an executor, such as
+     * PortfolioService.EDT for a view. A subscriber that also wants the state to start from can take
+     * a snapshot after subscribing; changes it already includes may be delivered again.
+     *
+     * @param subscriber The subscriber.
+     * @param executor   Where to call the subscriber.
+     */
+    public void subscribe(Flow.Subscriber<? super List<PortfolioEvent>> subscriber, Executor executor)
+    {
+        EventSubscription subscription = new EventSubscription(subscriber, executor);
+        synchronized (this)
+        {
+            EventSubscription[] next = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            next[subscriptions.length] = subscription;
+            subscriptions = next;
+        }
+        executor.execute(() -> subscriber.onSubscribe(subscription));
+    }
+
+    /**
+     * Returns the number of subscriptions that have not been cancelled.
+     *
+     * @return The number of subscribers.
+     */
+    public int getSubscriberCount()
+    {
+        return subscriptions.length;
+    }
+
+    /*
+     * Hands one change to every subscription; called by the portfolio on the trading thread.
+     */
+    void publish(Investment before, Investment after)
+    {
+        EventSubscription[] current = subscriptions;
+        if (current.length == 0) return;
+        PortfolioEvent event = PortfolioEvent.of(before, after);
+        if (event == null) return;
+        for (EventSubscription subscription : current) subscription.offer(event);
+    }
+
+    /*
+     * Hands a batch of changes made together to every subscription, so they reach each subscriber
+     * in the same item; called by the portfolio on the trading thread.
+     */
+    void publishAll(Investment[] before, Investment[] after, int count)
+    {
+        EventSubscription[] current = subscriptions;
+        if (current.length == 0 || count == 0) return;
+        PortfolioEvent[] events = new PortfolioEvent[count];
+        for (int i = 0; i < count; i++) events[i] = PortfolioEvent.of(before[i], after[i]);
+        for (EventSubscription subscription : current) subscription.offer(events);
+    }
+
+    /*
+     * Drops a cancelled subscription.
+     */
+    private synchronized void remove(EventSubscription subscription)
+    {
+        for (int i = 0; i < subscriptions.length; i++)
+        {
+            if (subscriptions[i] != subscription) continue;
+            EventSubscription[] next = Arrays.copyOf(subscriptions, subscriptions.length - 1);
+            System.arraycopy(subscriptions, i + 1, next, i, subscriptions.length - i - 1);
+            subscriptions = next;
+            return;
+        }
+    }
+
+    /*
+     * One subscriber's demand and the changes held for it, merged per holding until it asks for them.
+     */
+    private final class EventSubscription implements Flow.Subscription
+    {
+        // Subscriber and where to call it
+        private final Flow.Subscriber<? super List<PortfolioEvent>> subscriber;
+        private final Executor executor;
+
+        // Changes not yet delivered by investment ID in the order first changed, batches asked for
+        // and not yet delivered, and whether a delivery is queued or running; all guarded by this
+        private final Map<Integer, PortfolioEvent> pending = new LinkedHashMap<>();
+        private long demand;
+        private boolean delivering;
+        private boolean cancelled;
+
+        EventSubscription(Flow.Subscriber<? super List<PortfolioEvent>> subscriber, Executor executor)
+        {
+            this.subscriber = subscriber;
+            this.executor = executor;
+        }
+
+        /*
+         * Holds a change for the subscriber and queues a delivery if one is wanted.
+         */
+        synchronized void offer(PortfolioEvent event)
+        {
+            if (cancelled) return;
+            hold(event);
+            schedule();
+        }
+
+        /*
+         * Holds changes made together for the subscriber and queues one delivery for all of them if one is wanted.
+         */
+        synchronized void offer(PortfolioEvent[] events)
+        {
+            if (cancelled) return;
+            for (PortfolioEvent event : events)
+            {
+                if (event != null) hold(event);
+            }
+            schedule();
+        }
+
+        /*
+         * Holds a change, merging it with one already held for the same holding; called holding this.
+         */
+        private void hold(PortfolioEvent event)
+        {
+            PortfolioEvent held = pending.get(event.getId());
+            if (held == null) pending.put(event.getId(), event);
+            else
+            {
+                PortfolioEvent merged = held.merge(event);
+                if (merged == null) pending.remove(event.getId());
+                else pending.put(event.getId(), merged);
+            }
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0)
+            {
+                // The Flow rules answer a non-positive request by cancelling with an error
+                cancel();
+                executor.execute(() -> subscriber.onError(new IllegalArgumentException("Request must be positive, was " + n + ".")));
+                return;
+            }
+            synchronized (this)
+            {
+                if (cancelled) return;
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                schedule();
+            }
+        }
+
+        @Override
+        public void cancel()
+        {
+            synchronized (this)
+            {
+                if (cancelled) return;
+                cancelled = true;
+                pending.clear();
+            }
+            remove(this);
+        }
+
+        /*
+         * Queues a delivery if there are changes, demand for them and none queued; called holding this.
+         */
+        private void schedule()
+        {
+            if (delivering || demand == 0 || pending.isEmpty()) return;
+            delivering = true;
+            executor.execute(this::deliver);
+        }
+
+        /*
+         * Delivers everything held as one batch, then queues the next delivery if more has come in and is wanted.
+         */
+        private void deliver()
+        {
+            List<PortfolioEvent> batch;
+            synchronized (this)
+            {
+                if (cancelled) return;
+                batch = new ArrayList<>(pending.values());
+                pending.clear();
+                demand--;
+            }
+
+            try
+            {
+                subscriber.onNext(batch);
+            }
+            catch (RuntimeException e)
+            {
+                // A subscriber that throws is dropped and told why
+                cancel();
+                subscriber.onError(e);
+                return;
+            }
+
+            synchronized (this)
+            {
+                delivering = false;
+                schedule();
+            }
+        }
+    }
+}
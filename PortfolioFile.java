@@ -0,0 +1,462 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * The PortfolioFile class reads and writes the binary portfolio format used to save the holdings
+ * between sessions. Opening a file maps only its header and block table; the holdings themselves
+ * sit in fixed-size records grouped into blocks, and each block is mapped, checked against its
+ * CRC32C checksum and decoded the first time one of its records is read. A large portfolio
+ * therefore opens in about the same time as a small one.
+ *
+ * File layout (little-endian):
+ * - Header, 64 bytes: magic, format version, portfolio version, holding count, records per block,
+ *   block count, block table checksum and header checksum.
+ * - Block table: offset (long), length (int) and CRC32C (int) of every block.
+ * - Blocks: RECORD_SIZE-byte records followed by the length-prefixed UTF-8 symbols and names they point to.
+ *   From version 3 each name is followed by the holding's tax lots: the lot count (int, 0 for a holding
+ *   that is a single lot), the next lot number (int), then the number (int), units (int) and cost (long,
+ *   in micros) of each lot.
+ *
+ * Each record holds the type (byte, padded to 4), quantity (int), price and book value (longs
+ * in micros; doubles in dollars in version 1 files, which can still be read), and the offsets of
+ * its symbol and name from the start of its block.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PortfolioFile implements Iterable<Investment>, Closeable
+{
+    // Format identification
+    private static final int MAGIC = 0x54525045; // "EPRT"
+    private static final int FORMAT_VERSION = 3;
+    private static final int NO_LOTS_FORMAT_VERSION = 2;
+    private static final int DOLLARS_FORMAT_VERSION = 1;
+
+    // Sizes of the fixed parts of the file
+    private static final int HEADER_SIZE = 64;
+    private static final int TABLE_ENTRY_SIZE = 16;
+    private static final int RECORD_SIZE = 32;
+
+    // Records per block when writing
+    private static final int RECORDS_PER_BLOCK = 4096;
+
+    // Record type codes
+    private static final byte STOCK = 1;
+    private static final byte MUTUAL_FUND = 2;
+
+    // Open file and the layout read from its header and block table
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean dollars;
+    private final boolean hasLots;
+    private final long portfolioVersion;
+    private final int count;
+    private final int recordsPerBlock;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] blockChecksums;
+
+    // Blocks mapped and verified so far
+    private final MappedByteBuffer[] blocks;
+
+    // Constructor, reading and checking the header and block table
+    private PortfolioFile(Path path, FileChannel channel) throws IOException
+    {
+        this.path = path;
+        this.channel = channel;
+
+        // Read and check the header
+        ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC) throw new IOException(path + " is not a portfolio file.");
+        int formatVersion = header.getInt(4);
+        if (formatVersion < DOLLARS_FORMAT_VERSION || formatVersion > FORMAT_VERSION) throw new IOException(path + " uses unsupported format version " + formatVersion + ".");
+        if (header.getInt(32) != checksum(header, 0, 32)) throw new IOException(path + " has a corrupt header.");
+
+        dollars = formatVersion == DOLLARS_FORMAT_VERSION;
+        hasLots = formatVersion > NO_LOTS_FORMAT_VERSION;
+        portfolioVersion = header.getLong(8);
+        count = header.getInt(16);
+        recordsPerBlock = header.getInt(20);
+        int blockCount = header.getInt(24);
+        int tableChecksum = header.getInt(28);
+
+        // Read and check the block table
+        ByteBuffer table = readFully(channel, HEADER_SIZE, blockCount * TABLE_ENTRY_SIZE);
+        if (checksum(table, 0, table.limit()) != tableChecksum) throw new IOException(path + " has a corrupt block table.");
+
+        blockOffsets = new long[blockCount];
+        blockLengths = new int[blockCount];
+        blockChecksums = new int[blockCount];
+        for (int i = 0; i < blockCount; i++)
+        {
+            blockOffsets[i] = table.getLong(i * TABLE_ENTRY_SIZE);
+            blockLengths[i] = table.getInt(i * TABLE_ENTRY_SIZE + 8);
+            blockChecksums[i] = table.getInt(i * TABLE_ENTRY_SIZE + 12);
+        }
+        blocks = new MappedByteBuffer[blockCount];
+    }
+
+    /**
+     * Opens a portfolio file for reading.
+     * Only the header and block table are read here; records are mapped and decoded on access.
+     *
+     * @param path The file to open.
+     * @return The open file, which should be closed when no longer needed.
+     * @throws IOException If the file cannot be read or is not a valid portfolio file.
+     */
+    public static PortfolioFile open(Path path) throws IOException
+    {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            return new PortfolioFile(path, channel);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Saves the current default portfolio to a file.
+     *
+     * @param path The file to write; it is replaced only once the new contents are complete.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void save(Path path) throws IOException
+    {
+        save(Portfolio.getDefault(), path);
+    }
+
+    /**
+     * Saves the current state of a portfolio to a file.
+     *
+     * @param portfolio The portfolio to save.
+     * @param path      The file to write; it is replaced only once the new contents are complete.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void save(Portfolio portfolio, Path path) throws IOException
+    {
+        PortfolioSnapshot snapshot = portfolio.snapshot();
+        write(path, snapshot, snapshot.size(), snapshot.getVersion());
+    }
+
+    /**
+     * Writes holdings to a portfolio file.
+     * The file is written next to the target and moved into place, so a crash never leaves a half-written portfolio.
+     *
+     * @param path        The file to write.
+     * @param investments The holdings to write, in the order they should be read back.
+     * @param count       The number of holdings.
+     * @param version     The portfolio version to record.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(Path path, Iterable<Investment> investments, int count, long version) throws IOException
+    {
+        int blockCount = (count + RECORDS_PER_BLOCK - 1) / RECORDS_PER_BLOCK;
+        ByteBuffer table = ByteBuffer.allocate(blockCount * TABLE_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            // Write the blocks after the space reserved for the header and block table
+            long position = HEADER_SIZE + table.capacity();
+            ByteBuffer block = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            Iterator<Investment> iterator = investments.iterator();
+            int written = 0;
+
+            for (int b = 0; b < blockCount; b++)
+            {
+                // Lay out the records first and the strings they point to after them
+                int records = Math.min(RECORDS_PER_BLOCK, count - written);
+                block.clear();
+                block.position(records * RECORD_SIZE);
+                for (int r = 0; r < records; r++)
+                {
+                    if (!iterator.hasNext()) throw new IllegalArgumentException("Expected " + count + " investments but found " + written + ".");
+                    Investment investment = iterator.next();
+                    byte[] symbol = investment.getSymbol().getBytes(StandardCharsets.UTF_8);
+                    byte[] name = investment.getName().getBytes(StandardCharsets.UTF_8);
+
+                    // Grow the block buffer if the strings and lots do not fit
+                    TaxLots lots = investment.storedLots();
+                    int lotCount = lots == null ? 0 : lots.size();
+                    int needed = 8 + symbol.length + name.length + 8 + 16 * lotCount;
+                    if (block.remaining() < needed)
+                    {
+                        block = grow(block, needed);
+                    }
+
+                    // Fill the record
+                    int record = r * RECORD_SIZE;
+                    block.putInt(record, investment instanceof Investment.Stock ? STOCK : MUTUAL_FUND);
+                    block.putInt(record + 4, investment.getQuantity());
+                    block.putLong(record + 8, investment.getPriceMicros());
+                    block.putLong(record + 16, investment.getBookValueMicros());
+                    block.putInt(record + 24, block.position());
+                    block.putInt(block.position(), symbol.length).position(block.position() + 4).put(symbol);
+                    block.putInt(record + 28, block.position());
+                    block.putInt(block.position(), name.length).position(block.position() + 4).put(name);
+                    writeLots(block, lots, lotCount);
+                    written++;
+                }
+
+                // Record the block in the table and write it out
+                int length = block.position();
+                table.putLong(b * TABLE_ENTRY_SIZE, position);
+                table.putInt(b * TABLE_ENTRY_SIZE + 8, length);
+                table.putInt(b * TABLE_ENTRY_SIZE + 12, checksum(block, 0, length));
+                block.flip();
+                writeFully(channel, block, position);
+                position += length;
+            }
+
+            // Write the block table and finally the header that makes the file valid
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC);
+            header.putInt(4, FORMAT_VERSION);
+            header.putLong(8, version);
+            header.putInt(16, count);
+            header.putInt(20, RECORDS_PER_BLOCK);
+            header.putInt(24, blockCount);
+            header.putInt(28, checksum(table, 0, table.capacity()));
+            header.putInt(32, checksum(header, 0, 32));
+            writeFully(channel, table, HEADER_SIZE);
+            writeFully(channel, header, 0);
+            channel.force(true);
+        }
+
+        // Replace the old file in one step
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the portfolio version the file was saved at.
+     *
+     * @return The version number.
+     */
+    public long getVersion()
+    {
+        return portfolioVersion;
+    }
+
+    /**
+     * Returns the number of holdings in the file.
+     *
+     * @return The number of holdings.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Decodes the holding at a position.
+     * The first access to a block maps it and verifies its checksum.
+     *
+     * @param index The position of the holding, from 0 to size() - 1.
+     * @return A new investment holding the saved values.
+     * @throws UncheckedIOException If the block cannot be mapped or fails its checksum.
+     */
+    public Investment get(int index)
+    {
+        // Check if the index is valid
+        if (index < 0 || index >= count)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + count);
+        }
+
+        // Decode the record from its block
+        ByteBuffer block = block(index / recordsPerBlock);
+        int record = (index % recordsPerBlock) * RECORD_SIZE;
+        byte type = block.get(record);
+        int quantity = block.getInt(record + 4);
+        long price = dollars ? Money.of(block.getDouble(record + 8)) : block.getLong(record + 8);
+        long bookValue = dollars ? Money.of(block.getDouble(record + 16)) : block.getLong(record + 16);
+        String symbol = readString(block, block.getInt(record + 24));
+        int nameOffset = block.getInt(record + 28);
+        String name = readString(block, nameOffset);
+
+        // Rebuild the investment with its saved price and book value
+        double dollarPrice = Money.toDouble(price);
+        Investment investment = type == STOCK ? new Investment.Stock(symbol, name, quantity, dollarPrice) : new Investment.MutualFund(symbol, name, quantity, dollarPrice);
+        investment.setPriceMicros(price);
+        investment.setBookValueMicros(bookValue);
+        if (hasLots) investment.setLots(readLots(block, nameOffset + 4 + block.getInt(nameOffset)));
+        return investment;
+    }
+
+    /*
+     * Writes a holding's tax lots at the block's position and moves past them.
+     */
+    private static void writeLots(ByteBuffer block, TaxLots lots, int lotCount)
+    {
+        block.putInt(lotCount);
+        block.putInt(lots == null ? 0 : lots.getNextId());
+        if (lots == null) return;
+        lots.forEach((lotId, quantity, cost) ->
+        {
+            block.putInt(lotId);
+            block.putInt(quantity);
+            block.putLong(cost);
+        });
+    }
+
+    /*
+     * Reads the tax lots stored at an offset, or null for a holding that is a single lot.
+     */
+    private static TaxLots readLots(ByteBuffer block, int offset)
+    {
+        int lotCount = block.getInt(offset);
+        if (lotCount == 0) return null;
+        int nextId = block.getInt(offset + 4);
+        int[] ids = new int[lotCount];
+        int[] quantities = new int[lotCount];
+        long[] costs = new long[lotCount];
+        for (int i = 0, lot = offset + 8; i < lotCount; i++, lot += 16)
+        {
+            ids[i] = block.getInt(lot);
+            quantities[i] = block.getInt(lot + 4);
+            costs[i] = block.getLong(lot + 8);
+        }
+        return TaxLots.of(ids, quantities, costs, lotCount, nextId);
+    }
+
+    /**
+     * Iterates over the holdings in the order they were saved, decoding each block as it is reached.
+     *
+     * @return An iterator over the saved holdings.
+     */
+    @Override
+    public Iterator<Investment> iterator()
+    {
+        return new Iterator<Investment>()
+        {
+            private int next;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < count;
+            }
+
+            @Override
+            public Investment next()
+            {
+                if (next >= count) throw new NoSuchElementException();
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * Closes the file. Holdings already returned stay valid.
+     *
+     * @throws IOException If closing fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /*
+     * Maps a block and verifies its checksum the first time it is needed.
+     */
+    private synchronized ByteBuffer block(int b)
+    {
+        if (blocks[b] == null)
+        {
+            try
+            {
+                MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets[b], blockLengths[b]);
+                block.order(ByteOrder.LITTLE_ENDIAN);
+                if (checksum(block, 0, blockLengths[b]) != blockChecksums[b])
+                {
+                    throw new IOException("Block " + b + " of " + path + " failed its checksum.");
+                }
+                blocks[b] = block;
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return blocks[b];
+    }
+
+    /*
+     * Decodes a length-prefixed UTF-8 string at an offset in a block.
+     */
+    private static String readString(ByteBuffer block, int offset)
+    {
+        int length = block.getInt(offset);
+        byte[] bytes = new byte[length];
+        block.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Computes the CRC32C of a range of a buffer without moving its position.
+     */
+    private static int checksum(ByteBuffer buffer, int offset, int length)
+    {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(offset + length).position(offset));
+        return (int) crc.getValue();
+    }
+
+    /*
+     * Returns a larger copy of a block buffer with room for at least the requested bytes.
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int needed)
+    {
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + needed)).order(ByteOrder.LITTLE_ENDIAN);
+        larger.put(buffer.duplicate().flip());
+        return larger;
+    }
+
+    /*
+     * Reads an exact range of the file into a new little-endian buffer.
+     */
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of portfolio file.");
+        }
+        return buffer.flip();
+    }
+
+    /*
+     * Writes a whole buffer at a position in the file.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+    }
+}
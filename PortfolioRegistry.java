@@ -0,0 +1,266 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * The PortfolioRegistry class holds many independent portfolios, one per client account, sharded
+ * across a fixed set of worker threads. An account always hashes to the same shard, so work
+ * submitted for it runs on that shard's thread in the order it was submitted, while accounts on
+ * other shards are served in parallel. The portfolios stay thread-safe on their own and can also
+ * be used directly.
+ *
+ * Each shard listens to the changes of its portfolios and keeps a running SymbolExposure per
+ * symbol for them, so cross-account questions such as the total exposure to a symbol are answered
+ * by combining one entry per shard instead of scanning every account. Each shard's part is exact;
+ * parts from different shards may be a trade apart when accounts are trading.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PortfolioRegistry implements Closeable
+{
+    // Shards, each owning the accounts that hash to it
+    private final Shard[] shards;
+
+    // Portfolios registered under some account, so one portfolio is never counted twice
+    private final Map<Portfolio, String> members = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * Creates a registry with one shard per available processor.
+     */
+    public PortfolioRegistry()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a registry.
+     *
+     * @param shardCount The number of shards and worker threads.
+     * @throws IllegalArgumentException If shardCount is not positive.
+     */
+    public PortfolioRegistry(int shardCount)
+    {
+        if (shardCount <= 0) throw new IllegalArgumentException("A registry needs at least one shard.");
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new Shard(i);
+    }
+
+    /**
+     * Creates an empty portfolio for a new account.
+     *
+     * @param account The account name.
+     * @return The new portfolio.
+     * @throws IllegalArgumentException If the account name is empty or already registered.
+     */
+    public Portfolio create(String account)
+    {
+        return add(account, new Portfolio());
+    }
+
+    /**
+     * Registers an existing portfolio, such as one recovered from its journal, under a new account.
+     * Its holdings count towards the exposures from now on.
+     *
+     * @param account   The account name.
+     * @param portfolio The portfolio.
+     * @return The portfolio.
+     * @throws IllegalArgumentException If the account name is empty or already registered, or the portfolio already belongs to an account.
+     */
+    public Portfolio add(String account, Portfolio portfolio)
+    {
+        if (account == null || account.isEmpty()) throw new IllegalArgumentException("Account cannot be empty.");
+        Shard shard = shardOf(account);
+        synchronized (shard)
+        {
+            if (shard.portfolios.containsKey(account)) throw new IllegalArgumentException("Account '" + account + "' already exists.");
+            if (members.putIfAbsent(portfolio, account) != null) throw new IllegalArgumentException("The portfolio already belongs to account '" + members.get(portfolio) + "'.");
+
+            // Start listening at a quiet point and count the holdings as they were at that point
+            PortfolioSnapshot snapshot = portfolio.quiesce(() -> portfolio.addListener(shard));
+            for (Investment holding : snapshot)
+            {
+                shard.changed(null, holding);
+            }
+            shard.portfolios.put(account, portfolio);
+        }
+        return portfolio;
+    }
+
+    /**
+     * Returns the portfolio of an account.
+     *
+     * @param account The account name.
+     * @return The portfolio, or null if there is no such account.
+     */
+    public Portfolio get(String account)
+    {
+        return shardOf(account).portfolios.get(account);
+    }
+
+    /**
+     * Removes an account, taking its holdings out of the exposures. The portfolio itself is left as it is.
+     *
+     * @param account The account name.
+     * @return The removed portfolio, or null if there was no such account.
+     */
+    public Portfolio remove(String account)
+    {
+        Shard shard = shardOf(account);
+        synchronized (shard)
+        {
+            Portfolio portfolio = shard.portfolios.remove(account);
+            if (portfolio == null) return null;
+
+            // Stop listening at a quiet point and take out the holdings as they were at that point
+            PortfolioSnapshot snapshot = portfolio.quiesce(() -> portfolio.removeListener(shard));
+            for (Investment holding : snapshot)
+            {
+                shard.changed(holding, null);
+            }
+            members.remove(portfolio);
+            return portfolio;
+        }
+    }
+
+    /**
+     * Returns the number of accounts.
+     *
+     * @return The number of accounts.
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Shard shard : shards) size += shard.portfolios.size();
+        return size;
+    }
+
+    /**
+     * Runs work on an account's portfolio on the account's shard thread.
+     * Work for one account runs one task at a time in the order it was submitted.
+     *
+     * @param account The account name.
+     * @param task    The work to do with the portfolio.
+     * @return A future completed with the task's result, or exceptionally with what it threw;
+     *         an IllegalArgumentException if there is no such account when the task runs.
+     */
+    public <T> CompletableFuture<T> submit(String account, Function<Portfolio, T> task)
+    {
+        Shard shard = shardOf(account);
+        return CompletableFuture.supplyAsync(() ->
+        {
+            Portfolio portfolio = shard.portfolios.get(account);
+            if (portfolio == null) throw new IllegalArgumentException("Account '" + account + "' not found.");
+            return task.apply(portfolio);
+        }, shard.worker);
+    }
+
+    /**
+     * Returns the combined position in a symbol across every account.
+     * Costs one lookup per shard, however many accounts there are.
+     *
+     * @param symbol The symbol, in any case.
+     * @return The exposure, or null if no account holds the symbol.
+     */
+    public SymbolExposure getExposure(String symbol)
+    {
+        String key = Portfolio.symbolKey(symbol);
+        SymbolExposure total = null;
+        for (Shard shard : shards)
+        {
+            SymbolExposure part = shard.exposures.get(key);
+            if (part != null) total = part.plus(total);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the combined position in every symbol held by any account, largest market value first.
+     * Costs one entry per symbol per shard, however many accounts there are.
+     *
+     * @return The exposures.
+     */
+    public List<SymbolExposure> getExposures()
+    {
+        // Combine the shards' entries symbol by symbol
+        Map<String, SymbolExposure> totals = new HashMap<>();
+        for (Shard shard : shards)
+        {
+            shard.exposures.forEach((key, part) -> totals.merge(key, part, SymbolExposure::plus));
+        }
+
+        // Sort them by market value
+        List<SymbolExposure> exposures = new ArrayList<>(totals.values());
+        exposures.sort(Comparator.comparingLong(SymbolExposure::getMarketValueMicros).reversed());
+        return exposures;
+    }
+
+    /**
+     * Stops the shard threads once the work already submitted is done. The portfolios stay usable directly.
+     */
+    @Override
+    public void close()
+    {
+        for (Shard shard : shards) shard.worker.shutdown();
+    }
+
+    /*
+     * Returns the shard an account belongs to.
+     */
+    private Shard shardOf(String account)
+    {
+        int hash = account.hashCode();
+        return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+    }
+
+    /*
+     * One shard: its accounts, the running exposures of their holdings and the thread that serves them.
+     */
+    private static final class Shard implements Portfolio.Listener
+    {
+        // Portfolios by account name
+        final ConcurrentHashMap<String, Portfolio> portfolios = new ConcurrentHashMap<>();
+
+        // Exposure of the shard's accounts by symbol key; symbols no account holds have no entry
+        final ConcurrentHashMap<String, SymbolExposure> exposures = new ConcurrentHashMap<>();
+
+        // Worker thread
+        final ExecutorService worker;
+
+        Shard(int number)
+        {
+            worker = Executors.newSingleThreadExecutor(task ->
+            {
+                Thread thread = new Thread(task, "portfolio-shard-" + number);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /*
+         * Moves a holding's contribution to its symbol's exposure; runs on whichever thread changed the holding.
+         */
+        @Override
+        public void changed(Investment before, Investment after)
+        {
+            String key = Portfolio.symbolKey(after != null ? after.getSymbol() : before.getSymbol());
+            exposures.compute(key, (symbol, exposure) -> SymbolExposure.change(exposure, before, after));
+        }
+    }
+}
@@ -0,0 +1,392 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The PortfolioServer class serves a portfolio over HTTP without a GUI, so other local services can
+ * trade and query it. It runs on the JDK's built-in HTTP server and handles each request on its own
+ * virtual thread when the JVM has them (Java 21 and later), or on a pool of platform threads
+ * otherwise. Requests go straight to the portfolio, which is thread-safe, and are answered with the
+ * same JSON as the headless command line.
+ *
+ * Endpoints (bodies and answers are JSON; amounts in answers are exact decimal dollars):
+ *   POST /buy     {"type": "stock"|"fund", "symbol": ..., "name": ..., "quantity": N, "price": P}
+ *   POST /sell    {"symbol": ..., "quantity": N, "price": P, "method": "average"|"fifo"|"lifo", "lots": [N, ...]}
+ *   POST /update  {"symbol": ..., "price": P}
+ *   GET  /search  ?symbol=SYMBOL&amp;keywords=WORDS&amp;min=PRICE&amp;max=PRICE
+ *   GET  /gain    ?type=stock|fund
+ *
+ * Every answer has "command" and "ok". A refused request or a bad body is answered with status
+ * 400 and "error" with the reason, an unknown path with 404, a wrong method with 405 and a failure
+ * of the portfolio itself, such as a journal that cannot be written, with 500 and the error
+ * "internal error"; the exception behind it is logged on the server's standard error.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java
+ * Run Command: java -cp bin ePortfolio.PortfolioServer [--host address] [--port N] [--file portfolio.dat | --journal directory]
+ * With --file, the portfolio is loaded at startup (if the file exists) and saved when the server
+ * is stopped. With --journal, it is recovered from the journal directory and every change is made
+ * durable before it is answered.
+ *
+ * Run this way, the server turns off Nagle's algorithm by setting the sun.net.httpserver.nodelay
+ * system property, which applies to every HttpServer in the JVM and is read when the first one is
+ * created. A server created by other code leaves the property as it is; to get the same latency,
+ * set it with -Dsun.net.httpserver.nodelay=true or before creating any HttpServer.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PortfolioServer implements Closeable
+{
+    // Default address and port, and the queue of connections waiting to be accepted
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 8080;
+    private static final int BACKLOG = 1024;
+
+    // Journal records between automatic checkpoints, as in the GUI
+    private static final long JOURNAL_CHECKPOINT_INTERVAL = 100_000;
+
+    // System property that turns off Nagle's algorithm for the JDK's HTTP server
+    private static final String NO_DELAY = "sun.net.httpserver.nodelay";
+
+    // Largest request body accepted
+    private static final int MAX_BODY = 64 * 1024;
+
+    // HTTP statuses
+    private static final int OK = 200;
+    private static final int BAD_REQUEST = 400;
+    private static final int NOT_FOUND = 404;
+    private static final int METHOD_NOT_ALLOWED = 405;
+    private static final int SERVER_ERROR = 500;
+
+    // Server, the threads requests run on, and the commands they carry out
+    private final HttpServer server;
+    private final ExecutorService requests;
+    private final boolean virtualThreads;
+    private final PortfolioCommands commands;
+
+    /**
+     * Creates a server for a portfolio and binds it, without serving yet.
+     *
+     * @param portfolio The portfolio to serve.
+     * @param host      The address to listen on.
+     * @param port      The port to listen on, or 0 for any free port.
+     * @throws IOException If the address cannot be bound.
+     */
+    public PortfolioServer(Portfolio portfolio, String host, int port) throws IOException
+    {
+        this.commands = new PortfolioCommands(portfolio);
+        this.server = HttpServer.create(new InetSocketAddress(host, port), BACKLOG);
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.requests = virtual != null ? virtual : newPlatformThreadExecutor();
+        server.createContext("/", this::handle);
+        server.setExecutor(requests);
+    }
+
+    // Main method to run the server
+    public static void main(String[] args) throws IOException
+    {
+        // Write each answer as soon as it is ready rather than waiting to fill a packet; this JVM runs
+        // only this server, so the JVM-wide setting is safe here
+        if (System.getProperty(NO_DELAY) == null) System.setProperty(NO_DELAY, "true");
+
+        // Read the options
+        String host = HOST;
+        int port = PORT;
+        Path file = null;
+        Path journalDirectory = null;
+        for (int next = 0; next < args.length; next += 2)
+        {
+            String option = args[next];
+            if (next + 1 == args.length) usage("Option " + option + " needs a value.");
+            String value = args[next + 1];
+            switch (option)
+            {
+                case "--host" -> host = value;
+                case "--port" -> port = Integer.parseInt(value);
+                case "--file" -> file = Paths.get(value);
+                case "--journal" -> journalDirectory = Paths.get(value);
+                default -> usage("Unknown option " + option + ".");
+            }
+        }
+        if (file != null && journalDirectory != null) usage("Use either --file or --journal, not both.");
+
+        // Load or recover the portfolio
+        Portfolio portfolio = Portfolio.getDefault();
+        TradeJournal journal = null;
+        try
+        {
+            if (journalDirectory != null) journal = TradeJournal.open(portfolio, journalDirectory, JOURNAL_CHECKPOINT_INTERVAL);
+            else if (file != null && Files.exists(file))
+            {
+                try (PortfolioFile saved = PortfolioFile.open(file))
+                {
+                    portfolio.loadPortfolio(saved);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            System.err.println("Could not load the portfolio: " + e.getMessage());
+            System.exit(1);
+        }
+        long loadedVersion = portfolio.getVersion();
+
+        // Serve until the JVM is stopped, then save the portfolio or close the journal
+        PortfolioServer server = new PortfolioServer(portfolio, host, port);
+        Path saveFile = file;
+        TradeJournal openJournal = journal;
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        {
+            server.close();
+            try
+            {
+                if (saveFile != null && portfolio.getVersion() != loadedVersion) PortfolioFile.save(portfolio, saveFile);
+                if (openJournal != null) openJournal.close();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not save the portfolio: " + e.getMessage());
+            }
+        }));
+        server.start();
+        System.out.println("Serving the portfolio on http://" + host + ":" + server.getPort() + " using " + (server.usesVirtualThreads() ? "virtual threads" : "a pool of platform threads"));
+    }
+
+    /*
+     * Prints a usage message and exits with the usage status.
+     */
+    private static void usage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println("Usage: java -cp bin ePortfolio.PortfolioServer [--host address] [--port N] [--file portfolio.dat | --journal directory]");
+        System.exit(2);
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return The port.
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns whether requests run on virtual threads rather than a pool of platform threads.
+     *
+     * @return Whether virtual threads are used.
+     */
+    public boolean usesVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    /**
+     * Stops accepting requests, lets the ones in progress finish for up to a second, then stops the server.
+     */
+    @Override
+    public void close()
+    {
+        server.stop(1);
+        requests.shutdown();
+        try
+        {
+            requests.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Handles one request on its own thread: runs the command and sends its answer.
+     */
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        String path = exchange.getRequestURI().getPath();
+        String name = path.startsWith("/") ? path.substring(1) : path;
+        StringBuilder answer = new StringBuilder("{\"command\":");
+        Json.appendString(answer, name);
+        int status;
+        try
+        {
+            // Run the command, which adds its results to the answer
+            StringBuilder results = new StringBuilder();
+            status = switch (name)
+            {
+                case "buy", "sell", "update" -> post(exchange, name, results);
+                case "search", "gain" -> get(exchange, name, results);
+                default -> NOT_FOUND;
+            };
+            if (status == OK) answer.append(",\"ok\":true").append(results);
+            else answer.append(",\"ok\":false,\"error\":").append(status == NOT_FOUND ? "\"Unknown path. Use /buy, /sell, /update, /search or /gain.\"" : "\"Method not allowed.\"");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Bad bodies and refused trades are the caller's to fix
+            status = BAD_REQUEST;
+            answer.append(",\"ok\":false,\"error\":");
+            Json.appendString(answer, e instanceof NumberFormatException ? "Quantities and prices must be valid numbers." : e.getMessage());
+        }
+        catch (RuntimeException e)
+        {
+            // Anything else, such as a journal that cannot be written, is the server's; log it here and keep its details out of the answer
+            status = SERVER_ERROR;
+            answer.append(",\"ok\":false,\"error\":\"internal error\"");
+            System.err.println("Request to /" + name + " failed: " + e);
+            e.printStackTrace();
+        }
+
+        // Send the answer with its length, so the connection can be kept for the next request
+        byte[] body = answer.append('}').toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (status == METHOD_NOT_ALLOWED) exchange.getResponseHeaders().set("Allow", name.equals("search") || name.equals("gain") ? "GET" : "POST");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    /*
+     * Runs a command that changes the portfolio, reading its arguments from the JSON body.
+     */
+    private int post(HttpExchange exchange, String name, StringBuilder results) throws IOException
+    {
+        if (!exchange.getRequestMethod().equals("POST")) return METHOD_NOT_ALLOWED;
+        Map<String, Object> body = Json.parseObject(readBody(exchange));
+        switch (name)
+        {
+            case "buy" -> commands.buy(Json.getString(body, "type"), Json.getString(body, "symbol"), Json.getString(body, "name"),
+                Json.getInt(body, "quantity"), Json.getDouble(body, "price"), results);
+            case "sell" -> commands.sell(Json.getString(body, "symbol"), Json.getInt(body, "quantity"), Json.getDouble(body, "price"),
+                Json.getString(body, "method", null), Json.getIntArray(body, "lots"), results);
+            default -> commands.update(Json.getString(body, "symbol"), Json.getDouble(body, "price"), results);
+        }
+        return OK;
+    }
+
+    /*
+     * Runs a command that reads the portfolio, taking its arguments from the query string.
+     */
+    private int get(HttpExchange exchange, String name, StringBuilder results) throws IOException
+    {
+        if (!exchange.getRequestMethod().equals("GET")) return METHOD_NOT_ALLOWED;
+        drain(exchange);
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        if (name.equals("gain"))
+        {
+            commands.gain(query.get("type"), results);
+            return OK;
+        }
+        String min = query.get("min");
+        String max = query.get("max");
+        commands.search(query.getOrDefault("symbol", ""), query.getOrDefault("keywords", ""),
+            min == null || min.isEmpty() ? null : Double.valueOf(min), max == null || max.isEmpty() ? null : Double.valueOf(max), results);
+        return OK;
+    }
+
+    /*
+     * Reads the request body as text, refusing one that is too large.
+     */
+    private static String readBody(HttpExchange exchange) throws IOException
+    {
+        try (InputStream in = exchange.getRequestBody())
+        {
+            byte[] body = in.readNBytes(MAX_BODY + 1);
+            if (body.length > MAX_BODY) throw new IllegalArgumentException("The request body is larger than " + MAX_BODY + " bytes.");
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /*
+     * Reads and discards any request body, so the connection can be kept for the next request.
+     */
+    private static void drain(HttpExchange exchange) throws IOException
+    {
+        try (InputStream in = exchange.getRequestBody())
+        {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    /*
+     * Splits a raw query string into decoded names and values; the last of repeated names wins.
+     */
+    private static Map<String, String> parseQuery(String query)
+    {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) return parameters;
+        for (String pair : query.split("&"))
+        {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    /*
+     * Returns an executor that starts a virtual thread per task, or null before Java 21.
+     * It is looked up by reflection so the program still compiles and runs on Java 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    /*
+     * Returns a pool of daemon platform threads, large enough that requests waiting on the journal do not starve the others.
+     */
+    private static ExecutorService newPlatformThreadExecutor()
+    {
+        AtomicInteger count = new AtomicInteger();
+        int threads = Math.max(16, 8 * Runtime.getRuntime().availableProcessors());
+        return Executors.newFixedThreadPool(threads, task ->
+        {
+            Thread thread = new Thread(task, "portfolio-http-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
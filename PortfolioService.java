@@ -0,0 +1,175 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.swing.SwingUtilities;
+
+/**
+ * The PortfolioService class runs portfolio work off the Swing event dispatch thread.
+ * Every call is handed to a dedicated pool of daemon threads and returns a CompletableFuture,
+ * so the GUI stays responsive however large the portfolio is or however long a journaled trade
+ * waits for the disk. Results are brought back to the event dispatch thread with the EDT
+ * executor, for example future.whenCompleteAsync(handler, PortfolioService.EDT).
+ *
+ * Trades and price updates are never interrupted once started: cancelling their future only
+ * stops the caller from hearing about the result.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PortfolioService
+{
+    /**
+     * Runs tasks on the Swing event dispatch thread.
+     */
+    public static final Executor EDT = SwingUtilities::invokeLater;
+
+    // Worker threads; the engine is thread-safe, so a few calls can run side by side
+    private static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS, task ->
+    {
+        Thread thread = new Thread(task, "portfolio-service-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // No instances; the service is shared like the portfolio itself
+    private PortfolioService()
+    {
+    }
+
+    /**
+     * Runs a task, such as a SwingWorker, on the service threads.
+     *
+     * @param task The task to run.
+     */
+    public static void execute(Runnable task)
+    {
+        executor.execute(task);
+    }
+
+    /**
+     * Runs any portfolio call on the service threads.
+     *
+     * @param call The call to make.
+     * @return A future completed with the call's result, or exceptionally with what it threw.
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> call)
+    {
+        return CompletableFuture.supplyAsync(call, executor);
+    }
+
+    /**
+     * Adds an investment, as Investment.addInvestment does.
+     *
+     * @param type     The type of investment (Stock or Mutual Fund).
+     * @param symbol   The investment symbol.
+     * @param name     The investment name.
+     * @param quantity The investment quantity.
+     * @param price    The investment price per unit.
+     * @return A future completed with the result message.
+     */
+    public static CompletableFuture<String> addInvestment(String type, String symbol, String name, int quantity, double price)
+    {
+        return supply(() -> Investment.addInvestment(type, symbol, name, quantity, price));
+    }
+
+    /**
+     * Sells an investment, as Investment.sellInvestment does.
+     *
+     * @param symbol   The symbol of the investment to sell.
+     * @param quantity The quantity of the investment to sell.
+     * @param price    The price at which to sell the investment.
+     * @return A future completed with the sale summary.
+     */
+    public static CompletableFuture<String> sellInvestment(String symbol, int quantity, double price)
+    {
+        return supply(() -> Investment.sellInvestment(symbol, quantity, price));
+    }
+
+    /**
+     * Sells an investment by a tax lot method, as Investment.sellInvestment does.
+     *
+     * @param symbol   The symbol of the investment to sell.
+     * @param quantity The quantity of the investment to sell.
+     * @param price    The price at which to sell the investment.
+     * @param method   AVERAGE_COST, FIFO or LIFO.
+     * @return A future completed with the sale summary.
+     */
+    public static CompletableFuture<String> sellInvestment(String symbol, int quantity, double price, TaxLots.Method method)
+    {
+        return supply(() -> Investment.sellInvestment(symbol, quantity, price, method));
+    }
+
+    /**
+     * Sells an investment from the named tax lots, as Investment.sellInvestment does.
+     *
+     * @param symbol   The symbol of the investment to sell.
+     * @param quantity The quantity of the investment to sell.
+     * @param price    The price at which to sell the investment.
+     * @param lotIds   The numbers of the lots to sell from.
+     * @return A future completed with the sale summary.
+     */
+    public static CompletableFuture<String> sellInvestment(String symbol, int quantity, double price, int[] lotIds)
+    {
+        return supply(() -> Investment.sellInvestment(symbol, quantity, price, lotIds));
+    }
+
+    /**
+     * Updates the price of an investment, as Investment.updatePrices does.
+     *
+     * @param symbol   The investment symbol.
+     * @param name     The investment name.
+     * @param newPrice The new price per unit.
+     * @return A future completed with a read-only copy of the updated investment.
+     */
+    public static CompletableFuture<Investment> updatePrices(String symbol, String name, double newPrice)
+    {
+        return supply(() -> Investment.updatePrices(symbol, name, newPrice));
+    }
+
+    /**
+     * Applies a batch of price ticks, as Investment.updatePrices(PriceBatch) does.
+     *
+     * @param batch The price ticks to apply.
+     * @return A future completed with the tick counts.
+     */
+    public static CompletableFuture<PriceBatch.Result> updatePrices(PriceBatch batch)
+    {
+        return supply(() -> Investment.updatePrices(batch));
+    }
+
+    /**
+     * Searches the portfolio, as Investment.searchInvestments does.
+     *
+     * @param symbol       The symbol to search for.
+     * @param nameKeywords The keywords to search for in the investment name.
+     * @param minPrice     The minimum price, or null.
+     * @param maxPrice     The maximum price, or null.
+     * @return A future completed with read-only copies of the matching investments.
+     */
+    public static CompletableFuture<List<Investment>> searchInvestments(String symbol, String nameKeywords, Double minPrice, Double maxPrice)
+    {
+        return supply(() -> Investment.searchInvestments(symbol, nameKeywords, minPrice, maxPrice));
+    }
+
+    /**
+     * Reads the total gain of the portfolio.
+     *
+     * @return A future completed with the total gain.
+     */
+    public static CompletableFuture<Double> calculateTotalGain()
+    {
+        return supply(Investment::calculateTotalGain);
+    }
+}
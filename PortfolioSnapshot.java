@@ -0,0 +1,267 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.Iterator;
+
+/**
+ * The PortfolioSnapshot class is an immutable, versioned view of the portfolio at one point in time.
+ * Taking a snapshot costs the same however large the portfolio is, because it only captures the
+ * current root of the structurally shared holdings trie; later changes build new versions of the
+ * trie and never touch the one a snapshot holds. The investments it returns are read-only copies,
+ * and the totals it reports describe exactly those investments.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PortfolioSnapshot implements Iterable<Investment>
+{
+    // Portfolio the snapshot was taken of
+    private final Portfolio portfolio;
+
+    // Holdings and totals captured by the snapshot and the portfolio version they belong to
+    private final HoldingTrie holdings;
+    private final PortfolioTotals totals;
+    private final long version;
+
+    // Number of changes so far that added or removed a holding, which are the only ones that move positions
+    private final long layoutVersion;
+
+    // Constructor for an empty portfolio before any change
+    PortfolioSnapshot(Portfolio portfolio)
+    {
+        this(portfolio, HoldingTrie.EMPTY, PortfolioTotals.EMPTY, 0, 0);
+    }
+
+    // Constructor
+    private PortfolioSnapshot(Portfolio portfolio, HoldingTrie holdings, PortfolioTotals totals, long version, long layoutVersion)
+    {
+        this.portfolio = portfolio;
+        this.holdings = holdings;
+        this.totals = totals;
+        this.version = version;
+        this.layoutVersion = layoutVersion;
+    }
+
+    /**
+     * Returns the snapshot after one holding changes.
+     *
+     * @param id     The investment ID.
+     * @param before The read-only holding before the change, or null if it is joining the portfolio.
+     * @param after  The read-only holding after the change, or null if it is leaving the portfolio.
+     * @return The next snapshot version; this snapshot is left unchanged.
+     */
+    PortfolioSnapshot change(int id, Investment before, Investment after)
+    {
+        long layout = before == null || after == null ? layoutVersion + 1 : layoutVersion;
+        return new PortfolioSnapshot(portfolio, holdings.set(id, after), totals.change(before, after), version + 1, layout);
+    }
+
+    /**
+     * Returns the snapshot after a batch of holdings change together as one version.
+     *
+     * @param ids    The investment IDs in ascending order, without duplicates.
+     * @param before The read-only holdings before the change, matching the IDs.
+     * @param after  The read-only holdings after the change, matching the IDs.
+     * @param count  The number of changes in the arrays.
+     * @return The next snapshot version; this snapshot is left unchanged.
+     */
+    PortfolioSnapshot changeAll(int[] ids, Investment[] before, Investment[] after, int count)
+    {
+        long layout = layoutVersion;
+        for (int i = 0; i < count; i++)
+        {
+            if (before[i] == null || after[i] == null)
+            {
+                layout++;
+                break;
+            }
+        }
+        return new PortfolioSnapshot(portfolio, holdings.setAll(ids, after, count), totals.changeAll(before, after, count), version + 1, layout);
+    }
+
+    /**
+     * Returns the portfolio version the snapshot was taken at.
+     * The version goes up by one with every change to the portfolio.
+     *
+     * @return The version number.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Returns how many changes up to this snapshot added or removed holdings. Two snapshots of the
+     * portfolio with the same layout version hold the same investments at the same positions, so
+     * rows read by position from one can be read from the other.
+     *
+     * @return The layout version.
+     */
+    long getLayoutVersion()
+    {
+        return layoutVersion;
+    }
+
+    /**
+     * Checks whether the portfolio has changed since the snapshot was taken.
+     *
+     * @return True if no change has been made since.
+     */
+    public boolean isCurrent()
+    {
+        return version == portfolio.getVersion();
+    }
+
+    /**
+     * Returns the number of investments in the snapshot.
+     *
+     * @return The number of investments.
+     */
+    public int size()
+    {
+        return holdings.size();
+    }
+
+    /**
+     * Checks whether the snapshot holds no investments.
+     *
+     * @return True if the portfolio was empty.
+     */
+    public boolean isEmpty()
+    {
+        return holdings.size() == 0;
+    }
+
+    /**
+     * Returns the investment at a position, in the order investments were added.
+     *
+     * @param index The position of the investment.
+     * @return A read-only copy of the investment.
+     */
+    public Investment get(int index)
+    {
+        return holdings.get(index);
+    }
+
+    /**
+     * Returns the total gain of the investments in the snapshot.
+     *
+     * @return The total market value minus the total book value.
+     */
+    public double getTotalGain()
+    {
+        return Money.toDouble(totals.gain());
+    }
+
+    /**
+     * Returns the total gain of one type of investment in the snapshot.
+     *
+     * @param type The type of investment (Stock or Mutual Fund).
+     * @return The total gain for investments of that type.
+     */
+    public double getTotalGain(String type)
+    {
+        return Money.toDouble(totals.gain(PortfolioTotals.typeOf(type)));
+    }
+
+    /**
+     * Returns the total gain of the investments in the snapshot in micros.
+     *
+     * @return The total gain in micros.
+     */
+    public long getTotalGainMicros()
+    {
+        return totals.gain();
+    }
+
+    /**
+     * Returns the total gain of one type of investment in the snapshot in micros.
+     *
+     * @param type The type of investment (Stock or Mutual Fund).
+     * @return The total gain for investments of that type in micros.
+     */
+    public long getTotalGainMicros(String type)
+    {
+        return totals.gain(PortfolioTotals.typeOf(type));
+    }
+
+    /**
+     * Returns the total market value (price times quantity) of the investments in the snapshot.
+     *
+     * @return The total market value.
+     */
+    public double getTotalMarketValue()
+    {
+        return Money.toDouble(totals.marketValue());
+    }
+
+    /**
+     * Returns the total market value of the investments in the snapshot in micros.
+     *
+     * @return The total market value in micros.
+     */
+    public long getTotalMarketValueMicros()
+    {
+        return totals.marketValue();
+    }
+
+    /**
+     * Returns the total book value of the investments in the snapshot.
+     *
+     * @return The total book value.
+     */
+    public double getTotalBookValue()
+    {
+        return Money.toDouble(totals.bookValue());
+    }
+
+    /**
+     * Returns the total book value of the investments in the snapshot in micros.
+     *
+     * @return The total book value in micros.
+     */
+    public long getTotalBookValueMicros()
+    {
+        return totals.bookValue();
+    }
+
+    /**
+     * Compares the snapshot's totals with a full recompute over its investments.
+     *
+     * @throws IllegalStateException If a total has drifted from the recomputed value.
+     */
+    void verifyTotals()
+    {
+        totals.verify(this);
+    }
+
+    /*
+     * Returns the investment stored under an ID, or null if it is not in the snapshot.
+     */
+    Investment find(int id)
+    {
+        return holdings.find(id);
+    }
+
+    /*
+     * Returns the position of the investment stored under an ID, or -1 if it is not in the snapshot.
+     */
+    int indexOf(int id)
+    {
+        return holdings.indexOf(id);
+    }
+
+    /**
+     * Iterates over the investments in the order they were added.
+     *
+     * @return An iterator over read-only copies of the investments.
+     */
+    @Override
+    public Iterator<Investment> iterator()
+    {
+        return holdings.iterator();
+    }
+}
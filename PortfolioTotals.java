@@ -0,0 +1,217 @@
+// Package
+package ePortfolio;
+
+/**
+ * The PortfolioTotals class holds market value and book value totals for the portfolio,
+ * split into stock and mutual fund subtotals. Instances are immutable: every mutation of a
+ * holding produces the next totals by adding its delta, so total gain can be read in constant
+ * time from any snapshot instead of walking every holding. The totals are whole micros, so they
+ * match a full recompute exactly however many deltas have been added.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+final class PortfolioTotals
+{
+    // Subtotal slots for each investment type
+    static final int STOCK = 0;
+    static final int MUTUAL_FUND = 1;
+
+    // Totals of an empty portfolio
+    static final PortfolioTotals EMPTY = new PortfolioTotals(new long[4]);
+
+    // Sums in micros: market value at 2 * type, book value at 2 * type + 1
+    private final long[] sums;
+
+    private PortfolioTotals(long[] sums)
+    {
+        this.sums = sums;
+    }
+
+    /**
+     * Returns the subtotal slot of an investment.
+     *
+     * @param investment The investment.
+     * @return STOCK or MUTUAL_FUND.
+     */
+    static int typeOf(Investment investment)
+    {
+        return investment instanceof Investment.Stock ? STOCK : MUTUAL_FUND;
+    }
+
+    /**
+     * Returns the subtotal slot of an investment type name as accepted by addInvestment.
+     *
+     * @param type The type name ("stock" or "mutual fund").
+     * @return STOCK or MUTUAL_FUND.
+     */
+    static int typeOf(String type)
+    {
+        return switch (type.toLowerCase())
+        {
+            case "stock" -> STOCK;
+            case "mutual fund" -> MUTUAL_FUND;
+            default -> throw new IllegalArgumentException("Invalid investment type.");
+        };
+    }
+
+    /**
+     * Returns the totals after one holding changes from one state to another.
+     *
+     * @param before The holding before the change, or null if it is joining the portfolio.
+     * @param after  The holding after the change, or null if it is leaving the portfolio.
+     * @return The updated totals; this instance is left unchanged.
+     */
+    PortfolioTotals change(Investment before, Investment after)
+    {
+        // Apply the change to a copy of the sums
+        long[] next = sums.clone();
+        applyChange(next, before, after);
+        return new PortfolioTotals(next);
+    }
+
+    /**
+     * Returns the totals after a batch of holdings change, copying the sums only once.
+     *
+     * @param before The holdings before the change, with null for holdings joining the portfolio.
+     * @param after  The holdings after the change, with null for holdings leaving the portfolio.
+     * @param count  The number of changes in the arrays.
+     * @return The updated totals; this instance is left unchanged.
+     */
+    PortfolioTotals changeAll(Investment[] before, Investment[] after, int count)
+    {
+        // Apply every change to one copy of the sums
+        long[] next = sums.clone();
+        for (int i = 0; i < count; i++)
+        {
+            applyChange(next, before[i], after[i]);
+        }
+        return new PortfolioTotals(next);
+    }
+
+    /**
+     * Returns the market value of one investment type.
+     *
+     * @param type STOCK or MUTUAL_FUND.
+     * @return The total market value in micros.
+     */
+    long marketValue(int type)
+    {
+        return sums[2 * type];
+    }
+
+    /**
+     * Returns the book value of one investment type.
+     *
+     * @param type STOCK or MUTUAL_FUND.
+     * @return The total book value in micros.
+     */
+    long bookValue(int type)
+    {
+        return sums[2 * type + 1];
+    }
+
+    /**
+     * Returns the unrealized gain of one investment type.
+     *
+     * @param type STOCK or MUTUAL_FUND.
+     * @return The market value minus the book value, in micros.
+     */
+    long gain(int type)
+    {
+        return Money.subtract(marketValue(type), bookValue(type));
+    }
+
+    /**
+     * Returns the market value of the whole portfolio.
+     *
+     * @return The total market value in micros.
+     */
+    long marketValue()
+    {
+        return Money.add(marketValue(STOCK), marketValue(MUTUAL_FUND));
+    }
+
+    /**
+     * Returns the book value of the whole portfolio.
+     *
+     * @return The total book value in micros.
+     */
+    long bookValue()
+    {
+        return Money.add(bookValue(STOCK), bookValue(MUTUAL_FUND));
+    }
+
+    /**
+     * Returns the unrealized gain of the whole portfolio.
+     *
+     * @return The total market value minus the total book value, in micros.
+     */
+    long gain()
+    {
+        return Money.subtract(marketValue(), bookValue());
+    }
+
+    /**
+     * Compares the totals with a full recompute over the given investments.
+     *
+     * @param investments The investments the totals should describe.
+     * @throws IllegalStateException If a running total differs from the recomputed value.
+     */
+    void verify(Iterable<Investment> investments)
+    {
+        // Recompute every subtotal from scratch
+        long[] expected = new long[sums.length];
+        for (Investment investment : investments)
+        {
+            applyChange(expected, null, investment);
+        }
+
+        // Whole micros add exactly, so each subtotal must match to the micro
+        for (int type = STOCK; type <= MUTUAL_FUND; type++)
+        {
+            check("market value", type, marketValue(type), expected[2 * type]);
+            check("book value", type, bookValue(type), expected[2 * type + 1]);
+        }
+    }
+
+    /*
+     * Adds the deltas of one holding's contribution to the sums.
+     */
+    private static void applyChange(long[] sums, Investment before, Investment after)
+    {
+        // Work out the deltas of the holding's contribution
+        Investment either = after != null ? after : before;
+        long marketValueDelta = Money.subtract(marketValueOf(after), marketValueOf(before));
+        long bookValueDelta = Money.subtract(after == null ? 0 : after.getBookValueMicros(), before == null ? 0 : before.getBookValueMicros());
+
+        // Add them to the subtotals of the holding's type
+        int type = typeOf(either);
+        sums[2 * type] = Money.add(sums[2 * type], marketValueDelta);
+        sums[2 * type + 1] = Money.add(sums[2 * type + 1], bookValueDelta);
+    }
+
+    /*
+     * Returns the market value (price times quantity) of a holding, or zero for none.
+     */
+    private static long marketValueOf(Investment investment)
+    {
+        return investment == null ? 0 : investment.getMarketValueMicros();
+    }
+
+    /*
+     * Throws if a running total differs from its recomputed value.
+     */
+    private static void check(String total, int type, long running, long expected)
+    {
+        if (running != expected)
+        {
+            throw new IllegalStateException(String.format(
+                "Running %s for %s is %.6f but a full recompute gives %.6f.",
+                total, type == STOCK ? "stocks" : "mutual funds", Money.toDouble(running), Money.toDouble(expected)
+            ));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import javax.swing.JButton;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+
+/**
+ * The PortfolioWorker class is a SwingWorker for panel work that runs on the PortfolioService
+ * threads and drops stale results. Partial results published from the background go to partial()
+ * and the final result to succeeded() or failed(), all on the event dispatch thread, but only
+ * while the worker has not been cancelled. A panel starting a new query with replace() cancels
+ * the one it supersedes, so nothing from the old query reaches the screen after that point.
+ *
+ * Cancelling never interrupts the background thread; long-running work should check isCancelled()
+ * between steps and stop early.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public abstract class PortfolioWorker<T, V> extends SwingWorker<T, V>
+{
+    /**
+     * Cancels the worker a panel is replacing, if any, and starts the new one on the service threads.
+     *
+     * @param previous The worker being superseded, or null.
+     * @param next     The worker to start.
+     * @return The started worker, to keep as the panel's current one.
+     */
+    public static <W extends PortfolioWorker<?, ?>> W replace(PortfolioWorker<?, ?> previous, W next)
+    {
+        if (previous != null) previous.cancel(false);
+        PortfolioService.execute(next);
+        return next;
+    }
+
+    /**
+     * Shows the worker's progress on a progress bar and lets a button cancel it while it runs.
+     * Both are reset when the worker finishes, unless it was cancelled (whoever cancelled it owns them then).
+     *
+     * @param progressBar The bar to show progress on.
+     * @param cancelButton The button that cancels the worker.
+     * @return This worker.
+     */
+    public PortfolioWorker<T, V> track(JProgressBar progressBar, JButton cancelButton)
+    {
+        progressBar.setValue(0);
+        progressBar.setVisible(true);
+        cancelButton.setEnabled(true);
+        addPropertyChangeListener(event ->
+        {
+            if (isCancelled()) return;
+            if ("progress".equals(event.getPropertyName())) progressBar.setValue((Integer) event.getNewValue());
+            else if ("state".equals(event.getPropertyName()) && event.getNewValue() == StateValue.DONE)
+            {
+                progressBar.setVisible(false);
+                cancelButton.setEnabled(false);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Receives partial results on the event dispatch thread.
+     *
+     * @param chunks The values published since the last call.
+     */
+    protected void partial(List<V> chunks)
+    {
+    }
+
+    /**
+     * Receives the final result on the event dispatch thread.
+     *
+     * @param result The value returned by doInBackground.
+     */
+    protected abstract void succeeded(T result);
+
+    /**
+     * Receives the error doInBackground threw, on the event dispatch thread.
+     *
+     * @param error The error.
+     */
+    protected abstract void failed(Throwable error);
+
+    /**
+     * Forwards published values unless the worker was cancelled.
+     */
+    @Override
+    protected final void process(List<V> chunks)
+    {
+        if (!isCancelled()) partial(chunks);
+    }
+
+    /**
+     * Forwards the outcome unless the worker was cancelled.
+     */
+    @Override
+    protected final void done()
+    {
+        if (isCancelled()) return;
+        try
+        {
+            succeeded(get());
+        }
+        catch (ExecutionException e)
+        {
+            failed(e.getCause());
+        }
+        catch (InterruptedException | CancellationException e)
+        {
+            // Not reached: done runs after the work finished, and cancelled workers return above
+        }
+    }
+}
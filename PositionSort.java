@@ -0,0 +1,80 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.function.IntBinaryOperator;
+
+/**
+ * The PositionSort class sorts arrays of positions by keys held elsewhere, without boxing.
+ * Callers read each key once into a primitive or String array and compare positions through it,
+ * which keeps large sorts to one int per row plus the keys.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+final class PositionSort
+{
+    // Runs shorter than this are sorted by insertion instead of being merged
+    private static final int INSERTION_SORT_RUN = 32;
+
+    // No instances
+    private PositionSort()
+    {
+    }
+
+    /**
+     * Sorts positions with a stable merge sort, so ties keep their order.
+     *
+     * @param positions  The positions to sort.
+     * @param comparator Compares two positions by their keys.
+     */
+    static void sort(int[] positions, IntBinaryOperator comparator)
+    {
+        mergeSort(positions, new int[positions.length], 0, positions.length, comparator);
+    }
+
+    /*
+     * Stable merge sort of positions over [from, to), using scratch as the merge buffer.
+     */
+    private static void mergeSort(int[] positions, int[] scratch, int from, int to, IntBinaryOperator comparator)
+    {
+        // Sort short runs by insertion
+        if (to - from <= INSERTION_SORT_RUN)
+        {
+            for (int i = from + 1; i < to; i++)
+            {
+                int position = positions[i];
+                int j = i - 1;
+                while (j >= from && comparator.applyAsInt(positions[j], position) > 0)
+                {
+                    positions[j + 1] = positions[j];
+                    j--;
+                }
+                positions[j + 1] = position;
+            }
+            return;
+        }
+
+        // Sort both halves, then merge them unless they are already in order
+        int middle = (from + to) >>> 1;
+        mergeSort(positions, scratch, from, middle, comparator);
+        mergeSort(positions, scratch, middle, to, comparator);
+        if (comparator.applyAsInt(positions[middle - 1], positions[middle]) <= 0) return;
+
+        System.arraycopy(positions, from, scratch, from, to - from);
+        int left = from, right = middle;
+        for (int i = from; i < to; i++)
+        {
+            if (right >= to || (left < middle && comparator.applyAsInt(scratch[left], scratch[right]) <= 0))
+            {
+                positions[i] = scratch[left++];
+            }
+            else
+            {
+                positions[i] = scratch[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,524 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The PrefixIndex class is an immutable prefix index over the symbols and name keywords of one
+ * portfolio snapshot. Symbols are kept in a case-insensitively sorted array and the distinct name
+ * keywords in another, with the positions of the holdings using each keyword stored contiguously
+ * after it, so the holdings matching any prefix are found with two binary searches.
+ *
+ * A query matches holdings whose symbol starts with the symbol prefix and whose name has, for every
+ * query keyword, a keyword starting with it. A fresh query is driven from the most selective prefix;
+ * a query that only extends the previous one (more characters or more keywords) filters the
+ * previous matches instead, since its matches can only be fewer.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+final class PrefixIndex
+{
+    // Parts of a query the candidates are known to satisfy, as a bitmask: the symbol as bit 0, and keyword i as bit i + 1
+    private static final int CHECK_ALL = 0, SKIP_SYMBOL = 1;
+
+    // Checking a holding's symbol or name costs about this many times more than marking it from a prefix range
+    private static final int REFINE_COST = 64;
+
+    // Prefix ranges at most this fraction of the portfolio are sorted; larger ones are collected through a bitset
+    private static final int BITSET_FRACTION = 64;
+
+    // Snapshot indexed and its holdings by position, in the order they were added
+    private final PortfolioSnapshot snapshot;
+    private final Investment[] holdings;
+
+    // Holding positions sorted case-insensitively by symbol, with the symbols in the same order
+    private final String[] symbols;
+    private final int[] symbolPositions;
+
+    // Distinct keywords in sorted order; the holdings using keyword i are keywordPositions[keywordStarts[i] .. keywordStarts[i + 1])
+    private final String[] keywords;
+    private final int[] keywordStarts;
+    private final int[] keywordPositions;
+
+    // Constructor
+    private PrefixIndex(PortfolioSnapshot snapshot, Investment[] holdings, String[] symbols, int[] symbolPositions, String[] keywords, int[] keywordStarts, int[] keywordPositions)
+    {
+        this.snapshot = snapshot;
+        this.holdings = holdings;
+        this.symbols = symbols;
+        this.symbolPositions = symbolPositions;
+        this.keywords = keywords;
+        this.keywordStarts = keywordStarts;
+        this.keywordPositions = keywordPositions;
+    }
+
+    /**
+     * Builds the index for a snapshot. This reads and sorts every symbol and keyword,
+     * so callers with large portfolios run it off the event dispatch thread.
+     *
+     * @param snapshot The snapshot to index.
+     * @return The index.
+     */
+    static PrefixIndex build(PortfolioSnapshot snapshot)
+    {
+        // Number the holdings and the distinct keywords, keeping each holding's keyword numbers in one array
+        int size = snapshot.size();
+        Investment[] holdings = new Investment[size];
+        String[] symbols = new String[size];
+        HashMap<String, Integer> keywordNumbers = new HashMap<>();
+        List<String> distinct = new ArrayList<>();
+        int[] holdingStarts = new int[size + 1];
+        int[] holdingKeywords = new int[Math.max(16, size * 2)];
+        int used = 0, position = 0;
+        for (Investment investment : snapshot)
+        {
+            holdings[position] = investment;
+            symbols[position] = investment.getSymbol();
+            for (String keyword : KeywordIndex.tokenize(investment.getName()))
+            {
+                Integer number = keywordNumbers.get(keyword);
+                if (number == null)
+                {
+                    number = distinct.size();
+                    keywordNumbers.put(keyword, number);
+                    distinct.add(keyword);
+                }
+                if (used == holdingKeywords.length) holdingKeywords = Arrays.copyOf(holdingKeywords, used * 2);
+                holdingKeywords[used++] = number;
+            }
+            holdingStarts[++position] = used;
+        }
+
+        // Sort the holdings by symbol
+        int[] symbolPositions = identity(size);
+        PositionSort.sort(symbolPositions, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(symbols[a], symbols[b]));
+        String[] sortedSymbols = new String[size];
+        for (int i = 0; i < size; i++)
+        {
+            sortedSymbols[i] = symbols[symbolPositions[i]];
+        }
+
+        // Sort the distinct keywords and find each one's rank
+        int keywordCount = distinct.size();
+        String[] keywords = distinct.toArray(new String[0]);
+        int[] byRank = identity(keywordCount);
+        PositionSort.sort(byRank, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(keywords[a], keywords[b]));
+        int[] rankOf = new int[keywordCount];
+        String[] sortedKeywords = new String[keywordCount];
+        for (int rank = 0; rank < keywordCount; rank++)
+        {
+            rankOf[byRank[rank]] = rank;
+            sortedKeywords[rank] = keywords[byRank[rank]];
+        }
+
+        // Count the holdings per keyword, then place each holding under its keywords in position order
+        int[] keywordStarts = new int[keywordCount + 1];
+        for (int i = 0; i < used; i++)
+        {
+            keywordStarts[rankOf[holdingKeywords[i]] + 1]++;
+        }
+        for (int rank = 0; rank < keywordCount; rank++)
+        {
+            keywordStarts[rank + 1] += keywordStarts[rank];
+        }
+        int[] next = Arrays.copyOf(keywordStarts, keywordCount);
+        int[] keywordPositions = new int[used];
+        for (int holding = 0; holding < size; holding++)
+        {
+            for (int i = holdingStarts[holding]; i < holdingStarts[holding + 1]; i++)
+            {
+                // A name repeating a keyword is listed under it once
+                int rank = rankOf[holdingKeywords[i]];
+                if (next[rank] > keywordStarts[rank] && keywordPositions[next[rank] - 1] == holding) continue;
+                keywordPositions[next[rank]++] = holding;
+            }
+        }
+
+        // Close the gaps left by repeated keywords so every keyword's holdings are contiguous
+        int filled = 0;
+        for (int rank = 0; rank < keywordCount; rank++)
+        {
+            int start = keywordStarts[rank];
+            keywordStarts[rank] = filled;
+            System.arraycopy(keywordPositions, start, keywordPositions, filled, next[rank] - start);
+            filled += next[rank] - start;
+        }
+        keywordStarts[keywordCount] = filled;
+
+        // Return the index
+        return new PrefixIndex(snapshot, holdings, sortedSymbols, symbolPositions, sortedKeywords, keywordStarts, keywordPositions);
+    }
+
+    /*
+     * Returns the positions 0 .. size - 1.
+     */
+    private static int[] identity(int size)
+    {
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            positions[i] = i;
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the snapshot the index was built from.
+     *
+     * @return The snapshot.
+     */
+    PortfolioSnapshot snapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * Finds the holdings matching a query, refining the previous matches when the query extends them.
+     *
+     * @param symbol   The symbol prefix, or blank for any symbol.
+     * @param keywords The name keyword prefixes, or blank for any name.
+     * @param minPrice The minimum price, or null.
+     * @param maxPrice The maximum price, or null.
+     * @param previous The matches of the previous query, or null.
+     * @return The matching holdings, in the order they were added.
+     */
+    Matches search(String symbol, String keywords, Double minPrice, Double maxPrice, Matches previous)
+    {
+        // Normalize the query
+        String symbolPrefix = symbol.trim();
+        String[] keywordPrefixes = KeywordIndex.tokenize(keywords);
+        Matches query = new Matches(this, symbolPrefix, keywordPrefixes, minPrice, maxPrice);
+
+        // Look up the holdings under every prefix of the query: criterion 0 is the symbol, criterion i + 1 keyword i
+        int criteria = keywordPrefixes.length + 1;
+        int[][] sources = new int[criteria][];
+        int[] from = new int[criteria], to = new int[criteria];
+        if (!symbolPrefix.isEmpty())
+        {
+            sources[0] = symbolPositions;
+            from[0] = lowerBound(symbols, symbolPrefix, false);
+            to[0] = lowerBound(symbols, symbolPrefix, true);
+        }
+        for (int i = 0; i < keywordPrefixes.length; i++)
+        {
+            sources[i + 1] = keywordPositions;
+            from[i + 1] = keywordStarts[lowerBound(this.keywords, keywordPrefixes[i], false)];
+            to[i + 1] = keywordStarts[lowerBound(this.keywords, keywordPrefixes[i], true)];
+        }
+
+        // Find the most selective prefix, which bounds the work of a fresh search
+        int first = -1;
+        int firstCount = holdings.length;
+        for (int c = 0; c < criteria; c++)
+        {
+            if (sources[c] != null && to[c] - from[c] < firstCount)
+            {
+                first = c;
+                firstCount = to[c] - from[c];
+            }
+        }
+
+        // Start from the previous matches when this query can only narrow them and that is cheaper,
+        // otherwise from the holdings under the most selective prefix (or every holding if there is none)
+        int[] positions;
+        int satisfied;
+        if (previous != null && (long) previous.positions.length * REFINE_COST < firstCount && query.refines(previous))
+        {
+            positions = previous.positions;
+            satisfied = query.unchangedFrom(previous);
+            query.refined = true;
+        }
+        else if (first >= 0)
+        {
+            positions = collect(sources[first], from[first], to[first]);
+            satisfied = criterionBit(first);
+        }
+        else
+        {
+            positions = identity(holdings.length);
+            satisfied = CHECK_ALL;
+        }
+
+        // Narrow by each remaining prefix through a bitset of its holdings, unless it holds far more than are left
+        for (int c = 0; c < criteria; c++)
+        {
+            if (sources[c] != null && (satisfied & criterionBit(c)) == 0 && to[c] - from[c] <= (long) positions.length * REFINE_COST)
+            {
+                positions = keep(positions, sources[c], from[c], to[c]);
+                satisfied |= criterionBit(c);
+            }
+        }
+
+        // Check on each holding whatever the prefixes have not settled
+        boolean unchecked = minPrice != null || maxPrice != null;
+        for (int c = 0; c < criteria; c++)
+        {
+            if (sources[c] != null && (satisfied & criterionBit(c)) == 0) unchecked = true;
+        }
+        query.positions = unchecked ? filter(positions, query, satisfied) : positions;
+        return query;
+    }
+
+    /*
+     * Returns the bitmask bit of a query criterion (0 for the symbol, i + 1 for keyword i), or CHECK_ALL if it has none.
+     */
+    private static int criterionBit(int criterion)
+    {
+        return criterion < Integer.SIZE - 1 ? 1 << criterion : CHECK_ALL;
+    }
+
+    /*
+     * Returns the distinct positions in source[from .. to) in ascending order.
+     */
+    private int[] collect(int[] source, int from, int to)
+    {
+        // Sort small ranges directly
+        int count = to - from;
+        if (count <= holdings.length / BITSET_FRACTION)
+        {
+            int[] positions = Arrays.copyOfRange(source, from, to);
+            Arrays.sort(positions);
+            int distinct = 0;
+            for (int i = 0; i < count; i++)
+            {
+                if (distinct == 0 || positions[distinct - 1] != positions[i]) positions[distinct++] = positions[i];
+            }
+            return distinct == count ? positions : Arrays.copyOf(positions, distinct);
+        }
+
+        // Mark large ranges in a bitset and read it back in order
+        long[] marks = mark(source, from, to);
+        int distinct = 0;
+        for (long word : marks)
+        {
+            distinct += Long.bitCount(word);
+        }
+        int[] positions = new int[distinct];
+        int next = 0;
+        for (int word = 0; word < marks.length; word++)
+        {
+            for (long bits = marks[word]; bits != 0; bits &= bits - 1)
+            {
+                positions[next++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return positions;
+    }
+
+    /*
+     * Returns a bitset marking the positions in source[from .. to).
+     */
+    private long[] mark(int[] source, int from, int to)
+    {
+        long[] marks = new long[(holdings.length + 63) >>> 6];
+        for (int i = from; i < to; i++)
+        {
+            marks[source[i] >>> 6] |= 1L << source[i];
+        }
+        return marks;
+    }
+
+    /*
+     * Keeps the positions that also appear in source[from .. to).
+     */
+    private int[] keep(int[] positions, int[] source, int from, int to)
+    {
+        long[] marks = mark(source, from, to);
+        int[] kept = new int[positions.length];
+        int keptCount = 0;
+        for (int position : positions)
+        {
+            if ((marks[position >>> 6] & (1L << position)) != 0) kept[keptCount++] = position;
+        }
+        return keptCount == positions.length ? kept : Arrays.copyOf(kept, keptCount);
+    }
+
+    /*
+     * Keeps the positions whose holdings match the query, apart from the parts marked in the satisfied bitmask.
+     */
+    private int[] filter(int[] positions, Matches query, int satisfied)
+    {
+        int[] kept = new int[positions.length];
+        int keptCount = 0;
+        for (int position : positions)
+        {
+            if (query.matches(holdings[position], satisfied)) kept[keptCount++] = position;
+        }
+        return keptCount == positions.length ? kept : Arrays.copyOf(kept, keptCount);
+    }
+
+    /*
+     * Returns the first position whose key sorts after the prefix (after, or at or after when past is false).
+     * Keys starting with the prefix compare equal to it, so they lie between the two bounds.
+     */
+    private static int lowerBound(String[] keys, String prefix, boolean past)
+    {
+        int low = 0, high = keys.length;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            int comparison = comparePrefix(keys[middle], prefix);
+            if (comparison < 0 || (past && comparison == 0)) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /*
+     * Compares the start of a key with a prefix in String.CASE_INSENSITIVE_ORDER, returning 0 if the key starts with it.
+     */
+    private static int comparePrefix(String key, String prefix)
+    {
+        int length = Math.min(key.length(), prefix.length());
+        for (int i = 0; i < length; i++)
+        {
+            char a = key.charAt(i), b = prefix.charAt(i);
+            if (a == b) continue;
+            a = Character.toUpperCase(a);
+            b = Character.toUpperCase(b);
+            if (a == b) continue;
+            a = Character.toLowerCase(a);
+            b = Character.toLowerCase(b);
+            if (a != b) return a - b;
+        }
+        return key.length() < prefix.length() ? -1 : 0;
+    }
+
+    /*
+     * Checks whether a name has a keyword starting with a lower-case prefix.
+     */
+    private static boolean hasKeywordStartingWith(String name, String prefix)
+    {
+        int length = name.length();
+        for (int i = 0; i + prefix.length() <= length; i++)
+        {
+            if (!Character.isWhitespace(name.charAt(i)) && (i == 0 || Character.isWhitespace(name.charAt(i - 1))) && name.regionMatches(true, i, prefix, 0, prefix.length()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The Matches class is the result of one prefix query: the query itself and the positions of the
+     * holdings matching it in the index it ran against.
+     */
+    static final class Matches
+    {
+        // Index searched and the normalized query
+        private final PrefixIndex index;
+        private final String symbol;
+        private final String[] keywords;
+        private final Double minPrice, maxPrice;
+
+        // Matching positions, and whether they were found by filtering the previous matches
+        private int[] positions;
+        private boolean refined;
+
+        // Constructor
+        private Matches(PrefixIndex index, String symbol, String[] keywords, Double minPrice, Double maxPrice)
+        {
+            this.index = index;
+            this.symbol = symbol;
+            this.keywords = keywords;
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+        }
+
+        /**
+         * Returns the number of matching holdings.
+         *
+         * @return The number of matches.
+         */
+        int size()
+        {
+            return positions.length;
+        }
+
+        /**
+         * Returns the matching holding at a position in the results.
+         *
+         * @param i The position in the results.
+         * @return A read-only copy of the investment.
+         */
+        Investment get(int i)
+        {
+            return index.holdings[positions[i]];
+        }
+
+        /**
+         * Returns the snapshot the matches were found in.
+         *
+         * @return The snapshot.
+         */
+        PortfolioSnapshot snapshot()
+        {
+            return index.snapshot;
+        }
+
+        /**
+         * Reports whether the matches were found by narrowing the previous matches.
+         *
+         * @return True if the previous matches were filtered.
+         */
+        boolean isRefined()
+        {
+            return refined;
+        }
+
+        /*
+         * Checks whether every match of this query is also a match of an earlier query on the same index.
+         */
+        private boolean refines(Matches previous)
+        {
+            // Only matches from the same index with the same price range can be narrowed
+            if (previous.index != index || !Objects.equals(previous.minPrice, minPrice) || !Objects.equals(previous.maxPrice, maxPrice)) return false;
+
+            // The symbol and every earlier keyword may only have grown
+            if (!symbol.regionMatches(true, 0, previous.symbol, 0, previous.symbol.length())) return false;
+            if (keywords.length < previous.keywords.length) return false;
+            for (int i = 0; i < previous.keywords.length; i++)
+            {
+                if (!keywords[i].startsWith(previous.keywords[i])) return false;
+            }
+            return true;
+        }
+
+        /*
+         * Returns the bitmask of the parts of this query that are the same as in an earlier one.
+         */
+        private int unchangedFrom(Matches previous)
+        {
+            int unchanged = symbol.equalsIgnoreCase(previous.symbol) ? SKIP_SYMBOL : CHECK_ALL;
+            for (int i = 0; i < previous.keywords.length; i++)
+            {
+                if (keywords[i].equals(previous.keywords[i])) unchanged |= criterionBit(i + 1);
+            }
+            return unchanged;
+        }
+
+        /*
+         * Checks one holding against the query, apart from the parts marked in the satisfied bitmask.
+         */
+        private boolean matches(Investment investment, int satisfied)
+        {
+            if ((satisfied & SKIP_SYMBOL) == 0 && !investment.getSymbol().regionMatches(true, 0, symbol, 0, symbol.length())) return false;
+            if (minPrice != null && investment.getPrice() < minPrice) return false;
+            if (maxPrice != null && investment.getPrice() > maxPrice) return false;
+            for (int i = 0; i < keywords.length; i++)
+            {
+                if ((satisfied & criterionBit(i + 1)) == 0 && !hasKeywordStartingWith(investment.getName(), keywords[i])) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The PriceBatch class collects a stream of (symbol, price) ticks, such as an end-of-day price
+ * file or a burst of intraday ticks, so they can be applied to the portfolio in one pass with
+ * Investment.updatePrices(PriceBatch). Ticks for the same symbol collapse as they arrive, keeping
+ * only the last valid price, and ticks with a missing symbol or a price that is not a positive
+ * number of micros are counted as rejected instead of being applied. Prices are held in micros.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PriceBatch
+{
+    // Distinct symbols in arrival order with their latest prices in micros
+    private String[] symbols = new String[16];
+    private long[] prices = new long[16];
+    private int size;
+
+    // Open-addressing table, kept at most half full; each slot packs the case-folded hash in the
+    // high half and position + 1 in the low half (0 marks an empty slot), so probes that miss
+    // never touch the symbol strings
+    private long[] slots = new long[32];
+
+    // Tick counts seen so far
+    private long ticks;
+    private long superseded;
+    private long rejected;
+
+    /**
+     * Adds one price tick to the batch.
+     * A later tick for the same symbol (ignoring case) replaces the earlier one.
+     *
+     * @param symbol The investment symbol.
+     * @param price  The new price per unit.
+     */
+    public void add(String symbol, double price)
+    {
+        ticks++;
+
+        // Reject ticks that could never be applied (this also catches NaN prices)
+        if (symbol == null || symbol.isEmpty() || !(price > 0) || Double.isInfinite(price))
+        {
+            rejected++;
+            return;
+        }
+
+        // Convert to micros, rejecting prices that round to nothing or are too large to hold
+        long micros;
+        try
+        {
+            micros = Money.of(price);
+        }
+        catch (ArithmeticException e)
+        {
+            rejected++;
+            return;
+        }
+        if (micros <= 0)
+        {
+            rejected++;
+            return;
+        }
+        put(symbol, micros);
+    }
+
+    /*
+     * Adds one tick whose price is already a positive number of micros, such as one taken from a PriceFeed.
+     */
+    void addMicros(String symbol, long micros)
+    {
+        ticks++;
+        put(symbol, micros);
+    }
+
+    /*
+     * Empties the batch so it can be filled again, keeping its arrays.
+     */
+    void clear()
+    {
+        Arrays.fill(symbols, 0, size, null);
+        Arrays.fill(slots, 0);
+        size = 0;
+        ticks = 0;
+        superseded = 0;
+        rejected = 0;
+    }
+
+    /*
+     * Records the latest price of a valid tick.
+     */
+    private void put(String symbol, long micros)
+    {
+        // Replace the price of a symbol already in the batch
+        int hash = hash(symbol);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0)
+        {
+            int position = (int) slots[slot] - 1;
+            if ((int) (slots[slot] >>> 32) == hash && symbols[position].equalsIgnoreCase(symbol))
+            {
+                prices[position] = micros;
+                superseded++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Otherwise append the symbol, growing the arrays when full
+        if (size == symbols.length)
+        {
+            symbols = Arrays.copyOf(symbols, size * 2);
+            prices = Arrays.copyOf(prices, size * 2);
+        }
+        symbols[size] = symbol;
+        prices[size] = micros;
+        slots[slot] = ((long) hash << 32) | ++size;
+
+        // Keep the table at most half full
+        if (size * 2 > slots.length) rehash();
+    }
+
+    /**
+     * Reads ticks from lines of the form "symbol,price", such as an end-of-day price file.
+     * Blank lines are skipped and lines that do not parse are counted as rejected.
+     *
+     * @param reader The reader to consume.
+     * @return This batch.
+     * @throws IOException If reading fails.
+     */
+    public PriceBatch read(BufferedReader reader) throws IOException
+    {
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            // Skip blank lines
+            if (line.isBlank()) continue;
+
+            // Split the symbol from the price
+            int comma = line.indexOf(',');
+            if (comma < 0)
+            {
+                ticks++;
+                rejected++;
+                continue;
+            }
+
+            // Parse the price, rejecting the line if it is not a number
+            double price;
+            try
+            {
+                price = Double.parseDouble(line.substring(comma + 1).trim());
+            }
+            catch (NumberFormatException e)
+            {
+                ticks++;
+                rejected++;
+                continue;
+            }
+
+            add(line.substring(0, comma).trim(), price);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the number of distinct symbols in the batch.
+     *
+     * @return The number of symbols that will be looked up.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of ticks added to the batch, including rejected and superseded ones.
+     *
+     * @return The number of ticks.
+     */
+    public long getTicks()
+    {
+        return ticks;
+    }
+
+    /*
+     * Returns the symbol at a position, spelled as in its first tick.
+     */
+    String symbol(int position)
+    {
+        return symbols[position];
+    }
+
+    /*
+     * Returns the latest price in micros for the symbol at a position.
+     */
+    long price(int position)
+    {
+        return prices[position];
+    }
+
+    /*
+     * Returns the number of ticks replaced by a later tick for the same symbol.
+     */
+    long getSuperseded()
+    {
+        return superseded;
+    }
+
+    /*
+     * Returns the number of ticks rejected for a missing symbol or an invalid price.
+     */
+    long getRejected()
+    {
+        return rejected;
+    }
+
+    /*
+     * Hashes a symbol ignoring case without allocating a lowercased copy.
+     */
+    private static int hash(String symbol)
+    {
+        int hash = 0;
+        for (int i = 0; i < symbol.length(); i++)
+        {
+            // Fold ASCII letters directly and leave the rest to the Character tables
+            char c = symbol.charAt(i);
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            else if (c >= 128) c = Character.toLowerCase(Character.toUpperCase(c));
+            hash = 31 * hash + c;
+        }
+
+        // Scramble the bits so symbols differing only in their last character do not land in adjacent slots
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /*
+     * Doubles the table and reinserts every slot.
+     */
+    private void rehash()
+    {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        int mask = slots.length - 1;
+        for (long entry : old)
+        {
+            if (entry == 0) continue;
+            int slot = (int) (entry >>> 32) & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = entry;
+        }
+    }
+
+    /**
+     * The Result class reports what applying a batch did.
+     * Every tick is counted exactly once: applied, unknown, superseded or rejected.
+     */
+    public static final class Result
+    {
+        private final long applied;
+        private final long unknown;
+        private final long superseded;
+        private final long rejected;
+
+        // Constructor
+        Result(long applied, long unknown, long superseded, long rejected)
+        {
+            this.applied = applied;
+            this.unknown = unknown;
+            this.superseded = superseded;
+            this.rejected = rejected;
+        }
+
+        /**
+         * Returns the number of holdings whose price was set.
+         *
+         * @return The number of applied ticks.
+         */
+        public long getApplied()
+        {
+            return applied;
+        }
+
+        /**
+         * Returns the number of ticks whose symbol is not in the portfolio.
+         *
+         * @return The number of unknown ticks.
+         */
+        public long getUnknown()
+        {
+            return unknown;
+        }
+
+        /**
+         * Returns the number of ticks dropped because a later tick named the same symbol.
+         *
+         * @return The number of superseded ticks.
+         */
+        public long getSuperseded()
+        {
+            return superseded;
+        }
+
+        /**
+         * Returns the number of ticks with a missing symbol or an invalid price.
+         *
+         * @return The number of rejected ticks.
+         */
+        public long getRejected()
+        {
+            return rejected;
+        }
+
+        /*
+         * Overridden toString method to display the counts.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("Applied: %d, Unknown: %d, Superseded: %d, Rejected: %d", applied, unknown, superseded, rejected);
+        }
+    }
+}
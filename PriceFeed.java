@@ -0,0 +1,525 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The PriceFeed class carries a live stream of price ticks, such as a market-data feed or a replay
+ * of one, into a portfolio at millions of ticks per second. One producer thread writes ticks into a
+ * preallocated ring of primitive slots, a symbol number and a price in micros, so publishing a tick
+ * allocates nothing and takes no lock. Consumer threads each follow the whole ring and take the
+ * symbols numbered for them, so every symbol's ticks are applied in order by one consumer.
+ *
+ * A consumer takes everything published since its last pass at once, keeps only the latest price
+ * of each symbol in it, and applies those prices as one PriceBatch, so a burst of ticks for the
+ * same symbol costs one update however long it is. The producer never overtakes the slowest
+ * consumer: put waits for room, while offer drops the tick and counts it. Stats reports what
+ * happened to every tick.
+ *
+ * Only one thread may publish ticks and register symbols.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PriceFeed implements Closeable
+{
+    // Default ring size, and how long idle threads spin before parking and how long they park
+    private static final int CAPACITY = 1 << 16;
+    private static final int SPINS = 100;
+    private static final long PARK_NANOS = 20_000;
+
+    // Portfolio the prices go to
+    private final Portfolio portfolio;
+
+    // Ring of ticks; slot i holds the tick of every sequence equal to i modulo the capacity
+    private final int mask;
+    private final int[] tickSymbols;
+    private final long[] tickPrices;
+
+    // Sequence of the last tick published, released to the consumers after its slot is written
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    // Symbols by number, appended by the producer before any tick names them
+    private volatile String[] symbols = new String[64];
+
+    // Producer only: symbol numbers by symbol key, how many there are, the next sequence and the
+    // lowest consumer sequence last seen, so a full check only rereads the consumers when needed
+    private final Map<String, Integer> symbolNumbers = new HashMap<>();
+    private int symbolCount;
+    private long next;
+    private long slowest = -1;
+
+    // Ticks dropped by offer for lack of room, waits by put for room, and ticks with invalid prices
+    private volatile long dropped;
+    private volatile long stalls;
+    private volatile long rejected;
+
+    // Consumer threads
+    private final Consumer[] consumers;
+    private volatile boolean closed;
+
+    /**
+     * Creates a feed with one consumer and a ring of 65,536 ticks, and starts the consumer.
+     *
+     * @param portfolio The portfolio to apply prices to.
+     */
+    public PriceFeed(Portfolio portfolio)
+    {
+        this(portfolio, CAPACITY, 1);
+    }
+
+    /**
+     * Creates a feed and starts its consumers.
+     *
+     * @param portfolio     The portfolio to apply prices to.
+     * @param capacity      The number of ticks the ring holds, a power of two.
+     * @param consumerCount The number of consumer threads.
+     * @throws IllegalArgumentException If the capacity is not a positive power of two or there are no consumers.
+     */
+    public PriceFeed(Portfolio portfolio, int capacity, int consumerCount)
+    {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two.");
+        if (consumerCount <= 0) throw new IllegalArgumentException("A feed needs at least one consumer.");
+        this.portfolio = portfolio;
+        this.mask = capacity - 1;
+        this.tickSymbols = new int[capacity];
+        this.tickPrices = new long[capacity];
+        this.consumers = new Consumer[consumerCount];
+        for (int i = 0; i < consumerCount; i++)
+        {
+            consumers[i] = new Consumer(i);
+        }
+        for (Consumer consumer : consumers) consumer.start();
+    }
+
+    /**
+     * Returns the number of a symbol, registering it the first time it is seen.
+     * Ticks name symbols by number, so the feed never looks at strings on the way through.
+     *
+     * @param symbol The symbol, in any case.
+     * @return The symbol's number.
+     * @throws IllegalArgumentException If the symbol is empty.
+     */
+    public int symbol(String symbol)
+    {
+        if (symbol == null || symbol.isEmpty()) throw new IllegalArgumentException("Symbol cannot be empty.");
+        String key = Portfolio.symbolKey(symbol);
+        Integer number = symbolNumbers.get(key);
+        if (number != null) return number;
+
+        // Append the symbol, publishing the table before any tick can name it
+        String[] table = symbols;
+        if (symbolCount == table.length) table = Arrays.copyOf(table, symbolCount * 2);
+        table[symbolCount] = symbol;
+        symbols = table;
+        symbolNumbers.put(key, symbolCount);
+        return symbolCount++;
+    }
+
+    /**
+     * Publishes a tick if the ring has room, or drops it.
+     *
+     * @param symbol      The symbol's number.
+     * @param priceMicros The price in micros.
+     * @return Whether the tick was published; false if it was dropped for lack of room or rejected for a price that is not positive.
+     * @throws IllegalArgumentException If the symbol number was never registered.
+     * @throws IllegalStateException    If the feed is closed.
+     */
+    public boolean offer(int symbol, long priceMicros)
+    {
+        check(symbol);
+        if (priceMicros <= 0)
+        {
+            rejected++;
+            return false;
+        }
+        if (!hasRoom())
+        {
+            dropped++;
+            return false;
+        }
+        publish(symbol, priceMicros);
+        return true;
+    }
+
+    /**
+     * Publishes a tick, waiting for room if the consumers have fallen a whole ring behind.
+     *
+     * @param symbol      The symbol's number.
+     * @param priceMicros The price in micros.
+     * @return Whether the tick was published; false if it was rejected for a price that is not positive.
+     * @throws IllegalArgumentException If the symbol number was never registered.
+     * @throws IllegalStateException    If the feed is closed.
+     */
+    public boolean put(int symbol, long priceMicros)
+    {
+        check(symbol);
+        if (priceMicros <= 0)
+        {
+            rejected++;
+            return false;
+        }
+        if (!hasRoom())
+        {
+            // Hold the producer back until the slowest consumer frees a slot
+            stalls++;
+            for (int idle = 0; !hasRoom(); idle++)
+            {
+                if (closed) throw new IllegalStateException("The feed is closed.");
+                idle(idle);
+            }
+        }
+        publish(symbol, priceMicros);
+        return true;
+    }
+
+    /**
+     * Waits until every tick published so far has been applied to the portfolio.
+     */
+    public void flush()
+    {
+        long target = cursor.get();
+        for (Consumer consumer : consumers)
+        {
+            for (int idle = 0; consumer.applied < target && consumer.isAlive(); idle++) idle(idle);
+        }
+    }
+
+    /**
+     * Applies the ticks already published, then stops the consumers.
+     */
+    @Override
+    public void close()
+    {
+        flush();
+        closed = true;
+        for (Consumer consumer : consumers)
+        {
+            LockSupport.unpark(consumer);
+            try
+            {
+                consumer.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns what has happened to the ticks so far.
+     *
+     * @return The counts.
+     */
+    public Stats getStats()
+    {
+        long coalesced = 0;
+        long applied = 0;
+        long unknown = 0;
+        long failed = 0;
+        long batches = 0;
+        for (Consumer consumer : consumers)
+        {
+            coalesced += consumer.coalesced;
+            applied += consumer.appliedTicks;
+            unknown += consumer.unknown;
+            failed += consumer.failed;
+            batches += consumer.batches;
+        }
+        return new Stats(cursor.get() + 1, dropped, rejected, stalls, coalesced, applied, unknown, failed, batches);
+    }
+
+    /*
+     * Checks a symbol number and that the feed is open.
+     */
+    private void check(int symbol)
+    {
+        if (symbol < 0 || symbol >= symbolCount) throw new IllegalArgumentException("Unknown symbol number " + symbol + ".");
+        if (closed) throw new IllegalStateException("The feed is closed.");
+    }
+
+    /*
+     * Checks whether the next slot has been consumed by every consumer since it was last written.
+     */
+    private boolean hasRoom()
+    {
+        long wrap = next - tickPrices.length;
+        if (wrap <= slowest) return true;
+
+        // Only reread the consumers once the ring looks full from what was last seen
+        long lowest = Long.MAX_VALUE;
+        for (Consumer consumer : consumers) lowest = Math.min(lowest, consumer.sequence.get());
+        slowest = lowest;
+        return wrap <= slowest;
+    }
+
+    /*
+     * Writes the next slot and releases it to the consumers.
+     */
+    private void publish(int symbol, long priceMicros)
+    {
+        int slot = (int) next & mask;
+        tickSymbols[slot] = symbol;
+        tickPrices[slot] = priceMicros;
+        cursor.lazySet(next++);
+    }
+
+    /*
+     * Waits a little: spins at first, then parks briefly.
+     */
+    private static void idle(int idle)
+    {
+        if (idle < SPINS) Thread.onSpinWait();
+        else LockSupport.parkNanos(PARK_NANOS);
+    }
+
+    /*
+     * One consumer: follows the ring, keeps the latest price of each of its symbols and applies them as a batch.
+     */
+    private final class Consumer extends Thread
+    {
+        // Which symbols are this consumer's: those whose number leaves this remainder
+        private final int number;
+
+        // Sequence of the last tick read, which frees its slot, and of the last tick applied
+        final AtomicLong sequence = new AtomicLong(-1);
+        volatile long applied = -1;
+
+        // Latest price in micros of each of the consumer's symbols seen in this pass (0 when none),
+        // and the symbols that have one, in the order first seen
+        private long[] latest = new long[64];
+        private int[] pending = new int[64];
+        private int pendingCount;
+
+        // Batch reused for every pass
+        private final PriceBatch batch = new PriceBatch();
+
+        // Counts, each written only by this consumer
+        volatile long coalesced;
+        volatile long appliedTicks;
+        volatile long unknown;
+        volatile long failed;
+        volatile long batches;
+
+        Consumer(int number)
+        {
+            super("price-feed-" + number);
+            setDaemon(true);
+            this.number = number;
+        }
+
+        @Override
+        public void run()
+        {
+            long seen = -1;
+            int idle = 0;
+            while (true)
+            {
+                // Wait for ticks, leaving once the feed is closed and nothing is left
+                long available = cursor.get();
+                if (available == seen)
+                {
+                    if (closed) return;
+                    idle(idle++);
+                    continue;
+                }
+                idle = 0;
+
+                // Read everything published since the last pass, keeping each symbol's latest price
+                String[] names = symbols;
+                long superseded = 0;
+                for (long s = seen + 1; s <= available; s++)
+                {
+                    int slot = (int) s & mask;
+                    int symbol = tickSymbols[slot];
+                    if (symbol % consumers.length != number) continue;
+                    if (symbol >= latest.length) latest = Arrays.copyOf(latest, Math.max(symbol + 1, latest.length * 2));
+                    if (latest[symbol] == 0)
+                    {
+                        if (pendingCount == pending.length) pending = Arrays.copyOf(pending, pendingCount * 2);
+                        pending[pendingCount++] = symbol;
+                    }
+                    else
+                    {
+                        superseded++;
+                    }
+                    latest[symbol] = tickPrices[slot];
+                }
+
+                // Free the slots for the producer before applying, so it is not held up by the portfolio
+                seen = available;
+                sequence.lazySet(available);
+
+                // Apply the latest prices as one batch
+                if (pendingCount > 0)
+                {
+                    batch.clear();
+                    for (int i = 0; i < pendingCount; i++)
+                    {
+                        int symbol = pending[i];
+                        batch.addMicros(names[symbol], latest[symbol]);
+                        latest[symbol] = 0;
+                    }
+                    try
+                    {
+                        PriceBatch.Result result = portfolio.updatePrices(batch);
+                        appliedTicks += result.getApplied();
+                        unknown += result.getUnknown();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // A batch the portfolio could not take, such as one its journal failed on, is counted and skipped
+                        failed += pendingCount;
+                    }
+                    batches++;
+                    pendingCount = 0;
+                }
+                coalesced += superseded;
+                applied = available;
+            }
+        }
+    }
+
+    /**
+     * The Stats class reports what has happened to the ticks of a feed.
+     * Every tick offered or put is counted once as dropped, rejected or published, and every
+     * published tick is then counted once as coalesced, applied, unknown or failed when its
+     * consumer gets to it.
+     */
+    public static final class Stats
+    {
+        private final long published;
+        private final long dropped;
+        private final long rejected;
+        private final long stalls;
+        private final long coalesced;
+        private final long applied;
+        private final long unknown;
+        private final long failed;
+        private final long batches;
+
+        // Constructor
+        Stats(long published, long dropped, long rejected, long stalls, long coalesced, long applied, long unknown, long failed, long batches)
+        {
+            this.published = published;
+            this.dropped = dropped;
+            this.rejected = rejected;
+            this.stalls = stalls;
+            this.coalesced = coalesced;
+            this.applied = applied;
+            this.unknown = unknown;
+            this.failed = failed;
+            this.batches = batches;
+        }
+
+        /**
+         * Returns the number of ticks written into the ring.
+         *
+         * @return The number of published ticks.
+         */
+        public long getPublished()
+        {
+            return published;
+        }
+
+        /**
+         * Returns the number of ticks offer dropped because the ring was full.
+         *
+         * @return The number of dropped ticks.
+         */
+        public long getDropped()
+        {
+            return dropped;
+        }
+
+        /**
+         * Returns the number of ticks refused for a price that is not positive.
+         *
+         * @return The number of rejected ticks.
+         */
+        public long getRejected()
+        {
+            return rejected;
+        }
+
+        /**
+         * Returns the number of times put had to wait for the consumers to free a slot.
+         *
+         * @return The number of stalls.
+         */
+        public long getStalls()
+        {
+            return stalls;
+        }
+
+        /**
+         * Returns the number of ticks replaced by a later tick for the same symbol before being applied.
+         *
+         * @return The number of coalesced ticks.
+         */
+        public long getCoalesced()
+        {
+            return coalesced;
+        }
+
+        /**
+         * Returns the number of prices set on holdings.
+         *
+         * @return The number of applied ticks.
+         */
+        public long getApplied()
+        {
+            return applied;
+        }
+
+        /**
+         * Returns the number of ticks whose symbol is not in the portfolio.
+         *
+         * @return The number of unknown ticks.
+         */
+        public long getUnknown()
+        {
+            return unknown;
+        }
+
+        /**
+         * Returns the number of ticks in batches the portfolio refused, such as when its journal failed.
+         *
+         * @return The number of failed ticks.
+         */
+        public long getFailed()
+        {
+            return failed;
+        }
+
+        /**
+         * Returns the number of batches applied to the portfolio.
+         *
+         * @return The number of batches.
+         */
+        public long getBatches()
+        {
+            return batches;
+        }
+
+        /*
+         * Overridden toString method to display the counts.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("Published: %d, Dropped: %d, Rejected: %d, Stalls: %d, Coalesced: %d, Applied: %d, Unknown: %d, Failed: %d, Batches: %d",
+                published, dropped, rejected, stalls, coalesced, applied, unknown, failed, batches);
+        }
+    }
+}
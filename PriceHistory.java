@@ -0,0 +1,1248 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * The PriceHistory class keeps every price a symbol has had, as an append-only series of
+ * (timestamp, price) points per symbol, so the prices a portfolio overwrites are not lost.
+ * Attached to a portfolio it records a point whenever a holding is bought or its price changes,
+ * and points can also be recorded directly, such as when loading minute bars.
+ *
+ * Each symbol's points are kept in chunks of up to 4,096 points, stored column by column in a few
+ * bits per point. A timestamp is stored as the change in the gap since the point before, which is
+ * zero for evenly spaced points and takes one bit, in a short prefix code with wider buckets for
+ * larger changes. A price is stored as its change since the point before in the chunk's price unit
+ * (a cent for whole-cent prices), Rice coded with a parameter that follows the size of the recent
+ * changes, so an unchanged price in a quiet stretch takes one bit and a typical move takes a bit or
+ * two more than its size in bits. Both escape to the full 64 bits for changes too large or not in
+ * whole units. Each chunk also keeps its first and last
+ * timestamps and its open, high, low and close, so a range query decodes only the chunks that
+ * overlap the range, and an OHLC query over buckets wider than a chunk reads just their summaries.
+ *
+ * Full chunks are appended to memory-mapped segment files in the history directory, and the open
+ * chunk of each symbol is kept in memory until it fills, flush is called or the history is closed.
+ * Opening a directory maps the segments and rebuilds the chunk index from their headers.
+ *
+ * Segment layout (little-endian): magic (int), format version (int) and the bytes used (long),
+ * then chunk records of body length (int), CRC32C of the body (int) and the body: the symbol as a
+ * length-prefixed UTF-8 (short length), then point count and bit-stream bytes (ints), first and last
+ * timestamps, open, high, low, close and price unit (longs, prices in micros), then the bit stream.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PriceHistory implements Closeable
+{
+    // Format identification
+    private static final int MAGIC = 0x53485045; // "EPHS"
+    private static final int FORMAT_VERSION = 1;
+
+    // File names inside the history directory
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    // Size each segment is mapped at, and bytes before its first record and before each record's body
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final int SEGMENT_HEADER = 16;
+    private static final int RECORD_HEADER = 8;
+
+    // Points per chunk
+    private static final int CHUNK_POINTS = 4096;
+
+    // Offsets of the fields of a chunk's fixed part, and its size; the bit stream follows it
+    private static final int COUNT = 0;
+    private static final int BYTES = 4;
+    private static final int FIRST_TIME = 8;
+    private static final int LAST_TIME = 16;
+    private static final int OPEN = 24;
+    private static final int HIGH = 32;
+    private static final int LOW = 40;
+    private static final int CLOSE = 48;
+    private static final int UNIT = 56;
+    private static final int CHUNK_HEADER = 64;
+
+    // Value widths of the time prefix code buckets; the last bucket holds the raw value
+    private static final int[] TIME_WIDTHS = {7, 12, 20, 32, 64};
+
+    // Longest Rice quotient before a price change escapes to its raw value, and the largest Rice parameter
+    private static final int RICE_LIMIT = 24;
+    private static final int MAX_PARAMETER = 40;
+
+    // Largest price unit tried, one cent in micros
+    private static final long CENT = Money.SCALE / 100;
+
+    // History directory and each symbol's series by symbol key
+    private final Path directory;
+    private final ConcurrentHashMap<String, Series> series = new ConcurrentHashMap<>();
+
+    // Mapped segments, replaced whole when one is added; the channels and the write position in
+    // the last segment are guarded by segmentLock
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private final List<FileChannel> channels = new ArrayList<>();
+    private final Object segmentLock = new Object();
+    private int position;
+
+    // Portfolio recorded from and its listener, the first write failure, and whether the history is closed
+    private Portfolio portfolio;
+    private Portfolio.Listener listener;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    // Constructor
+    private PriceHistory(Path directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens a price history directory, creating it if it does not exist.
+     * The segments are mapped and their chunk headers read to rebuild the index of every symbol;
+     * a torn or corrupt tail left by a crash is dropped.
+     *
+     * @param directory The history directory.
+     * @return The open history, which should be closed when no longer needed.
+     * @throws IOException If the directory cannot be read or holds a file that is not a price history segment.
+     */
+    public static PriceHistory open(Path directory) throws IOException
+    {
+        Files.createDirectories(directory);
+        PriceHistory history = new PriceHistory(directory);
+        try
+        {
+            // Load the segments in the order they were written
+            List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+            {
+                for (Path path : stream) paths.add(path);
+            }
+            paths.sort(null);
+            for (Path path : paths) history.load(path);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            history.closeChannels();
+            throw e;
+        }
+        return history;
+    }
+
+    /**
+     * Starts recording the prices of a portfolio: the current price of every holding not already
+     * the last one recorded for its symbol, then a point for every later trade or price update
+     * that changes a price, including a sale of every unit, stamped with the time it was made.
+     *
+     * @param portfolio The portfolio to record.
+     * @throws IllegalStateException If the history is closed or already attached to a portfolio.
+     */
+    public synchronized void attach(Portfolio portfolio)
+    {
+        if (closed) throw new IllegalStateException("The price history is closed.");
+        if (this.portfolio != null) throw new IllegalStateException("The price history is already attached to a portfolio.");
+        Portfolio.Listener recorder = new Portfolio.Listener()
+        {
+            @Override
+            public void changed(Investment before, Investment after)
+            {
+                if (after != null && (before == null || before.getPriceMicros() != after.getPriceMicros())) recordNow(after.getSymbol(), after.getPriceMicros(), false);
+            }
+
+            @Override
+            public void soldOut(Investment before, long priceMicros)
+            {
+                // The removal that follows carries no price, so record the sale's here
+                if (before.getPriceMicros() != priceMicros) recordNow(before.getSymbol(), priceMicros, false);
+            }
+        };
+
+        // Record the starting prices and start listening while no trade is in between
+        portfolio.quiesce(() ->
+        {
+            for (Investment investment : portfolio.snapshot()) recordNow(investment.getSymbol(), investment.getPriceMicros(), true);
+            portfolio.addListener(recorder);
+        });
+        this.portfolio = portfolio;
+        this.listener = recorder;
+    }
+
+    /**
+     * Records a price, such as a minute bar's close. Points must be recorded in time order for each symbol.
+     *
+     * @param symbol      The symbol, in any case.
+     * @param timeMillis  When the price was seen, in milliseconds since the epoch.
+     * @param priceMicros The price in micros.
+     * @throws IllegalArgumentException If the symbol is empty, the price is not positive or the time is before the symbol's last point.
+     * @throws IllegalStateException    If the history is closed.
+     * @throws UncheckedIOException     If a full chunk cannot be written.
+     */
+    public void record(String symbol, long timeMillis, long priceMicros)
+    {
+        check(symbol, priceMicros);
+        Series entry = seriesOf(symbol);
+        synchronized (entry)
+        {
+            if (timeMillis < entry.lastTime()) throw new IllegalArgumentException("Point for " + symbol + " is earlier than its last point.");
+            entry.append(timeMillis, priceMicros);
+        }
+    }
+
+    /**
+     * Returns a symbol's points from one time up to another.
+     *
+     * @param symbol     The symbol, in any case.
+     * @param fromMillis The first time included, in milliseconds since the epoch.
+     * @param toMillis   The first time not included.
+     * @return The points in time order, empty if the symbol has none in the range.
+     */
+    public Points range(String symbol, long fromMillis, long toMillis)
+    {
+        Series entry = series.get(Portfolio.symbolKey(symbol));
+        if (entry == null || fromMillis >= toMillis) return Points.EMPTY;
+
+        // Decode the overlapping chunks, keeping the points inside the range
+        List<ByteBuffer> chunks = entry.chunks(fromMillis, toMillis);
+        int total = 0;
+        for (ByteBuffer chunk : chunks) total += chunk.getInt(COUNT);
+        long[] times = new long[total];
+        long[] prices = new long[total];
+        long[] chunkTimes = new long[CHUNK_POINTS];
+        long[] chunkPrices = new long[CHUNK_POINTS];
+        int size = 0;
+        for (ByteBuffer chunk : chunks)
+        {
+            int count = chunk.getInt(COUNT);
+            if (count > chunkTimes.length)
+            {
+                chunkTimes = new long[count];
+                chunkPrices = new long[count];
+            }
+            int decoded = decode(chunk, toMillis, chunkTimes, chunkPrices);
+            for (int i = 0; i < decoded; i++)
+            {
+                if (chunkTimes[i] < fromMillis) continue;
+                times[size] = chunkTimes[i];
+                prices[size] = chunkPrices[i];
+                size++;
+            }
+        }
+        return new Points(times, prices, size);
+    }
+
+    /**
+     * Returns a symbol's latest points.
+     *
+     * @param symbol The symbol, in any case.
+     * @param count  The number of points wanted.
+     * @return Up to that many of the latest points, in time order.
+     * @throws IllegalArgumentException If the count is negative.
+     */
+    public Points latest(String symbol, int count)
+    {
+        if (count < 0) throw new IllegalArgumentException("Count cannot be negative.");
+        Series entry = series.get(Portfolio.symbolKey(symbol));
+        if (entry == null || count == 0) return Points.EMPTY;
+
+        // Decode the last chunks, newest first, into the end of the result
+        List<ByteBuffer> chunks = entry.latestChunks(count);
+        long[] times = new long[count];
+        long[] prices = new long[count];
+        int size = 0;
+        for (ByteBuffer chunk : chunks)
+        {
+            int points = chunk.getInt(COUNT);
+            long[] chunkTimes = new long[points];
+            long[] chunkPrices = new long[points];
+            decode(chunk, Long.MAX_VALUE, chunkTimes, chunkPrices);
+            int take = Math.min(points, count - size);
+            System.arraycopy(chunkTimes, points - take, times, count - size - take, take);
+            System.arraycopy(chunkPrices, points - take, prices, count - size - take, take);
+            size += take;
+        }
+
+        // Move the points to the front when the symbol has fewer than asked for
+        if (size < count)
+        {
+            times = Arrays.copyOfRange(times, count - size, count);
+            prices = Arrays.copyOfRange(prices, count - size, count);
+        }
+        return new Points(times, prices, size);
+    }
+
+    /**
+     * Returns the open, high, low and close of a symbol's points in fixed-width time buckets.
+     * Buckets start at fromMillis; a chunk that falls inside one bucket is taken from its summary without decoding it.
+     *
+     * @param symbol       The symbol, in any case.
+     * @param fromMillis   The start of the first bucket, in milliseconds since the epoch.
+     * @param toMillis     The first time not included.
+     * @param bucketMillis The width of each bucket.
+     * @return One bar for each bucket that has points, in time order.
+     * @throws IllegalArgumentException If the bucket width is not positive.
+     */
+    public List<Bar> ohlc(String symbol, long fromMillis, long toMillis, long bucketMillis)
+    {
+        if (bucketMillis <= 0) throw new IllegalArgumentException("Bucket width must be positive.");
+        Series entry = series.get(Portfolio.symbolKey(symbol));
+        List<Bar> bars = new ArrayList<>();
+        if (entry == null || fromMillis >= toMillis) return bars;
+
+        BarBuilder builder = new BarBuilder(fromMillis, bucketMillis, bars);
+        long[] chunkTimes = new long[CHUNK_POINTS];
+        long[] chunkPrices = new long[CHUNK_POINTS];
+        for (ByteBuffer chunk : entry.chunks(fromMillis, toMillis))
+        {
+            long first = chunk.getLong(FIRST_TIME);
+            long last = chunk.getLong(LAST_TIME);
+            long bucket = Math.floorDiv(first - fromMillis, bucketMillis);
+
+            // Take a chunk inside the range and one bucket from its summary
+            if (first >= fromMillis && last < toMillis && bucket == Math.floorDiv(last - fromMillis, bucketMillis))
+            {
+                builder.add(bucket, chunk.getLong(OPEN), chunk.getLong(HIGH), chunk.getLong(LOW), chunk.getLong(CLOSE), chunk.getInt(COUNT));
+                continue;
+            }
+
+            // Otherwise decode it and add its points in the range one by one
+            int count = chunk.getInt(COUNT);
+            if (count > chunkTimes.length)
+            {
+                chunkTimes = new long[count];
+                chunkPrices = new long[count];
+            }
+            int decoded = decode(chunk, toMillis, chunkTimes, chunkPrices);
+            for (int i = 0; i < decoded; i++)
+            {
+                if (chunkTimes[i] < fromMillis) continue;
+                long price = chunkPrices[i];
+                builder.add(Math.floorDiv(chunkTimes[i] - fromMillis, bucketMillis), price, price, price, price, 1);
+            }
+        }
+        builder.finish();
+        return bars;
+    }
+
+    /**
+     * Returns the number of bytes the history takes, on disk and in open chunks.
+     *
+     * @return The size in bytes.
+     */
+    public long getBytes()
+    {
+        long bytes = 0;
+        synchronized (segmentLock)
+        {
+            for (MappedByteBuffer segment : segments) bytes += segment.getLong(8);
+        }
+        for (Series entry : series.values())
+        {
+            synchronized (entry)
+            {
+                if (entry.head != null) bytes += CHUNK_HEADER + entry.head.byteLength();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes every open chunk, however few points it has, and forces the segments to disk,
+     * so everything recorded so far survives a crash. Later points start new chunks.
+     *
+     * @throws IOException If a chunk could not be written, now or by an earlier recording.
+     */
+    public void flush() throws IOException
+    {
+        try
+        {
+            for (Series entry : series.values())
+            {
+                synchronized (entry)
+                {
+                    if (entry.head != null) entry.seal();
+                }
+            }
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        synchronized (segmentLock)
+        {
+            for (MappedByteBuffer segment : segments) segment.force();
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Stops recording the attached portfolio, writes the open chunks and closes the segments.
+     *
+     * @throws IOException If a chunk could not be written, now or by an earlier recording.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this)
+        {
+            if (closed) return;
+            if (portfolio != null) portfolio.quiesce(() -> portfolio.removeListener(listener));
+            closed = true;
+        }
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            closeChannels();
+        }
+    }
+
+    /*
+     * Checks a point before it is recorded.
+     */
+    private void check(String symbol, long priceMicros)
+    {
+        if (closed) throw new IllegalStateException("The price history is closed.");
+        if (symbol == null || symbol.isEmpty()) throw new IllegalArgumentException("Symbol cannot be empty.");
+        if (priceMicros <= 0) throw new IllegalArgumentException("Price must be positive.");
+    }
+
+    /*
+     * Returns a symbol's series, creating it the first time the symbol is seen.
+     */
+    private Series seriesOf(String symbol)
+    {
+        return series.computeIfAbsent(Portfolio.symbolKey(symbol), key -> new Series(symbol));
+    }
+
+    /*
+     * Records a price from the attached portfolio at the current time, or at the symbol's last time
+     * if the clock has gone back. A write failure is kept for flush to report rather than thrown
+     * into the trade that caused it.
+     */
+    private void recordNow(String symbol, long priceMicros, boolean onlyIfChanged)
+    {
+        if (priceMicros <= 0) return;
+        Series entry = seriesOf(symbol);
+        synchronized (entry)
+        {
+            if (onlyIfChanged && entry.lastPrice() == priceMicros) return;
+            try
+            {
+                entry.append(Math.max(System.currentTimeMillis(), entry.lastTime()), priceMicros);
+            }
+            catch (UncheckedIOException e)
+            {
+                if (failure == null) failure = e.getCause();
+            }
+        }
+    }
+
+    /*
+     * Maps a segment and adds its chunks to the index, dropping a torn or corrupt tail.
+     */
+    private void load(Path path) throws IOException
+    {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channels.add(channel);
+        if (channel.size() < SEGMENT_HEADER) throw new IOException(path + " is not a price history segment.");
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        if (segment.getInt(0) != MAGIC) throw new IOException(path + " is not a price history segment.");
+        if (segment.getInt(4) != FORMAT_VERSION) throw new IOException(path + " uses unsupported format version " + segment.getInt(4) + ".");
+
+        // Walk the records, stopping at the first that is incomplete or fails its checksum
+        int number = segments.length;
+        long used = Math.min(segment.getLong(8), SEGMENT_SIZE);
+        int offset = SEGMENT_HEADER;
+        CRC32C crc = new CRC32C();
+        while (offset + RECORD_HEADER <= used)
+        {
+            int length = segment.getInt(offset);
+            if (length < 2 + CHUNK_HEADER || offset + RECORD_HEADER + length > used) break;
+            crc.reset();
+            crc.update(segment.slice(offset + RECORD_HEADER, length));
+            if ((int) crc.getValue() != segment.getInt(offset + 4)) break;
+
+            // Index the chunk under its symbol
+            int body = offset + RECORD_HEADER;
+            int symbolLength = Short.toUnsignedInt(segment.getShort(body));
+            byte[] symbol = new byte[symbolLength];
+            segment.get(body + 2, symbol);
+            int chunk = body + 2 + symbolLength;
+            Series entry = seriesOf(new String(symbol, StandardCharsets.UTF_8));
+            entry.index(segment.getLong(chunk + FIRST_TIME), segment.getLong(chunk + LAST_TIME), (long) number << 32 | chunk);
+            offset = body + length;
+        }
+        segment.putLong(8, offset);
+
+        segments = appendSegment(segment);
+        position = offset;
+    }
+
+    /*
+     * Appends a full or flushed chunk to the last segment, starting a new one if it does not fit,
+     * and returns where its fixed part was written.
+     */
+    private long write(String symbol, Head head)
+    {
+        byte[] symbolBytes = symbol.getBytes(StandardCharsets.UTF_8);
+        int length = 2 + symbolBytes.length + CHUNK_HEADER + head.byteLength();
+        synchronized (segmentLock)
+        {
+            try
+            {
+                if (segments.length == 0 || position + RECORD_HEADER + length > SEGMENT_SIZE) startSegment();
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+
+            // Write the body, then its length and checksum, then move the segment's end past it
+            MappedByteBuffer segment = segments[segments.length - 1];
+            int body = position + RECORD_HEADER;
+            segment.putShort(body, (short) symbolBytes.length);
+            segment.put(body + 2, symbolBytes);
+            int chunk = body + 2 + symbolBytes.length;
+            head.writeTo(segment, chunk);
+            CRC32C crc = new CRC32C();
+            crc.update(segment.slice(body, length));
+            segment.putInt(position, length);
+            segment.putInt(position + 4, (int) crc.getValue());
+            position = body + length;
+            segment.putLong(8, position);
+            return (long) (segments.length - 1) << 32 | chunk;
+        }
+    }
+
+    /*
+     * Creates and maps the next segment; called holding segmentLock.
+     */
+    private void startSegment() throws IOException
+    {
+        Path path = directory.resolve(String.format("%s%05d%s", SEGMENT_PREFIX, segments.length, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channels.add(channel);
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, FORMAT_VERSION);
+        segment.putLong(8, SEGMENT_HEADER);
+        segments = appendSegment(segment);
+        position = SEGMENT_HEADER;
+    }
+
+    /*
+     * Returns the segments with one more added at the end.
+     */
+    private MappedByteBuffer[] appendSegment(MappedByteBuffer segment)
+    {
+        MappedByteBuffer[] next = Arrays.copyOf(segments, segments.length + 1);
+        next[segments.length] = segment;
+        return next;
+    }
+
+    /*
+     * Returns the fixed part and bit stream of a written chunk as a buffer of their own.
+     */
+    private ByteBuffer chunkAt(long location)
+    {
+        MappedByteBuffer segment = segments[(int) (location >>> 32)];
+        int offset = (int) location;
+        return segment.slice(offset, CHUNK_HEADER + segment.getInt(offset + BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /*
+     * Closes the segment files; the mapped segments stay readable until they are collected.
+     */
+    private void closeChannels() throws IOException
+    {
+        synchronized (segmentLock)
+        {
+            for (FileChannel channel : channels) channel.close();
+            channels.clear();
+        }
+    }
+
+    /*
+     * Decodes the points of a chunk before a time into the given arrays, which must hold its point
+     * count, and returns how many there were; the rest of the chunk is not read.
+     */
+    private static int decode(ByteBuffer chunk, long until, long[] times, long[] prices)
+    {
+        int count = chunk.getInt(COUNT);
+        long time = chunk.getLong(FIRST_TIME);
+        long price = chunk.getLong(OPEN);
+        long unit = chunk.getLong(UNIT);
+        if (time >= until) return 0;
+        times[0] = time;
+        prices[0] = price;
+
+        // Each point adds its change in gap and its change in price to the point before
+        byte[] bits = new byte[chunk.getInt(BYTES) + 8];
+        chunk.get(CHUNK_HEADER, bits, 0, bits.length - 8);
+        BitReader reader = new BitReader(bits);
+        ChangeModel model = new ChangeModel();
+        long delta = 0;
+        for (int i = 1; i < count; i++)
+        {
+            delta += reader.readChange(TIME_WIDTHS);
+            time += delta;
+            if (time >= until) return i;
+            price += reader.readPriceChange(model, unit);
+            times[i] = time;
+            prices[i] = price;
+        }
+        return count;
+    }
+
+    /*
+     * Returns the largest power of ten up to a cent that divides a price, the unit its chunk's price changes are counted in.
+     */
+    private static long unitOf(long priceMicros)
+    {
+        long unit = CENT;
+        while (unit > 1 && priceMicros % unit != 0) unit /= 10;
+        return unit;
+    }
+
+    /*
+     * Maps signed values onto unsigned ones so small changes either way have small codes.
+     */
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /*
+     * Reverses zigzag.
+     */
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /*
+     * One symbol's chunks: where each written chunk is and the times it spans, and the open chunk.
+     * Guarded by this; written chunks never change, so queries decode them after letting go.
+     */
+    private final class Series
+    {
+        // Symbol as first recorded
+        private final String symbol;
+
+        // Written chunks in time order
+        private int chunkCount;
+        private long[] firstTimes = new long[4];
+        private long[] lastTimes = new long[4];
+        private long[] locations = new long[4];
+
+        // Chunk still being filled, or null
+        private Head head;
+
+        Series(String symbol)
+        {
+            this.symbol = symbol;
+        }
+
+        /*
+         * Adds a point, writing the open chunk out once it is full.
+         */
+        void append(long time, long price)
+        {
+            if (head == null) head = new Head(time, price);
+            else head.add(time, price);
+            if (head.count >= CHUNK_POINTS) seal();
+        }
+
+        /*
+         * Writes the open chunk and starts indexing it with the written ones.
+         */
+        void seal()
+        {
+            long location = write(symbol, head);
+            index(head.firstTime, head.lastTime, location);
+            head = null;
+        }
+
+        /*
+         * Adds a written chunk to the index.
+         */
+        void index(long firstTime, long lastTime, long location)
+        {
+            if (chunkCount == locations.length)
+            {
+                firstTimes = Arrays.copyOf(firstTimes, chunkCount * 2);
+                lastTimes = Arrays.copyOf(lastTimes, chunkCount * 2);
+                locations = Arrays.copyOf(locations, chunkCount * 2);
+            }
+            firstTimes[chunkCount] = firstTime;
+            lastTimes[chunkCount] = lastTime;
+            locations[chunkCount] = location;
+            chunkCount++;
+        }
+
+        /*
+         * Returns the time of the latest point, or the smallest time if there is none.
+         */
+        long lastTime()
+        {
+            if (head != null) return head.lastTime;
+            return chunkCount == 0 ? Long.MIN_VALUE : lastTimes[chunkCount - 1];
+        }
+
+        /*
+         * Returns the latest price, or 0 if there is none.
+         */
+        long lastPrice()
+        {
+            if (head != null) return head.close;
+            return chunkCount == 0 ? 0 : chunkAt(locations[chunkCount - 1]).getLong(CLOSE);
+        }
+
+        /*
+         * Returns the chunks with points from one time up to another, in time order.
+         */
+        synchronized List<ByteBuffer> chunks(long from, long to)
+        {
+            // Find the first chunk ending at or after the start; last times only go up
+            int low = 0, high = chunkCount;
+            while (low < high)
+            {
+                int middle = (low + high) >>> 1;
+                if (lastTimes[middle] < from) low = middle + 1;
+                else high = middle;
+            }
+
+            List<ByteBuffer> chunks = new ArrayList<>();
+            for (int i = low; i < chunkCount && firstTimes[i] < to; i++) chunks.add(chunkAt(locations[i]));
+            if (head != null && head.firstTime < to && head.lastTime >= from) chunks.add(head.copy());
+            return chunks;
+        }
+
+        /*
+         * Returns the fewest latest chunks that hold a number of points, newest first.
+         */
+        synchronized List<ByteBuffer> latestChunks(int count)
+        {
+            List<ByteBuffer> chunks = new ArrayList<>();
+            int points = 0;
+            if (head != null)
+            {
+                chunks.add(head.copy());
+                points += head.count;
+            }
+            for (int i = chunkCount - 1; i >= 0 && points < count; i--)
+            {
+                ByteBuffer chunk = chunkAt(locations[i]);
+                chunks.add(chunk);
+                points += chunk.getInt(COUNT);
+            }
+            return chunks;
+        }
+    }
+
+    /*
+     * A chunk being filled: its summary and the bit stream of every point after the first.
+     */
+    private static final class Head
+    {
+        // First point, and the unit price changes are counted in
+        private final long firstTime;
+        private final long open;
+        private final long unit;
+
+        // Points so far, the latest point and gap, and the highest and lowest price
+        private int count;
+        private long lastTime;
+        private long lastDelta;
+        private long close;
+        private long high;
+        private long low;
+
+        // Bit stream, filled from the high bit of each byte, and the Rice model of the price changes
+        private byte[] bits = new byte[64];
+        private long bitLength;
+        private final ChangeModel model = new ChangeModel();
+
+        Head(long time, long price)
+        {
+            firstTime = lastTime = time;
+            open = close = high = low = price;
+            unit = unitOf(price);
+            count = 1;
+        }
+
+        /*
+         * Appends a point's change in gap and change in price.
+         */
+        void add(long time, long price)
+        {
+            long delta = time - lastTime;
+            writeChange(delta - lastDelta, TIME_WIDTHS);
+            writePriceChange(price - close);
+            lastDelta = delta;
+            lastTime = time;
+            close = price;
+            high = Math.max(high, price);
+            low = Math.min(low, price);
+            count++;
+        }
+
+        /*
+         * Returns the length of the bit stream in bytes.
+         */
+        int byteLength()
+        {
+            return (int) ((bitLength + 7) >>> 3);
+        }
+
+        /*
+         * Writes the fixed part and the bit stream at an offset of a buffer.
+         */
+        void writeTo(ByteBuffer buffer, int offset)
+        {
+            buffer.putInt(offset + COUNT, count);
+            buffer.putInt(offset + BYTES, byteLength());
+            buffer.putLong(offset + FIRST_TIME, firstTime);
+            buffer.putLong(offset + LAST_TIME, lastTime);
+            buffer.putLong(offset + OPEN, open);
+            buffer.putLong(offset + HIGH, high);
+            buffer.putLong(offset + LOW, low);
+            buffer.putLong(offset + CLOSE, close);
+            buffer.putLong(offset + UNIT, unit);
+            buffer.put(offset + CHUNK_HEADER, bits, 0, byteLength());
+        }
+
+        /*
+         * Returns a copy laid out as a written chunk, for a query to decode after letting go of the series.
+         */
+        ByteBuffer copy()
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_HEADER + byteLength()).order(ByteOrder.LITTLE_ENDIAN);
+            writeTo(buffer, 0);
+            return buffer;
+        }
+
+        /*
+         * Writes a change as a prefix code: a zero bit for none, otherwise one bit per bucket up to
+         * its bucket, a zero bit unless it is the last, and the zigzagged change in the bucket's
+         * width; the last bucket holds the whole 64 bits.
+         */
+        private void writeChange(long change, int[] widths)
+        {
+            if (change == 0)
+            {
+                writeBits(0, 1);
+                return;
+            }
+            long value = zigzag(change);
+            for (int bucket = 0; bucket < widths.length - 1; bucket++)
+            {
+                if (Long.compareUnsigned(value, 1L << widths[bucket]) < 0)
+                {
+                    writeBits(((1L << (bucket + 1)) - 1) << 1, bucket + 2);
+                    writeBits(value, widths[bucket]);
+                    return;
+                }
+            }
+            writeBits((1L << widths.length) - 1, widths.length);
+            writeBits(value, 64);
+        }
+
+        /*
+         * Writes a price change as the Rice code of its zigzagged units: the quotient by two to the
+         * model's parameter in ones ended by a zero, then the remainder in that many bits. A change
+         * whose quotient would reach the limit, or that is not in whole units, is written as the
+         * limit in ones and the zigzagged change in micros.
+         */
+        private void writePriceChange(long change)
+        {
+            int parameter = model.parameter();
+            long units = change % unit == 0 ? zigzag(change / unit) : -1;
+            if (units >= 0 && units >>> parameter < RICE_LIMIT)
+            {
+                int quotient = (int) (units >>> parameter);
+                writeBits(((1L << quotient) - 1) << 1, quotient + 1);
+                writeBits(units, parameter);
+            }
+            else
+            {
+                writeBits((1L << RICE_LIMIT) - 1, RICE_LIMIT);
+                writeBits(zigzag(change), 64);
+            }
+            model.update(units, parameter);
+        }
+
+        /*
+         * Appends the low bits of a value, highest first.
+         */
+        private void writeBits(long value, int width)
+        {
+            int needed = (int) ((bitLength + width + 7) >>> 3);
+            if (needed > bits.length) bits = Arrays.copyOf(bits, Math.max(needed, bits.length * 2));
+            while (width > 0)
+            {
+                int free = 8 - (int) (bitLength & 7);
+                int take = Math.min(free, width);
+                int piece = (int) (value >>> (width - take)) & ((1 << take) - 1);
+                bits[(int) (bitLength >>> 3)] |= (byte) (piece << (free - take));
+                bitLength += take;
+                width -= take;
+            }
+        }
+    }
+
+    /*
+     * Reads a chunk's bit stream back, highest bit of each byte first.
+     */
+    private static final class BitReader
+    {
+        // Reads eight bytes of the stream at once, highest bit first
+        private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+        // Bit stream, copied out of the chunk with eight bytes of padding, and the next bit to read
+        private final byte[] bits;
+        private long position;
+
+        BitReader(byte[] bits)
+        {
+            this.bits = bits;
+        }
+
+        /*
+         * Reads a change written by Head.writeChange.
+         */
+        long readChange(int[] widths)
+        {
+            int bucket = readOnes(widths.length);
+            return bucket == 0 ? 0 : unzigzag(readBits(widths[bucket - 1]));
+        }
+
+        /*
+         * Reads a price change written by Head.writePriceChange, moving the model along as the writer did.
+         */
+        long readPriceChange(ChangeModel model, long unit)
+        {
+            int parameter = model.parameter();
+            int quotient = readOnes(RICE_LIMIT);
+            if (quotient == RICE_LIMIT)
+            {
+                long change = unzigzag(readBits(64));
+                model.update(change % unit == 0 ? zigzag(change / unit) : -1, parameter);
+                return change;
+            }
+            long units = (long) quotient << parameter | readBits(parameter);
+            model.update(units, parameter);
+            return unzigzag(units) * unit;
+        }
+
+        /*
+         * Reads a run of one bits up to a limit, and the zero bit ending it if it stopped short of the limit.
+         */
+        private int readOnes(int limit)
+        {
+            int ones = Math.min(Long.numberOfLeadingZeros(~peek()), limit);
+            position += ones < limit ? ones + 1 : ones;
+            return ones;
+        }
+
+        /*
+         * Reads a value of a number of bits.
+         */
+        private long readBits(int width)
+        {
+            if (width == 0) return 0;
+            if (width > 32) return readBits(width - 32) << 32 | readBits(32);
+            long value = peek() >>> (64 - width);
+            position += width;
+            return value;
+        }
+
+        /*
+         * Returns at least the next 57 bits of the stream in the high bits of a long.
+         */
+        private long peek()
+        {
+            return (long) WORD.get(bits, (int) (position >>> 3)) << (position & 7);
+        }
+    }
+
+    /*
+     * Follows the size of a chunk's recent price changes to pick the Rice parameter for the next,
+     * the same way when writing and reading; the totals are halved now and then so the parameter
+     * keeps up as a symbol turns quiet or busy.
+     */
+    private static final class ChangeModel
+    {
+        // Recent changes in units and how many, and the parameter they give
+        private long total = 2;
+        private int count = 1;
+        private int parameter = 1;
+
+        /*
+         * Returns the smallest parameter whose two to the power covers the average change.
+         */
+        int parameter()
+        {
+            return parameter;
+        }
+
+        /*
+         * Adds a change, in zigzagged units or -1 for an escaped one, counted as the largest the parameter codes.
+         */
+        void update(long units, int parameter)
+        {
+            total += units >= 0 && units >>> parameter < RICE_LIMIT ? units : (long) RICE_LIMIT << parameter;
+            if (++count == 32)
+            {
+                total >>= 1;
+                count >>= 1;
+            }
+
+            // The average moves a little at a time, so step the parameter from where it was
+            int next = this.parameter;
+            while (next > 0 && (long) count << (next - 1) >= total) next--;
+            while (next < MAX_PARAMETER && (long) count << next < total) next++;
+            this.parameter = next;
+        }
+    }
+
+    /*
+     * Gathers points and chunk summaries into bars, one bucket at a time.
+     */
+    private static final class BarBuilder
+    {
+        private final long from;
+        private final long width;
+        private final List<Bar> bars;
+        private long bucket = Long.MIN_VALUE;
+        private long open, high, low, close;
+        private int count;
+
+        BarBuilder(long from, long width, List<Bar> bars)
+        {
+            this.from = from;
+            this.width = width;
+            this.bars = bars;
+        }
+
+        /*
+         * Adds points with their open, high, low and close to a bucket; points arrive in time order.
+         */
+        void add(long bucket, long open, long high, long low, long close, int count)
+        {
+            if (bucket != this.bucket)
+            {
+                finish();
+                this.bucket = bucket;
+                this.open = open;
+                this.high = high;
+                this.low = low;
+                this.count = 0;
+            }
+            this.high = Math.max(this.high, high);
+            this.low = Math.min(this.low, low);
+            this.close = close;
+            this.count += count;
+        }
+
+        /*
+         * Adds the bar of the current bucket, if it has points.
+         */
+        void finish()
+        {
+            if (count > 0) bars.add(new Bar(from + bucket * width, open, high, low, close, count));
+            count = 0;
+        }
+    }
+
+    /**
+     * The points a query returned, in time order.
+     */
+    public static final class Points
+    {
+        // No points
+        static final Points EMPTY = new Points(new long[0], new long[0], 0);
+
+        private final long[] times;
+        private final long[] prices;
+        private final int size;
+
+        // Constructor
+        Points(long[] times, long[] prices, int size)
+        {
+            this.times = times;
+            this.prices = prices;
+            this.size = size;
+        }
+
+        /**
+         * Returns the number of points.
+         *
+         * @return The number of points.
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * Returns the time of a point.
+         *
+         * @param index The position of the point.
+         * @return The time in milliseconds since the epoch.
+         */
+        public long getTime(int index)
+        {
+            return times[Objects.checkIndex(index, size)];
+        }
+
+        /**
+         * Returns the price of a point in micros.
+         *
+         * @param index The position of the point.
+         * @return The price in micros.
+         */
+        public long getPriceMicros(int index)
+        {
+            return prices[Objects.checkIndex(index, size)];
+        }
+
+        /**
+         * Returns the price of a point.
+         *
+         * @param index The position of the point.
+         * @return The price.
+         */
+        public double getPrice(int index)
+        {
+            return Money.toDouble(getPriceMicros(index));
+        }
+
+        /*
+         * Overridden toString method to display the span of the points.
+         */
+        @Override
+        public String toString()
+        {
+            if (size == 0) return "No points";
+            return String.format("%d points from %d to %d, last price %.2f", size, times[0], times[size - 1], getPrice(size - 1));
+        }
+    }
+
+    /**
+     * The open, high, low and close of the points in one time bucket.
+     */
+    public static final class Bar
+    {
+        private final long start;
+        private final long open;
+        private final long high;
+        private final long low;
+        private final long close;
+        private final int count;
+
+        // Constructor
+        Bar(long start, long open, long high, long low, long close, int count)
+        {
+            this.start = start;
+            this.open = open;
+            this.high = high;
+            this.low = low;
+            this.close = close;
+            this.count = count;
+        }
+
+        /**
+         * Returns the start of the bucket.
+         *
+         * @return The time in milliseconds since the epoch.
+         */
+        public long getStart()
+        {
+            return start;
+        }
+
+        /**
+         * Returns the price of the first point in the bucket.
+         *
+         * @return The open in micros.
+         */
+        public long getOpenMicros()
+        {
+            return open;
+        }
+
+        /**
+         * Returns the highest price in the bucket.
+         *
+         * @return The high in micros.
+         */
+        public long getHighMicros()
+        {
+            return high;
+        }
+
+        /**
+         * Returns the lowest price in the bucket.
+         *
+         * @return The low in micros.
+         */
+        public long getLowMicros()
+        {
+            return low;
+        }
+
+        /**
+         * Returns the price of the last point in the bucket.
+         *
+         * @return The close in micros.
+         */
+        public long getCloseMicros()
+        {
+            return close;
+        }
+
+        /**
+         * Returns the number of points in the bucket.
+         *
+         * @return The point count.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+        /*
+         * Overridden toString method to display the bar.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%d: open %.2f, high %.2f, low %.2f, close %.2f (%d points)", start, Money.toDouble(open), Money.toDouble(high), Money.toDouble(low), Money.toDouble(close), count);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The PriceIndex class is an ordered secondary index from price to investment IDs.
+ * IDs sharing a price are kept together in one IdBitmap bucket, so a price band
+ * query costs one tree descent plus the buckets inside the band.
+ *
+ * Like the keyword index, a bucket is replaced rather than changed, so trades on different
+ * symbols can move their prices at the same time and a search can read the index while they do.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+final class PriceIndex
+{
+    // Buckets of IDs keyed by price, in ascending price order
+    private final ConcurrentSkipListMap<Double, IdBitmap> buckets = new ConcurrentSkipListMap<>();
+
+    /**
+     * Indexes an ID under a price.
+     *
+     * @param id    The investment ID.
+     * @param price The investment price.
+     */
+    void add(int id, double price)
+    {
+        buckets.compute(price, (p, bucket) -> (bucket == null ? new IdBitmap() : bucket).with(id));
+    }
+
+    /**
+     * Removes an ID from the bucket of a price.
+     *
+     * @param id    The investment ID.
+     * @param price The price the ID was indexed under.
+     */
+    void remove(int id, double price)
+    {
+        // Drop the bucket once its last ID is gone
+        buckets.computeIfPresent(price, (p, bucket) ->
+        {
+            IdBitmap rest = bucket.without(id);
+            return rest.isEmpty() ? null : rest;
+        });
+    }
+
+    /**
+     * Moves many IDs in the index at once. Each ID leaves the bucket of its removed price and then
+     * joins the bucket of its added price; NaN leaves that side alone. Every bucket the batch
+     * touches is replaced once, rather than once per ID as add and remove do.
+     *
+     * @param ids     The investment IDs, in ascending order.
+     * @param removed The prices to remove each ID from, or NaN entries.
+     * @param added   The prices to index each ID under, or NaN entries.
+     * @param count   The number of IDs.
+     */
+    void changeAll(int[] ids, double[] removed, double[] added, int count)
+    {
+        // Group the batch by price
+        HashMap<Double, IdBitmap.Changes> changes = new HashMap<>();
+        for (int i = 0; i < count; i++)
+        {
+            if (!Double.isNaN(removed[i])) changes.computeIfAbsent(removed[i], p -> new IdBitmap.Changes()).remove(ids[i]);
+            if (!Double.isNaN(added[i])) changes.computeIfAbsent(added[i], p -> new IdBitmap.Changes()).add(ids[i]);
+        }
+
+        // Replace each bucket once, dropping the ones left empty
+        changes.forEach((price, change) -> buckets.compute(price, (p, bucket) -> change.applyTo(bucket)));
+    }
+
+    /**
+     * Counts the IDs in a price range, giving up once the count passes a limit.
+     * Used by the search planner to compare the selectivity of the price filter with other filters.
+     *
+     * @param minPrice The inclusive lower bound, or null for none.
+     * @param maxPrice The inclusive upper bound, or null for none.
+     * @param limit    The count above which counting stops.
+     * @return The number of IDs in the range, or a value above the limit.
+     */
+    int countInRange(Double minPrice, Double maxPrice, int limit)
+    {
+        int count = 0;
+        for (IdBitmap bucket : range(minPrice, maxPrice).values())
+        {
+            count += bucket.cardinality();
+            if (count > limit) break;
+        }
+        return count;
+    }
+
+    /**
+     * Collects the IDs in a price range.
+     *
+     * @param minPrice The inclusive lower bound, or null for none.
+     * @param maxPrice The inclusive upper bound, or null for none.
+     * @return The matching IDs in ascending ID order.
+     */
+    int[] idsInRange(Double minPrice, Double maxPrice)
+    {
+        // Take the buckets once, since the range can change between passes, then size the result and copy each in
+        ArrayList<IdBitmap> inRange = new ArrayList<>(range(minPrice, maxPrice).values());
+        int count = 0;
+        for (IdBitmap bucket : inRange)
+        {
+            count += bucket.cardinality();
+        }
+
+        int[] result = new int[count];
+        int offset = 0;
+        for (IdBitmap bucket : inRange)
+        {
+            offset = bucket.copyTo(result, offset);
+        }
+
+        // Return the IDs in the order the investments were added
+        Arrays.sort(result);
+        return result;
+    }
+
+    /*
+     * Returns the view of the buckets between the optional bounds.
+     */
+    private NavigableMap<Double, IdBitmap> range(Double minPrice, Double maxPrice)
+    {
+        if (minPrice != null && maxPrice != null) return buckets.subMap(minPrice, true, maxPrice, true);
+        if (minPrice != null) return buckets.tailMap(minPrice, true);
+        if (maxPrice != null) return buckets.headMap(maxPrice, true);
+        return buckets;
+    }
+}
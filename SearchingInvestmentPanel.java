@@ -4,12 +4,16 @@ package ePortfolio;
 // Libraries
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.util.List;
 
 /**
  *  The SearchingInvestmentPanel class creates a panel that allows the user to search for an investment.
  *  The user can enter the investment's symbol and click the "Search" button to search for the investment.
  *  The user can also click the "Reset" button to clear the text field.
+ *  Results also update as the user types, matching symbols and name keywords that start with what was typed.
  * 
  * @author Markus Gavra
  * @version 3.0
@@ -18,10 +22,22 @@ import java.awt.*;
 
 public class SearchingInvestmentPanel extends JPanel 
 {
+    // Milliseconds to wait after a keystroke before searching, so a burst of typing runs one search
+    private static final int TYPING_DELAY = 150;
+
     // GUI Components
     private JTextField symbolField, namekeywordField, lowpriceField, highpriceField;
-    private JButton resetButton, searchButton;
+    private JButton resetButton, searchButton, cancelButton;
     private JTextArea messageArea;
+    private JProgressBar progressBar;
+    private InvestmentTablePanel resultsTable;
+
+    // Search in progress, if any
+    private PortfolioWorker<?, ?> worker;
+
+    // Search-as-you-type state and the timer that waits for typing to pause
+    private final IncrementalSearch incrementalSearch = new IncrementalSearch();
+    private Timer typingTimer;
     
     // Constructor
     public SearchingInvestmentPanel() 
@@ -54,11 +70,14 @@ public class SearchingInvestmentPanel extends JPanel
         }
 
         // Create the button panel
-        JPanel buttonPanel = new JPanel(new GridLayout(2, 1, 0, 5));
+        JPanel buttonPanel = new JPanel(new GridLayout(3, 1, 0, 5));
         resetButton = new JButton("Reset");
         searchButton = new JButton("Search");
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
         buttonPanel.add(resetButton);
         buttonPanel.add(searchButton);
+        buttonPanel.add(cancelButton);
 
         // Add padding around buttons
         buttonPanel.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 10));
@@ -73,8 +92,12 @@ public class SearchingInvestmentPanel extends JPanel
         Border titledBorder = BorderFactory.createTitledBorder(dashedBorder, "Searching an investment");
         topSection.setBorder(titledBorder);
 
+        // Create the search results table
+        resultsTable = new InvestmentTablePanel();
+        resultsTable.setBorder(BorderFactory.createTitledBorder(dashedBorder, "Results"));
+
         // Create the messages section
-        messageArea = new JTextArea(10, 40);
+        messageArea = new JTextArea(2, 40);
         messageArea.setEditable(false);
         JScrollPane scrollPane = new JScrollPane(messageArea);
 
@@ -82,16 +105,51 @@ public class SearchingInvestmentPanel extends JPanel
         JPanel messagesPanel = new JPanel(new BorderLayout());
         messagesPanel.add(new JLabel("Messages"), BorderLayout.NORTH);
         messagesPanel.add(scrollPane, BorderLayout.CENTER);
+
+        // Create the progress bar shown while the search runs
+        progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(false);
+        messagesPanel.add(progressBar, BorderLayout.SOUTH);
         messagesPanel.setBorder(BorderFactory.createTitledBorder(dashedBorder, ""));
 
         // Add sections to the main panel
         add(topSection, BorderLayout.NORTH);
-        add(messagesPanel, BorderLayout.CENTER);
+        add(resultsTable, BorderLayout.CENTER);
+        add(messagesPanel, BorderLayout.SOUTH);
 
         // Add action listeners
         resetButton.addActionListener(e -> resetFields());
         searchButton.addActionListener(e -> processSearch());
-        
+        cancelButton.addActionListener(e -> cancelSearch());
+
+        // Search as the user types, once typing pauses
+        typingTimer = new Timer(TYPING_DELAY, e -> processTyping());
+        typingTimer.setRepeats(false);
+        DocumentListener typingListener = new DocumentListener() 
+        {
+            @Override
+            public void insertUpdate(DocumentEvent e) 
+            {
+                typingTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) 
+            {
+                typingTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) 
+            {
+                typingTimer.restart();
+            }
+        };
+        for (JTextField field : fields) 
+        {
+            field.getDocument().addDocumentListener(typingListener);
+        }
     }     
 
     /*
@@ -99,23 +157,45 @@ public class SearchingInvestmentPanel extends JPanel
      */
     private void resetFields() 
     {
+        cancelSearch();
+        typingTimer.stop();
+        incrementalSearch.reset();
         symbolField.setText("");
         namekeywordField.setText("");
         lowpriceField.setText("");
         highpriceField.setText("");
         messageArea.setText("");
+        resultsTable.clear();
+    }
+
+    /*
+     * Method to stop the search in progress, dropping its results.
+     */
+    private void cancelSearch() 
+    {
+        if (worker != null && worker.cancel(false)) 
+        {
+            messageArea.append("Search cancelled.\n");
+            progressBar.setVisible(false);
+            cancelButton.setEnabled(false);
+        }
     }
 
     /*
      * Method to process the search for an investment.
      * Searches for an investment based on the symbol, name, and price range.
-     * Displays the search results in the message area.
+     * Runs the search on the portfolio service threads and displays the results in the results table.
+     * A new search replaces one still in progress, whose results are dropped.
      * Displays an error message for invalid inputs.
      * Displays an error message for unexpected errors.
      * Handles exceptions for invalid number inputs.
      */
     private void processSearch() 
     {
+        // Stop the previous search so its results cannot mix with this one's messages
+        cancelSearch();
+        typingTimer.stop();
+
         try {
             // Get the values from the input fields
             String symbol = symbolField.getText().trim();
@@ -149,34 +229,37 @@ public class SearchingInvestmentPanel extends JPanel
                 return;
             }
 
-            // Perform the search
-            java.util.List<Investment> results = Investment.searchInvestments(symbol, namekeyword, lowPriceValue, highPriceValue);
-
-            // Display results
-            if (results.isEmpty()) 
+            // Clear the results and run the search in the background, replacing a search still in progress
+            messageArea.setText("");
+            resultsTable.clear();
+            String symbolValue = symbol;
+            Double minPrice = lowPriceValue;
+            Double maxPrice = highPriceValue;
+            worker = PortfolioWorker.replace(worker, new PortfolioWorker<List<Investment>, Void>() 
             {
-                // Show message if no investments are found
-                messageArea.setText("No investments found matching the search criteria.");
-            } 
+                @Override
+                protected List<Investment> doInBackground() 
+                {
+                    // Perform the search
+                    return Investment.searchInvestments(symbolValue, namekeyword, minPrice, maxPrice);
+                }
 
-            else 
-            {
-                // Clear the message area
-                messageArea.setText(""); 
-                
-                // Display each investment found
-                for (Investment investment : results)
+                @Override
+                protected void succeeded(List<Investment> results) 
                 {
-                    messageArea.append(String.format(
-                        "Type: %s\nSymbol: %s\nName: %s\nQuantity: %d\nPrice: $%.2f\n\n",
-                        investment.getClass().getSimpleName(),
-                        investment.getSymbol(),
-                        investment.getName(),
-                        investment.getQuantity(),
-                        investment.getPrice()
-                    ));
+                    // Show the investments found, or a message if there are none
+                    resultsTable.show(results);
+                    if (results.isEmpty()) messageArea.setText("No investments found matching the search criteria.");
+                    else messageArea.setText(String.format("%,d investments found.", results.size()));
                 }
-            }
+
+                @Override
+                protected void failed(Throwable error) 
+                {
+                    // Show error message for unexpected errors
+                    messageArea.setText("Error: An unexpected error occurred. " + error.getMessage());
+                }
+            }.track(progressBar, cancelButton));
         }
         
         // Exception handlers for invalid inputs
@@ -193,4 +276,67 @@ public class SearchingInvestmentPanel extends JPanel
             messageArea.setText("Error: An unexpected error occurred. " + e.getMessage());
         }
     }
+
+    /*
+     * Method to search as the user types.
+     * Matches symbols starting with the symbol field and names with a keyword starting with each word of the keywords field,
+     * narrowing the previous results when the fields were only extended.
+     * Clears the results while both fields are blank, and waits for valid prices before searching.
+     */
+    private void processTyping() 
+    {
+        // Get the values from the input fields
+        String symbol = symbolField.getText().trim();
+        String namekeyword = namekeywordField.getText().trim();
+
+        // Clear the results while there is nothing to match
+        if (symbol.isEmpty() && namekeyword.isEmpty()) 
+        {
+            if (worker != null) worker.cancel(false);
+            incrementalSearch.reset();
+            resultsTable.clear();
+            messageArea.setText("");
+            return;
+        }
+
+        // Wait for the price fields to hold a valid range
+        Double minPrice, maxPrice;
+        try 
+        {
+            minPrice = lowpriceField.getText().trim().isEmpty() ? null : Double.valueOf(lowpriceField.getText().trim());
+            maxPrice = highpriceField.getText().trim().isEmpty() ? null : Double.valueOf(highpriceField.getText().trim());
+        } 
+        catch (NumberFormatException e) 
+        {
+            return;
+        }
+        if (minPrice != null && maxPrice != null && minPrice > maxPrice) return;
+
+        // Run the search in the background, replacing a search still in progress
+        worker = PortfolioWorker.replace(worker, new PortfolioWorker<IncrementalSearch.Result, Void>() 
+        {
+            @Override
+            protected IncrementalSearch.Result doInBackground() 
+            {
+                return incrementalSearch.search(symbol, namekeyword, minPrice, maxPrice);
+            }
+
+            @Override
+            protected void succeeded(IncrementalSearch.Result result) 
+            {
+                // Show the matching investments and how many there are
+                resultsTable.show(result.getInvestments());
+                if (result.size() == 0) messageArea.setText("No investments start with the search criteria.");
+                else messageArea.setText(String.format("%,d investments start with the search criteria.", result.size()));
+                if (!result.isCurrent()) messageArea.append(" Recent changes are still being indexed.");
+            }
+
+            @Override
+            protected void failed(Throwable error) 
+            {
+                // Show error message for unexpected errors
+                messageArea.setText("Error: An unexpected error occurred. " + error.getMessage());
+            }
+        });
+    }
 }
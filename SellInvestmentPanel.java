@@ -5,10 +5,13 @@ package ePortfolio;
 import javax.swing.*;
 import javax.swing.border.*;
 import java.awt.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * The SellInvestmentPanel class creates a panel that allows the user to sell an investment.
- * The user can enter the investment's symbol, quantity, and price.
+ * The user can enter the investment's symbol, quantity, and price, and choose which tax lots the units come from:
+ * at average cost, first in first out, last in first out, or from the lot numbers they list.
  * The user can also click the "Sell" button to sell the investment or the "Reset" button to clear the text fields.
  * 
  * @author Markus Gavra
@@ -19,7 +22,8 @@ import java.awt.*;
 public class SellInvestmentPanel extends JPanel 
 {
     // GUI Components
-    private JTextField symbolField, quantityField, priceField;
+    private JTextField symbolField, quantityField, priceField, lotsField;
+    private JComboBox<String> methodBox;
     private JButton resetButton, sellButton;
     private JTextArea messageArea;
 
@@ -37,8 +41,13 @@ public class SellInvestmentPanel extends JPanel
         gbc.anchor = GridBagConstraints.WEST;
 
         // Create labels and input fields
-        String[] labels = {"Symbol", "Quantity", "Price"};
-        JTextField[] fields = {symbolField = new JTextField(15), quantityField = new JTextField(15), priceField = new JTextField(15)};
+        String[] labels = {"Symbol", "Quantity", "Price", "Lots", "Lot numbers"};
+        methodBox = new JComboBox<>(new String[] {"Average cost", "FIFO", "LIFO", "Specific lots"});
+        JComponent[] fields = {symbolField = new JTextField(15), quantityField = new JTextField(15), priceField = new JTextField(15), methodBox, lotsField = new JTextField(15)};
+
+        // Lot numbers only apply when selling specific lots
+        lotsField.setEnabled(false);
+        methodBox.addActionListener(e -> lotsField.setEnabled(methodBox.getSelectedIndex() == 3));
 
         // Add labels and fields
         for (int i = 0; i < labels.length; i++) 
@@ -101,6 +110,8 @@ public class SellInvestmentPanel extends JPanel
         symbolField.setText("");
         quantityField.setText("");
         priceField.setText("");
+        lotsField.setText("");
+        methodBox.setSelectedIndex(0);
         messageArea.setText("");
     }
 
@@ -134,16 +145,26 @@ public class SellInvestmentPanel extends JPanel
             double price = Double.parseDouble(priceStr);
             if (price <= 0) throw new IllegalArgumentException("Price must be a positive number.");
 
-            // Call the sellInvestment method and display the result
-            String result = Investment.sellInvestment(symbol, quantity, price);
-            messageArea.setText(result);
+            // Exception handler for listing the lots to sell from
+            int[] lotIds = null;
+            if (methodBox.getSelectedIndex() == 3) lotIds = parseLots(lotsField.getText().trim());
+
+            // Sell the investment in the background, keeping the button off until it is done
+            sellButton.setEnabled(false);
+            showResult(switch (methodBox.getSelectedIndex())
+            {
+                case 1 -> PortfolioService.sellInvestment(symbol, quantity, price, TaxLots.Method.FIFO);
+                case 2 -> PortfolioService.sellInvestment(symbol, quantity, price, TaxLots.Method.LIFO);
+                case 3 -> PortfolioService.sellInvestment(symbol, quantity, price, lotIds);
+                default -> PortfolioService.sellInvestment(symbol, quantity, price);
+            });
         } 
 
         // Exception handlers for invalid inputs
         catch (NumberFormatException e) 
         {
             // Show error message for invalid number inputs
-            messageArea.setText("Error: Quantity and price must be valid numbers.");
+            messageArea.setText("Error: Quantity, price and lot numbers must be valid numbers.");
         } 
 
         catch (IllegalArgumentException e) 
@@ -152,4 +173,39 @@ public class SellInvestmentPanel extends JPanel
             messageArea.setText("Error: " + e.getMessage());
         }
     }
+
+    /*
+     * Method to read a comma or space separated list of lot numbers.
+     */
+    private static int[] parseLots(String text) 
+    {
+        if (text.isEmpty()) throw new IllegalArgumentException("Lot numbers field must not be empty.");
+        String[] parts = text.split("[,\\s]+");
+        int[] lotIds = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) 
+        {
+            lotIds[i] = Integer.parseInt(parts[i]);
+        }
+        return lotIds;
+    }
+
+    /*
+     * Method to display the result of a trade on the event dispatch thread once it completes, and turn the button back on.
+     */
+    private void showResult(CompletableFuture<String> trade) 
+    {
+        trade.whenCompleteAsync((result, error) -> 
+        {
+            sellButton.setEnabled(true);
+
+            // Show error message if the trade was refused
+            if (error != null) 
+            {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                messageArea.setText("Error: " + cause.getMessage());
+                return;
+            }
+            messageArea.setText(result);
+        }, PortfolioService.EDT);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+// Package
+package ePortfolio;
+
+/**
+ * The SymbolExposure class is the combined position in one symbol across every portfolio of a
+ * PortfolioRegistry: how many accounts hold it, the units they hold between them, and the market
+ * and book value of those units. Instances are immutable; the registry keeps the current one for
+ * every symbol up to date as holdings change, so reading it never visits the accounts.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class SymbolExposure
+{
+    // Symbol as held, number of accounts holding it, units held, and market and book value in micros
+    private final String symbol;
+    private final int accounts;
+    private final long quantity;
+    private final long marketValue;
+    private final long bookValue;
+
+    // Constructor
+    SymbolExposure(String symbol, int accounts, long quantity, long marketValue, long bookValue)
+    {
+        this.symbol = symbol;
+        this.accounts = accounts;
+        this.quantity = quantity;
+        this.marketValue = marketValue;
+        this.bookValue = bookValue;
+    }
+
+    /**
+     * Returns the exposure after one account's holding of the symbol changes.
+     *
+     * @param exposure The exposure before the change, or null if no account held the symbol.
+     * @param before   The read-only holding before the change, or null if it is joining its portfolio.
+     * @param after    The read-only holding after the change, or null if it is leaving its portfolio.
+     * @return The next exposure, or null once no account holds the symbol; the given one is left unchanged.
+     * @throws ArithmeticException If a total overflows.
+     */
+    static SymbolExposure change(SymbolExposure exposure, Investment before, Investment after)
+    {
+        // Start from nothing held when this is the first account holding the symbol
+        String symbol = after != null ? after.getSymbol() : before.getSymbol();
+        if (exposure == null) exposure = new SymbolExposure(symbol, 0, 0, 0, 0);
+
+        // Take the holding's old contribution out and put its new one in
+        int accounts = exposure.accounts + (after != null ? 1 : 0) - (before != null ? 1 : 0);
+        if (accounts == 0) return null;
+        return new SymbolExposure(
+            exposure.symbol,
+            accounts,
+            exposure.quantity + (after != null ? after.getQuantity() : 0) - (before != null ? before.getQuantity() : 0),
+            Money.subtract(Money.add(exposure.marketValue, after != null ? after.getMarketValueMicros() : 0), before != null ? before.getMarketValueMicros() : 0),
+            Money.subtract(Money.add(exposure.bookValue, after != null ? after.getBookValueMicros() : 0), before != null ? before.getBookValueMicros() : 0)
+        );
+    }
+
+    /**
+     * Returns the exposure of two disjoint sets of accounts added together.
+     *
+     * @param other The exposure of the other accounts, or null for none.
+     * @return The combined exposure.
+     * @throws ArithmeticException If a total overflows.
+     */
+    SymbolExposure plus(SymbolExposure other)
+    {
+        if (other == null) return this;
+        return new SymbolExposure(symbol, accounts + other.accounts, quantity + other.quantity,
+            Money.add(marketValue, other.marketValue), Money.add(bookValue, other.bookValue));
+    }
+
+    /**
+     * Returns the symbol, as written by the first account found holding it.
+     *
+     * @return The symbol.
+     */
+    public String getSymbol()
+    {
+        return symbol;
+    }
+
+    /**
+     * Returns the number of accounts holding the symbol.
+     *
+     * @return The number of accounts.
+     */
+    public int getAccounts()
+    {
+        return accounts;
+    }
+
+    /**
+     * Returns the units of the symbol held across every account.
+     *
+     * @return The total quantity.
+     */
+    public long getQuantity()
+    {
+        return quantity;
+    }
+
+    /**
+     * Returns the market value of the symbol across every account, at each account's last price.
+     *
+     * @return The total market value in micros.
+     */
+    public long getMarketValueMicros()
+    {
+        return marketValue;
+    }
+
+    /**
+     * Returns the book value of the symbol across every account.
+     *
+     * @return The total book value in micros.
+     */
+    public long getBookValueMicros()
+    {
+        return bookValue;
+    }
+
+    /**
+     * Returns the market value of the symbol across every account.
+     *
+     * @return The total market value in dollars.
+     */
+    public double getMarketValue()
+    {
+        return Money.toDouble(marketValue);
+    }
+
+    /**
+     * Returns the book value of the symbol across every account.
+     *
+     * @return The total book value in dollars.
+     */
+    public double getBookValue()
+    {
+        return Money.toDouble(bookValue);
+    }
+
+    /*
+     * Overridden toString method to display the exposure.
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("%s: %d accounts, %d units, market value $%.2f, book value $%.2f",
+            symbol, accounts, quantity, getMarketValue(), getBookValue());
+    }
+}
@@ -0,0 +1,550 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The TaxLots class holds the tax lots of one holding. Every purchase of a symbol already held
+ * opens a lot with its own units and cost, numbered from 1 in the order bought, and a sale takes
+ * its units from the lots first in first out, last in first out, or from the lots it names.
+ *
+ * Instances are immutable, so the read-only copies in a snapshot keep the lots they were published
+ * with. Versions share primitive columns of lot number, units and cost that are only ever written
+ * past their end: each version sees a range of them, and a lot that a change leaves partly sold is
+ * kept as an override on the new version instead of being written back. Buying, and selling from
+ * either end, therefore costs only the lots it touches, with no object per lot, even for a holding
+ * with hundreds of thousands of reinvested-dividend lots. The columns are copied into fresh ones
+ * only when they fill up or a version gathers more than MAX_OVERRIDES overrides, which takes
+ * repeated sales from the middle of the lots.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class TaxLots
+{
+    /**
+     * The Method enum names the ways a sale can choose the lots it takes units from.
+     */
+    public enum Method
+    {
+        /** Takes units from the oldest lots, costing them at the average cost of the holding. */
+        AVERAGE_COST,
+
+        /** Takes units from the oldest lots at their own cost. */
+        FIFO,
+
+        /** Takes units from the newest lots at their own cost. */
+        LIFO,
+
+        /** Takes units from the lots the sale names, in the order named, at their own cost. */
+        SPECIFIC_ID
+    }
+
+    /**
+     * The Visitor interface receives the open lots one at a time.
+     */
+    @FunctionalInterface
+    public interface Visitor
+    {
+        /**
+         * Visits one open lot.
+         *
+         * @param lotId    The lot number.
+         * @param quantity The units left in the lot.
+         * @param cost     The cost of those units in micros.
+         */
+        void visit(int lotId, int quantity, long cost);
+    }
+
+    // Overrides a version may carry before its lots are copied into fresh columns
+    private static final int MAX_OVERRIDES = 32;
+
+    // Smallest column capacity
+    private static final int MIN_CAPACITY = 16;
+
+    // Shared empty override arrays
+    private static final int[] NO_INTS = {};
+    private static final long[] NO_LONGS = {};
+
+    // Columns shared by the versions of one holding's lots; a slot is written once, by the version that claims it
+    private static final class Columns
+    {
+        final int[] ids;
+        final int[] quantities;
+        final long[] costs;
+        final AtomicInteger claimed = new AtomicInteger();
+
+        Columns(int capacity)
+        {
+            ids = new int[capacity];
+            quantities = new int[capacity];
+            costs = new long[capacity];
+        }
+    }
+
+    // Columns and the range of slots this version sees
+    private final Columns columns;
+    private final int head;
+    private final int tail;
+
+    // Lots this version changed since they were written, by slot in ascending order; a quantity of 0 marks a sold-out lot
+    private final int[] overridePositions;
+    private final int[] overrideIds;
+    private final int[] overrideQuantities;
+    private final long[] overrideCosts;
+
+    // Open lots, their units and cost, the next lot number, and the cost of the units taken by the change that made this version
+    private final int size;
+    private final int quantity;
+    private final long totalCost;
+    private final int nextId;
+    private final long takenCost;
+
+    // Constructor
+    private TaxLots(Columns columns, int head, int tail, int[] overridePositions, int[] overrideIds, int[] overrideQuantities, long[] overrideCosts, int size, int quantity, long totalCost, int nextId, long takenCost)
+    {
+        this.columns = columns;
+        this.head = head;
+        this.tail = tail;
+        this.overridePositions = overridePositions;
+        this.overrideIds = overrideIds;
+        this.overrideQuantities = overrideQuantities;
+        this.overrideCosts = overrideCosts;
+        this.size = size;
+        this.quantity = quantity;
+        this.totalCost = totalCost;
+        this.nextId = nextId;
+        this.takenCost = takenCost;
+    }
+
+    /**
+     * Returns the lots of a holding bought in one go: a single lot numbered 1.
+     *
+     * @param quantity The units bought.
+     * @param cost     Their cost in micros.
+     * @return The lots.
+     */
+    static TaxLots of(int quantity, long cost)
+    {
+        return of(new int[] {1}, new int[] {quantity}, new long[] {cost}, 1, 2);
+    }
+
+    /**
+     * Returns lots read back from storage.
+     *
+     * @param ids        The lot numbers, in ascending order.
+     * @param quantities The units left in each lot, all positive.
+     * @param costs      The cost of each lot in micros.
+     * @param count      The number of lots.
+     * @param nextId     The number the next lot will get, greater than every lot number.
+     * @return The lots.
+     * @throws IllegalArgumentException If the lots are not in order or hold no units.
+     */
+    static TaxLots of(int[] ids, int[] quantities, long[] costs, int count, int nextId)
+    {
+        Columns columns = new Columns(Math.max(MIN_CAPACITY, count * 2));
+        int quantity = 0;
+        long totalCost = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (quantities[i] <= 0 || ids[i] >= nextId || (i > 0 && ids[i] <= ids[i - 1])) throw new IllegalArgumentException("Invalid tax lots.");
+            columns.ids[i] = ids[i];
+            columns.quantities[i] = quantities[i];
+            columns.costs[i] = costs[i];
+            quantity = Math.addExact(quantity, quantities[i]);
+            totalCost = Money.add(totalCost, costs[i]);
+        }
+        columns.claimed.set(count);
+        return new TaxLots(columns, 0, count, NO_INTS, NO_INTS, NO_INTS, NO_LONGS, count, quantity, totalCost, nextId, 0);
+    }
+
+    /**
+     * Returns the number of open lots.
+     *
+     * @return The number of lots with units left.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the units left across every lot.
+     *
+     * @return The total units.
+     */
+    public int getQuantity()
+    {
+        return quantity;
+    }
+
+    /**
+     * Returns the cost of the units left across every lot.
+     *
+     * @return The total cost in micros.
+     */
+    public long getTotalCost()
+    {
+        return totalCost;
+    }
+
+    /**
+     * Returns the number the next lot opened will get.
+     *
+     * @return The next lot number.
+     */
+    public int getNextId()
+    {
+        return nextId;
+    }
+
+    /**
+     * Returns the units left in a lot.
+     *
+     * @param lotId The lot number.
+     * @return The units left, or 0 if the lot is sold out or was never opened.
+     */
+    public int getQuantity(int lotId)
+    {
+        int position = find(lotId);
+        return position < 0 ? 0 : quantityAt(position);
+    }
+
+    /**
+     * Returns the cost of the units left in a lot.
+     *
+     * @param lotId The lot number.
+     * @return The cost in micros, or 0 if the lot is sold out or was never opened.
+     */
+    public long getCost(int lotId)
+    {
+        int position = find(lotId);
+        return position < 0 ? 0 : costAt(position);
+    }
+
+    /**
+     * Visits every open lot, oldest first.
+     *
+     * @param visitor The visitor to call with each lot.
+     */
+    public void forEach(Visitor visitor)
+    {
+        for (int position = head; position < tail; position++)
+        {
+            int lotQuantity = quantityAt(position);
+            if (lotQuantity > 0) visitor.visit(idAt(position), lotQuantity, costAt(position));
+        }
+    }
+
+    /**
+     * Returns the cost of the units taken by the sale that produced these lots.
+     *
+     * @return The cost in micros, or 0 if these lots were not produced by a sale.
+     */
+    long getTakenCost()
+    {
+        return takenCost;
+    }
+
+    /**
+     * Returns the lots after opening a new one.
+     *
+     * @param quantity The units bought.
+     * @param cost     Their cost in micros.
+     * @return The new lots; these are left unchanged.
+     * @throws ArithmeticException If the units, cost or lot numbers would overflow.
+     */
+    TaxLots add(int quantity, long cost)
+    {
+        int newQuantity = Math.addExact(this.quantity, quantity);
+        long newCost = Money.add(totalCost, cost);
+        int id = nextId;
+        int newNextId = Math.addExact(nextId, 1);
+
+        // Write the lot into the next slot when no other version has claimed it
+        if (tail < columns.ids.length && columns.claimed.compareAndSet(tail, tail + 1))
+        {
+            columns.ids[tail] = id;
+            columns.quantities[tail] = quantity;
+            columns.costs[tail] = cost;
+            return new TaxLots(columns, head, tail + 1, overridePositions, overrideIds, overrideQuantities, overrideCosts, size + 1, newQuantity, newCost, newNextId, 0);
+        }
+
+        // Move full columns into fresh ones with room to grow
+        if (tail == columns.ids.length && columns.claimed.get() == tail) return new Edit().compact().add(quantity, cost);
+
+        // Otherwise a newer version sold lots from the end and claimed the slot, so record the lot as an override
+        Edit edit = new Edit();
+        edit.set(tail, id, quantity, cost);
+        edit.tail = tail + 1;
+        edit.size = size + 1;
+        edit.quantity = newQuantity;
+        edit.totalCost = newCost;
+        edit.nextId = newNextId;
+        return edit.build();
+    }
+
+    /**
+     * Returns the lots after taking units from the oldest lots.
+     *
+     * @param quantity The units to take, at most the units held.
+     * @return The new lots, whose getTakenCost is the cost of the units taken; these are left unchanged.
+     * @throws IllegalArgumentException If the lots do not hold enough units.
+     */
+    TaxLots takeFirst(int quantity)
+    {
+        checkQuantity(quantity);
+        Edit edit = new Edit();
+        int position = head;
+        for (int left = quantity; left > 0; position++)
+        {
+            left = edit.take(position, left, false);
+        }
+
+        // The range starts after the lots emptied, or at the last lot touched if it still holds units
+        edit.head = edit.partial ? position - 1 : position;
+        return edit.build();
+    }
+
+    /**
+     * Returns the lots after taking units from the newest lots.
+     *
+     * @param quantity The units to take, at most the units held.
+     * @return The new lots, whose getTakenCost is the cost of the units taken; these are left unchanged.
+     * @throws IllegalArgumentException If the lots do not hold enough units.
+     */
+    TaxLots takeLast(int quantity)
+    {
+        checkQuantity(quantity);
+        Edit edit = new Edit();
+        int position = tail - 1;
+        for (int left = quantity; left > 0; position--)
+        {
+            left = edit.take(position, left, false);
+        }
+
+        // The range ends before the lots emptied, or after the last lot touched if it still holds units
+        edit.tail = edit.partial ? position + 2 : position + 1;
+        return edit.build();
+    }
+
+    /**
+     * Returns the lots after taking units from named lots, in the order they are named.
+     *
+     * @param lotIds   The lot numbers to take units from.
+     * @param quantity The units to take.
+     * @return The new lots, whose getTakenCost is the cost of the units taken; these are left unchanged.
+     * @throws IllegalArgumentException If a lot is not open or the named lots do not hold enough units.
+     */
+    TaxLots take(int[] lotIds, int quantity)
+    {
+        checkQuantity(quantity);
+        Edit edit = new Edit();
+        int left = quantity;
+        for (int i = 0; i < lotIds.length && left > 0; i++)
+        {
+            int position = find(lotIds[i]);
+            if (position < 0) throw new IllegalArgumentException("Lot " + lotIds[i] + " is not held.");
+            left = edit.take(position, left, true);
+        }
+        if (left > 0) throw new IllegalArgumentException("The named lots hold only " + (quantity - left) + " units.");
+        return edit.build();
+    }
+
+    /*
+     * Rejects taking more units than the lots hold.
+     */
+    private void checkQuantity(int quantity)
+    {
+        if (quantity <= 0 || quantity > this.quantity) throw new IllegalArgumentException("Not enough quantity available to sell.");
+    }
+
+    /*
+     * Returns the slot of an open lot, or -1 if it is sold out or was never opened.
+     * Lot numbers rise with the slot, so this is a binary search.
+     */
+    private int find(int lotId)
+    {
+        int low = head;
+        int high = tail - 1;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int id = idAt(middle);
+            if (id < lotId) low = middle + 1;
+            else if (id > lotId) high = middle - 1;
+            else return quantityAt(middle) > 0 ? middle : -1;
+        }
+        return -1;
+    }
+
+    /*
+     * Returns the index of a slot's override, or a negative number if it has none.
+     */
+    private int overrideOf(int position)
+    {
+        return overridePositions.length == 0 ? -1 : Arrays.binarySearch(overridePositions, position);
+    }
+
+    /*
+     * Returns the lot number in a slot.
+     */
+    private int idAt(int position)
+    {
+        int override = overrideOf(position);
+        return override >= 0 ? overrideIds[override] : columns.ids[position];
+    }
+
+    /*
+     * Returns the units left in a slot's lot, 0 if it is sold out.
+     */
+    private int quantityAt(int position)
+    {
+        int override = overrideOf(position);
+        return override >= 0 ? overrideQuantities[override] : columns.quantities[position];
+    }
+
+    /*
+     * Returns the cost of the units left in a slot's lot.
+     */
+    private long costAt(int position)
+    {
+        int override = overrideOf(position);
+        return override >= 0 ? overrideCosts[override] : columns.costs[position];
+    }
+
+    /*
+     * The Edit class gathers the changes one operation makes before they are frozen into a new version.
+     */
+    private final class Edit
+    {
+        // Range and overrides of the version being built
+        int head = TaxLots.this.head;
+        int tail = TaxLots.this.tail;
+        int overrideCount = overridePositions.length;
+        int[] positions = Arrays.copyOf(overridePositions, overrideCount + 2);
+        int[] ids = Arrays.copyOf(overrideIds, overrideCount + 2);
+        int[] quantities = Arrays.copyOf(overrideQuantities, overrideCount + 2);
+        long[] costs = Arrays.copyOf(overrideCosts, overrideCount + 2);
+
+        // Totals of the version being built, the cost taken so far, and whether the last lot taken from still holds units
+        int size = TaxLots.this.size;
+        int quantity = TaxLots.this.quantity;
+        long totalCost = TaxLots.this.totalCost;
+        int nextId = TaxLots.this.nextId;
+        long taken;
+        boolean partial;
+
+        /*
+         * Returns the units left in a slot's lot as edited so far.
+         */
+        int quantityAt(int position)
+        {
+            int override = Arrays.binarySearch(positions, 0, overrideCount, position);
+            return override >= 0 ? quantities[override] : TaxLots.this.quantityAt(position);
+        }
+
+        /*
+         * Takes up to left units from a slot's lot, splitting its cost pro rata, and returns the units still to take.
+         * A lot left partly sold is recorded as an override; an emptied one only when markSoldOut is set, since
+         * lots emptied from either end simply fall out of the range.
+         */
+        int take(int position, int left, boolean markSoldOut)
+        {
+            int override = Arrays.binarySearch(positions, 0, overrideCount, position);
+            int lotQuantity = override >= 0 ? quantities[override] : TaxLots.this.quantityAt(position);
+            if (lotQuantity == 0) return left;
+            long lotCost = override >= 0 ? costs[override] : TaxLots.this.costAt(position);
+
+            // Take the whole lot, or the units needed with their share of its cost
+            int units = Math.min(lotQuantity, left);
+            long keptCost = units == lotQuantity ? 0 : Money.prorate(lotCost, lotQuantity - units, lotQuantity, Money.ROUNDING);
+            taken += lotCost - keptCost;
+            totalCost -= lotCost - keptCost;
+            quantity -= units;
+            partial = units < lotQuantity;
+            if (partial || markSoldOut) set(position, idAt(position), lotQuantity - units, keptCost);
+            if (!partial) size--;
+            return left - units;
+        }
+
+        /*
+         * Records a slot's lot, replacing any earlier override of the slot.
+         */
+        void set(int position, int id, int quantity, long cost)
+        {
+            int override = Arrays.binarySearch(positions, 0, overrideCount, position);
+            if (override < 0)
+            {
+                // Insert the slot in order, growing the arrays when full
+                override = -override - 1;
+                if (overrideCount == positions.length)
+                {
+                    int capacity = overrideCount * 2 + 2;
+                    positions = Arrays.copyOf(positions, capacity);
+                    ids = Arrays.copyOf(ids, capacity);
+                    quantities = Arrays.copyOf(quantities, capacity);
+                    costs = Arrays.copyOf(costs, capacity);
+                }
+                System.arraycopy(positions, override, positions, override + 1, overrideCount - override);
+                System.arraycopy(ids, override, ids, override + 1, overrideCount - override);
+                System.arraycopy(quantities, override, quantities, override + 1, overrideCount - override);
+                System.arraycopy(costs, override, costs, override + 1, overrideCount - override);
+                overrideCount++;
+            }
+            positions[override] = position;
+            ids[override] = id;
+            quantities[override] = quantity;
+            costs[override] = cost;
+        }
+
+        /*
+         * Freezes the edit into a new version, dropping sold-out lots at either end and overrides outside the range,
+         * and copying the lots into fresh columns when too many overrides remain.
+         */
+        TaxLots build()
+        {
+            // Sold-out lots at the ends fall out of the range
+            while (head < tail && quantityAt(head) == 0) head++;
+            while (tail > head && quantityAt(tail - 1) == 0) tail--;
+
+            // Keep only the overrides inside the range
+            int from = 0;
+            while (from < overrideCount && positions[from] < head) from++;
+            int to = overrideCount;
+            while (to > from && positions[to - 1] >= tail) to--;
+            if (to - from > MAX_OVERRIDES) return compact();
+            return new TaxLots(
+                columns, head, tail,
+                Arrays.copyOfRange(positions, from, to), Arrays.copyOfRange(ids, from, to),
+                Arrays.copyOfRange(quantities, from, to), Arrays.copyOfRange(costs, from, to),
+                size, quantity, totalCost, nextId, taken
+            );
+        }
+
+        /*
+         * Copies the open lots into fresh columns with room to grow.
+         */
+        TaxLots compact()
+        {
+            Columns fresh = new Columns(Math.max(MIN_CAPACITY, size * 2));
+            int count = 0;
+            for (int position = head; position < tail; position++)
+            {
+                int override = Arrays.binarySearch(positions, 0, overrideCount, position);
+                int lotQuantity = override >= 0 ? quantities[override] : columns.quantities[position];
+                if (lotQuantity == 0) continue;
+                fresh.ids[count] = override >= 0 ? ids[override] : columns.ids[position];
+                fresh.quantities[count] = lotQuantity;
+                fresh.costs[count] = override >= 0 ? costs[override] : columns.costs[position];
+                count++;
+            }
+            fresh.claimed.set(count);
+            return new TaxLots(fresh, 0, count, NO_INTS, NO_INTS, NO_INTS, NO_LONGS, size, quantity, totalCost, nextId, taken);
+        }
+    }
+}
@@ -5,12 +5,16 @@ package ePortfolio;
 import javax.swing.*;
 import javax.swing.border.*;
 import java.awt.*;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
 
 /**
  *  The TotalGainPanel class creates a panel that displays the total gain of the user's investments.
  *  The user can view the total gain of all investments in the portfolio.
  *  The total gain is calculated by subtracting the total cost of all investments from the total value of all investments.
+ *  The panel subscribes to the portfolio's changes and keeps itself up to date, repainting only the
+ *  rows that changed; it asks for the next batch once it has shown one, so a burst of price ticks
+ *  reaches the event dispatch thread as one change per holding.
  * 
  * @author Markus Gavra
  * @version 3.0
@@ -22,6 +26,7 @@ public class TotalGainPanel extends JPanel
     // GUI Components
     private JTextField totalGainField;
     private JTextArea messageArea;
+    private InvestmentTablePanel investmentTable;
 
     // Constructor
     public TotalGainPanel()
@@ -52,8 +57,12 @@ public class TotalGainPanel extends JPanel
         Border titledBorder = BorderFactory.createTitledBorder(dashedBorder, "Total Gain");
         topPanel.setBorder(titledBorder);
 
+        // Create the investments table
+        investmentTable = new InvestmentTablePanel();
+        investmentTable.setBorder(BorderFactory.createTitledBorder(dashedBorder, "Investments"));
+
         // Create the messages section
-        messageArea = new JTextArea(10, 40);
+        messageArea = new JTextArea(2, 40);
         messageArea.setEditable(false); // Non-editable
         JScrollPane scrollPane = new JScrollPane(messageArea);
 
@@ -65,70 +74,90 @@ public class TotalGainPanel extends JPanel
 
         // Add components to the main panel
         add(topPanel, BorderLayout.NORTH);
-        add(messagesPanel, BorderLayout.CENTER);
+        add(investmentTable, BorderLayout.CENTER);
+        add(messagesPanel, BorderLayout.SOUTH);
 
-        // Calculate and display the total gain
+        // Follow the portfolio's changes from now on, then calculate and display the total gain
+        Investment.events().subscribe(new ChangeSubscriber(), PortfolioService.EDT);
         displayTotalGain();
     }
 
     /**
      *  The displayTotalGain method updates the GUI to display individual investment details and total gain.
-     *  Calculates the total gain for the investment portfolio.
-     * @return The total gain for the investment portfolio.
+     *  The table is backed by one snapshot of the portfolio and reads only the rows in view,
+     *  so it opens at once however many investments there are.
      */
     public void displayTotalGain() 
     {
         // Clear the message area
         messageArea.setText("");
 
-        double totalGain = 0.00;
-
         try 
         {
-            // Get the list of all investments
-            ArrayList<Investment> investments = Investment.getInvestments();
+            // Get a snapshot of all investments, which costs the same for any size of portfolio
+            PortfolioSnapshot investments = Investment.snapshot();
 
-            // If no investments exist, display a message and exit
+            // Show the investments and the snapshot's running total, which matches them
+            investmentTable.show(investments);
+            totalGainField.setText(String.format("%.2f", investments.getTotalGain()));
+
+            // Shows message if no investments are available
             if (investments.isEmpty()) 
             {
-                // Shows message if no investments are available
                 messageArea.setText("No investments available to calculate total gain.");
-                totalGainField.setText("0.00");
-                return;
             }
-
-            // Iterate through each investment
-            for (Investment investment : investments) 
-            {
-                // Calculate the gain for the current investment
-                double gain = (investment.getPrice() * investment.getQuantity()) - investment.getBookValue();
-               
-                // Add this investment's gain to the total gain
-                totalGain += gain;
-
-                // Append investment details
-                messageArea.append(String.format(
-                    "Type: %s\nSymbol: %s\nName: %s\nQuantity: %d\nPrice: %.2f\nBook Value: %.2f\nGain: %.2f\n\n",
-                    investment.getClass().getSimpleName(),
-                    investment.getSymbol(),
-                    investment.getName(),
-                    investment.getQuantity(),
-                    investment.getPrice(),
-                    investment.getBookValue(),
-                    gain
-                ));
-            }
-
-            // Update the total gain field
-            totalGainField.setText(String.format("%.2f", totalGain));
         } 
-
-        // Exception handlers for total gain calculation
-        catch (Exception ex) 
+        catch (Exception e) 
         {
             // Shows error message if total gain cannot be calculated
-            messageArea.setText("Error calculating total gain: " + ex.getMessage());
+            messageArea.setText("Error calculating total gain: " + e.getMessage());
             totalGainField.setText("0.00");
         }
     }
+
+    /*
+     * Applies a batch of changes: repaints the rows that changed and shows the new total.
+     */
+    private void applyChanges(List<PortfolioEvent> events)
+    {
+        // Read the rows and total from one snapshot taken now, which includes every change in the batch
+        // and may include some from the next; the table shows it in full if holdings have moved since
+        PortfolioSnapshot investments = Investment.snapshot();
+        investmentTable.update(investments, events);
+        totalGainField.setText(String.format("%.2f", investments.getTotalGain()));
+        messageArea.setText(investments.isEmpty() ? "No investments available to calculate total gain." : "");
+    }
+
+    /*
+     * Receives the portfolio's changes on the event dispatch thread, one batch at a time.
+     */
+    private class ChangeSubscriber implements Flow.Subscriber<List<PortfolioEvent>>
+    {
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<PortfolioEvent> events)
+        {
+            applyChanges(events);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable error)
+        {
+            messageArea.setText("Stopped following changes: " + error.getMessage());
+        }
+
+        @Override
+        public void onComplete()
+        {
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,200 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.Arrays;
+
+/**
+ * The TradeBatch class collects a run of buys and sells, such as a block of rows from an imported
+ * trade history, so they can be applied to the portfolio in one pass with
+ * Investment.applyTrades(TradeBatch). Trades are applied in the order they were added; a trade
+ * that fails (an unknown symbol, selling more than is held, an invalid type) is marked with the
+ * reason and skipped without stopping the rest of the batch. A batch can be cleared and refilled,
+ * so a long import reuses the same arrays.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class TradeBatch
+{
+    // Trades in the order they were added; sales have no type or name
+    private String[] types;
+    private String[] symbols;
+    private String[] names;
+    private int[] quantities;
+    private double[] prices;
+    private boolean[] sales;
+    private int size;
+
+    // Reason each failed trade was rejected, null for trades that were applied
+    private String[] errors;
+
+    /**
+     * Creates an empty batch.
+     */
+    public TradeBatch()
+    {
+        this(16);
+    }
+
+    /**
+     * Creates an empty batch with room for a number of trades before it has to grow.
+     *
+     * @param capacity The expected number of trades.
+     */
+    public TradeBatch(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        types = new String[capacity];
+        symbols = new String[capacity];
+        names = new String[capacity];
+        quantities = new int[capacity];
+        prices = new double[capacity];
+        sales = new boolean[capacity];
+        errors = new String[capacity];
+    }
+
+    /**
+     * Adds a purchase to the batch, as Investment.addInvestment would make it.
+     *
+     * @param type     The type of investment (Stock or Mutual Fund).
+     * @param symbol   The investment symbol.
+     * @param name     The investment name.
+     * @param quantity The quantity bought.
+     * @param price    The price per unit.
+     */
+    public void addPurchase(String type, String symbol, String name, int quantity, double price)
+    {
+        add(type, symbol, name, quantity, price, false);
+    }
+
+    /**
+     * Adds a sale to the batch, as Investment.sellInvestment would make it.
+     *
+     * @param symbol   The symbol of the investment to sell.
+     * @param quantity The quantity sold.
+     * @param price    The price per unit.
+     */
+    public void addSale(String symbol, int quantity, double price)
+    {
+        add(null, symbol, null, quantity, price, true);
+    }
+
+    /**
+     * Returns the number of trades in the batch.
+     *
+     * @return The number of trades.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns why a trade was rejected when the batch was applied.
+     *
+     * @param index The position of the trade in the batch.
+     * @return The reason, or null if the trade was applied (or the batch was not applied yet).
+     */
+    public String getError(int index)
+    {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Invalid trade index: " + index);
+        return errors[index];
+    }
+
+    /**
+     * Empties the batch, keeping its arrays for the next run of trades.
+     */
+    public void clear()
+    {
+        Arrays.fill(types, 0, size, null);
+        Arrays.fill(symbols, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(errors, 0, size, null);
+        size = 0;
+    }
+
+    /*
+     * Returns the type of the purchase at a position, null for a sale.
+     */
+    String type(int index)
+    {
+        return types[index];
+    }
+
+    /*
+     * Returns the symbol of the trade at a position.
+     */
+    String symbol(int index)
+    {
+        return symbols[index];
+    }
+
+    /*
+     * Returns the name of the purchase at a position, null for a sale.
+     */
+    String name(int index)
+    {
+        return names[index];
+    }
+
+    /*
+     * Returns the quantity of the trade at a position.
+     */
+    int quantity(int index)
+    {
+        return quantities[index];
+    }
+
+    /*
+     * Returns the price of the trade at a position.
+     */
+    double price(int index)
+    {
+        return prices[index];
+    }
+
+    /*
+     * Checks whether the trade at a position is a sale.
+     */
+    boolean isSale(int index)
+    {
+        return sales[index];
+    }
+
+    /*
+     * Marks the trade at a position as rejected for a reason.
+     */
+    void reject(int index, String reason)
+    {
+        errors[index] = reason;
+    }
+
+    /*
+     * Appends one trade, growing the arrays when full.
+     */
+    private void add(String type, String symbol, String name, int quantity, double price, boolean sale)
+    {
+        if (size == symbols.length)
+        {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+            names = Arrays.copyOf(names, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            sales = Arrays.copyOf(sales, capacity);
+            errors = Arrays.copyOf(errors, capacity);
+        }
+
+        types[size] = type;
+        symbols[size] = symbol;
+        names[size] = name;
+        quantities[size] = quantity;
+        prices[size] = price;
+        sales[size] = sale;
+        size++;
+    }
+}
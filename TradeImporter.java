@@ -0,0 +1,747 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The TradeImporter class streams a trade history file into the portfolio. Each row holds
+ * type, symbol, name, quantity, price and side (buy or sell), separated by a delimiter (a comma
+ * by default); fields may be quoted, and a header row starting with "type" is skipped.
+ *
+ * The file is read through a fixed-size NIO buffer and parsed in place: quantities and prices are
+ * parsed straight from the bytes, types and sides are matched on the bytes, and symbol and name
+ * strings come from a small cache, so repeated symbols do not build a new String per row. Rows are
+ * applied in blocks with Investment.applyTrades(TradeBatch). Memory use therefore stays the same
+ * whether the file has a thousand rows or fifty million; only the portfolio itself grows.
+ *
+ * Rows that cannot be parsed or that the portfolio rejects (an unknown symbol, selling more than is
+ * held) do not stop the import. They are counted and, when a reject file is given, copied to it
+ * unchanged behind their line number and the reason, in the order they appeared.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class TradeImporter
+{
+    /**
+     * Receives progress reports while an import runs, after every block of rows.
+     */
+    @FunctionalInterface
+    public interface Progress
+    {
+        /**
+         * Reports how far the import has got.
+         *
+         * @param bytesRead  The bytes of the file processed so far.
+         * @param totalBytes The size of the file.
+         * @param rows       The rows processed so far, not counting blank lines and the header.
+         * @param rejected   The rows rejected so far.
+         */
+        void report(long bytesRead, long totalBytes, long rows, long rejected);
+    }
+
+    // Bytes read from the file at a time (also the longest row accepted) and rows applied per block
+    private static final int BUFFER_SIZE = 1 << 22;
+    private static final int BLOCK_SIZE = 65536;
+
+    // Fields in a row, by position
+    private static final int FIELDS = 6;
+    private static final int TYPE = 0;
+    private static final int SYMBOL = 1;
+    private static final int NAME = 2;
+    private static final int QUANTITY = 3;
+    private static final int PRICE = 4;
+    private static final int SIDE = 5;
+
+    // Byte spellings matched without building strings
+    private static final byte[] STOCK = bytes("stock");
+    private static final byte[] MUTUAL_FUND = bytes("mutual fund");
+    private static final byte[] BUY = bytes("buy");
+    private static final byte[] SELL = bytes("sell");
+    private static final byte[] TYPE_HEADER = bytes("type");
+    private static final byte[] NEWLINE = bytes("\n");
+
+    // Exact powers of ten for the fast decimal path
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static
+    {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+    }
+
+    // Field delimiter, progress listener and whether the import has been asked to stop
+    private final byte delimiter;
+    private Progress progress;
+    private volatile boolean cancelled;
+
+    // Read buffer; rows of the current block point into it until the block is applied
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    // Rows of the current block: line number, byte range, position in the trade batch (-1 if it did not parse) and parse error
+    private final long[] lineNumbers = new long[BLOCK_SIZE];
+    private final int[] rowStarts = new int[BLOCK_SIZE];
+    private final int[] rowEnds = new int[BLOCK_SIZE];
+    private final int[] batchIndexes = new int[BLOCK_SIZE];
+    private final String[] parseErrors = new String[BLOCK_SIZE];
+    private final TradeBatch batch = new TradeBatch(BLOCK_SIZE);
+    private int pending;
+
+    // Field boundaries of the row being parsed, and whether each field holds doubled quotes to undo
+    private final int[] fieldStarts = new int[FIELDS];
+    private final int[] fieldEnds = new int[FIELDS];
+    private final boolean[] escaped = new boolean[FIELDS];
+    private byte[] scratch = new byte[256];
+
+    // Strings for symbols, names and unknown types seen recently
+    private final StringCache strings = new StringCache();
+
+    // Reject output, or null when rejects are only counted
+    private FileChannel rejectChannel;
+    private ByteBuffer rejectBuffer;
+
+    // Counts for the import in progress
+    private long rows;
+    private long applied;
+    private long rejected;
+    private long bytesRead;
+    private long totalBytes;
+
+    /**
+     * Creates an importer for comma-separated files.
+     */
+    public TradeImporter()
+    {
+        this(',');
+    }
+
+    /**
+     * Creates an importer for files separated by another delimiter, such as a tab or a pipe.
+     *
+     * @param delimiter The field delimiter; must be an ASCII character other than a quote or line break.
+     */
+    public TradeImporter(char delimiter)
+    {
+        if (delimiter >= 128 || delimiter == '"' || delimiter == '\n' || delimiter == '\r')
+        {
+            throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+        }
+        this.delimiter = (byte) delimiter;
+    }
+
+    /**
+     * Sets the listener told about progress after every block of rows.
+     *
+     * @param progress The listener, or null for none.
+     */
+    public void setProgress(Progress progress)
+    {
+        this.progress = progress;
+    }
+
+    /**
+     * Stops the import in progress once the block of rows being read is applied, or the next import
+     * started if none is running. The trades applied so far stay applied.
+     * Safe to call from any thread.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * Imports a trade history file into the portfolio.
+     *
+     * @param source  The file to import.
+     * @param rejects The file to copy rejected rows to (replaced if it exists), or null to only count them.
+     * @return The numbers of rows read, applied and rejected, and whether the import was cancelled.
+     * @throws IOException If the file cannot be read or the reject file cannot be written.
+     */
+    public Result importTrades(Path source, Path rejects) throws IOException
+    {
+        long start = System.nanoTime();
+        boolean stopped;
+        rows = 0;
+        applied = 0;
+        rejected = 0;
+        bytesRead = 0;
+        pending = 0;
+        batch.clear();
+
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ))
+        {
+            totalBytes = channel.size();
+            if (rejects != null)
+            {
+                rejectChannel = FileChannel.open(rejects, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                rejectBuffer = ByteBuffer.allocate(1 << 16);
+            }
+            stopped = read(channel);
+        }
+        finally
+        {
+            cancelled = false;
+            if (rejectChannel != null)
+            {
+                try
+                {
+                    writeRejects();
+                }
+                finally
+                {
+                    rejectChannel.close();
+                    rejectChannel = null;
+                    rejectBuffer = null;
+                }
+            }
+        }
+
+        return new Result(rows, applied, rejected, bytesRead, (System.nanoTime() - start) / 1_000_000, stopped);
+    }
+
+    /*
+     * Reads the file through the buffer, handing each complete line to the parser.
+     * Returns true if the import was cancelled before the end of the file.
+     */
+    private boolean read(FileChannel channel) throws IOException
+    {
+        ByteBuffer view = ByteBuffer.wrap(buffer);
+        long lineNumber = 0;
+        int limit = 0;
+        boolean skipping = false;
+
+        while (true)
+        {
+            // Fill the rest of the buffer
+            view.limit(buffer.length).position(limit);
+            int read = channel.read(view);
+            boolean end = read < 0;
+            if (!end) limit += read;
+
+            // Parse every complete line, and the last line once the file has ended
+            int lineStart = 0;
+            while (lineStart < limit)
+            {
+                int newline = indexOf((byte) '\n', lineStart, limit);
+                if (newline < 0 && !end) break;
+                int lineEnd = newline < 0 ? limit : newline;
+                int next = newline < 0 ? limit : newline + 1;
+                bytesRead += next - lineStart;
+
+                // The tail of an overlong row ends at its line break
+                if (skipping) skipping = false;
+                else parseLine(++lineNumber, lineStart, lineEnd);
+                lineStart = next;
+            }
+            if (end) break;
+
+            // A row that fills the whole buffer is rejected and the rest of it skipped
+            if (lineStart == 0 && limit == buffer.length)
+            {
+                if (!skipping) addRow(++lineNumber, 0, 0, "Row is longer than " + BUFFER_SIZE + " bytes.");
+                skipping = true;
+                bytesRead += limit;
+                lineStart = limit;
+            }
+
+            // Apply the rows that point into the buffer before moving the unparsed tail to the front, stopping there if cancelled
+            applyBlock();
+            if (cancelled) return true;
+            System.arraycopy(buffer, lineStart, buffer, 0, limit - lineStart);
+            limit -= lineStart;
+        }
+
+        applyBlock();
+        return false;
+    }
+
+    /*
+     * Parses one line into a trade, or records why it was rejected. Blank lines and a header row are skipped.
+     */
+    private void parseLine(long lineNumber, int from, int to) throws IOException
+    {
+        // Drop a carriage return before the line break, and skip blank lines
+        if (to > from && buffer[to - 1] == '\r') to--;
+        if (isBlank(from, to)) return;
+
+        // Split the fields and add the trade to the batch
+        int trade = batch.size();
+        String error = split(from, to);
+        if (error == null) error = addTrade();
+
+        // A first line that does not parse and starts with "type" is a header
+        if (error != null && lineNumber == 1 && equalsIgnoreCase(TYPE, TYPE_HEADER)) return;
+
+        addRow(lineNumber, from, to, error);
+        batchIndexes[pending - 1] = error == null ? trade : -1;
+        if (pending == BLOCK_SIZE) applyBlock();
+    }
+
+    /*
+     * Records a row of the current block, with the reason it failed to parse or null if it became a trade.
+     */
+    private void addRow(long lineNumber, int from, int to, String error)
+    {
+        int row = pending++;
+        rows++;
+        lineNumbers[row] = lineNumber;
+        rowStarts[row] = from;
+        rowEnds[row] = to;
+        batchIndexes[row] = -1;
+        parseErrors[row] = error;
+    }
+
+    /*
+     * Finds the field boundaries of a row, trimming spaces and undoing quotes.
+     * Returns why the row cannot be split, or null.
+     */
+    private String split(int from, int to)
+    {
+        int field = 0;
+        int i = from;
+        fieldStarts[TYPE] = fieldEnds[TYPE] = from;
+        while (true)
+        {
+            if (field == FIELDS) return "Expected " + FIELDS + " fields but found more.";
+
+            // Skip leading spaces
+            while (i < to && isSpace(buffer[i])) i++;
+
+            int start;
+            int end;
+            boolean hasEscapes = false;
+            if (i < to && buffer[i] == '"')
+            {
+                // A quoted field runs to the closing quote; a doubled quote stands for one quote
+                start = ++i;
+                while (true)
+                {
+                    if (i >= to) return "Quoted field is not closed.";
+                    if (buffer[i] == '"')
+                    {
+                        if (i + 1 < to && buffer[i + 1] == '"')
+                        {
+                            hasEscapes = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                end = i++;
+
+                // Only spaces may follow the closing quote
+                while (i < to && isSpace(buffer[i])) i++;
+                if (i < to && buffer[i] != delimiter) return "Unexpected text after a quoted field.";
+            }
+
+            else
+            {
+                // A plain field runs to the next delimiter, less trailing spaces
+                start = i;
+                while (i < to && buffer[i] != delimiter) i++;
+                end = i;
+                while (end > start && isSpace(buffer[end - 1])) end--;
+            }
+
+            fieldStarts[field] = start;
+            fieldEnds[field] = end;
+            escaped[field] = hasEscapes;
+            field++;
+
+            // Stop at the end of the line, otherwise step over the delimiter
+            if (i >= to) break;
+            i++;
+        }
+
+        if (field < FIELDS) return "Expected " + FIELDS + " fields but found " + field + ".";
+        return null;
+    }
+
+    /*
+     * Adds the trade in the split fields to the batch, or returns why it cannot be read.
+     */
+    private String addTrade()
+    {
+        // Match the side on the bytes
+        boolean sale;
+        if (equalsIgnoreCase(SIDE, BUY)) sale = false;
+        else if (equalsIgnoreCase(SIDE, SELL)) sale = true;
+        else return "Side must be buy or sell.";
+
+        // Parse the numbers on the bytes
+        long quantity = parseWholeNumber(fieldStarts[QUANTITY], fieldEnds[QUANTITY]);
+        if (quantity < Integer.MIN_VALUE || quantity > Integer.MAX_VALUE) return "Quantity must be a whole number.";
+
+        double price = parseDecimal(fieldStarts[PRICE], fieldEnds[PRICE]);
+        if (!Double.isFinite(price)) return "Price must be a number.";
+
+        // Hand the trade over, leaving the remaining checks to the portfolio
+        if (sale) batch.addSale(string(SYMBOL), (int) quantity, price);
+        else batch.addPurchase(type(), string(SYMBOL), string(NAME), (int) quantity, price);
+        return null;
+    }
+
+    /*
+     * Returns the investment type of the split row, using constants for the known spellings.
+     */
+    private String type()
+    {
+        if (equalsIgnoreCase(TYPE, STOCK)) return "stock";
+        if (equalsIgnoreCase(TYPE, MUTUAL_FUND)) return "mutual fund";
+        return string(TYPE);
+    }
+
+    /*
+     * Returns the text of a split field, from the cache when it was seen recently.
+     */
+    private String string(int field)
+    {
+        int from = fieldStarts[field];
+        int to = fieldEnds[field];
+        if (!escaped[field]) return strings.get(buffer, from, to);
+
+        // Undo doubled quotes into the scratch array first
+        if (scratch.length < to - from) scratch = new byte[to - from];
+        int length = 0;
+        for (int i = from; i < to; i++)
+        {
+            scratch[length++] = buffer[i];
+            if (buffer[i] == '"') i++;
+        }
+        return strings.get(scratch, 0, length);
+    }
+
+    /*
+     * Applies the trades of the current block and writes out its rejected rows in line order.
+     */
+    private void applyBlock() throws IOException
+    {
+        if (pending == 0) return;
+        if (batch.size() > 0) applied += Investment.applyTrades(batch);
+
+        for (int row = 0; row < pending; row++)
+        {
+            String error = parseErrors[row] != null ? parseErrors[row] : batch.getError(batchIndexes[row]);
+            if (error != null)
+            {
+                rejected++;
+                if (rejectChannel != null) writeReject(row, error);
+            }
+        }
+
+        // Empty the block and report progress
+        batch.clear();
+        Arrays.fill(parseErrors, 0, pending, null);
+        pending = 0;
+        if (progress != null) progress.report(bytesRead, totalBytes, rows, rejected);
+    }
+
+    /*
+     * Writes a rejected row as its line number, the quoted reason and the row itself.
+     */
+    private void writeReject(int row, String reason) throws IOException
+    {
+        char separator = (char) delimiter;
+        String prefix = lineNumbers[row] + "" + separator + '"' + reason.replace("\"", "\"\"") + '"' + separator;
+        byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+        putReject(bytes, 0, bytes.length);
+        putReject(buffer, rowStarts[row], rowEnds[row] - rowStarts[row]);
+        putReject(NEWLINE, 0, 1);
+    }
+
+    /*
+     * Adds bytes to the reject output, writing it out when full.
+     */
+    private void putReject(byte[] bytes, int offset, int length) throws IOException
+    {
+        if (length > rejectBuffer.remaining())
+        {
+            writeRejects();
+            if (length > rejectBuffer.capacity())
+            {
+                ByteBuffer large = ByteBuffer.wrap(bytes, offset, length);
+                while (large.hasRemaining()) rejectChannel.write(large);
+                return;
+            }
+        }
+        rejectBuffer.put(bytes, offset, length);
+    }
+
+    /*
+     * Writes the buffered reject output to the reject file.
+     */
+    private void writeRejects() throws IOException
+    {
+        rejectBuffer.flip();
+        while (rejectBuffer.hasRemaining()) rejectChannel.write(rejectBuffer);
+        rejectBuffer.clear();
+    }
+
+    /*
+     * Parses an optionally signed whole number from bytes, returning Long.MIN_VALUE if it is not one.
+     */
+    private long parseWholeNumber(int from, int to)
+    {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer[i] == '-' || buffer[i] == '+')) negative = buffer[i++] == '-';
+
+        // At most 18 digits, so the value cannot overflow a long
+        if (i == to || to - i > 18) return Long.MIN_VALUE;
+        long value = 0;
+        for (; i < to; i++)
+        {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) return Long.MIN_VALUE;
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /*
+     * Parses a decimal number from bytes, returning NaN if it is not one.
+     * Numbers with up to 15 significant digits are one exact division, which rounds correctly;
+     * longer numbers and exponents fall back to Double.parseDouble.
+     */
+    private double parseDecimal(int from, int to)
+    {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer[i] == '-' || buffer[i] == '+')) negative = buffer[i++] == '-';
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i < to; i++)
+        {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9')
+            {
+                any = true;
+                if (mantissa != 0 || b != '0') digits++;
+                if (digits > 15) return parseSlowly(from, to);
+                mantissa = mantissa * 10 + (b - '0');
+                if (point) scale++;
+            }
+            else if (b == '.' && !point) point = true;
+            else if (b == 'e' || b == 'E') return parseSlowly(from, to);
+            else return Double.NaN;
+        }
+
+        if (!any) return Double.NaN;
+        if (scale >= POWERS_OF_TEN.length) return parseSlowly(from, to);
+        double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    /*
+     * Parses a number the fast path does not handle.
+     */
+    private double parseSlowly(int from, int to)
+    {
+        try
+        {
+            return Double.parseDouble(new String(buffer, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+        catch (NumberFormatException e)
+        {
+            return Double.NaN;
+        }
+    }
+
+    /*
+     * Compares a split field with a lowercase ASCII spelling, ignoring case.
+     */
+    private boolean equalsIgnoreCase(int field, byte[] spelling)
+    {
+        int from = fieldStarts[field];
+        if (fieldEnds[field] - from != spelling.length) return false;
+        for (int i = 0; i < spelling.length; i++)
+        {
+            byte b = buffer[from + i];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != spelling[i]) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Returns the position of a byte in the buffer between two positions, or -1.
+     */
+    private int indexOf(byte value, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (buffer[i] == value) return i;
+        }
+        return -1;
+    }
+
+    /*
+     * Checks whether a range of the buffer holds only spaces.
+     */
+    private boolean isBlank(int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (!isSpace(buffer[i])) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Checks whether a byte is a space or tab that is not the delimiter.
+     */
+    private boolean isSpace(byte b)
+    {
+        return (b == ' ' || b == '\t') && b != delimiter;
+    }
+
+    /*
+     * Returns the ASCII bytes of a spelling.
+     */
+    private static byte[] bytes(String spelling)
+    {
+        return spelling.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The Result class reports the outcome of an import.
+     */
+    public static final class Result
+    {
+        // Counts and timing of the import
+        private final long rows;
+        private final long applied;
+        private final long rejected;
+        private final long bytes;
+        private final long millis;
+        private final boolean cancelled;
+
+        // Constructor
+        Result(long rows, long applied, long rejected, long bytes, long millis, boolean cancelled)
+        {
+            this.rows = rows;
+            this.applied = applied;
+            this.rejected = rejected;
+            this.bytes = bytes;
+            this.millis = millis;
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * Returns the number of rows read, not counting blank lines and the header.
+         *
+         * @return The number of rows.
+         */
+        public long getRows()
+        {
+            return rows;
+        }
+
+        /**
+         * Returns the number of trades applied to the portfolio.
+         *
+         * @return The number of applied trades.
+         */
+        public long getApplied()
+        {
+            return applied;
+        }
+
+        /**
+         * Returns the number of rows rejected, either because they did not parse or because the portfolio refused the trade.
+         *
+         * @return The number of rejected rows.
+         */
+        public long getRejected()
+        {
+            return rejected;
+        }
+
+        /**
+         * Returns the number of bytes read from the file.
+         *
+         * @return The number of bytes.
+         */
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        /**
+         * Returns how long the import took.
+         *
+         * @return The elapsed time in milliseconds.
+         */
+        public long getMillis()
+        {
+            return millis;
+        }
+
+        /**
+         * Reports whether the import was cancelled before the end of the file.
+         *
+         * @return True if the import stopped early.
+         */
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Rows: %d, Applied: %d, Rejected: %d", rows, applied, rejected);
+        }
+    }
+
+    /*
+     * A fixed-size, direct-mapped cache from byte spellings to strings. A miss replaces whatever
+     * was in the slot, so the cache never grows however many distinct spellings a file holds.
+     */
+    private static final class StringCache
+    {
+        // Number of slots, and the longest spelling worth keeping
+        private static final int SLOTS = 1 << 14;
+        private static final int MAX_LENGTH = 64;
+
+        private final byte[][] keys = new byte[SLOTS][];
+        private final String[] values = new String[SLOTS];
+
+        /*
+         * Returns the string for a range of UTF-8 bytes.
+         */
+        String get(byte[] bytes, int from, int to)
+        {
+            if (from == to) return "";
+
+            int hash = 1;
+            for (int i = from; i < to; i++) hash = 31 * hash + bytes[i];
+            int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+
+            byte[] key = keys[slot];
+            if (key != null && Arrays.equals(key, 0, key.length, bytes, from, to)) return values[slot];
+
+            String value = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+            if (to - from <= MAX_LENGTH)
+            {
+                keys[slot] = Arrays.copyOfRange(bytes, from, to);
+                values[slot] = value;
+            }
+            return value;
+        }
+    }
+}
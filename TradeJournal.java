@@ -0,0 +1,802 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * The TradeJournal class is the journal that makes portfolio changes durable.
+ * Each journal belongs to one portfolio. Once attached, every successful buy, sell and price update appends a record while the trade
+ * still holds its symbol's lock, and the call returns only after the record has been forced to
+ * disk. A single flusher thread writes and forces whatever records have piled up since its last
+ * write in one go (group commit), so many concurrent trades share each fsync.
+ *
+ * The journal stops at the first write that fails. Trades whose records were still waiting fail
+ * with an UncheckedIOException: they were applied in memory but are not on disk, so they will be
+ * missing after recovery. From then on the portfolio rejects every change before making it, with
+ * an IllegalStateException, so memory cannot drift further from the journal; restarting recovers
+ * the portfolio as the journal has it. getFailure reports the error.
+ *
+ * The journal directory holds a checkpoint (a PortfolioFile whose version is the sequence number
+ * of the first record it does not include) and one or more journal segments named after the
+ * sequence number of their first record. Checkpoints are taken every checkpointInterval records:
+ * the journal switches to a new segment at the exact point the checkpoint snapshot was taken,
+ * and older segments are deleted once the checkpoint is safely on disk, which bounds both the
+ * journal size and the recovery time.
+ *
+ * Record layout (little-endian): body length (int), CRC32C of the body (int), then the body:
+ * sequence number (long), operation (byte) and its arguments, with strings as a length-prefixed UTF-8.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class TradeJournal implements Closeable
+{
+    // Record operations
+    private static final byte ADD = 1;
+    private static final byte SELL = 2;
+    private static final byte PRICE = 3;
+    private static final byte PRICES = 4;
+    private static final byte SELL_LOTS = 5;
+
+    // File names inside the journal directory
+    private static final String CHECKPOINT = "checkpoint.dat";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    // Bytes before the body of each record (length and checksum)
+    private static final int RECORD_HEADER = 8;
+
+    // Portfolio being journaled, the journal directory and the number of records between checkpoints (0 disables them)
+    private final Portfolio portfolio;
+    private final Path directory;
+    private final long checkpointInterval;
+
+    // Records waiting for the flusher, the next sequence number and the segment being appended to (guarded by appendLock)
+    private final Object appendLock = new Object();
+    private ByteBuffer pending = newBuffer(1 << 16);
+    private ByteBuffer spare = newBuffer(1 << 16);
+    private int recordStart;
+    private long nextSequence;
+    private FileChannel segment;
+    private boolean closing;
+
+    // Serializes writes to the segments between the flusher and segment switches
+    private final Object writeLock = new Object();
+
+    // Highest sequence number known to be on disk and the failure that stopped the journal, if any
+    // (written under durableLock; the failure is also read without it before each trade)
+    private final Object durableLock = new Object();
+    private long durableSequence;
+    private volatile IOException failure;
+
+    // Sequence number covered by the latest checkpoint, whether one is being taken, and why the last automatic one failed, if it did
+    private final Object checkpointLock = new Object();
+    private volatile long checkpointSequence;
+    private volatile boolean checkpointRunning;
+    private volatile IOException checkpointFailure;
+
+    // Thread forcing records to disk
+    private final Thread flusher;
+
+    // Constructor, starting a journal at a sequence number in a fresh segment
+    private TradeJournal(Portfolio portfolio, Path directory, long checkpointInterval, long sequence) throws IOException
+    {
+        this.portfolio = portfolio;
+        this.directory = directory;
+        this.checkpointInterval = checkpointInterval;
+        this.nextSequence = sequence;
+        this.durableSequence = sequence - 1;
+        this.checkpointSequence = sequence;
+        this.segment = openSegment(sequence);
+
+        // Start the flusher
+        flusher = new Thread(this::flushLoop, "trade-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Recovers the default portfolio from a journal directory and starts journaling to it, as open(Portfolio, Path, long) does.
+     *
+     * @param directory          The journal directory, created if it does not exist.
+     * @param checkpointInterval The number of records between automatic checkpoints, or 0 for none.
+     * @return The attached journal, which should be closed on exit.
+     * @throws IOException If the directory cannot be read or written.
+     * @throws IllegalStateException If there is a journal to recover but the portfolio is not empty.
+     */
+    public static TradeJournal open(Path directory, long checkpointInterval) throws IOException
+    {
+        return open(Portfolio.getDefault(), directory, checkpointInterval);
+    }
+
+    /**
+     * Recovers a portfolio from a journal directory and starts journaling to it.
+     * Loads the latest checkpoint into the (empty) portfolio, replays the journal records after it,
+     * discards a torn or corrupt tail, writes a fresh checkpoint and attaches the journal so every
+     * later change is recorded. A directory with no checkpoint or journal yet starts journaling the
+     * portfolio as it is.
+     *
+     * @param portfolio          The portfolio to recover and journal.
+     * @param directory          The journal directory, created if it does not exist.
+     * @param checkpointInterval The number of records between automatic checkpoints, or 0 for none.
+     * @return The attached journal, which should be closed on exit.
+     * @throws IOException If the directory cannot be read or written.
+     * @throws IllegalStateException If there is a journal to recover but the portfolio is not empty.
+     */
+    public static TradeJournal open(Portfolio portfolio, Path directory, long checkpointInterval) throws IOException
+    {
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(CHECKPOINT + ".tmp"));
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        List<Path> segments = segments(directory);
+
+        // Recovery rebuilds the whole portfolio, so it must start empty
+        long sequence = 0;
+        if ((Files.exists(checkpoint) || !segments.isEmpty()) && !portfolio.snapshot().isEmpty())
+        {
+            throw new IllegalStateException("A journal can only be recovered into an empty portfolio.");
+        }
+
+        // Load the latest checkpoint
+        if (Files.exists(checkpoint))
+        {
+            try (PortfolioFile file = PortfolioFile.open(checkpoint))
+            {
+                portfolio.loadPortfolio(file);
+                sequence = file.getVersion();
+            }
+        }
+
+        // Replay every record after the checkpoint, stopping at the first torn or corrupt one
+        boolean intact = true;
+        for (Path segment : segments)
+        {
+            // Records after a damaged one can never be replayed in order, so drop their segments
+            if (!intact)
+            {
+                Files.delete(segment);
+                continue;
+            }
+
+            long replayed = replay(portfolio, segment, sequence);
+            intact = replayed >= 0;
+            sequence = intact ? replayed : -replayed - 1;
+        }
+
+        // Start a new segment after a fresh checkpoint, which also drops the replayed segments
+        TradeJournal journal = new TradeJournal(portfolio, directory, checkpointInterval, sequence);
+        portfolio.attachJournal(journal);
+        journal.checkpoint();
+        return journal;
+    }
+
+    /**
+     * Takes a checkpoint now: saves the portfolio as of the current sequence number and deletes
+     * the journal segments it covers. Trades pause only while the snapshot is captured.
+     *
+     * @throws IOException If the checkpoint cannot be written, or the journal has stopped or stops
+     *                     now because the records before the checkpoint cannot be written.
+     */
+    public void checkpoint() throws IOException
+    {
+        synchronized (checkpointLock)
+        {
+            // Nothing to do once the journal is closing
+            synchronized (appendLock)
+            {
+                if (closing) return;
+            }
+
+            // Capture the snapshot and switch segments while no trade is between applying and journaling
+            long[] sequence = new long[1];
+            IOException[] switchFailure = new IOException[1];
+            PortfolioSnapshot snapshot = portfolio.quiesce(() ->
+            {
+                try
+                {
+                    sequence[0] = switchSegment();
+                }
+                catch (IOException e)
+                {
+                    switchFailure[0] = e;
+                }
+            });
+            if (switchFailure[0] != null) throw switchFailure[0];
+
+            // Write the checkpoint, then drop the segments it covers
+            PortfolioFile.write(directory.resolve(CHECKPOINT), snapshot, snapshot.size(), sequence[0]);
+            for (Path segment : segments(directory))
+            {
+                if (firstSequenceOf(segment) < sequence[0]) Files.delete(segment);
+            }
+            checkpointSequence = sequence[0];
+            checkpointFailure = null;
+        }
+    }
+
+    /**
+     * Returns the error that stopped the journal writing records, if one did. Once it is set the
+     * portfolio rejects every change.
+     *
+     * @return The error, or null while the journal is writing normally.
+     */
+    public IOException getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Returns the error of the last automatic checkpoint, if it failed. A checkpoint that fails
+     * writing the checkpoint file loses nothing, as the journal still holds every record, but the
+     * journal keeps growing until one succeeds. One that fails writing the journal segments stops the
+     * journal, as any failed write does, and getFailure reports it too.
+     *
+     * @return The error, or null if no checkpoint has failed since the last one that succeeded.
+     */
+    public IOException getCheckpointFailure()
+    {
+        return checkpointFailure;
+    }
+
+    /**
+     * Returns the sequence number the next record will get.
+     *
+     * @return The next sequence number.
+     */
+    public long getSequence()
+    {
+        synchronized (appendLock)
+        {
+            return nextSequence;
+        }
+    }
+
+    /**
+     * Flushes every record still waiting, stops the flusher and detaches the journal from the
+     * portfolio. A journal that has failed stays attached, so the portfolio keeps rejecting changes.
+     *
+     * @throws IOException If the last records could not be written.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        // Stop recording new trades, wait for a running checkpoint and let the flusher drain what is left
+        portfolio.detachJournal(this);
+        synchronized (checkpointLock)
+        {
+            synchronized (appendLock)
+            {
+                closing = true;
+                appendLock.notifyAll();
+            }
+        }
+
+        try
+        {
+            flusher.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (writeLock)
+        {
+            segment.close();
+        }
+        synchronized (durableLock)
+        {
+            if (failure != null) throw failure;
+        }
+    }
+
+    /*
+     * Throws if the journal has stopped, so a trade is rejected before it changes anything. The
+     * portfolio calls this holding the trade's lock stripes; a write failing after the check is
+     * reported by awaitDurable.
+     */
+    void checkWritable()
+    {
+        IOException stopped = failure;
+        if (stopped != null) throw new IllegalStateException("The journal could not write to disk, so the portfolio no longer accepts changes.", stopped);
+    }
+
+    /*
+     * Appends an addInvestment call, returning its sequence number.
+     */
+    long logAdd(String type, String symbol, String name, int quantity, double price)
+    {
+        byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+        byte[] symbolBytes = symbol.getBytes(StandardCharsets.UTF_8);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        synchronized (appendLock)
+        {
+            ByteBuffer record = begin(ADD, 4 + typeBytes.length + 4 + symbolBytes.length + 4 + nameBytes.length + 4 + 8);
+            putString(record, typeBytes);
+            putString(record, symbolBytes);
+            putString(record, nameBytes);
+            record.putInt(quantity);
+            record.putDouble(price);
+            return end();
+        }
+    }
+
+    /*
+     * Appends a sellInvestment call, returning its sequence number.
+     */
+    long logSell(String symbol, int quantity, double price)
+    {
+        byte[] symbolBytes = symbol.getBytes(StandardCharsets.UTF_8);
+        synchronized (appendLock)
+        {
+            ByteBuffer record = begin(SELL, 4 + symbolBytes.length + 4 + 8);
+            putString(record, symbolBytes);
+            record.putInt(quantity);
+            record.putDouble(price);
+            return end();
+        }
+    }
+
+    /*
+     * Appends a sellInvestment call that chose its tax lots, returning its sequence number.
+     */
+    long logSellLots(String symbol, int quantity, double price, TaxLots.Method method, int[] lotIds)
+    {
+        byte[] symbolBytes = symbol.getBytes(StandardCharsets.UTF_8);
+        int lotCount = lotIds == null ? 0 : lotIds.length;
+        synchronized (appendLock)
+        {
+            ByteBuffer record = begin(SELL_LOTS, 4 + symbolBytes.length + 4 + 8 + 1 + 4 + 4 * lotCount);
+            putString(record, symbolBytes);
+            record.putInt(quantity);
+            record.putDouble(price);
+            record.put((byte) method.ordinal());
+            record.putInt(lotCount);
+            for (int i = 0; i < lotCount; i++)
+            {
+                record.putInt(lotIds[i]);
+            }
+            return end();
+        }
+    }
+
+    /*
+     * Appends an updatePrices call for one holding, returning its sequence number.
+     */
+    long logPrice(String symbol, String name, double price)
+    {
+        byte[] symbolBytes = symbol.getBytes(StandardCharsets.UTF_8);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        synchronized (appendLock)
+        {
+            ByteBuffer record = begin(PRICE, 4 + symbolBytes.length + 4 + nameBytes.length + 8);
+            putString(record, symbolBytes);
+            putString(record, nameBytes);
+            record.putDouble(price);
+            return end();
+        }
+    }
+
+    /*
+     * Appends the prices a batch update applied, returning its sequence number.
+     */
+    long logPrices(String[] symbols, double[] prices, int count)
+    {
+        byte[][] symbolBytes = new byte[count][];
+        int size = 4;
+        for (int i = 0; i < count; i++)
+        {
+            symbolBytes[i] = symbols[i].getBytes(StandardCharsets.UTF_8);
+            size += 4 + symbolBytes[i].length + 8;
+        }
+
+        synchronized (appendLock)
+        {
+            ByteBuffer record = begin(PRICES, size);
+            record.putInt(count);
+            for (int i = 0; i < count; i++)
+            {
+                putString(record, symbolBytes[i]);
+                record.putDouble(prices[i]);
+            }
+            return end();
+        }
+    }
+
+    /*
+     * Blocks until the record with the given sequence number is on disk.
+     */
+    void awaitDurable(long sequence)
+    {
+        synchronized (durableLock)
+        {
+            while (durableSequence < sequence)
+            {
+                if (failure != null) throw new UncheckedIOException("Trade applied in memory but not journaled, so it will be missing after recovery; the portfolio no longer accepts changes.", failure);
+                try
+                {
+                    durableLock.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the journal.", e);
+                }
+            }
+        }
+    }
+
+    /*
+     * Reserves room for a record with arguments of the given size in the pending buffer and writes its sequence number and operation.
+     * The caller holds appendLock and must finish the record with end().
+     */
+    private ByteBuffer begin(byte operation, int argumentsSize)
+    {
+        if (closing) throw new IllegalStateException("The journal is closed.");
+
+        // Grow the pending buffer if the record does not fit
+        int bodySize = 8 + 1 + argumentsSize;
+        if (pending.remaining() < RECORD_HEADER + bodySize)
+        {
+            ByteBuffer larger = newBuffer(Math.max(pending.capacity() * 2, pending.position() + RECORD_HEADER + bodySize));
+            larger.put(pending.flip());
+            pending = larger;
+        }
+
+        // Leave the length and checksum to end() and write the start of the body
+        recordStart = pending.position();
+        pending.putInt(0);
+        pending.putInt(0);
+        pending.putLong(nextSequence);
+        pending.put(operation);
+        return pending;
+    }
+
+    /*
+     * Fills in the length and checksum of the record begun last, wakes the flusher and returns the record's sequence number.
+     */
+    private long end()
+    {
+        int bodySize = pending.position() - recordStart - RECORD_HEADER;
+        pending.putInt(recordStart, bodySize);
+        pending.putInt(recordStart + 4, checksum(pending, recordStart + RECORD_HEADER, bodySize));
+        appendLock.notifyAll();
+        return nextSequence++;
+    }
+
+    /*
+     * Writes batches of pending records and forces them to disk until the journal closes.
+     */
+    private void flushLoop()
+    {
+        while (true)
+        {
+            // Sleep until a record arrives, without blocking segment switches
+            synchronized (appendLock)
+            {
+                while (pending.position() == 0 && !closing)
+                {
+                    try
+                    {
+                        appendLock.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        closing = true;
+                    }
+                }
+                if (pending.position() == 0) return;
+            }
+
+            synchronized (writeLock)
+            {
+                // Take every record appended since the last write, unless a segment switch already wrote them
+                ByteBuffer batch;
+                long through;
+                FileChannel channel;
+                synchronized (appendLock)
+                {
+                    if (pending.position() == 0) continue;
+                    if (failure != null) return;
+                    batch = pending;
+                    pending = spare;
+                    spare = batch;
+                    through = nextSequence - 1;
+                    channel = segment;
+                }
+
+                // Write and force the whole batch with one fsync
+                try
+                {
+                    batch.flip();
+                    while (batch.hasRemaining()) channel.write(batch);
+                    channel.force(false);
+                    batch.clear();
+                }
+                catch (IOException e)
+                {
+                    synchronized (durableLock)
+                    {
+                        failure = e;
+                        durableLock.notifyAll();
+                    }
+                    return;
+                }
+
+                // Acknowledge every trade in the batch
+                synchronized (durableLock)
+                {
+                    durableSequence = through;
+                    durableLock.notifyAll();
+                }
+            }
+
+            // Start a checkpoint in the background once enough records have built up
+            maybeCheckpoint();
+        }
+    }
+
+    /*
+     * Starts a background checkpoint when the journal has grown by checkpointInterval records since the last one.
+     */
+    private void maybeCheckpoint()
+    {
+        if (checkpointInterval <= 0 || checkpointRunning) return;
+        synchronized (durableLock)
+        {
+            if (durableSequence + 1 - checkpointSequence < checkpointInterval) return;
+        }
+
+        checkpointRunning = true;
+        Thread thread = new Thread(() ->
+        {
+            try
+            {
+                checkpoint();
+            }
+            catch (IOException e)
+            {
+                // A failed segment switch has already stopped the journal; otherwise it still holds every record, so the failure only delays truncation
+                checkpointFailure = e;
+            }
+            finally
+            {
+                checkpointRunning = false;
+            }
+        }, "trade-journal-checkpoint");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /*
+     * Forces every record so far into the current segment and starts a new one, returning the
+     * sequence number of its first record. Called while every trade is paused.
+     */
+    private long switchSegment() throws IOException
+    {
+        synchronized (writeLock)
+        {
+            synchronized (appendLock)
+            {
+                // A stopped journal writes nothing more, since records after a failed write could not be replayed in order
+                if (failure != null) throw failure;
+
+                // Write what is pending to the old segment
+                long through = nextSequence - 1;
+                int end = pending.position();
+                try
+                {
+                    pending.flip();
+                    while (pending.hasRemaining()) segment.write(pending);
+                    pending.clear();
+                    segment.force(false);
+                    segment.close();
+
+                    // Continue in a new segment
+                    segment = openSegment(nextSequence);
+                }
+                catch (IOException e)
+                {
+                    // Stop the journal as a failed flush does, leaving the unwritten records pending rather than half drained
+                    pending.limit(pending.capacity()).position(end);
+                    synchronized (durableLock)
+                    {
+                        failure = e;
+                        durableLock.notifyAll();
+                    }
+                    throw e;
+                }
+                synchronized (durableLock)
+                {
+                    durableSequence = through;
+                    durableLock.notifyAll();
+                }
+                return nextSequence;
+            }
+        }
+    }
+
+    /*
+     * Creates the segment file whose first record has the given sequence number.
+     */
+    private FileChannel openSegment(long sequence) throws IOException
+    {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /*
+     * Lists the journal segments in a directory in sequence order.
+     */
+    private static List<Path> segments(Path directory) throws IOException
+    {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+        {
+            for (Path path : stream) segments.add(path);
+        }
+        segments.sort((a, b) -> Long.compare(firstSequenceOf(a), firstSequenceOf(b)));
+        return segments;
+    }
+
+    /*
+     * Reads the first sequence number of a segment from its file name.
+     */
+    private static long firstSequenceOf(Path segment)
+    {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /*
+     * Replays the records of a segment from a sequence number on. Returns the next sequence number
+     * if the whole segment was intact, or -(next sequence number) - 1 after truncating a torn or
+     * corrupt tail.
+     */
+    private static long replay(Portfolio portfolio, Path segment, long sequence) throws IOException
+    {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ))
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int position = 0;
+        boolean intact = true;
+        while (position < buffer.limit())
+        {
+            // Stop at a record that is cut short, fails its checksum or breaks the sequence
+            if (buffer.limit() - position < RECORD_HEADER)
+            {
+                intact = false;
+                break;
+            }
+
+            int bodySize = buffer.getInt(position);
+            int body = position + RECORD_HEADER;
+            if (bodySize < 9 || bodySize > buffer.limit() - body || buffer.getInt(position + 4) != checksum(buffer, body, bodySize))
+            {
+                intact = false;
+                break;
+            }
+
+            long recordSequence = buffer.getLong(body);
+            if (recordSequence > sequence)
+            {
+                intact = false;
+                break;
+            }
+
+            // Apply records the checkpoint does not already include
+            if (recordSequence == sequence)
+            {
+                apply(portfolio, buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(body + 8).limit(body + bodySize));
+                sequence++;
+            }
+            position = body + bodySize;
+        }
+
+        // Cut the damaged tail off so later appends start from a clean record boundary
+        if (!intact)
+        {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE))
+            {
+                channel.truncate(position);
+            }
+            return -sequence - 1;
+        }
+        return sequence;
+    }
+
+    /*
+     * Re-runs one journaled operation against the portfolio.
+     */
+    private static void apply(Portfolio portfolio, ByteBuffer record)
+    {
+        byte operation = record.get();
+        switch (operation)
+        {
+            case ADD -> portfolio.addInvestment(getString(record), getString(record), getString(record), record.getInt(), record.getDouble());
+            case SELL -> portfolio.sellInvestment(getString(record), record.getInt(), record.getDouble());
+            case SELL_LOTS ->
+            {
+                String symbol = getString(record);
+                int quantity = record.getInt();
+                double price = record.getDouble();
+                TaxLots.Method method = TaxLots.Method.values()[record.get()];
+                int[] lotIds = new int[record.getInt()];
+                for (int i = 0; i < lotIds.length; i++)
+                {
+                    lotIds[i] = record.getInt();
+                }
+                if (method == TaxLots.Method.SPECIFIC_ID) portfolio.sellInvestment(symbol, quantity, price, lotIds);
+                else portfolio.sellInvestment(symbol, quantity, price, method);
+            }
+            case PRICE -> portfolio.updatePrices(getString(record), getString(record), record.getDouble());
+            case PRICES ->
+            {
+                PriceBatch batch = new PriceBatch();
+                int count = record.getInt();
+                for (int i = 0; i < count; i++)
+                {
+                    batch.add(getString(record), record.getDouble());
+                }
+                portfolio.updatePrices(batch);
+            }
+            default -> throw new IllegalStateException("Unknown journal operation " + operation + ".");
+        }
+    }
+
+    /*
+     * Writes a length-prefixed UTF-8 string.
+     */
+    private static void putString(ByteBuffer buffer, byte[] bytes)
+    {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /*
+     * Reads a length-prefixed UTF-8 string.
+     */
+    private static String getString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Computes the CRC32C of a range of a buffer without moving its position.
+     */
+    private static int checksum(ByteBuffer buffer, int offset, int length)
+    {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(offset + length).position(offset));
+        return (int) crc.getValue();
+    }
+
+    /*
+     * Allocates a little-endian record buffer.
+     */
+    private static ByteBuffer newBuffer(int capacity)
+    {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
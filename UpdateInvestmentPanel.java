@@ -5,7 +5,7 @@ package ePortfolio;
 import javax.swing.*;
 import javax.swing.border.*;
 import java.awt.*;
-import java.util.ArrayList;
+import java.util.concurrent.CompletionException;
 
 /**
  * UpdatePricesPanel provides a GUI for updating investment prices.
@@ -111,8 +111,8 @@ public class UpdateInvestmentPanel extends JPanel
      */
     public void displayInvestment() 
     {
-        // Get the list of all investments
-        ArrayList<Investment> investments = Investment.getInvestments();
+        // Get a snapshot of all investments; it is only a volatile read, so it is taken right here on the event dispatch thread
+        PortfolioSnapshot investments = Investment.snapshot();
 
         // If no investments exist, disable buttons and clear fields
         if (investments.isEmpty())
@@ -133,6 +133,9 @@ public class UpdateInvestmentPanel extends JPanel
             saveButton.setEnabled(true);
         }
 
+        // Keep the current index in range in case investments were sold since the last display
+        currentIndex = Math.min(currentIndex, investments.size() - 1);
+
         // Get the current investment
         Investment currentInvestment = investments.get(currentIndex);
 
@@ -177,7 +180,7 @@ public class UpdateInvestmentPanel extends JPanel
      */
     private void next() 
     {
-        ArrayList<Investment> investments = Investment.getInvestments();
+        PortfolioSnapshot investments = Investment.snapshot();
         
         if (currentIndex < investments.size() - 1) 
         {
@@ -196,8 +199,8 @@ public class UpdateInvestmentPanel extends JPanel
      */
     public void save() 
     {
-        // Get the list of all investments
-        ArrayList<Investment> investments = Investment.getInvestments();
+        // Get a snapshot of all investments
+        PortfolioSnapshot investments = Investment.snapshot();
 
         // If no investments exist, display a message and exit
         if (investments.isEmpty()) 
@@ -223,12 +226,23 @@ public class UpdateInvestmentPanel extends JPanel
                 throw new IllegalArgumentException("Price must be a positive number.");
             }
 
-            // Update the price of the current investment
-            Investment updatedInvestment = Investment.updatePrices(symbol, name, newPrice);
-
-            // Show success message and updated investment details
-            messageArea.setText(String.format("Price updated successfully:\n\n%s", updatedInvestment.toString()));
-
+            // Update the price of the current investment in the background, keeping the button off until it is done
+            saveButton.setEnabled(false);
+            PortfolioService.updatePrices(symbol, name, newPrice).whenCompleteAsync((updatedInvestment, error) -> 
+            {
+                saveButton.setEnabled(true);
+
+                // Show error message if the update was refused
+                if (error != null) 
+                {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    messageArea.setText("Error: " + cause.getMessage());
+                    return;
+                }
+
+                // Show success message and updated investment details
+                messageArea.setText(String.format("Price updated successfully:\n\n%s", updatedInvestment.toString()));
+            }, PortfolioService.EDT);
         } 
 
         // Exception handlers for invalid inputs
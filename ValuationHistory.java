@@ -0,0 +1,555 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The ValuationHistory class tracks a portfolio's value over time as a series of valuation ticks,
+ * each the total market value and book value at one moment plus the money that went in or out
+ * through purchases and sales since the tick before. Attached to a portfolio, tick takes the totals
+ * and the flows together while trades are paused, so every tick describes one consistent state.
+ * Ticks can also be recorded directly, such as when loading a history kept elsewhere.
+ *
+ * Returns over any window are answered without revisiting the ticks inside it. As each tick is
+ * added, the history extends running sums: of the logarithm of each period's growth, for the
+ * time-weighted return, and of the flows and the flows times their time, for the money-weighted
+ * return. A window query finds its two end ticks by binary search and takes the differences of
+ * these sums, so it costs the same for a day as for ten years of minute ticks.
+ *
+ * Both returns are Modified Dietz returns: the profit divided by the value at the start plus each
+ * flow weighted by the share of the time it was invested for, the standard first-order
+ * approximation of the internal rate of return. The money-weighted return takes it over the whole
+ * window; the time-weighted return takes it over each period between ticks and chains them, so it
+ * does not depend on when money went in or out. A flow is taken to have happened halfway between
+ * the ticks around it.
+ *
+ * A history opened on a file appends every tick to it and rebuilds the running sums on open.
+ * File layout (little-endian): magic and format version (ints) padded to 16 bytes, then 32-byte
+ * ticks of time in milliseconds, market value, book value and flow in micros (longs).
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class ValuationHistory implements Closeable
+{
+    // Format identification
+    private static final int MAGIC = 0x4C565045; // "EPVL"
+    private static final int FORMAT_VERSION = 1;
+
+    // Sizes of the file header, each tick and the buffer ticks are written through
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 32;
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    // Ticks by position: time, market value, book value and flow since the tick before
+    private int count;
+    private long[] times = new long[64];
+    private long[] values = new long[64];
+    private long[] books = new long[64];
+    private long[] flows = new long[64];
+
+    // Running sums up to each tick: log growth, periods that lost everything, flows, and flows
+    // times their time from the first tick, a flow's time being halfway between its ticks
+    private double[] logGrowth = new double[64];
+    private int[] wipeouts = new int[64];
+    private long[] flowSums = new long[64];
+    private double[] flowTimes = new double[64];
+
+    // File the ticks are appended to, where the next tick goes and ticks not yet written, or null
+    private final FileChannel channel;
+    private long filePosition;
+    private final ByteBuffer pending;
+
+    // Portfolio ticked from and its net flow at the last tick
+    private Portfolio portfolio;
+    private long lastNetFlow;
+
+    /**
+     * Creates an empty history kept in memory.
+     */
+    public ValuationHistory()
+    {
+        this(null);
+    }
+
+    // Constructor
+    private ValuationHistory(FileChannel channel)
+    {
+        this.channel = channel;
+        this.pending = channel == null ? null : ByteBuffer.allocate(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Opens a history file, creating it if it does not exist, and reads its ticks.
+     * A torn tick left at the end by a crash is dropped.
+     *
+     * @param file The history file.
+     * @return The open history, which should be closed when no longer needed.
+     * @throws IOException If the file cannot be read or is not a valuation history.
+     */
+    public static ValuationHistory open(Path file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            ValuationHistory history = new ValuationHistory(channel);
+            history.load(file);
+            return history;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts valuing a portfolio; each later tick counts the purchases and sales made since the one before.
+     *
+     * @param portfolio The portfolio to value.
+     * @throws IllegalStateException If the history is already attached to a portfolio.
+     */
+    public synchronized void attach(Portfolio portfolio)
+    {
+        if (this.portfolio != null) throw new IllegalStateException("The valuation history is already attached to a portfolio.");
+        long[] netFlow = new long[1];
+        portfolio.quiesce(() -> netFlow[0] = portfolio.getNetFlowMicros());
+        this.portfolio = portfolio;
+        this.lastNetFlow = netFlow[0];
+    }
+
+    /**
+     * Values the attached portfolio now, as tick(long) does.
+     *
+     * @return The snapshot the tick was taken from.
+     */
+    public PortfolioSnapshot tick()
+    {
+        return tick(System.currentTimeMillis());
+    }
+
+    /**
+     * Values the attached portfolio: records its total market and book value and the money paid in
+     * less the money taken out since the last tick, all taken while no trade is in between.
+     *
+     * @param timeMillis The time of the tick, in milliseconds since the epoch; an earlier time than the last tick's is moved up to it.
+     * @return The snapshot the tick was taken from.
+     * @throws IllegalStateException If no portfolio is attached.
+     * @throws UncheckedIOException  If the tick cannot be written to the file.
+     */
+    public synchronized PortfolioSnapshot tick(long timeMillis)
+    {
+        if (portfolio == null) throw new IllegalStateException("No portfolio is attached.");
+        long[] netFlow = new long[1];
+        PortfolioSnapshot snapshot = portfolio.quiesce(() -> netFlow[0] = portfolio.getNetFlowMicros());
+        long time = count == 0 ? timeMillis : Math.max(timeMillis, times[count - 1]);
+        append(time, snapshot.getTotalMarketValueMicros(), snapshot.getTotalBookValueMicros(), Money.subtract(netFlow[0], lastNetFlow), true);
+        lastNetFlow = netFlow[0];
+        return snapshot;
+    }
+
+    /**
+     * Records a tick. Ticks must be recorded in time order.
+     *
+     * @param timeMillis        The time of the tick, in milliseconds since the epoch.
+     * @param marketValueMicros The total market value at the tick, in micros.
+     * @param bookValueMicros   The total book value at the tick, in micros.
+     * @param flowMicros        The money paid in less the money taken out since the tick before, in micros.
+     * @throws IllegalArgumentException If the time is before the last tick or a value is negative.
+     * @throws UncheckedIOException     If the tick cannot be written to the file.
+     */
+    public synchronized void record(long timeMillis, long marketValueMicros, long bookValueMicros, long flowMicros)
+    {
+        if (count > 0 && timeMillis < times[count - 1]) throw new IllegalArgumentException("Tick is earlier than the last tick.");
+        if (marketValueMicros < 0 || bookValueMicros < 0) throw new IllegalArgumentException("Values cannot be negative.");
+        append(timeMillis, marketValueMicros, bookValueMicros, flowMicros, true);
+    }
+
+    /**
+     * Returns the number of ticks.
+     *
+     * @return The number of ticks.
+     */
+    public synchronized int size()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the time of a tick.
+     *
+     * @param index The position of the tick.
+     * @return The time in milliseconds since the epoch.
+     */
+    public synchronized long getTime(int index)
+    {
+        return times[Objects.checkIndex(index, count)];
+    }
+
+    /**
+     * Returns the total market value at a tick.
+     *
+     * @param index The position of the tick.
+     * @return The market value in micros.
+     */
+    public synchronized long getMarketValueMicros(int index)
+    {
+        return values[Objects.checkIndex(index, count)];
+    }
+
+    /**
+     * Returns the total book value at a tick.
+     *
+     * @param index The position of the tick.
+     * @return The book value in micros.
+     */
+    public synchronized long getBookValueMicros(int index)
+    {
+        return books[Objects.checkIndex(index, count)];
+    }
+
+    /**
+     * Returns the total gain at a tick.
+     *
+     * @param index The position of the tick.
+     * @return The market value minus the book value, in micros.
+     */
+    public synchronized long getGainMicros(int index)
+    {
+        Objects.checkIndex(index, count);
+        return Money.subtract(values[index], books[index]);
+    }
+
+    /**
+     * Returns the money paid in less the money taken out between a tick and the one before.
+     *
+     * @param index The position of the tick.
+     * @return The flow in micros.
+     */
+    public synchronized long getFlowMicros(int index)
+    {
+        return flows[Objects.checkIndex(index, count)];
+    }
+
+    /**
+     * Returns the value, flows and returns over a window, from the last tick at or before its start
+     * to the last tick at or before its end. A start before the first tick starts at the first tick.
+     *
+     * @param fromMillis The start of the window, in milliseconds since the epoch.
+     * @param toMillis   The end of the window.
+     * @return The window's figures.
+     * @throws IllegalArgumentException If the window ends before it starts or before the first tick.
+     */
+    public synchronized Window window(long fromMillis, long toMillis)
+    {
+        if (toMillis < fromMillis) throw new IllegalArgumentException("Window ends before it starts.");
+        int end = lastAtOrBefore(toMillis);
+        if (end < 0) throw new IllegalArgumentException("No valuation at or before the end of the window.");
+        int start = Math.max(lastAtOrBefore(fromMillis), 0);
+
+        // Time-weighted: the growth of every period in the window, chained
+        double timeWeighted = wipeouts[end] > wipeouts[start] ? -1 : Math.expm1(logGrowth[end] - logGrowth[start]);
+
+        // Money-weighted: the profit over the start value plus each flow weighted by the time it was invested
+        long netFlow = flowSums[end] - flowSums[start];
+        long profit = Money.subtract(Money.subtract(values[end], values[start]), netFlow);
+        long span = times[end] - times[start];
+        double weightedFlows = span == 0 ? 0 : ((double) (times[end] - times[0]) * netFlow - (flowTimes[end] - flowTimes[start])) / span;
+        double invested = values[start] + weightedFlows;
+        double moneyWeighted = start == end ? 0 : invested > 0 ? profit / invested : Double.NaN;
+
+        return new Window(times[start], times[end], values[start], values[end], netFlow, profit, timeWeighted, moneyWeighted);
+    }
+
+    /**
+     * Writes the ticks not yet written and forces the file to disk; does nothing for a history kept in memory.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void flush() throws IOException
+    {
+        if (channel == null) return;
+        drain();
+        channel.force(false);
+    }
+
+    /**
+     * Writes the ticks not yet written and closes the file.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (channel == null || !channel.isOpen()) return;
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /*
+     * Reads the header and ticks of the file, writing a header to a new one.
+     */
+    private void load(Path file) throws IOException
+    {
+        long size = channel.size();
+        if (size == 0)
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC);
+            header.putInt(4, FORMAT_VERSION);
+            channel.write(header, 0);
+            filePosition = HEADER_SIZE;
+            return;
+        }
+
+        // Check the header
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (size < HEADER_SIZE || channel.read(header, 0) < HEADER_SIZE || header.getInt(0) != MAGIC) throw new IOException(file + " is not a valuation history.");
+        if (header.getInt(4) != FORMAT_VERSION) throw new IOException(file + " uses unsupported format version " + header.getInt(4) + ".");
+
+        // Read the whole ticks in blocks, then cut off a torn one
+        long end = HEADER_SIZE + (size - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+        ByteBuffer block = ByteBuffer.allocate(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        for (long position = HEADER_SIZE; position < end; )
+        {
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), end - position));
+            while (block.hasRemaining())
+            {
+                if (channel.read(block, position + block.position()) < 0) throw new IOException("Unexpected end of valuation history.");
+            }
+            for (int offset = 0; offset < block.limit(); offset += RECORD_SIZE)
+            {
+                append(block.getLong(offset), block.getLong(offset + 8), block.getLong(offset + 16), block.getLong(offset + 24), false);
+            }
+            position += block.limit();
+        }
+        if (end < size) channel.truncate(end);
+        filePosition = end;
+    }
+
+    /*
+     * Adds a tick and extends the running sums, writing it to the file if asked; called holding this.
+     */
+    private void append(long time, long value, long book, long flow, boolean write)
+    {
+        if (count == times.length) grow();
+        int i = count;
+        times[i] = time;
+        values[i] = value;
+        books[i] = book;
+        flows[i] = flow;
+
+        if (i == 0)
+        {
+            // The first tick starts the sums; there is no period before it to grow
+            logGrowth[i] = 0;
+            wipeouts[i] = 0;
+            flowSums[i] = flow;
+            flowTimes[i] = 0;
+        }
+
+        else
+        {
+            // The period's growth is one plus its profit over the value invested during it, the value
+            // at the tick before plus half the flow; a period with nothing invested does not grow
+            double invested = values[i - 1] + flow / 2.0;
+            double growth = invested > 0 ? 1 + Money.subtract(Money.subtract(value, values[i - 1]), flow) / invested : 1;
+            logGrowth[i] = logGrowth[i - 1] + (growth > 0 ? Math.log(growth) : 0);
+            wipeouts[i] = wipeouts[i - 1] + (growth > 0 ? 0 : 1);
+            flowSums[i] = flowSums[i - 1] + flow;
+            flowTimes[i] = flowTimes[i - 1] + flow * ((times[i - 1] - times[0]) + (time - times[i - 1]) / 2.0);
+        }
+        count++;
+
+        if (write && channel != null)
+        {
+            try
+            {
+                if (pending.remaining() < RECORD_SIZE) drain();
+                pending.putLong(time).putLong(value).putLong(book).putLong(flow);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /*
+     * Writes the ticks waiting in the buffer to the end of the file.
+     */
+    private void drain() throws IOException
+    {
+        pending.flip();
+        while (pending.hasRemaining()) filePosition += channel.write(pending, filePosition);
+        pending.clear();
+    }
+
+    /*
+     * Doubles the room for ticks.
+     */
+    private void grow()
+    {
+        int size = times.length * 2;
+        times = Arrays.copyOf(times, size);
+        values = Arrays.copyOf(values, size);
+        books = Arrays.copyOf(books, size);
+        flows = Arrays.copyOf(flows, size);
+        logGrowth = Arrays.copyOf(logGrowth, size);
+        wipeouts = Arrays.copyOf(wipeouts, size);
+        flowSums = Arrays.copyOf(flowSums, size);
+        flowTimes = Arrays.copyOf(flowTimes, size);
+    }
+
+    /*
+     * Returns the position of the last tick at or before a time, or -1 if every tick is after it.
+     */
+    private int lastAtOrBefore(long time)
+    {
+        int low = 0, high = count;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (times[middle] <= time) low = middle + 1;
+            else high = middle;
+        }
+        return low - 1;
+    }
+
+    /**
+     * The value, flows and returns of the portfolio over one window of ticks.
+     */
+    public static final class Window
+    {
+        private final long start;
+        private final long end;
+        private final long startValue;
+        private final long endValue;
+        private final long netFlow;
+        private final long profit;
+        private final double timeWeighted;
+        private final double moneyWeighted;
+
+        // Constructor
+        Window(long start, long end, long startValue, long endValue, long netFlow, long profit, double timeWeighted, double moneyWeighted)
+        {
+            this.start = start;
+            this.end = end;
+            this.startValue = startValue;
+            this.endValue = endValue;
+            this.netFlow = netFlow;
+            this.profit = profit;
+            this.timeWeighted = timeWeighted;
+            this.moneyWeighted = moneyWeighted;
+        }
+
+        /**
+         * Returns the time of the tick the window starts at.
+         *
+         * @return The time in milliseconds since the epoch.
+         */
+        public long getStart()
+        {
+            return start;
+        }
+
+        /**
+         * Returns the time of the tick the window ends at.
+         *
+         * @return The time in milliseconds since the epoch.
+         */
+        public long getEnd()
+        {
+            return end;
+        }
+
+        /**
+         * Returns the market value at the start of the window.
+         *
+         * @return The value in micros.
+         */
+        public long getStartValueMicros()
+        {
+            return startValue;
+        }
+
+        /**
+         * Returns the market value at the end of the window.
+         *
+         * @return The value in micros.
+         */
+        public long getEndValueMicros()
+        {
+            return endValue;
+        }
+
+        /**
+         * Returns the money paid in less the money taken out during the window.
+         *
+         * @return The net flow in micros.
+         */
+        public long getNetFlowMicros()
+        {
+            return netFlow;
+        }
+
+        /**
+         * Returns what the portfolio made over the window: the change in value less the net flow.
+         *
+         * @return The profit in micros.
+         */
+        public long getProfitMicros()
+        {
+            return profit;
+        }
+
+        /**
+         * Returns the time-weighted return, the Modified Dietz growth of each period between ticks, chained.
+         *
+         * @return The return as a fraction, -1 if every holding's value was lost in some period.
+         */
+        public double getTimeWeightedReturn()
+        {
+            return timeWeighted;
+        }
+
+        /**
+         * Returns the money-weighted (Modified Dietz) return.
+         *
+         * @return The return as a fraction, or NaN if nothing was invested over the window.
+         */
+        public double getMoneyWeightedReturn()
+        {
+            return moneyWeighted;
+        }
+
+        /*
+         * Overridden toString method to display the window's figures.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%d to %d: value %.2f to %.2f, net flow %.2f, profit %.2f, time-weighted %.4f%%, money-weighted %.4f%%",
+                start, end, Money.toDouble(startValue), Money.toDouble(endValue), Money.toDouble(netFlow), Money.toDouble(profit), timeWeighted * 100, moneyWeighted * 100);
+        }
+    }
+}
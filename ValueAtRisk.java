@@ -0,0 +1,374 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The ValueAtRisk class estimates how much a set of holdings could lose over a horizon by Monte
+ * Carlo simulation: the value at risk, the loss exceeded in only a given share of scenarios, and
+ * the expected shortfall, the average loss across that share.
+ *
+ * Prices move by correlated log returns drawn from a covariance model, a covariance matrix of the
+ * symbols' log returns over the horizon. Each return has a mean of minus half its variance, so every
+ * price is expected to end where it is now. The engine factors the held symbols' covariance once
+ * (Cholesky) and turns each scenario's independent normal draws into correlated returns with it. As
+ * returns over a path add up to one normal return for the whole horizon, each scenario draws the
+ * path's end directly.
+ *
+ * A scenario's loss is the market value now less what selling every holding at the scenario's
+ * prices would pay, as calculatePayment works it out, so losses include the commission on stocks
+ * and the redemption fee on mutual funds. A holding whose sale would pay less than its fee is
+ * counted as worth nothing, as it would be kept rather than sold.
+ *
+ * Scenarios are split across a fork-join pool. The scenario range is halved down to fixed-size
+ * blocks and each half takes its own split of the random generator, so each scenario's draws
+ * depend only on the seed and its position, and a given seed gives the same losses on any number
+ * of cores. Each block reuses one scratch array, so the scenario loop allocates nothing.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class ValueAtRisk
+{
+    // Scenarios in the blocks simulated without splitting further
+    private static final int BLOCK = 4096;
+
+    // Largest relative asymmetry accepted in the covariance, and smallest relative pivot kept in its factor
+    private static final double SYMMETRY_TOLERANCE = 1e-9;
+    private static final double PIVOT_TOLERANCE = 1e-12;
+
+    // Held symbols' factor of the covariance, packed by row (row i holds i + 1 entries), and the
+    // mean of each symbol's log return
+    private final int symbolCount;
+    private final double[] factor;
+    private final double[] drift;
+
+    // Holdings by position: held symbol, market value and sell fee in micros
+    private final int[] positionSymbols;
+    private final double[] positionValues;
+    private final double[] positionFees;
+
+    // Market value of every holding now, in micros
+    private final long marketValue;
+
+    /**
+     * Creates an engine for the holdings given, such as a portfolio snapshot, at their current prices.
+     *
+     * @param holdings   The holdings; each must have a symbol in the model, ignoring case.
+     * @param symbols    The symbols of the model's rows and columns.
+     * @param covariance The covariance of the symbols' log returns over the horizon; symmetric and positive semi-definite.
+     * @throws IllegalArgumentException If the model is malformed or a holding's symbol is not in it.
+     * @throws ArithmeticException If a value overflows.
+     */
+    public ValueAtRisk(Iterable<Investment> holdings, String[] symbols, double[][] covariance)
+    {
+        // Check the model and find each symbol's row
+        if (covariance.length != symbols.length) throw new IllegalArgumentException("Covariance has " + covariance.length + " rows for " + symbols.length + " symbols.");
+        Map<String, Integer> rows = new HashMap<>();
+        for (int i = 0; i < symbols.length; i++)
+        {
+            if (covariance[i].length != symbols.length) throw new IllegalArgumentException("Covariance row " + i + " has " + covariance[i].length + " columns for " + symbols.length + " symbols.");
+            if (rows.put(Portfolio.symbolKey(symbols[i]), i) != null) throw new IllegalArgumentException("Symbol " + symbols[i] + " appears twice in the model.");
+        }
+
+        // Give each held symbol its place, in the order first held, and value each holding
+        Map<Integer, Integer> held = new HashMap<>();
+        List<Integer> heldRows = new ArrayList<>();
+        List<Investment> positions = new ArrayList<>();
+        long total = 0;
+        for (Investment investment : holdings)
+        {
+            if (investment.getQuantity() == 0) continue;
+            Integer row = rows.get(Portfolio.symbolKey(investment.getSymbol()));
+            if (row == null) throw new IllegalArgumentException("The model has no returns for " + investment.getSymbol() + ".");
+            if (held.putIfAbsent(row, heldRows.size()) == null) heldRows.add(row);
+            positions.add(investment);
+            total = Money.add(total, investment.getMarketValueMicros());
+        }
+        this.marketValue = total;
+        this.positionSymbols = new int[positions.size()];
+        this.positionValues = new double[positions.size()];
+        this.positionFees = new double[positions.size()];
+        for (int p = 0; p < positions.size(); p++)
+        {
+            // The fee is what calculatePayment keeps back from the proceeds at today's price
+            Investment investment = positions.get(p);
+            long value = investment.getMarketValueMicros();
+            positionSymbols[p] = held.get(rows.get(Portfolio.symbolKey(investment.getSymbol())));
+            positionValues[p] = value;
+            positionFees[p] = Money.subtract(value, investment.calculatePayment(investment.getQuantity(), investment.getPriceMicros()));
+        }
+
+        // Factor the held symbols' covariance
+        this.symbolCount = heldRows.size();
+        this.factor = new double[symbolCount * (symbolCount + 1) / 2];
+        this.drift = new double[symbolCount];
+        factor(covariance, heldRows, symbols);
+    }
+
+    /*
+     * Fills the packed Cholesky factor of the covariance between the held rows, zeroing the column
+     * of a symbol whose returns are already fixed by the ones before it.
+     */
+    private void factor(double[][] covariance, List<Integer> heldRows, String[] symbols)
+    {
+        double largest = 0;
+        for (int row : heldRows) largest = Math.max(largest, Math.abs(covariance[row][row]));
+        double tolerance = PIVOT_TOLERANCE * largest;
+        for (int i = 0; i < symbolCount; i++)
+        {
+            int rowI = heldRows.get(i);
+            int startI = i * (i + 1) / 2;
+            drift[i] = -covariance[rowI][rowI] / 2;
+            for (int j = 0; j <= i; j++)
+            {
+                int rowJ = heldRows.get(j);
+                int startJ = j * (j + 1) / 2;
+                double entry = covariance[rowI][rowJ];
+                if (!Double.isFinite(entry) || Math.abs(entry - covariance[rowJ][rowI]) > SYMMETRY_TOLERANCE * Math.max(largest, Double.MIN_NORMAL))
+                {
+                    throw new IllegalArgumentException("Covariance of " + symbols[rowI] + " and " + symbols[rowJ] + " is not finite and symmetric.");
+                }
+                for (int k = 0; k < j; k++) entry -= factor[startI + k] * factor[startJ + k];
+                if (j < i)
+                {
+                    double pivot = factor[startJ + j];
+                    factor[startI + j] = pivot == 0 ? 0 : entry / pivot;
+                }
+                else if (entry < -tolerance)
+                {
+                    throw new IllegalArgumentException("Covariance is not positive semi-definite at " + symbols[rowI] + ".");
+                }
+                else factor[startI + i] = entry <= tolerance ? 0 : Math.sqrt(entry);
+            }
+        }
+    }
+
+    /**
+     * Simulates scenarios on the common fork-join pool.
+     *
+     * @param scenarios The number of scenarios.
+     * @param seed      The seed; the same seed gives the same result.
+     * @return The simulated losses.
+     * @throws IllegalArgumentException If the number of scenarios is not positive.
+     */
+    public Result simulate(int scenarios, long seed)
+    {
+        return simulate(scenarios, seed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Simulates scenarios on a fork-join pool. The result depends only on the scenarios and the
+     * seed, not on the pool's parallelism.
+     *
+     * @param scenarios The number of scenarios.
+     * @param seed      The seed; the same seed gives the same result.
+     * @param pool      The pool to run on.
+     * @return The simulated losses.
+     * @throws IllegalArgumentException If the number of scenarios is not positive.
+     */
+    public Result simulate(int scenarios, long seed, ForkJoinPool pool)
+    {
+        if (scenarios <= 0) throw new IllegalArgumentException("Scenarios must be positive, was " + scenarios + ".");
+        double[] losses = new double[scenarios];
+        pool.invoke(new Simulation(losses, 0, scenarios, new SplittableRandom(seed)));
+        Arrays.parallelSort(losses);
+        return new Result(marketValue, losses);
+    }
+
+    /**
+     * Returns the market value of the holdings at their current prices, which losses are measured from.
+     *
+     * @return The market value in micros.
+     */
+    public long getMarketValueMicros()
+    {
+        return marketValue;
+    }
+
+    /*
+     * Simulates one scenario: correlates fresh normal draws in place into each held symbol's price
+     * growth, then returns the market value now less what selling every holding would pay.
+     */
+    private double loss(SplittableRandom random, double[] growth)
+    {
+        for (int i = 0; i < symbolCount; i++) growth[i] = random.nextGaussian();
+
+        // Row i of the factor only reads draws 0 to i, so going from the last row down each draw is
+        // read before it is replaced
+        for (int i = symbolCount - 1; i >= 0; i--)
+        {
+            int start = i * (i + 1) / 2;
+            double sum = drift[i];
+            for (int j = 0; j <= i; j++) sum += factor[start + j] * growth[j];
+            growth[i] = Math.exp(sum);
+        }
+
+        double proceeds = 0;
+        for (int p = 0; p < positionValues.length; p++)
+        {
+            double payment = positionValues[p] * growth[positionSymbols[p]] - positionFees[p];
+            if (payment > 0) proceeds += payment;
+        }
+        return marketValue - proceeds;
+    }
+
+    /*
+     * Simulates a range of scenarios, halving it into tasks down to blocks of BLOCK scenarios. Each
+     * first half takes a split of the range's random generator and the second half keeps it, so the
+     * draws follow the halving and not the threads.
+     */
+    private final class Simulation extends RecursiveAction
+    {
+        // Losses written by scenario, the range simulated, and its random generator
+        private final double[] losses;
+        private final int from;
+        private final int to;
+        private final SplittableRandom random;
+
+        Simulation(double[] losses, int from, int to, SplittableRandom random)
+        {
+            this.losses = losses;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > BLOCK)
+            {
+                int middle = (from + to) >>> 1;
+                Simulation first = new Simulation(losses, from, middle, random.split());
+                invokeAll(first, new Simulation(losses, middle, to, random));
+                return;
+            }
+
+            double[] growth = new double[symbolCount];
+            for (int i = from; i < to; i++) losses[i] = loss(random, growth);
+        }
+    }
+
+    /**
+     * The Result class holds the simulated losses, sorted, and answers value at risk and expected
+     * shortfall at any confidence from them. A negative loss is a gain.
+     */
+    public static final class Result
+    {
+        // Market value losses are measured from, and every scenario's loss in micros from smallest to largest
+        private final long marketValue;
+        private final double[] losses;
+
+        // Constructor
+        Result(long marketValue, double[] losses)
+        {
+            this.marketValue = marketValue;
+            this.losses = losses;
+        }
+
+        /**
+         * Returns the number of scenarios simulated.
+         *
+         * @return The number of scenarios.
+         */
+        public int getScenarios()
+        {
+            return losses.length;
+        }
+
+        /**
+         * Returns the market value of the holdings now, which losses are measured from.
+         *
+         * @return The market value in micros.
+         */
+        public long getMarketValueMicros()
+        {
+            return marketValue;
+        }
+
+        /**
+         * Returns the value at risk: the smallest of the largest losses making up the share of
+         * scenarios beyond the confidence, so that at most that share lose more.
+         *
+         * @param confidence The confidence, such as 0.99, between 0 and 1 exclusive.
+         * @return The loss in micros.
+         * @throws IllegalArgumentException If the confidence is not between 0 and 1.
+         */
+        public long getValueAtRiskMicros(double confidence)
+        {
+            return Math.round(losses[losses.length - tail(confidence)]);
+        }
+
+        /**
+         * Returns the expected shortfall: the average of the largest losses making up the share of
+         * scenarios beyond the confidence.
+         *
+         * @param confidence The confidence, such as 0.99, between 0 and 1 exclusive.
+         * @return The average loss in micros.
+         * @throws IllegalArgumentException If the confidence is not between 0 and 1.
+         */
+        public long getExpectedShortfallMicros(double confidence)
+        {
+            int tail = tail(confidence);
+            double sum = 0;
+            for (int i = losses.length - tail; i < losses.length; i++) sum += losses[i];
+            return Math.round(sum / tail);
+        }
+
+        /**
+         * Returns the average loss across every scenario; as prices are expected to stay where they
+         * are, this is close to the selling fees.
+         *
+         * @return The average loss in micros.
+         */
+        public long getMeanLossMicros()
+        {
+            double sum = 0;
+            for (double loss : losses) sum += loss;
+            return Math.round(sum / losses.length);
+        }
+
+        /**
+         * Returns the largest loss in any scenario.
+         *
+         * @return The loss in micros.
+         */
+        public long getWorstLossMicros()
+        {
+            return Math.round(losses[losses.length - 1]);
+        }
+
+        /*
+         * Returns the number of scenarios beyond a confidence, at least one.
+         */
+        private int tail(double confidence)
+        {
+            if (!(confidence > 0 && confidence < 1)) throw new IllegalArgumentException("Confidence must be between 0 and 1, was " + confidence + ".");
+            return Math.max(1, losses.length - (int) Math.floor(confidence * losses.length));
+        }
+
+        /*
+         * Overridden toString method to display the value at risk and expected shortfall at 95% and 99%.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%,d scenarios on %.2f: 95%% VaR %.2f, ES %.2f; 99%% VaR %.2f, ES %.2f; mean loss %.2f, worst %.2f",
+                losses.length, Money.toDouble(marketValue),
+                Money.toDouble(getValueAtRiskMicros(0.95)), Money.toDouble(getExpectedShortfallMicros(0.95)),
+                Money.toDouble(getValueAtRiskMicros(0.99)), Money.toDouble(getExpectedShortfallMicros(0.99)),
+                Money.toDouble(getMeanLossMicros()), Money.toDouble(getWorstLossMicros()));
+        }
+    }
+}
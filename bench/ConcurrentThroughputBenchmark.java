@@ -0,0 +1,147 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import ePortfolio.Investment;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ConcurrentThroughputBenchmark class measures the throughput of the portfolio engine as the
+ * number of trading threads grows from 1 to 32. Every thread runs the same mix of buys, partial
+ * sells and price updates on random symbols, with total gain reads and price searches mixed in,
+ * for a fixed time per thread count. Trades on different symbols take different lock stripes, so
+ * throughput should keep rising until the machine runs out of cores.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -cp bin ePortfolio.bench.ConcurrentThroughputBenchmark
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class ConcurrentThroughputBenchmark
+{
+    // Holdings preloaded before measuring, thread counts to measure at and time spent per count
+    private static final int HOLDINGS = 100_000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    private static final long RUN_MILLIS = 2_000;
+
+    // Main method to run the benchmark
+    public static void main(String[] args) throws InterruptedException
+    {
+        // Preload the portfolio with a large position in every symbol so sells never empty it
+        for (int i = 0; i < HOLDINGS; i++)
+        {
+            Investment.addInvestment(i % 2 == 0 ? "stock" : "mutual fund", symbol(i), "Holding " + i, 1_000_000, 10.0);
+        }
+
+        // Warm up once before measuring
+        run(THREADS[THREADS.length - 1]);
+
+        System.out.printf("%8s %14s %12s%n", "threads", "ops/sec", "speedup");
+        double baseline = 0;
+        for (int threads : THREADS)
+        {
+            double throughput = run(threads);
+            if (baseline == 0) baseline = throughput;
+            System.out.printf("%8d %14.0f %11.2fx%n", threads, throughput, throughput / baseline);
+        }
+
+        // Make sure concurrent trading kept the running totals consistent
+        Investment.verifyTotals();
+    }
+
+    /*
+     * Runs the mixed workload on a number of threads for the fixed time, returning operations per second.
+     */
+    private static double run(int threads) throws InterruptedException
+    {
+        LongAdder operations = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] deadline = new long[1];
+
+        for (int t = 0; t < threads; t++)
+        {
+            workers[t] = new Thread(() ->
+            {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try
+                {
+                    start.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                // Count operations in batches to keep the counter off the measured path
+                while (System.nanoTime() < deadline[0])
+                {
+                    for (int i = 0; i < 256; i++)
+                    {
+                        runOperation(random);
+                    }
+                    operations.add(256);
+                }
+            });
+            workers[t].start();
+        }
+
+        // Release every thread at once and wait for the deadline to pass
+        deadline[0] = System.nanoTime() + RUN_MILLIS * 1_000_000;
+        start.countDown();
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+
+        return operations.sum() * 1000.0 / RUN_MILLIS;
+    }
+
+    /*
+     * Runs one operation of the mix: 40% price updates, 25% buys, 25% partial sells, 10% reads.
+     */
+    private static void runOperation(ThreadLocalRandom random)
+    {
+        int holding = random.nextInt(HOLDINGS);
+        int roll = random.nextInt(100);
+
+        if (roll < 40)
+        {
+            Investment.updatePrices(symbol(holding), "Holding " + holding, 10.0 + random.nextInt(100));
+        }
+
+        else if (roll < 65)
+        {
+            Investment.addInvestment("stock", symbol(holding), "ignored", 1, 10.0);
+        }
+
+        else if (roll < 90)
+        {
+            Investment.sellInvestment(symbol(holding), 1, 11.0);
+        }
+
+        else if (roll < 98)
+        {
+            Investment.calculateTotalGain();
+        }
+
+        else
+        {
+            double low = 10.0 + random.nextInt(100);
+            Investment.searchInvestments("", "", low, low + 0.5);
+        }
+    }
+
+    /*
+     * Returns the synthetic symbol for a holding number.
+     */
+    private static String symbol(int holding)
+    {
+        return "SYM" + holding;
+    }
+}
@@ -0,0 +1,294 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import ePortfolio.Portfolio;
+import ePortfolio.PortfolioServer;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The HttpLoadGenerator class drives the HTTP API with a mixed workload and reports the requests
+ * per second it sustained and the latency of the requests. Each connection runs on its own thread
+ * and sends one request at a time over a kept-alive HTTP/1.1 connection, waiting for the answer
+ * before sending the next, so the rate measured is the rate the server answers at. The mix is
+ * 40% price updates, 30% searches, 15% total gains, 10% buys and 5% sells over a few hundred
+ * symbols that are bought in bulk first, so no sell runs out of units.
+ *
+ * Without a host and port it starts a server on a fresh portfolio in this JVM and measures that.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -cp bin ePortfolio.bench.HttpLoadGenerator [connections] [seconds] [host:port]
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class HttpLoadGenerator
+{
+    // Default connections and seconds measured, the seconds of warm-up before them, and the symbols traded
+    private static final int CONNECTIONS = 64;
+    private static final int SECONDS = 10;
+    private static final int WARMUP_SECONDS = 3;
+    private static final int SYMBOLS = 256;
+
+    // Target rate for the run to count as sustaining the load
+    private static final long TARGET_PER_SECOND = 20_000;
+
+    // Main method to run the load
+    public static void main(String[] args) throws Exception
+    {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : CONNECTIONS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : SECONDS;
+
+        // Use the given server, or start one in this JVM
+        PortfolioServer local = null;
+        String host;
+        int port;
+        if (args.length > 2)
+        {
+            int colon = args[2].lastIndexOf(':');
+            host = args[2].substring(0, colon);
+            port = Integer.parseInt(args[2].substring(colon + 1));
+        }
+        else
+        {
+            // Answer without waiting to fill packets, as the server's own main does
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+            local = new PortfolioServer(new Portfolio(), "127.0.0.1", 0);
+            local.start();
+            host = "127.0.0.1";
+            port = local.getPort();
+            System.out.println("Started a server on port " + port + " using " + (local.usesVirtualThreads() ? "virtual threads" : "a pool of platform threads"));
+        }
+
+        try
+        {
+            // Buy every symbol in bulk so the sells always have units to sell
+            try (Connection seed = new Connection(host, port))
+            {
+                for (int i = 0; i < SYMBOLS; i++)
+                {
+                    seed.post("/buy", "{\"type\":\"" + (i % 2 == 0 ? "stock" : "fund") + "\",\"symbol\":\"SYM" + i + "\",\"name\":\"Company " + i + " Holdings\",\"quantity\":1000000,\"price\":100}");
+                }
+            }
+
+            // Warm up, then measure
+            run(host, port, connections, WARMUP_SECONDS, false);
+            run(host, port, connections, seconds, true);
+        }
+        finally
+        {
+            if (local != null) local.close();
+        }
+    }
+
+    /*
+     * Runs the workload on every connection for a number of seconds and prints the results if asked.
+     */
+    private static void run(String host, int port, int connections, int seconds, boolean report) throws Exception
+    {
+        Client[] clients = new Client[connections];
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int i = 0; i < connections; i++)
+        {
+            clients[i] = new Client(new Connection(host, port), i, start, deadline);
+            clients[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Client client : clients) client.join();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        if (!report) return;
+
+        // Gather the latencies and failures of every connection
+        int total = 0;
+        long failures = 0;
+        for (Client client : clients)
+        {
+            if (client.error != null) throw new IllegalStateException("A connection failed", client.error);
+            total += client.count;
+            failures += client.failures;
+        }
+        long[] latencies = new long[total];
+        int next = 0;
+        for (Client client : clients)
+        {
+            System.arraycopy(client.latencies, 0, latencies, next, client.count);
+            next += client.count;
+        }
+        Arrays.sort(latencies);
+
+        long perSecond = Math.round(total / elapsed);
+        System.out.printf("%d connections for %.1f s: %d requests, %d per second (target %d: %s), %d refused%n",
+            connections, elapsed, total, perSecond, TARGET_PER_SECOND, perSecond >= TARGET_PER_SECOND ? "met" : "missed", failures);
+        System.out.printf("Latency: p50 %.0f us, p90 %.0f us, p99 %.0f us, p99.9 %.0f us, max %.0f us%n",
+            percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99), percentile(latencies, 0.999), latencies[total - 1] / 1e3);
+    }
+
+    /*
+     * Returns a percentile of sorted latencies in microseconds.
+     */
+    private static double percentile(long[] sorted, double fraction)
+    {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1e3;
+    }
+
+    /*
+     * One connection's thread: sends the mixed workload until the deadline and records each latency.
+     */
+    private static final class Client extends Thread
+    {
+        // Connection, workload and timing
+        private final Connection connection;
+        private final SplittableRandom random;
+        private final CountDownLatch start;
+        private final long deadline;
+
+        // Latency of each request in nanoseconds, how many there were and how many were refused
+        long[] latencies = new long[1 << 16];
+        int count;
+        long failures;
+        Exception error;
+
+        Client(Connection connection, int number, CountDownLatch start, long deadline)
+        {
+            super("load-" + number);
+            this.connection = connection;
+            this.random = new SplittableRandom(number);
+            this.start = start;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run()
+        {
+            try (connection)
+            {
+                start.await();
+                long now = System.nanoTime();
+                while (now < deadline)
+                {
+                    int status = request();
+                    long end = System.nanoTime();
+                    if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+                    latencies[count++] = end - now;
+                    if (status != 200) failures++;
+                    now = end;
+                }
+            }
+            catch (Exception e)
+            {
+                error = e;
+            }
+        }
+
+        /*
+         * Sends one request from the mix and returns its status.
+         */
+        private int request() throws IOException
+        {
+            int pick = random.nextInt(100);
+            int symbol = random.nextInt(SYMBOLS);
+            String price = Integer.toString(50 + random.nextInt(100)) + "." + Integer.toString(10 + random.nextInt(90));
+            if (pick < 40) return connection.post("/update", "{\"symbol\":\"SYM" + symbol + "\",\"price\":" + price + "}");
+            if (pick < 70) return connection.get(random.nextBoolean() ? "/search?symbol=SYM" + symbol : "/search?keywords=company+" + symbol + "&min=0");
+            if (pick < 85) return connection.get(random.nextBoolean() ? "/gain" : "/gain?type=stock");
+            if (pick < 95) return connection.post("/buy", "{\"type\":\"" + (symbol % 2 == 0 ? "stock" : "fund") + "\",\"symbol\":\"SYM" + symbol + "\",\"name\":\"Company " + symbol + " Holdings\",\"quantity\":1,\"price\":" + price + "}");
+            return connection.post("/sell", "{\"symbol\":\"SYM" + symbol + "\",\"quantity\":1,\"price\":" + price + ",\"method\":\"" + (random.nextBoolean() ? "fifo" : "average") + "\"}");
+        }
+    }
+
+    /*
+     * A kept-alive HTTP/1.1 connection that sends one request at a time and reads the whole answer.
+     */
+    private static final class Connection implements AutoCloseable
+    {
+        // Socket and its streams
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final String host;
+
+        Connection(String host, int port) throws IOException
+        {
+            this.host = host;
+            this.socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = socket.getOutputStream();
+        }
+
+        int get(String target) throws IOException
+        {
+            out.write(("GET " + target + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            return readResponse();
+        }
+
+        int post(String target, String json) throws IOException
+        {
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            byte[] head = ("POST " + target + " HTTP/1.1\r\nHost: " + host + "\r\nContent-Type: application/json\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+            byte[] request = Arrays.copyOf(head, head.length + body.length);
+            System.arraycopy(body, 0, request, head.length, body.length);
+            out.write(request);
+            return readResponse();
+        }
+
+        /*
+         * Reads the status line and headers, then skips the body by its length, and returns the status.
+         */
+        private int readResponse() throws IOException
+        {
+            String statusLine = readLine();
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            long length = 0;
+            String line;
+            while (!(line = readLine()).isEmpty())
+            {
+                if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) length = Long.parseLong(line.substring(15).trim());
+            }
+            while (length > 0)
+            {
+                long skipped = in.skip(length);
+                if (skipped <= 0)
+                {
+                    if (in.read() < 0) throw new IOException("Connection closed inside an answer.");
+                    skipped = 1;
+                }
+                length -= skipped;
+            }
+            return status;
+        }
+
+        /*
+         * Reads one header line without its line ending.
+         */
+        private String readLine() throws IOException
+        {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n')
+            {
+                if (c < 0) throw new IOException("Connection closed by the server.");
+                if (c != '\r') line.append((char) c);
+            }
+            return line.toString();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            socket.close();
+        }
+    }
+}
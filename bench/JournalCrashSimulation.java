@@ -0,0 +1,295 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import ePortfolio.Investment;
+import ePortfolio.PriceBatch;
+import ePortfolio.TradeJournal;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * The JournalCrashSimulation class checks that journal recovery survives a crash at any point.
+ * It runs a random journaled workload (with checkpoints along the way) and records a digest of
+ * the portfolio after every acknowledged change. It then simulates crashes by copying the journal
+ * directory, cutting the newest segment at random byte offsets (sometimes leaving torn garbage
+ * or a half-written checkpoint behind) and recovering each copy in a fresh JVM. Every recovery
+ * must reproduce exactly the portfolio after the last record that was fully on disk.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -cp bin ePortfolio.bench.JournalCrashSimulation [operations] [crashes]
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class JournalCrashSimulation
+{
+    // Default workload size, crashes simulated and records between checkpoints
+    private static final int OPERATIONS = 3_000;
+    private static final int CRASHES = 40;
+    private static final long CHECKPOINT_INTERVAL = 1_000;
+
+    // Main method to run the simulation, or to recover one crashed copy when started with --recover
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length == 2 && args[0].equals("--recover"))
+        {
+            recover(Path.of(args[1]));
+            return;
+        }
+
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : OPERATIONS;
+        int crashes = args.length > 1 ? Integer.parseInt(args[1]) : CRASHES;
+        Path directory = Files.createTempDirectory("journal");
+        try
+        {
+            simulate(directory, operations, crashes);
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+    /*
+     * Runs the workload, then recovers crashed copies of the journal and compares them with the recorded digests.
+     */
+    private static void simulate(Path directory, int operations, int crashes) throws Exception
+    {
+        // Run the workload, recording the digest after every sequence number
+        Map<Long, Long> digests = new HashMap<>();
+        TradeJournal journal = TradeJournal.open(directory, CHECKPOINT_INTERVAL);
+        digests.put(journal.getSequence(), digest());
+        Random random = new Random(7);
+        for (int i = 0; i < operations; i++)
+        {
+            runOperation(random);
+            digests.put(journal.getSequence(), digest());
+        }
+
+        // Leave the journal as a crash would: every acknowledged record is on disk, nothing is closed
+        Thread.sleep(200);
+        Path segment = newestSegment(directory);
+        long segmentSize = Files.size(segment);
+        long firstSequence = firstSequenceOf(segment);
+        System.out.printf("%d operations, %d records, newest segment starts at %d with %d bytes%n",
+            operations, journal.getSequence(), firstSequence, segmentSize);
+
+        int failures = 0;
+        for (int crash = 0; crash < crashes; crash++)
+        {
+            // Copy the directory and cut the newest segment somewhere, sometimes adding torn garbage or a partial checkpoint
+            Path copy = Files.createTempDirectory("crash");
+            try
+            {
+                copyDirectory(directory, copy);
+                long cut = crash == 0 ? segmentSize : (long) (random.nextDouble() * (segmentSize + 1));
+                Path copied = copy.resolve(segment.getFileName());
+                long records = cut(copied, cut);
+                if (random.nextBoolean()) appendGarbage(copied, random);
+                if (random.nextInt(4) == 0) Files.write(copy.resolve("checkpoint.dat.tmp"), new byte[random.nextInt(100)]);
+
+                // Recover in a fresh JVM and compare with the digest after the last whole record
+                long expectedSequence = firstSequence + records;
+                String expected = expectedSequence + " " + digests.get(expectedSequence);
+                String actual = recoverInNewJvm(copy);
+                boolean ok = expected.equals(actual);
+                if (!ok) failures++;
+                System.out.printf("crash at byte %8d: %6d whole records, expected %s, recovered %s %s%n",
+                    cut, records, expected, actual, ok ? "ok" : "MISMATCH");
+            }
+            finally
+            {
+                delete(copy);
+            }
+        }
+
+        System.out.println(failures == 0 ? "All recoveries matched." : failures + " recoveries did not match.");
+        if (failures > 0) System.exit(1);
+    }
+
+    /*
+     * Runs one random operation: buys, partial and full sells, single and batch price updates.
+     */
+    private static void runOperation(Random random)
+    {
+        int holding = random.nextInt(200);
+        String symbol = "SYM" + holding;
+        int roll = random.nextInt(100);
+        try
+        {
+            if (roll < 40)
+            {
+                Investment.addInvestment(holding % 2 == 0 ? "stock" : "mutual fund", symbol, "Holding " + holding, 1 + random.nextInt(50), 1.0 + random.nextInt(10_000) / 100.0);
+            }
+
+            else if (roll < 65)
+            {
+                Investment.sellInvestment(symbol, 1 + random.nextInt(30), 1.0 + random.nextInt(10_000) / 100.0);
+            }
+
+            else if (roll < 90)
+            {
+                Investment.updatePrices(symbol, "Holding " + holding, 1.0 + random.nextInt(10_000) / 100.0);
+            }
+
+            else
+            {
+                PriceBatch batch = new PriceBatch();
+                for (int i = 0; i < 20; i++)
+                {
+                    batch.add("SYM" + random.nextInt(200), 1.0 + random.nextInt(10_000) / 100.0);
+                }
+                Investment.updatePrices(batch);
+            }
+        }
+        catch (IllegalArgumentException | IllegalStateException e)
+        {
+            // Rejected operations are not journaled
+        }
+    }
+
+    /*
+     * Recovers a journal directory and prints the recovered sequence number and digest.
+     */
+    private static void recover(Path directory) throws IOException
+    {
+        try (TradeJournal journal = TradeJournal.open(directory, 0))
+        {
+            System.out.println(journal.getSequence() + " " + digest());
+        }
+    }
+
+    /*
+     * Runs recovery of a directory in a separate JVM and returns what it printed.
+     */
+    private static String recoverInNewJvm(Path directory) throws Exception
+    {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            JournalCrashSimulation.class.getName(), "--recover", directory.toString())
+            .redirectErrorStream(true).start();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream())))
+        {
+            String line;
+            while ((line = reader.readLine()) != null) output.append(output.length() == 0 ? "" : " | ").append(line);
+        }
+        process.waitFor();
+        return output.toString();
+    }
+
+    /*
+     * Digests every holding of the current portfolio, in order.
+     */
+    private static long digest()
+    {
+        long digest = 17;
+        for (Investment investment : Investment.snapshot())
+        {
+            digest = 31 * digest + investment.getClass().getSimpleName().hashCode();
+            digest = 31 * digest + investment.getSymbol().hashCode();
+            digest = 31 * digest + investment.getQuantity();
+            digest = 31 * digest + Double.doubleToLongBits(investment.getPrice());
+            digest = 31 * digest + Double.doubleToLongBits(investment.getBookValue());
+        }
+        return digest;
+    }
+
+    /*
+     * Truncates a segment at a byte offset and returns how many whole records are left before it.
+     */
+    private static long cut(Path segment, long offset) throws IOException
+    {
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            // Walk the record lengths up to the cut
+            ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            long position = 0;
+            while (position + 8 <= offset)
+            {
+                length.clear();
+                channel.read(length, position);
+                long next = position + 8 + length.getInt(0);
+                if (next > offset) break;
+                position = next;
+                records++;
+            }
+            channel.truncate(offset);
+        }
+        return records;
+    }
+
+    /*
+     * Appends a few random bytes, as a write torn by the crash might leave.
+     */
+    private static void appendGarbage(Path segment, Random random) throws IOException
+    {
+        byte[] garbage = new byte[1 + random.nextInt(64)];
+        random.nextBytes(garbage);
+        Files.write(segment, garbage, StandardOpenOption.APPEND);
+    }
+
+    /*
+     * Returns the journal segment with the highest first sequence number.
+     */
+    private static Path newestSegment(Path directory) throws IOException
+    {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.log"))
+        {
+            for (Path path : stream) segments.add(path);
+        }
+        return segments.stream().max(Comparator.comparingLong(JournalCrashSimulation::firstSequenceOf)).orElseThrow();
+    }
+
+    /*
+     * Reads the first sequence number of a segment from its file name.
+     */
+    private static long firstSequenceOf(Path segment)
+    {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length()));
+    }
+
+    /*
+     * Copies the files of one directory into another.
+     */
+    private static void copyDirectory(Path from, Path to) throws IOException
+    {
+        try (Stream<Path> files = Files.list(from))
+        {
+            for (Path file : (Iterable<Path>) files::iterator) Files.copy(file, to.resolve(file.getFileName()));
+        }
+    }
+
+    /*
+     * Deletes a directory and its files.
+     */
+    private static void delete(Path directory) throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory))
+        {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
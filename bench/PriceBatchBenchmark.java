@@ -0,0 +1,103 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import ePortfolio.Investment;
+import ePortfolio.PriceBatch;
+import java.util.Random;
+
+/**
+ * The PriceBatchBenchmark class measures how fast a large end-of-day tick file is applied to a
+ * portfolio of 1M holdings, comparing one batch update against calling updatePrices once per
+ * tick. The tick stream names every holding about twice, in random order, with a few percent
+ * of symbols that are not held, so both the last-tick-wins collapse and the unknown path are hit.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -Xmx4g -cp bin ePortfolio.bench.PriceBatchBenchmark
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class PriceBatchBenchmark
+{
+    // Holdings in the portfolio, ticks in the file and rounds measured
+    private static final int HOLDINGS = 1_000_000;
+    private static final int TICKS = 2_000_000;
+    private static final int ROUNDS = 5;
+
+    // Main method to run the benchmark
+    public static void main(String[] args)
+    {
+        // Load the portfolio
+        for (int i = 0; i < HOLDINGS; i++)
+        {
+            Investment.addInvestment(i % 2 == 0 ? "stock" : "mutual fund", symbol(i), "Holding " + i, 1_000, 10.0);
+        }
+
+        // Generate the tick file once: symbols (3% unknown) and prices
+        Random random = new Random(42);
+        String[] symbols = new String[TICKS];
+        double[] prices = new double[TICKS];
+        for (int i = 0; i < TICKS; i++)
+        {
+            symbols[i] = symbol(random.nextInt(HOLDINGS + HOLDINGS / 32));
+            prices[i] = 1.0 + random.nextInt(100_000) / 100.0;
+        }
+
+        // Time the batch path: collecting the ticks and applying them
+        System.out.printf("%8s %14s %14s %16s%n", "round", "collect ms", "apply ms", "ticks/sec");
+        for (int round = 1; round <= ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            PriceBatch batch = new PriceBatch();
+            for (int i = 0; i < TICKS; i++)
+            {
+                batch.add(symbols[i], prices[i]);
+            }
+            long collected = System.nanoTime();
+            PriceBatch.Result result = Investment.updatePrices(batch);
+            long applied = System.nanoTime();
+
+            System.out.printf("%8d %14.1f %14.1f %16.0f%n", round,
+                (collected - start) / 1e6, (applied - collected) / 1e6, TICKS * 1e9 / (applied - start));
+            if (round == ROUNDS) System.out.println(result);
+        }
+
+        // Time the same ticks applied one call at a time for comparison
+        long start = System.nanoTime();
+        for (int i = 0; i < TICKS; i++)
+        {
+            try
+            {
+                Investment.updatePrices(symbols[i], nameOf(symbols[i]), prices[i]);
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Unknown symbol
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%nPer-tick updatePrices: %.1f ms, %.0f ticks/sec%n", elapsed / 1e6, TICKS * 1e9 / elapsed);
+
+        // Make sure the batches kept the running totals consistent
+        Investment.verifyTotals();
+    }
+
+    /*
+     * Returns the synthetic symbol for a holding number.
+     */
+    private static String symbol(int holding)
+    {
+        return "SYM" + holding;
+    }
+
+    /*
+     * Returns the synthetic name that goes with a symbol.
+     */
+    private static String nameOf(String symbol)
+    {
+        return "Holding " + symbol.substring(3);
+    }
+}
@@ -0,0 +1,176 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import ePortfolio.Investment;
+import ePortfolio.Money;
+import ePortfolio.Portfolio;
+import ePortfolio.PriceFeed;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The PriceFeedSimulator class stands in for a market-data source. It pushes ticks into a portfolio
+ * through a PriceFeed as fast as the feed takes them for a number of seconds, then reports the ticks
+ * per second published, how many were coalesced, dropped or waited for, and checks that every
+ * holding ended at the last price published for its symbol.
+ *
+ * The simulated feed moves each symbol's price in a small random walk and is bursty: most ticks
+ * go to a few hot symbols, and a symbol often ticks several times in a row, as in a real feed
+ * around news. A replayed feed instead cycles through the ticks of a "symbol,price" file.
+ * With put, the producer waits when the ring is full; with offer, it drops the tick instead.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -cp bin ePortfolio.bench.PriceFeedSimulator [seconds] [symbols] [consumers] [put|offer] [replay.csv]
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class PriceFeedSimulator
+{
+    // Defaults: seconds, symbols, consumer threads and how the producer meets a full ring
+    private static final int SECONDS = 10;
+    private static final int SYMBOLS = 5_000;
+    private static final int CONSUMERS = 1;
+    private static final String MODE = "put";
+
+    // Ring size, the share of ticks going to the hot symbols and how many symbols are hot
+    private static final int CAPACITY = 1 << 16;
+    private static final int HOT_PERCENT = 80;
+    private static final int HOT_SYMBOLS = 50;
+
+    // Target rate for the run to count as keeping up with a live feed
+    private static final long TARGET_PER_SECOND = 1_000_000;
+
+    // Main method to run the simulation
+    public static void main(String[] args) throws IOException
+    {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : SECONDS;
+        int symbolCount = args.length > 1 ? Integer.parseInt(args[1]) : SYMBOLS;
+        int consumers = args.length > 2 ? Integer.parseInt(args[2]) : CONSUMERS;
+        boolean offer = (args.length > 3 ? args[3] : MODE).equals("offer");
+
+        // Load the replayed ticks, or make up the symbols of the simulated feed
+        List<String> replaySymbols = new ArrayList<>();
+        long[] replayPrices = new long[0];
+        if (args.length > 4)
+        {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[4]), StandardCharsets.UTF_8))
+            {
+                List<Long> prices = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    int comma = line.indexOf(',');
+                    if (comma < 0) continue;
+                    replaySymbols.add(line.substring(0, comma).trim());
+                    prices.add(Money.of(Double.parseDouble(line.substring(comma + 1).trim())));
+                }
+                replayPrices = prices.stream().mapToLong(Long::longValue).toArray();
+            }
+            if (replayPrices.length == 0) throw new IllegalArgumentException("The replay file has no ticks.");
+        }
+
+        // Hold every symbol the feed names, then register them with the feed
+        Portfolio portfolio = new Portfolio();
+        PriceFeed feed = new PriceFeed(portfolio, CAPACITY, consumers);
+        int[] replayNumbers = new int[replayPrices.length];
+        int[] numbers;
+        long[] prices;
+        if (replayPrices.length > 0)
+        {
+            for (int i = 0; i < replayNumbers.length; i++)
+            {
+                String symbol = replaySymbols.get(i);
+                if (portfolio.searchInvestments(symbol, "", null, null).isEmpty()) portfolio.addInvestment("stock", symbol, symbol + " Replayed", 100, 10);
+                replayNumbers[i] = feed.symbol(symbol);
+            }
+            symbolCount = portfolio.getInvestments().size();
+            numbers = new int[0];
+            prices = new long[0];
+        }
+        else
+        {
+            numbers = new int[symbolCount];
+            prices = new long[symbolCount];
+            for (int i = 0; i < symbolCount; i++)
+            {
+                portfolio.addInvestment(i % 2 == 0 ? "stock" : "mutual fund", "SIM" + i, "Simulated " + i, 100, 100);
+                numbers[i] = feed.symbol("SIM" + i);
+                prices[i] = Money.of(100);
+            }
+        }
+
+        // Publish until the time is up, remembering the last price published per symbol
+        long[] last = new long[symbolCount];
+        SplittableRandom random = new SplittableRandom(42);
+        long offered = 0;
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        int burstSymbol = 0;
+        int burstLeft = 0;
+        while (true)
+        {
+            // Check the clock every few thousand ticks so the clock does not dominate
+            if ((offered & 4095) == 0 && System.nanoTime() >= deadline) break;
+            int symbol;
+            long price;
+            if (replayPrices.length > 0)
+            {
+                int tick = (int) (offered % replayPrices.length);
+                symbol = replayNumbers[tick];
+                price = replayPrices[tick];
+            }
+            else
+            {
+                // Keep ticking the same symbol through a burst, otherwise pick a hot or a quiet one
+                if (burstLeft == 0)
+                {
+                    burstSymbol = random.nextInt(100) < HOT_PERCENT ? random.nextInt(Math.min(HOT_SYMBOLS, symbolCount)) : random.nextInt(symbolCount);
+                    burstLeft = 1 + random.nextInt(8);
+                }
+                burstLeft--;
+                symbol = burstSymbol;
+
+                // Move the price by up to a cent either way, never below a cent
+                price = Math.max(10_000, prices[symbol] + random.nextInt(-10_000, 10_001));
+                prices[symbol] = price;
+                symbol = numbers[symbol];
+            }
+            offered++;
+            if (offer ? feed.offer(symbol, price) : feed.put(symbol, price)) last[symbol] = price;
+        }
+        long publishNanos = System.nanoTime() - start;
+        feed.close();
+        long totalNanos = System.nanoTime() - start;
+
+        // Report the rates and counts
+        PriceFeed.Stats stats = feed.getStats();
+        long perSecond = Math.round(stats.getPublished() / (publishNanos / 1e9));
+        System.out.printf("%s feed, %d symbols, %d consumer(s), %s: %d ticks offered in %.2f s, %d per second published (target %d: %s)%n",
+            replayPrices.length > 0 ? "Replayed" : "Simulated", symbolCount, consumers, offer ? "offer" : "put",
+            offered, publishNanos / 1e9, perSecond, TARGET_PER_SECOND, perSecond >= TARGET_PER_SECOND ? "met" : "missed");
+        System.out.printf("Coalesced %.1f%% of published ticks into %d batches of %.1f prices on average; drained %.0f ms after the last tick%n",
+            100.0 * stats.getCoalesced() / Math.max(1, stats.getPublished()), stats.getBatches(),
+            (double) stats.getApplied() / Math.max(1, stats.getBatches()), (totalNanos - publishNanos) / 1e6);
+        System.out.println(stats);
+
+        // Every holding must end at the last price published for it
+        int wrong = 0;
+        for (Investment holding : portfolio.getInvestments())
+        {
+            int number = feed.symbol(holding.getSymbol());
+            if (last[number] != 0 && holding.getPriceMicros() != last[number]) wrong++;
+        }
+        if (wrong > 0) throw new IllegalStateException(wrong + " holdings did not end at their last published price.");
+        System.out.println("Every holding ended at its last published price.");
+    }
+}
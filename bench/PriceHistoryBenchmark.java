@@ -0,0 +1,177 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import ePortfolio.Money;
+import ePortfolio.PriceHistory;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntSupplier;
+
+/**
+ * The PriceHistoryBenchmark class records minute bars for thousands of symbols into a PriceHistory,
+ * minute by minute across every symbol as a live feed would, and reports the recording rate, the
+ * bytes per point and what a year of minute bars for 10,000 symbols takes at that size. It then
+ * reopens the history from disk, times range, latest and OHLC queries, and checks the points read
+ * back for a sample of symbols against the bars recorded.
+ *
+ * Each symbol's bars follow a random walk in whole cents whose minute-to-minute moves are about
+ * 0.04% of the price, from first prices around a $40 median, over 390-minute trading days with
+ * nights and weekends between them. The bytes per point follow the size of the moves in cents, so
+ * a universe of higher-priced or busier symbols takes more.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -cp bin ePortfolio.bench.PriceHistoryBenchmark [symbols] [days] [directory]
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class PriceHistoryBenchmark
+{
+    // Defaults: symbols and trading days
+    private static final int SYMBOLS = 10_000;
+    private static final int DAYS = 21;
+
+    // Minute bars per trading day, trading days per year, and the first bar (2024-01-02 14:30 UTC)
+    private static final int BARS_PER_DAY = 390;
+    private static final int DAYS_PER_YEAR = 252;
+    private static final long START = 1_704_205_800_000L;
+    private static final long MINUTE = 60_000L;
+    private static final long DAY = 86_400_000L;
+
+    // Median first price, the spread of first prices (log scale) and the typical minute-to-minute move as a share of the price
+    private static final double MEDIAN_PRICE = 40;
+    private static final double PRICE_SPREAD = 0.7;
+    private static final double VOLATILITY = 0.0004;
+
+    // Symbols whose points are checked, and queries run to warm up and then timed per kind
+    private static final int CHECKED = 20;
+    private static final int QUERIES = 1_000;
+
+    // Main method to run the benchmark
+    public static void main(String[] args) throws IOException
+    {
+        int symbolCount = args.length > 0 ? Integer.parseInt(args[0]) : SYMBOLS;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : DAYS;
+        Path directory = args.length > 2 ? Paths.get(args[2]) : Files.createTempDirectory("price-history");
+        String[] symbols = new String[symbolCount];
+        for (int i = 0; i < symbolCount; i++) symbols[i] = "SYM" + i;
+
+        // Record every symbol's bar for each minute in turn
+        SplittableRandom[] walks = new SplittableRandom[symbolCount];
+        long[] prices = new long[symbolCount];
+        for (int i = 0; i < symbolCount; i++)
+        {
+            walks[i] = new SplittableRandom(i);
+            prices[i] = startPrice(walks[i]);
+        }
+        long points = (long) symbolCount * days * BARS_PER_DAY;
+        long start = System.nanoTime();
+        try (PriceHistory history = PriceHistory.open(directory))
+        {
+            for (int day = 0; day < days; day++)
+            {
+                for (int minute = 0; minute < BARS_PER_DAY; minute++)
+                {
+                    long time = timeOf(day, minute);
+                    for (int i = 0; i < symbolCount; i++)
+                    {
+                        prices[i] = step(walks[i], prices[i]);
+                        history.record(symbols[i], time, prices[i]);
+                    }
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // Report the rate and size, and the size of a year of bars for 10,000 symbols at the same density
+        try (PriceHistory history = PriceHistory.open(directory))
+        {
+            long bytes = history.getBytes();
+            double bytesPerPoint = (double) bytes / points;
+            double yearMegabytes = bytesPerPoint * 10_000L * DAYS_PER_YEAR * BARS_PER_DAY / (1 << 20);
+            System.out.printf("Recorded %,d minute bars (%d symbols, %d days) in %.2f s, %,d per second%n", points, symbolCount, days, seconds, Math.round(points / seconds));
+            System.out.printf("Stored in %,d bytes: %.2f bytes (%.1f bits) per point against 16 raw; a year of minute bars for 10,000 symbols takes %,.0f MB%n",
+                bytes, bytesPerPoint, bytesPerPoint * 8, yearMegabytes);
+
+            // Time each kind of query on random symbols from the reopened history
+            long last = timeOf(days - 1, BARS_PER_DAY - 1) + 1;
+            SplittableRandom random = new SplittableRandom(42);
+            time("range (one day)", () ->
+            {
+                long from = timeOf(random.nextInt(days), 0);
+                return history.range(symbols[random.nextInt(symbolCount)], from, from + BARS_PER_DAY * MINUTE).size();
+            });
+            time("latest 100", () -> history.latest(symbols[random.nextInt(symbolCount)], 100).size());
+            time("hourly OHLC, all days", () -> history.ohlc(symbols[random.nextInt(symbolCount)], START, last, 60 * MINUTE).size());
+            time("30-day OHLC, all days", () -> history.ohlc(symbols[random.nextInt(symbolCount)], START, last, 30 * DAY).size());
+
+            // Every bar of the checked symbols must read back as recorded
+            for (int c = 0; c < Math.min(CHECKED, symbolCount); c++)
+            {
+                int i = (int) ((long) c * symbolCount / Math.min(CHECKED, symbolCount));
+                SplittableRandom walk = new SplittableRandom(i);
+                long price = startPrice(walk);
+                PriceHistory.Points read = history.range(symbols[i], Long.MIN_VALUE, Long.MAX_VALUE);
+                if (read.size() != days * BARS_PER_DAY) throw new IllegalStateException(symbols[i] + " has " + read.size() + " points instead of " + days * BARS_PER_DAY + ".");
+                int n = 0;
+                for (int day = 0; day < days; day++)
+                {
+                    for (int minute = 0; minute < BARS_PER_DAY; minute++, n++)
+                    {
+                        price = step(walk, price);
+                        if (read.getTime(n) != timeOf(day, minute) || read.getPriceMicros(n) != price) throw new IllegalStateException(symbols[i] + " point " + n + " does not match.");
+                    }
+                }
+            }
+            List<PriceHistory.Bar> sample = history.ohlc(symbols[0], START, last, DAY);
+            System.out.println("Every checked point read back as recorded. First day of " + symbols[0] + ": " + sample.get(0));
+        }
+    }
+
+    /*
+     * Runs a kind of query to warm it up, then prints its average time over as many runs again.
+     */
+    private static void time(String kind, IntSupplier query)
+    {
+        for (int q = 0; q < QUERIES; q++) query.getAsInt();
+        long rows = 0;
+        long begin = System.nanoTime();
+        for (int q = 0; q < QUERIES; q++) rows += query.getAsInt();
+        double micros = (System.nanoTime() - begin) / 1e3 / QUERIES;
+        System.out.printf("%-22s %8.1f us per query, %,d rows%n", kind, micros, rows);
+    }
+
+    /*
+     * Returns a symbol's first price in whole cents, spread like a listed equity universe: a median
+     * of $40 and most prices between $10 and $160.
+     */
+    private static long startPrice(SplittableRandom walk)
+    {
+        double dollars = MEDIAN_PRICE * Math.exp(walk.nextGaussian() * PRICE_SPREAD);
+        return Money.of(Math.max(1, Math.round(dollars * 100)) / 100.0);
+    }
+
+    /*
+     * Moves a price one minute along its walk, in whole cents and never below a cent.
+     */
+    private static long step(SplittableRandom walk, long price)
+    {
+        long cents = Math.round(walk.nextGaussian() * VOLATILITY * price / 10_000);
+        return Math.max(10_000, price + cents * 10_000);
+    }
+
+    /*
+     * Returns the time of a minute bar; trading days run Monday to Friday.
+     */
+    private static long timeOf(int day, int minute)
+    {
+        return START + (day / 5 * 7 + day % 5) * DAY + minute * MINUTE;
+    }
+}
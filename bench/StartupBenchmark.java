@@ -0,0 +1,104 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The StartupBenchmark class measures how quickly the headless command line answers from a cold
+ * start. It launches PortfolioCli in a fresh JVM for every run, with a buy against a new portfolio
+ * file, and times from starting the process to reading the first line of the answer. It prints the
+ * fastest, median and slowest runs against the 150 ms target, then runs once more with class
+ * loading logged and fails if any Swing or AWT class was loaded.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -cp bin ePortfolio.bench.StartupBenchmark [runs]
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class StartupBenchmark
+{
+    // Default number of timed runs, the untimed runs before them and the target for the median
+    private static final int RUNS = 20;
+    private static final int WARMUP_RUNS = 3;
+    private static final long TARGET_MILLIS = 150;
+
+    // Main method to run the benchmark
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : RUNS;
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classPath = System.getProperty("java.class.path");
+        Path directory = Files.createTempDirectory("startup");
+        try
+        {
+            // Time the first answer of each run; the first few only warm the file system cache
+            long[] millis = new long[runs];
+            for (int run = -WARMUP_RUNS; run < runs; run++)
+            {
+                Path file = directory.resolve("portfolio-" + (run + WARMUP_RUNS) + ".dat");
+                long elapsed = firstAnswer(List.of(java, "-cp", classPath, "ePortfolio.PortfolioCli", "--file", file.toString(), "buy", "stock", "AAPL", "Apple Inc", "10", "150.25"));
+                if (run >= 0) millis[run] = elapsed;
+            }
+            Arrays.sort(millis);
+            long median = millis[runs / 2];
+            System.out.printf("Cold start to first answer over %d runs: fastest %d ms, median %d ms, slowest %d ms (target %d ms: %s)%n",
+                runs, millis[0], median, millis[runs - 1], TARGET_MILLIS, median <= TARGET_MILLIS ? "met" : "missed");
+
+            // Check that the headless run loads nothing of Swing or AWT
+            Path log = directory.resolve("classes.log");
+            firstAnswer(List.of(java, "-Xlog:class+load:file=" + log, "-cp", classPath, "ePortfolio.PortfolioCli", "gain"));
+            List<String> gui = new ArrayList<>();
+            for (String line : Files.readAllLines(log))
+            {
+                if (line.contains(" javax.swing.") || line.contains(" java.awt.") || line.contains(" sun.awt.")) gui.add(line);
+            }
+            System.out.printf("Classes loaded: %d, of which Swing or AWT: %d%n", Files.readAllLines(log).size(), gui.size());
+            if (!gui.isEmpty()) throw new IllegalStateException("The headless run loaded GUI classes, first " + gui.get(0));
+        }
+        finally
+        {
+            try (var files = Files.list(directory))
+            {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /*
+     * Starts a process and returns the milliseconds until its first line of output, after letting it finish.
+     */
+    private static long firstAnswer(List<String> command) throws IOException, InterruptedException
+    {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        long elapsed;
+        try (InputStream output = process.getInputStream())
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(output, StandardCharsets.UTF_8));
+            String answer = reader.readLine();
+            elapsed = (System.nanoTime() - start) / 1_000_000;
+            if (answer == null || !answer.contains("\"ok\":true")) throw new IllegalStateException("Unexpected answer: " + answer);
+            while (reader.readLine() != null)
+            {
+                // Drain the rest so the process can exit
+            }
+        }
+        process.waitFor();
+        return elapsed;
+    }
+}
@@ -0,0 +1,96 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import ePortfolio.Investment;
+import java.util.Random;
+
+/**
+ * The SymbolIndexBenchmark class measures the per-operation latency of the symbol lookup paths
+ * (adding to an existing symbol, partial sells and price updates) as the portfolio grows from
+ * 1k to 1M holdings. With the symbol index in place the latency should stay flat across sizes.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -cp bin ePortfolio.bench.SymbolIndexBenchmark
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class SymbolIndexBenchmark
+{
+    // Portfolio sizes to measure at and operations timed per size
+    private static final int[] SIZES = {1_000, 10_000, 100_000, 1_000_000};
+    private static final int OPERATIONS = 50_000;
+
+    // Main method to run the benchmark
+    public static void main(String[] args)
+    {
+        Random random = new Random(42);
+        int holdings = 0;
+
+        System.out.printf("%10s %14s %14s %14s%n", "holdings", "add ns/op", "sell ns/op", "update ns/op");
+
+        for (int size : SIZES)
+        {
+            // Grow the portfolio to the next size
+            while (holdings < size)
+            {
+                Investment.addInvestment(holdings % 2 == 0 ? "stock" : "mutual fund", symbol(holdings), "Holding " + holdings, 1_000_000, 10.0);
+                holdings++;
+            }
+
+            // Warm up, then time each operation on random existing symbols
+            runOperations(random, holdings);
+            long[] timings = runOperations(random, holdings);
+
+            // Print the average latency of each operation
+            System.out.printf("%10d %14.1f %14.1f %14.1f%n", holdings,
+                (double) timings[0] / OPERATIONS, (double) timings[1] / OPERATIONS, (double) timings[2] / OPERATIONS);
+        }
+    }
+
+    /*
+     * Runs one round of adds, partial sells and price updates, returning the nanoseconds spent in each.
+     */
+    private static long[] runOperations(Random random, int holdings)
+    {
+        long[] timings = new long[3];
+
+        // Add to existing symbols
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++)
+        {
+            Investment.addInvestment("stock", symbol(random.nextInt(holdings)), "ignored", 1, 10.0);
+        }
+        timings[0] = System.nanoTime() - start;
+
+        // Sell part of existing symbols
+        start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++)
+        {
+            Investment.sellInvestment(symbol(random.nextInt(holdings)), 1, 11.0);
+        }
+        timings[1] = System.nanoTime() - start;
+
+        // Update the price of existing symbols
+        start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++)
+        {
+            int index = random.nextInt(holdings);
+            Investment.updatePrices(symbol(index), "Holding " + index, 10.0 + random.nextInt(100));
+        }
+        timings[2] = System.nanoTime() - start;
+
+        return timings;
+    }
+
+    /*
+     * Returns the synthetic symbol for a holding number.
+     */
+    private static String symbol(int holding)
+    {
+        return "SYM" + holding;
+    }
+}
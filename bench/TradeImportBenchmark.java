@@ -0,0 +1,130 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import ePortfolio.Investment;
+import ePortfolio.TradeImporter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * The TradeImportBenchmark class measures the streaming trade importer. It writes a seeded
+ * synthetic trade history (buys and sells spread over a fixed set of symbols, with a small share
+ * of malformed rows and oversized sells that must land in the reject file), imports it with
+ * progress reports, and prints the throughput and the peak heap used. The peak should stay about
+ * the same from a million rows to fifty million; run it with a small heap to check.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -Xmx256m -cp bin ePortfolio.bench.TradeImportBenchmark [rows] [trade file]
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class TradeImportBenchmark
+{
+    // Default number of rows, distinct symbols, and the seed of the generated file
+    private static final long ROWS = 5_000_000;
+    private static final int SYMBOLS = 10_000;
+    private static final long SEED = 42;
+
+    // Main method to run the benchmark
+    public static void main(String[] args) throws IOException
+    {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : ROWS;
+        Path source = args.length > 1 ? Path.of(args[1]) : Files.createTempFile("trades", ".csv");
+        Path rejects = Files.createTempFile("rejects", ".csv");
+        try
+        {
+            // Write the trade history unless the given file already exists with content
+            if (args.length < 2 || !Files.exists(source) || Files.size(source) == 0)
+            {
+                long start = System.nanoTime();
+                generate(source, rows);
+                System.out.printf("Wrote %,d rows (%,d MB) in %.1f s%n", rows, Files.size(source) >> 20, (System.nanoTime() - start) / 1e9);
+            }
+
+            // Import it, reporting every tenth of the file
+            resetPeakHeap();
+            TradeImporter importer = new TradeImporter();
+            long[] nextReport = {0};
+            importer.setProgress((bytesRead, totalBytes, read, rejected) ->
+            {
+                if (bytesRead >= nextReport[0])
+                {
+                    System.out.printf("  %3d%%  %,14d rows  %,10d rejected%n", bytesRead * 100 / Math.max(totalBytes, 1), read, rejected);
+                    nextReport[0] += Math.max(totalBytes / 10, 1);
+                }
+            });
+            TradeImporter.Result result = importer.importTrades(source, rejects);
+
+            double seconds = result.getMillis() / 1e3;
+            System.out.println(result);
+            System.out.printf("Imported in %.1f s: %,.0f rows/s, %.0f MB/s; %,d holdings; %,d reject file bytes; peak heap %,d MB%n",
+                seconds, result.getRows() / seconds, result.getBytes() / 1e6 / seconds,
+                Investment.snapshot().size(), Files.size(rejects), peakHeap() >> 20);
+        }
+        finally
+        {
+            Files.deleteIfExists(rejects);
+            if (args.length < 2) Files.deleteIfExists(source);
+        }
+    }
+
+    /*
+     * Writes a deterministic trade history: mostly buys, a quarter sells (some larger than the
+     * holding) and one row in a hundred malformed.
+     */
+    private static void generate(Path path, long rows) throws IOException
+    {
+        Random random = new Random(SEED);
+        try (BufferedWriter writer = Files.newBufferedWriter(path))
+        {
+            writer.write("type,symbol,name,quantity,price,side\n");
+            for (long row = 0; row < rows; row++)
+            {
+                int holding = random.nextInt(SYMBOLS);
+                int roll = random.nextInt(100);
+                String type = holding % 2 == 0 ? "stock" : "mutual fund";
+                int quantity = 1 + random.nextInt(roll < 75 ? 100 : 60);
+                String price = (1 + random.nextInt(100_000)) / 100 + "." + random.nextInt(10) + random.nextInt(10);
+
+                if (roll == 99) writer.write(type + ",SYM" + holding + ",Holding " + holding + ",many," + price + ",buy\n");
+                else if (roll < 75) writer.write(type + ",SYM" + holding + ",Holding " + holding + "," + quantity + "," + price + ",buy\n");
+                else writer.write(type + ",SYM" + holding + ",Holding " + holding + "," + quantity + "," + price + ",sell\n");
+            }
+        }
+    }
+
+    /*
+     * Resets the peak usage of every heap pool.
+     */
+    private static void resetPeakHeap()
+    {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    /*
+     * Returns the sum of the peak usage of every heap pool since the last reset.
+     */
+    private static long peakHeap()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+}
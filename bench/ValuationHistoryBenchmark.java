@@ -0,0 +1,144 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import ePortfolio.ValuationHistory;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * The ValuationHistoryBenchmark class records ten years of valuation ticks, one a minute through
+ * every trading day, into a ValuationHistory file, and reports the recording rate, the file size
+ * and how long reopening it takes. It then times time-weighted and money-weighted return queries
+ * over random windows, from a few minutes to the whole ten years, against a 10-microsecond
+ * target, and checks a sample of them against returns worked out by scanning every tick.
+ *
+ * The simulated portfolio's value moves in a random walk, and money is paid in or taken out on
+ * about one tick in a hundred.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -cp bin ePortfolio.bench.ValuationHistoryBenchmark [years] [queries]
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class ValuationHistoryBenchmark
+{
+    // Defaults: years of ticks and window queries timed
+    private static final int YEARS = 10;
+    private static final int QUERIES = 1_000_000;
+
+    // Ticks per trading day, trading days per year, and the first tick (2015-01-02 14:30 UTC)
+    private static final int TICKS_PER_DAY = 390;
+    private static final int DAYS_PER_YEAR = 252;
+    private static final long START = 1_420_209_000_000L;
+    private static final long MINUTE = 60_000L;
+    private static final long DAY = 86_400_000L;
+
+    // Windows checked against a full scan, and the target time per query
+    private static final int CHECKED = 200;
+    private static final double TARGET_MICROS = 10;
+
+    // Main method to run the benchmark
+    public static void main(String[] args) throws IOException
+    {
+        int years = args.length > 0 ? Integer.parseInt(args[0]) : YEARS;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : QUERIES;
+        int count = years * DAYS_PER_YEAR * TICKS_PER_DAY;
+        Path file = Files.createTempFile("valuations", ".dat");
+        Files.delete(file);
+
+        // Simulate the ticks, keeping them for the checks
+        long[] times = new long[count];
+        long[] values = new long[count];
+        long[] flows = new long[count];
+        SplittableRandom random = new SplittableRandom(42);
+        long value = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int day = i / TICKS_PER_DAY;
+            times[i] = START + (day / 5 * 7 + day % 5) * DAY + i % TICKS_PER_DAY * MINUTE;
+            long flow = i == 0 ? 1_000_000_000_000L : random.nextInt(100) == 0 ? random.nextLong(-value / 10, value / 10 + 1) : 0;
+            value = Math.max(0, Math.round(value * (1 + random.nextGaussian() * 0.0005)) + flow);
+            values[i] = value;
+            flows[i] = flow;
+        }
+
+        // Record them into the file
+        long begin = System.nanoTime();
+        try (ValuationHistory history = ValuationHistory.open(file))
+        {
+            for (int i = 0; i < count; i++) history.record(times[i], values[i], values[i] / 2, flows[i]);
+        }
+        double recordSeconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("Recorded %,d ticks (%d years of minutes) in %.2f s, %,d per second; file is %,d bytes%n",
+            count, years, recordSeconds, Math.round(count / recordSeconds), Files.size(file));
+
+        begin = System.nanoTime();
+        try (ValuationHistory history = ValuationHistory.open(file))
+        {
+            System.out.printf("Reopened and rebuilt the running sums in %.1f ms%n", (System.nanoTime() - begin) / 1e6);
+
+            // Time window queries of every length, after as many again to warm up
+            double sink = 0;
+            for (int pass = 0; pass < 2; pass++)
+            {
+                SplittableRandom windows = new SplittableRandom(7);
+                begin = System.nanoTime();
+                for (int q = 0; q < queries; q++)
+                {
+                    long from = times[windows.nextInt(count)];
+                    long to = from + (long) (Math.pow(windows.nextDouble(), 4) * (times[count - 1] - from));
+                    ValuationHistory.Window window = history.window(from, to);
+                    sink += window.getTimeWeightedReturn() + window.getMoneyWeightedReturn();
+                }
+            }
+            double micros = (System.nanoTime() - begin) / 1e3 / queries;
+            System.out.printf("Window query: %.3f us on average over %,d windows (target %.0f us: %s), return checksum %.4f%n",
+                micros, queries, TARGET_MICROS, micros <= TARGET_MICROS ? "met" : "missed", sink);
+
+            // Check a sample of windows against a scan of their ticks
+            SplittableRandom windows = new SplittableRandom(11);
+            for (int c = 0; c < CHECKED; c++)
+            {
+                int start = windows.nextInt(count);
+                int end = start + windows.nextInt(count - start);
+                ValuationHistory.Window window = history.window(times[start], times[end]);
+                while (start + 1 < count && times[start + 1] == times[start]) start++;
+                check(window, times, values, flows, start, end);
+            }
+            System.out.println("Every checked window matched a scan of its ticks. Whole history: " + history.window(times[0], times[count - 1]));
+        }
+        Files.delete(file);
+    }
+
+    /*
+     * Works out a window's returns by scanning its ticks and compares them with the query's.
+     */
+    private static void check(ValuationHistory.Window window, long[] times, long[] values, long[] flows, int start, int end)
+    {
+        double growth = 1;
+        long netFlow = 0;
+        double weighted = 0;
+        for (int i = start + 1; i <= end; i++)
+        {
+            double invested = values[i - 1] + flows[i] / 2.0;
+            growth *= invested > 0 ? 1 + (values[i] - values[i - 1] - flows[i]) / invested : 1;
+            netFlow += flows[i];
+            double flowTime = times[i - 1] + (times[i] - times[i - 1]) / 2.0;
+            if (times[end] > times[start]) weighted += flows[i] * (times[end] - flowTime) / (times[end] - times[start]);
+        }
+        double timeWeighted = growth - 1;
+        double moneyWeighted = start == end ? 0 : (values[end] - values[start] - netFlow) / (values[start] + weighted);
+        if (window.getNetFlowMicros() != netFlow
+            || Math.abs(window.getTimeWeightedReturn() - timeWeighted) > 1e-9 * Math.max(1, Math.abs(timeWeighted))
+            || Math.abs(window.getMoneyWeightedReturn() - moneyWeighted) > 1e-9 * Math.max(1, Math.abs(moneyWeighted)))
+        {
+            throw new IllegalStateException("Window " + window + " does not match the scan: time-weighted " + timeWeighted + ", money-weighted " + moneyWeighted + ".");
+        }
+    }
+}
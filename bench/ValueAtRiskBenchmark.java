@@ -0,0 +1,137 @@
+// Package
+package ePortfolio.bench;
+
+// Libraries
+import ePortfolio.Investment;
+import ePortfolio.ValueAtRisk;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The ValueAtRiskBenchmark class builds a portfolio of stocks and mutual funds with a covariance
+ * model of their ten-day log returns, then simulates the same scenarios with a ValueAtRisk engine
+ * on fork-join pools of one thread, two, four and so on up to the available processors, or to the
+ * number of threads given. It reports the scenarios per second and the speedup over one thread at
+ * each size, and checks that every pool size gives exactly the same value at risk and expected
+ * shortfall for the seed.
+ *
+ * The covariance comes from a factor model: each symbol's returns load on a market factor and on
+ * one of a few sector factors, plus returns of its own, with yearly volatilities between about 15%
+ * and 45%.
+ *
+ * Compile Command: javac -d bin ePortfolio/*.java ePortfolio/bench/*.java
+ * Run Command: java -cp bin ePortfolio.bench.ValueAtRiskBenchmark [holdings] [scenarios] [threads]
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public class ValueAtRiskBenchmark
+{
+    // Defaults: holdings and scenarios
+    private static final int HOLDINGS = 100;
+    private static final int SCENARIOS = 1_000_000;
+
+    // Share of holdings that are mutual funds, sectors, and the horizon in trading days out of a year's
+    private static final int FUND_EVERY = 5;
+    private static final int SECTORS = 8;
+    private static final double HORIZON = 10 / 252.0;
+
+    // Yearly volatility of the market and sector factors, and the range of each symbol's own
+    private static final double MARKET_VOLATILITY = 0.15;
+    private static final double SECTOR_VOLATILITY = 0.10;
+    private static final double MIN_OWN_VOLATILITY = 0.05;
+    private static final double MAX_OWN_VOLATILITY = 0.35;
+
+    // Seed the scenarios are simulated from
+    private static final long SEED = 2024;
+
+    // Main method to run the benchmark
+    public static void main(String[] args)
+    {
+        int holdingCount = args.length > 0 ? Integer.parseInt(args[0]) : HOLDINGS;
+        int scenarios = args.length > 1 ? Integer.parseInt(args[1]) : SCENARIOS;
+
+        // Build the holdings and each symbol's loadings
+        SplittableRandom random = new SplittableRandom(42);
+        List<Investment> holdings = new ArrayList<>();
+        String[] symbols = new String[holdingCount];
+        double[] market = new double[holdingCount];
+        double[] sector = new double[holdingCount];
+        int[] sectors = new int[holdingCount];
+        double[] own = new double[holdingCount];
+        for (int i = 0; i < holdingCount; i++)
+        {
+            symbols[i] = "SYM" + i;
+            double price = Math.round(40 * Math.exp(random.nextGaussian() * 0.7) * 100) / 100.0 + 0.01;
+            int quantity = 10 + random.nextInt(990);
+            holdings.add(i % FUND_EVERY == 0
+                ? new Investment.MutualFund(symbols[i], "Fund " + i, quantity, price)
+                : new Investment.Stock(symbols[i], "Company " + i, quantity, price));
+            market[i] = 0.6 + random.nextDouble() * 0.8;
+            sector[i] = 0.5 + random.nextDouble();
+            sectors[i] = random.nextInt(SECTORS);
+            own[i] = MIN_OWN_VOLATILITY + random.nextDouble() * (MAX_OWN_VOLATILITY - MIN_OWN_VOLATILITY);
+        }
+
+        // Covariance of the ten-day log returns under the factor model
+        double[][] covariance = new double[holdingCount][holdingCount];
+        for (int i = 0; i < holdingCount; i++)
+        {
+            for (int j = 0; j < holdingCount; j++)
+            {
+                double yearly = market[i] * market[j] * MARKET_VOLATILITY * MARKET_VOLATILITY;
+                if (sectors[i] == sectors[j]) yearly += sector[i] * sector[j] * SECTOR_VOLATILITY * SECTOR_VOLATILITY;
+                if (i == j) yearly += own[i] * own[i];
+                covariance[i][j] = yearly * HORIZON;
+            }
+        }
+
+        long begin = System.nanoTime();
+        ValueAtRisk engine = new ValueAtRisk(holdings, symbols, covariance);
+        System.out.printf("%d holdings worth %.2f, model factored in %.1f ms; %,d scenarios over ten days%n",
+            holdingCount, engine.getMarketValueMicros() / 1e6, (System.nanoTime() - begin) / 1e6, scenarios);
+
+        // Warm up, then simulate the same scenarios on pools of doubling size, up to the processors or the threads given
+        engine.simulate(Math.min(scenarios, 100_000), SEED, new ForkJoinPool(1));
+        ValueAtRisk.Result first = null;
+        double oneThread = 0;
+        int processors = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, processors))
+        {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            begin = System.nanoTime();
+            ValueAtRisk.Result result = engine.simulate(scenarios, SEED, pool);
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            pool.shutdown();
+            if (first == null)
+            {
+                first = result;
+                oneThread = seconds;
+            }
+            else if (!same(first, result))
+            {
+                throw new IllegalStateException(threads + " threads gave " + result + " where one gave " + first + ".");
+            }
+            System.out.printf("%2d threads: %.2f s, %,d scenarios per second, %.2fx one thread%n",
+                threads, seconds, Math.round(scenarios / seconds), oneThread / seconds);
+            if (threads == processors) break;
+        }
+        System.out.println("Every pool size gave the same result: " + first);
+    }
+
+    /*
+     * Returns whether two results agree exactly at the usual confidences.
+     */
+    private static boolean same(ValueAtRisk.Result a, ValueAtRisk.Result b)
+    {
+        return a.getValueAtRiskMicros(0.95) == b.getValueAtRiskMicros(0.95)
+            && a.getValueAtRiskMicros(0.99) == b.getValueAtRiskMicros(0.99)
+            && a.getExpectedShortfallMicros(0.975) == b.getExpectedShortfallMicros(0.975)
+            && a.getMeanLossMicros() == b.getMeanLossMicros()
+            && a.getWorstLossMicros() == b.getWorstLossMicros();
+    }
+}
@@ -4,6 +4,11 @@ package ePortfolio;
 // Libraries
 import javax.swing.*;
 import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 /**
  * The ePortfolio class manages the investment portfolio of a user.
@@ -14,7 +19,11 @@ import java.awt.*;
  * 
  * Complime and Run Instructions:
  * Compile Command: javac -d bin ePortfolio/*.java
- * Run Command: java -cp bin ePortfolio.ePortfolio
+ * Run Command: java -cp bin ePortfolio.ePortfolio [portfolio file | --journal directory]
+ * When a portfolio file is given, it is loaded at startup (if it exists) and saved on exit. If it
+ * exists but cannot be loaded, it is left untouched and the portfolio is saved next to it instead.
+ * With --journal, the portfolio is recovered from the journal directory at startup and every
+ * change is made durable as it happens.
  * Clean Command: rm -r bin/*
  * 
  * @author Markus Gavra
@@ -24,6 +33,9 @@ import java.awt.*;
 
 public class ePortfolio extends JFrame
 {
+    // Journal records between automatic checkpoints
+    private static final long JOURNAL_CHECKPOINT_INTERVAL = 100_000;
+
     // GUI Panels for different operations
     private JPanel introPanel;
     private JPanel buyInvestmentPanel;
@@ -32,9 +44,42 @@ public class ePortfolio extends JFrame
     private JPanel totalGainPanel;
     private JPanel searchingInvestmentPanel;
 
+    // File the portfolio is saved to on exit, or null to keep it in memory only
+    private final Path portfolioFile;
+
+    // Whether the portfolio file exists but could not be loaded, so saving over it would lose it
+    private boolean loadFailed;
+
+    // Journal recording every change, or null when the portfolio is not journaled
+    private final TradeJournal journal;
+
     // Default constructor
     public ePortfolio()
     {
+        this(null, null);
+    }
+
+    // Constructor loading the portfolio from a file and saving it back on exit, or using a recovered journal
+    public ePortfolio(Path portfolioFile, TradeJournal journal)
+    {
+        // Remember the portfolio file and load it if it already exists
+        this.portfolioFile = portfolioFile;
+        this.journal = journal;
+        if (portfolioFile != null && Files.exists(portfolioFile))
+        {
+            try (PortfolioFile saved = PortfolioFile.open(portfolioFile))
+            {
+                Investment.loadPortfolio(saved);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                // Start with an empty portfolio if the file cannot be read, and never save over it
+                loadFailed = true;
+                JOptionPane.showMessageDialog(null, "Could not load " + portfolioFile + ": " + e.getMessage()
+                    + "\nThe file will be left as it is; this session's portfolio will be saved next to it on exit.", "ePortfolio", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
         // Set the title of the frame
         setTitle("ePortfolio");
         
@@ -68,6 +113,7 @@ public class ePortfolio extends JFrame
         JMenuItem updateInvestmentItem = new JMenuItem("Update Investment");
         JMenuItem totalGainItem = new JMenuItem("Get Total Gain");
         JMenuItem searchInvestmentsItem = new JMenuItem("Search Investments");
+        JMenuItem importTradesItem = new JMenuItem("Import Trades");
         JMenuItem exitItem = new JMenuItem("Exit");
 
         // Add menu items to the menu
@@ -76,6 +122,7 @@ public class ePortfolio extends JFrame
         optionsMenu.add(updateInvestmentItem);
         optionsMenu.add(totalGainItem);
         optionsMenu.add(searchInvestmentsItem);
+        optionsMenu.add(importTradesItem);
         optionsMenu.add(exitItem);
         menuBar.add(optionsMenu);
         setJMenuBar(menuBar);
@@ -100,25 +147,17 @@ public class ePortfolio extends JFrame
             }
         });
         
-        // Menu item action to switch to the Total Gain Panel so that it can recalculate the total gain to be up-to-date
-        totalGainItem.addActionListener(e -> 
-        {
-            // Switch to the TotalGainPanel
-            switchPanel(totalGainPanel);
-
-            // Explicitly refresh the Total Gain Panel
-            if (totalGainPanel instanceof TotalGainPanel) 
-            {
-                // Call the displayTotalGain method to recalculate the total gain
-                ((TotalGainPanel) totalGainPanel).displayTotalGain();
-            }
-        });
+        // Menu item action to switch to the Total Gain Panel, which follows the portfolio's changes and is always up-to-date
+        totalGainItem.addActionListener(e -> switchPanel(totalGainPanel));
 
         // Menu item action to switch to the Searching Investment Panel
         searchInvestmentsItem.addActionListener(e -> switchPanel(searchingInvestmentPanel));
 
-        // Menu item action to exit the program
-        exitItem.addActionListener(e -> System.exit(0));
+        // Menu item action to import a trade history file
+        importTradesItem.addActionListener(e -> importTrades());
+
+        // Menu item action to save the portfolio and exit the program
+        exitItem.addActionListener(e -> exit());
 
         // Set the frame to be visible
         setVisible(true);
@@ -138,10 +177,142 @@ public class ePortfolio extends JFrame
         repaint();
     }
 
+    // Method to import a chosen trade history file in the background, writing rejected rows next to it
+    private void importTrades()
+    {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        Path source = chooser.getSelectedFile().toPath();
+        Path rejects = source.resolveSibling(source.getFileName() + ".rejects.csv");
+
+        // Show the import's progress and counts in a dialog whose Cancel button stops it after the block of rows in progress
+        TradeImporter importer = new TradeImporter();
+        JDialog dialog = new JDialog(this, "Importing " + source.getFileName(), false);
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        JLabel statusLabel = new JLabel("Starting the import...");
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> 
+        {
+            importer.cancel();
+            cancelButton.setEnabled(false);
+            statusLabel.setText("Cancelling after the rows in progress...");
+        });
+        JPanel contentPanel = new JPanel(new BorderLayout(10, 10));
+        contentPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        contentPanel.add(statusLabel, BorderLayout.NORTH);
+        contentPanel.add(progressBar, BorderLayout.CENTER);
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(cancelButton);
+        contentPanel.add(buttonPanel, BorderLayout.SOUTH);
+        dialog.setContentPane(contentPanel);
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        dialog.setSize(420, 150);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+
+        // Run the import on the portfolio service threads so the window stays responsive, publishing the counts after every block
+        PortfolioService.execute(new PortfolioWorker<TradeImporter.Result, long[]>() 
+        {
+            @Override
+            protected TradeImporter.Result doInBackground() throws IOException 
+            {
+                importer.setProgress((bytesRead, totalBytes, rows, rejected) -> 
+                {
+                    setProgress(totalBytes == 0 ? 100 : (int) (bytesRead * 100 / totalBytes));
+                    publish(new long[] {rows, rejected});
+                });
+                return importer.importTrades(source, rejects);
+            }
+
+            @Override
+            protected void partial(List<long[]> chunks) 
+            {
+                // Every row processed so far was either accepted or rejected
+                long[] latest = chunks.get(chunks.size() - 1);
+                statusLabel.setText(String.format("Rows: %,d, Accepted: %,d, Rejected: %,d", latest[0], latest[0] - latest[1], latest[1]));
+            }
+
+            @Override
+            protected void succeeded(TradeImporter.Result result) 
+            {
+                dialog.dispose();
+                String message = (result.isCancelled() ? "Import cancelled; the trades before it stopped were kept. " : "Import finished. ") + result
+                    + (result.getRejected() > 0 ? "\nRejected rows were written to " + rejects : "");
+                JOptionPane.showMessageDialog(ePortfolio.this, message, "ePortfolio", JOptionPane.INFORMATION_MESSAGE);
+            }
+
+            @Override
+            protected void failed(Throwable error) 
+            {
+                dialog.dispose();
+                JOptionPane.showMessageDialog(ePortfolio.this, "Could not import " + source + ": " + error.getMessage(), "ePortfolio", JOptionPane.ERROR_MESSAGE);
+            }
+        }.track(progressBar, cancelButton));
+    }
+
+    // Method to save the portfolio, if a file was given, close the journal, if any, and exit
+    private void exit()
+    {
+        try
+        {
+            if (portfolioFile != null && loadFailed)
+            {
+                // Keep the file that failed to load and save to a new file beside it, telling the user where
+                Path sideFile = sideFile(portfolioFile);
+                PortfolioFile.save(sideFile);
+                JOptionPane.showMessageDialog(this, portfolioFile + " could not be loaded, so it was left as it is.\nThis session's portfolio was saved to " + sideFile + ".",
+                    "ePortfolio", JOptionPane.WARNING_MESSAGE);
+            }
+            else if (portfolioFile != null) PortfolioFile.save(portfolioFile);
+            if (journal != null) journal.close();
+        }
+        catch (IOException e)
+        {
+            // A journal that has stopped can never be closed cleanly; what it holds is what recovery will restore
+            if (journal != null && journal.getFailure() != null)
+            {
+                JOptionPane.showMessageDialog(this, "The journal stopped writing to disk (" + journal.getFailure() + "). Trades in progress at that moment were not saved, and none have been accepted since.", "ePortfolio", JOptionPane.ERROR_MESSAGE);
+                System.exit(1);
+            }
+
+            // Otherwise stay open so the user does not lose the portfolio
+            JOptionPane.showMessageDialog(this, "Could not save the portfolio: " + e.getMessage(), "ePortfolio", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        System.exit(0);
+    }
+
+    // Method to find a file name beside the portfolio file that is not taken yet
+    private static Path sideFile(Path portfolioFile)
+    {
+        Path sideFile = portfolioFile.resolveSibling(portfolioFile.getFileName() + ".new");
+        for (int i = 2; Files.exists(sideFile); i++)
+        {
+            sideFile = portfolioFile.resolveSibling(portfolioFile.getFileName() + ".new" + i);
+        }
+        return sideFile;
+    }
+
     // Main method to run the program
     public static void main(String[] args)
     {
-        // Create a new ePortfolio object
-        new ePortfolio();
+        // Recover the portfolio from a journal directory if one was given
+        if (args.length == 2 && args[0].equals("--journal"))
+        {
+            try
+            {
+                new ePortfolio(null, TradeJournal.open(Paths.get(args[1]), JOURNAL_CHECKPOINT_INTERVAL));
+            }
+            catch (IOException | RuntimeException e)
+            {
+                System.err.println("Could not recover the journal in " + args[1] + ": " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        // Otherwise create a new ePortfolio object, using the portfolio file if one was given
+        new ePortfolio(args.length > 0 ? Paths.get(args[0]) : null, null);
     }
 }
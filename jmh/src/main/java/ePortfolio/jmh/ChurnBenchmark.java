@@ -0,0 +1,130 @@
+// Package
+package ePortfolio.jmh;
+
+// Libraries
+import ePortfolio.Investment;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The ChurnBenchmark class measures the trades that change the number of holdings: buying a
+ * symbol the portfolio does not hold and selling every unit of a holding. Each iteration makes
+ * exactly BATCH such trades and is timed as a whole (divide the score by BATCH for one trade);
+ * the holdings they add or remove are put back outside the timed part, so every iteration starts
+ * from the same portfolio size.
+ *
+ * Build Command: mvn install && mvn -f jmh/pom.xml package
+ * Run Command: java -jar jmh/target/benchmarks.jar ChurnBenchmark
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = ChurnBenchmark.BATCH)
+@Measurement(iterations = 10, batchSize = ChurnBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ChurnBenchmark
+{
+    /**
+     * Trades made per iteration.
+     */
+    public static final int BATCH = 10_000;
+
+    /**
+     * Hands out symbols the generated portfolio does not use, and takes the ones added by an
+     * iteration back out afterwards.
+     */
+    @State(Scope.Thread)
+    public static class NewSymbols
+    {
+        private int next;
+        private int iterationStart;
+
+        // Returns a symbol that is not in the portfolio
+        String next()
+        {
+            return "NEW" + next++;
+        }
+
+        @Setup(Level.Iteration)
+        public void startIteration()
+        {
+            iterationStart = next;
+        }
+
+        @TearDown(Level.Iteration)
+        public void removeAdded()
+        {
+            for (int i = iterationStart; i < next; i++)
+            {
+                Investment.sellInvestment("NEW" + i, 10, 1.0);
+            }
+        }
+    }
+
+    /**
+     * Adds BATCH single-unit holdings before each iteration for it to sell out.
+     */
+    @State(Scope.Thread)
+    public static class SoldOutSymbols
+    {
+        private int next;
+        private int end;
+
+        @Setup(Level.Iteration)
+        public void addHoldings()
+        {
+            for (int i = 0; i < BATCH; i++)
+            {
+                Investment.addInvestment(i % 2 == 0 ? "stock" : "mutual fund", "OUT" + (end + i), "Sold Out Holding", 10, 1.0);
+            }
+            end += BATCH;
+        }
+
+        // Returns the next holding to sell every unit of
+        String next()
+        {
+            return "OUT" + next++;
+        }
+    }
+
+    /**
+     * Buys a symbol the portfolio does not hold yet, creating a new holding.
+     *
+     * @param state   The loaded portfolio.
+     * @param symbols The source of new symbols.
+     * @return The result message.
+     */
+    @Benchmark
+    public String addNewSymbol(PortfolioState state, NewSymbols symbols)
+    {
+        return Investment.addInvestment("stock", symbols.next(), "New Holding", 10, 1.0);
+    }
+
+    /**
+     * Sells every unit of a holding, removing it from the portfolio.
+     *
+     * @param state   The loaded portfolio.
+     * @param symbols The holdings added for this iteration.
+     * @return The sale summary.
+     */
+    @Benchmark
+    public String sellFull(PortfolioState state, SoldOutSymbols symbols)
+    {
+        return Investment.sellInvestment(symbols.next(), 10, 1.0);
+    }
+}
@@ -0,0 +1,121 @@
+// Package
+package ePortfolio.jmh;
+
+// Libraries
+import ePortfolio.Investment;
+import ePortfolio.TradeJournal;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JournalThroughputBenchmark class measures what durability costs. It runs the same mix of
+ * buys, partial sells and price updates in memory only and with the write-ahead journal attached,
+ * where every call waits for its record to be forced to disk. With group commit, threads waiting
+ * on the same fsync share it, so journaled throughput should grow with the thread count instead of
+ * being capped at one trade per fsync; compare runs with -t 1, -t 4, -t 16 and -t 64.
+ *
+ * Build Command: mvn install && mvn -f jmh/pom.xml package
+ * Run Command: java -jar jmh/target/benchmarks.jar JournalThroughputBenchmark -t 64
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class JournalThroughputBenchmark
+{
+    // Holdings preloaded and records between checkpoints
+    private static final int HOLDINGS = 10_000;
+    private static final long CHECKPOINT_INTERVAL = 200_000;
+
+    // Whether the journal is attached
+    @Param({"false", "true"})
+    public boolean journaled;
+
+    // The journal and the temporary directory it writes to, when attached
+    private Path directory;
+    private TradeJournal journal;
+
+    /**
+     * Preloads the portfolio with a large position in every symbol, so sells never empty it, and attaches the journal.
+     *
+     * @throws IOException If the journal cannot be opened.
+     * @throws IllegalStateException If the portfolio is not empty, which means the benchmark is not running forked.
+     */
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        if (!Investment.snapshot().isEmpty())
+        {
+            throw new IllegalStateException("The portfolio is not empty; run the benchmarks with at least one fork.");
+        }
+        for (int i = 0; i < HOLDINGS; i++)
+        {
+            Investment.addInvestment(i % 2 == 0 ? "stock" : "mutual fund", "SYM" + i, "Holding " + i, 1_000_000, 10.0);
+        }
+
+        if (journaled)
+        {
+            directory = Files.createTempDirectory("journal");
+            journal = TradeJournal.open(directory, CHECKPOINT_INTERVAL);
+        }
+    }
+
+    /**
+     * Closes the journal and deletes its directory.
+     *
+     * @throws IOException If the journal cannot be closed or deleted.
+     */
+    @TearDown(Level.Trial)
+    public void close() throws IOException
+    {
+        if (journal == null) return;
+        journal.close();
+        try (Stream<Path> files = Files.list(directory))
+        {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Makes one trade on a random holding: half price updates, a quarter buys and a quarter partial sells.
+     *
+     * @return The updated holding or the result message.
+     */
+    @Benchmark
+    public Object trade()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int holding = random.nextInt(HOLDINGS);
+        int roll = random.nextInt(100);
+        if (roll < 50) return Investment.updatePrices("SYM" + holding, "Holding " + holding, 10.0 + random.nextInt(100));
+        if (roll < 75) return Investment.addInvestment("stock", "SYM" + holding, "ignored", 1, 10.0);
+        return Investment.sellInvestment("SYM" + holding, 1, 11.0);
+    }
+}
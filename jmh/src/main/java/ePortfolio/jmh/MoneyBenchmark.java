@@ -0,0 +1,181 @@
+// Package
+package ePortfolio.jmh;
+
+// Libraries
+import ePortfolio.Money;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The MoneyBenchmark class compares three ways of doing a holding's money math: doubles, as the
+ * portfolio used to, BigDecimal, and the long micros of Money that it uses now. Each invocation
+ * runs the same TRADES stock trades on one holding, alternating buys with partial sells, and
+ * works out the book value, payment and gain of each exactly as Investment does (commission on
+ * both sides, book value split pro rata on a sale). Scores are per trade.
+ *
+ * Run with -prof gc to see the allocation of each: the micros and double versions allocate nothing.
+ *
+ * Build Command: mvn install && mvn -f jmh/pom.xml package
+ * Run Command: java -jar jmh/target/benchmarks.jar MoneyBenchmark -prof gc
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyBenchmark
+{
+    /**
+     * Trades made per invocation.
+     */
+    public static final int TRADES = 4096;
+
+    // Stock commission in each representation
+    private static final double FEE = 9.99;
+    private static final long FEE_MICROS = 9_990_000;
+    private static final BigDecimal FEE_DECIMAL = new BigDecimal("9.99");
+
+    // Trade quantities and prices in each representation; even trades buy, odd trades sell
+    private int[] quantities;
+    private double[] prices;
+    private long[] priceMicros;
+    private BigDecimal[] priceDecimals;
+
+    /**
+     * Generates the seeded trades.
+     */
+    @Setup
+    public void generate()
+    {
+        SplittableRandom random = new SplittableRandom(42);
+        quantities = new int[TRADES];
+        prices = new double[TRADES];
+        priceMicros = new long[TRADES];
+        priceDecimals = new BigDecimal[TRADES];
+        for (int i = 0; i < TRADES; i++)
+        {
+            // Buy up to 1000 units, sell up to 10 so the holding never runs out
+            quantities[i] = i % 2 == 0 ? 1 + random.nextInt(1000) : 1 + random.nextInt(10);
+            long cents = 100 + random.nextInt(100_000);
+            priceMicros[i] = cents * (Money.SCALE / 100);
+            prices[i] = cents / 100.0;
+            priceDecimals[i] = BigDecimal.valueOf(cents, 2);
+        }
+    }
+
+    /**
+     * Trades with doubles.
+     *
+     * @return The final book value plus the realized gain, so nothing is optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TRADES)
+    public double doubles()
+    {
+        int quantity = 0;
+        double bookValue = 0.0;
+        double realized = 0.0;
+        for (int i = 0; i < TRADES; i++)
+        {
+            if (i % 2 == 0)
+            {
+                quantity += quantities[i];
+                bookValue += quantities[i] * prices[i] + FEE;
+            }
+            else
+            {
+                double payment = prices[i] * quantities[i] - FEE;
+                realized += payment - bookValue * quantities[i] / quantity;
+                int remaining = quantity - quantities[i];
+                bookValue = bookValue * remaining / quantity;
+                quantity = remaining;
+            }
+        }
+        return bookValue + realized;
+    }
+
+    /**
+     * Trades with BigDecimal, rounding each book value split to the micro as Money does.
+     *
+     * @return The final book value plus the realized gain, so nothing is optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TRADES)
+    public BigDecimal bigDecimals()
+    {
+        int quantity = 0;
+        BigDecimal bookValue = BigDecimal.ZERO;
+        BigDecimal realized = BigDecimal.ZERO;
+        for (int i = 0; i < TRADES; i++)
+        {
+            BigDecimal units = BigDecimal.valueOf(quantities[i]);
+            if (i % 2 == 0)
+            {
+                quantity += quantities[i];
+                bookValue = bookValue.add(priceDecimals[i].multiply(units)).add(FEE_DECIMAL);
+            }
+            else
+            {
+                BigDecimal payment = priceDecimals[i].multiply(units).subtract(FEE_DECIMAL);
+                int remaining = quantity - quantities[i];
+                BigDecimal remainingBookValue = bookValue.multiply(BigDecimal.valueOf(remaining))
+                    .divide(BigDecimal.valueOf(quantity), 6, RoundingMode.HALF_EVEN);
+                realized = realized.add(payment.subtract(bookValue.subtract(remainingBookValue)));
+                bookValue = remainingBookValue;
+                quantity = remaining;
+            }
+        }
+        return bookValue.add(realized);
+    }
+
+    /**
+     * Trades with long micros through Money.
+     *
+     * @return The final book value plus the realized gain, so nothing is optimized away.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TRADES)
+    public long micros()
+    {
+        int quantity = 0;
+        long bookValue = 0;
+        long realized = 0;
+        for (int i = 0; i < TRADES; i++)
+        {
+            if (i % 2 == 0)
+            {
+                quantity += quantities[i];
+                bookValue = Money.add(bookValue, Money.add(Money.times(priceMicros[i], quantities[i]), FEE_MICROS));
+            }
+            else
+            {
+                long payment = Money.subtract(Money.times(priceMicros[i], quantities[i]), FEE_MICROS);
+                int remaining = quantity - quantities[i];
+                long remainingBookValue = Money.prorate(bookValue, remaining, quantity, Money.ROUNDING);
+                realized = Money.add(realized, Money.subtract(payment, bookValue - remainingBookValue));
+                bookValue = remainingBookValue;
+                quantity = remaining;
+            }
+        }
+        return Money.add(bookValue, realized);
+    }
+}
@@ -0,0 +1,215 @@
+// Package
+package ePortfolio.jmh;
+
+// Libraries
+import ePortfolio.Investment;
+import ePortfolio.Portfolio;
+import ePortfolio.PortfolioFile;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The PortfolioFileBenchmark class measures the binary portfolio format at 1M and 10M holdings:
+ * writing the file, opening it, reading single holdings at random, scanning every holding and
+ * loading the first million holdings into a fresh portfolio. Opening reads only the header and
+ * block table, so it should take about the same time at both sizes.
+ *
+ * Build Command: mvn install && mvn -f jmh/pom.xml package
+ * Run Command: java -jar jmh/target/benchmarks.jar PortfolioFileBenchmark
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class PortfolioFileBenchmark
+{
+    /**
+     * Holdings loaded into a fresh portfolio by the load benchmark, whatever the file size.
+     */
+    public static final int LOAD_LIMIT = 1_000_000;
+
+    // Number of holdings in the file
+    @Param({"1000000", "10000000"})
+    public int holdings;
+
+    // The file every read benchmark uses, and the one the write benchmark replaces
+    private Path path;
+    private Path written;
+    private PortfolioFile file;
+
+    /**
+     * Picks the holding each random read takes, from a fixed seed per thread.
+     */
+    @State(Scope.Thread)
+    public static class Picker
+    {
+        private final SplittableRandom random = new SplittableRandom(PortfolioGenerator.DEFAULT_SEED);
+    }
+
+    /**
+     * Writes the synthetic file and opens it.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void writeFile() throws IOException
+    {
+        path = Files.createTempFile("portfolio", ".dat");
+        written = Files.createTempFile("portfolio", ".dat");
+        PortfolioFile.write(path, () -> generate(holdings), holdings, 1);
+        file = PortfolioFile.open(path);
+    }
+
+    /**
+     * Closes and deletes the files.
+     *
+     * @throws IOException If a file cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException
+    {
+        file.close();
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(written);
+    }
+
+    /**
+     * Writes the whole file.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void write() throws IOException
+    {
+        PortfolioFile.write(written, () -> generate(holdings), holdings, 1);
+    }
+
+    /**
+     * Opens and closes the file.
+     *
+     * @return The number of holdings the file reports.
+     * @throws IOException If the file cannot be read.
+     */
+    @Benchmark
+    public int open() throws IOException
+    {
+        try (PortfolioFile reopened = PortfolioFile.open(path))
+        {
+            return reopened.size();
+        }
+    }
+
+    /**
+     * Reads one holding at random.
+     *
+     * @param picker The holding picker.
+     * @return The holding read.
+     */
+    @Benchmark
+    public Investment randomRead(Picker picker)
+    {
+        return file.get(picker.random.nextInt(holdings));
+    }
+
+    /**
+     * Reads every holding in order.
+     *
+     * @return The total quantity held.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long scan()
+    {
+        long quantity = 0;
+        for (Investment investment : file)
+        {
+            quantity += investment.getQuantity();
+        }
+        return quantity;
+    }
+
+    /**
+     * Loads the first LOAD_LIMIT holdings of the file into a fresh portfolio.
+     *
+     * @return The loaded portfolio.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Portfolio load()
+    {
+        Portfolio portfolio = new Portfolio();
+        portfolio.loadPortfolio(() -> new Iterator<Investment>()
+        {
+            private int next;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < Math.min(holdings, LOAD_LIMIT);
+            }
+
+            @Override
+            public Investment next()
+            {
+                return file.get(next++);
+            }
+        });
+        return portfolio;
+    }
+
+    /*
+     * Generates a deterministic synthetic portfolio of the given size without keeping it in memory.
+     */
+    private static Iterator<Investment> generate(int size)
+    {
+        SplittableRandom random = new SplittableRandom(size);
+        return new Iterator<Investment>()
+        {
+            private int next;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < size;
+            }
+
+            @Override
+            public Investment next()
+            {
+                int holding = next++;
+                int quantity = 1 + random.nextInt(10_000);
+                double price = 1.0 + random.nextInt(100_000) / 100.0;
+                if (holding % 2 == 0) return new Investment.Stock("SYM" + holding, "Holding " + holding, quantity, price);
+                return new Investment.MutualFund("SYM" + holding, "Holding " + holding, quantity, price);
+            }
+        };
+    }
+}
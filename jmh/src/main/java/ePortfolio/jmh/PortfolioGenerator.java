@@ -0,0 +1,155 @@
+// Package
+package ePortfolio.jmh;
+
+// Libraries
+import ePortfolio.Investment;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * The PortfolioGenerator class builds a synthetic portfolio from a seed, so every benchmark run
+ * works on exactly the same holdings. Symbols are numbered ("SYM0000042"), names are three words
+ * from a fixed vocabulary (so a keyword matches a predictable share of the portfolio), prices are
+ * spread evenly between $1 and $1,000 with cent precision, and quantities are large enough that
+ * selling single units never empties a holding. Even holdings are stocks and odd ones mutual funds.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+public final class PortfolioGenerator
+{
+    /**
+     * The seed the benchmarks use unless told otherwise.
+     */
+    public static final long DEFAULT_SEED = 20241129L;
+
+    // Words that names are made of; each appears in about one name in eleven
+    private static final String[] WORDS = {
+        "Global", "Energy", "Growth", "Income", "Capital", "Index", "Dividend", "Value",
+        "Bond", "Equity", "Technology", "Health", "Financial", "Resources", "Emerging", "Balanced",
+        "Canadian", "American", "International", "Select", "Core", "Strategic", "Infrastructure", "Real",
+        "Estate", "Small", "Large", "Cap", "Momentum", "Quality", "Systems", "Holdings"
+    };
+
+    // Generated holdings, by position
+    private final String[] symbols;
+    private final String[] names;
+    private final double[] prices;
+    private final int[] quantities;
+
+    /**
+     * Generates a portfolio of the given size from a seed.
+     *
+     * @param size The number of holdings.
+     * @param seed The seed; the same seed and size always give the same portfolio.
+     */
+    public PortfolioGenerator(int size, long seed)
+    {
+        symbols = new String[size];
+        names = new String[size];
+        prices = new double[size];
+        quantities = new int[size];
+
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < size; i++)
+        {
+            symbols[i] = String.format("SYM%07d", i);
+            names[i] = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            prices[i] = (100 + random.nextInt(99_900)) / 100.0;
+            quantities[i] = 1_000_000 + random.nextInt(1_000_000);
+        }
+    }
+
+    /**
+     * Returns the number of holdings.
+     *
+     * @return The portfolio size.
+     */
+    public int size()
+    {
+        return symbols.length;
+    }
+
+    /**
+     * Returns the type of a holding, as addInvestment expects it.
+     *
+     * @param index The position of the holding.
+     * @return "stock" or "mutual fund".
+     */
+    public String type(int index)
+    {
+        return index % 2 == 0 ? "stock" : "mutual fund";
+    }
+
+    /**
+     * Returns the symbol of a holding.
+     *
+     * @param index The position of the holding.
+     * @return The symbol.
+     */
+    public String symbol(int index)
+    {
+        return symbols[index];
+    }
+
+    /**
+     * Returns the name of a holding.
+     *
+     * @param index The position of the holding.
+     * @return The three-word name.
+     */
+    public String name(int index)
+    {
+        return names[index];
+    }
+
+    /**
+     * Returns the starting price of a holding.
+     *
+     * @param index The position of the holding.
+     * @return The price per unit.
+     */
+    public double price(int index)
+    {
+        return prices[index];
+    }
+
+    /**
+     * Loads the generated holdings into the portfolio, which must be empty.
+     *
+     * @throws IllegalStateException If the portfolio already holds investments.
+     */
+    public void load()
+    {
+        Investment.loadPortfolio(this::investments);
+    }
+
+    /*
+     * Creates the generated holdings one at a time.
+     */
+    private Iterator<Investment> investments()
+    {
+        return new Iterator<Investment>()
+        {
+            private int next;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < symbols.length;
+            }
+
+            @Override
+            public Investment next()
+            {
+                if (!hasNext()) throw new NoSuchElementException();
+                int i = next++;
+                if (i % 2 == 0) return new Investment.Stock(symbols[i], names[i], quantities[i], prices[i]);
+                return new Investment.MutualFund(symbols[i], names[i], quantities[i], prices[i]);
+            }
+        };
+    }
+}
@@ -0,0 +1,51 @@
+// Package
+package ePortfolio.jmh;
+
+// Libraries
+import ePortfolio.Investment;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The PortfolioState class loads the seeded synthetic portfolio that every benchmark runs against,
+ * at each of the measured sizes. The portfolio is process-wide, so benchmarks must run forked
+ * (the default): each fork starts empty and loads exactly one size.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+@State(Scope.Benchmark)
+public class PortfolioState
+{
+    // Number of holdings loaded before measuring
+    @Param({"1000", "100000", "1000000"})
+    public int holdings;
+
+    // Seed of the generated portfolio
+    @Param({"" + PortfolioGenerator.DEFAULT_SEED})
+    public long seed;
+
+    // The generated holdings, for picking symbols, names and prices to trade
+    public PortfolioGenerator portfolio;
+
+    /**
+     * Generates the portfolio and loads it.
+     *
+     * @throws IllegalStateException If the portfolio is not empty, which means the benchmark is not running forked.
+     */
+    @Setup(Level.Trial)
+    public void load()
+    {
+        if (!Investment.snapshot().isEmpty())
+        {
+            throw new IllegalStateException("The portfolio is not empty; run the benchmarks with at least one fork.");
+        }
+        portfolio = new PortfolioGenerator(holdings, seed);
+        portfolio.load();
+    }
+}
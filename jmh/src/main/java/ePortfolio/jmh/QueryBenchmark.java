@@ -0,0 +1,113 @@
+// Package
+package ePortfolio.jmh;
+
+// Libraries
+import ePortfolio.Investment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The QueryBenchmark class measures the read side of the portfolio: searchInvestments with every
+ * combination of the symbol, keyword and price filters, calculateTotalGain and getInvestments.
+ * The filters are built around the middle holding of the generated portfolio, so each combination
+ * matches it; the keyword alone matches about a tenth of the portfolio and the price band about
+ * two percent.
+ *
+ * Build Command: mvn install && mvn -f jmh/pom.xml package
+ * Run Command: java -jar jmh/target/benchmarks.jar QueryBenchmark
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class QueryBenchmark
+{
+    /**
+     * The search criteria for one filter combination.
+     */
+    @State(Scope.Benchmark)
+    public static class Search
+    {
+        // Which filters are set: NONE, or any of SYMBOL, KEYWORD and PRICE joined by underscores
+        @Param({"NONE", "SYMBOL", "KEYWORD", "PRICE", "SYMBOL_KEYWORD", "SYMBOL_PRICE", "KEYWORD_PRICE", "SYMBOL_KEYWORD_PRICE"})
+        public String filters;
+
+        String symbol;
+        String keywords;
+        Double minPrice;
+        Double maxPrice;
+
+        @Setup(Level.Trial)
+        public void build(PortfolioState state)
+        {
+            // Build every filter from the middle holding so all of them match it
+            PortfolioGenerator portfolio = state.portfolio;
+            int target = portfolio.size() / 2;
+            List<String> set = List.of(filters.split("_"));
+
+            symbol = set.contains("SYMBOL") ? portfolio.symbol(target) : "";
+            keywords = set.contains("KEYWORD") ? portfolio.name(target).split(" ")[0] : "";
+            if (set.contains("PRICE"))
+            {
+                minPrice = portfolio.price(target) - 10.0;
+                maxPrice = portfolio.price(target) + 10.0;
+            }
+        }
+    }
+
+    /**
+     * Searches the portfolio with one filter combination.
+     *
+     * @param state  The loaded portfolio.
+     * @param search The search criteria.
+     * @return The matching investments.
+     */
+    @Benchmark
+    public List<Investment> searchInvestments(PortfolioState state, Search search)
+    {
+        return Investment.searchInvestments(search.symbol, search.keywords, search.minPrice, search.maxPrice);
+    }
+
+    /**
+     * Reads the total gain of the portfolio.
+     *
+     * @param state The loaded portfolio.
+     * @return The total gain.
+     */
+    @Benchmark
+    public double calculateTotalGain(PortfolioState state)
+    {
+        return Investment.calculateTotalGain();
+    }
+
+    /**
+     * Copies out every investment in the portfolio.
+     *
+     * @param state The loaded portfolio.
+     * @return The investments.
+     */
+    @Benchmark
+    public ArrayList<Investment> getInvestments(PortfolioState state)
+    {
+        return Investment.getInvestments();
+    }
+}
@@ -0,0 +1,103 @@
+// Package
+package ePortfolio.jmh;
+
+// Libraries
+import ePortfolio.Investment;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The TradingBenchmark class measures the trades that leave the number of holdings unchanged:
+ * buying more of an existing symbol, selling part of a holding and updating a price. Each call
+ * picks a holding at random with a seeded generator, so every run touches the same sequence.
+ *
+ * Build Command: mvn install && mvn -f jmh/pom.xml package
+ * Run Command: java -jar jmh/target/benchmarks.jar TradingBenchmark
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TradingBenchmark
+{
+    /**
+     * Picks the holding each call trades, from a fixed seed per thread.
+     */
+    @State(Scope.Thread)
+    public static class Picker
+    {
+        private final SplittableRandom random = new SplittableRandom(PortfolioGenerator.DEFAULT_SEED);
+        private long calls;
+
+        // Returns the position of the next holding to trade
+        int next(PortfolioState state)
+        {
+            calls++;
+            return random.nextInt(state.portfolio.size());
+        }
+
+        // Alternates between two prices, so every update really changes the price
+        double price(PortfolioState state, int holding)
+        {
+            return state.portfolio.price(holding) + ((calls & 1) == 0 ? 0.0 : 0.01);
+        }
+    }
+
+    /**
+     * Buys one more unit of an existing holding.
+     *
+     * @param state  The loaded portfolio.
+     * @param picker The holding picker.
+     * @return The result message.
+     */
+    @Benchmark
+    public String addExistingSymbol(PortfolioState state, Picker picker)
+    {
+        int holding = picker.next(state);
+        PortfolioGenerator portfolio = state.portfolio;
+        return Investment.addInvestment(portfolio.type(holding), portfolio.symbol(holding), portfolio.name(holding), 1, portfolio.price(holding));
+    }
+
+    /**
+     * Sells one unit of a holding, which never empties it.
+     *
+     * @param state  The loaded portfolio.
+     * @param picker The holding picker.
+     * @return The sale summary.
+     */
+    @Benchmark
+    public String sellPartial(PortfolioState state, Picker picker)
+    {
+        int holding = picker.next(state);
+        return Investment.sellInvestment(state.portfolio.symbol(holding), 1, state.portfolio.price(holding));
+    }
+
+    /**
+     * Changes the price of a holding.
+     *
+     * @param state  The loaded portfolio.
+     * @param picker The holding picker.
+     * @return The updated investment.
+     */
+    @Benchmark
+    public Investment updatePrices(PortfolioState state, Picker picker)
+    {
+        int holding = picker.next(state);
+        return Investment.updatePrices(state.portfolio.symbol(holding), state.portfolio.name(holding), picker.price(state, holding));
+    }
+}
@@ -0,0 +1,123 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The IdBitmapTest class checks the copying updates of IdBitmap against a sorted set making the
+ * same changes. IDs are drawn from a few chunks, densely enough that containers switch between
+ * arrays and bitsets both ways, and every older bitmap is checked to still hold what it held
+ * before it was copied.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+class IdBitmapTest
+{
+    // Chunks the IDs fall in, and IDs drawn per chunk
+    private static final int CHUNKS = 3;
+    private static final int SPAN = 12_000;
+
+    @Test
+    void batchChangesMatchASortedSetAndLeaveTheOriginalAlone()
+    {
+        SplittableRandom random = new SplittableRandom(1);
+        IdBitmap bitmap = new IdBitmap();
+        TreeSet<Integer> model = new TreeSet<>();
+        for (int round = 0; round < 200; round++)
+        {
+            // Remove and add a batch of up to a few thousand IDs, sorted as the indexes pass them
+            int[] removed = randomIds(random, random.nextInt(round % 20 == 0 ? 8000 : 200));
+            int[] added = randomIds(random, random.nextInt(round % 20 == 10 ? 8000 : 200));
+            int[] before = toArray(bitmap);
+
+            IdBitmap changed = bitmap.change(removed, removed.length, added, added.length);
+            for (int id : removed) model.remove(id);
+            for (int id : added) model.add(id);
+
+            assertArrayEquals(before, toArray(bitmap));
+            assertArrayEquals(model.stream().mapToInt(Integer::intValue).toArray(), toArray(changed));
+            bitmap = changed;
+        }
+    }
+
+    @Test
+    void singleChangesMatchASortedSetAndLeaveTheOriginalAlone()
+    {
+        SplittableRandom random = new SplittableRandom(2);
+        IdBitmap bitmap = new IdBitmap();
+        TreeSet<Integer> model = new TreeSet<>();
+        for (int i = 0; i < 40_000; i++)
+        {
+            int id = chunkId(random);
+            int[] before = i % 1000 == 0 ? toArray(bitmap) : null;
+            IdBitmap changed = random.nextInt(3) == 0 ? bitmap.without(id) : bitmap.with(id);
+            if (changed.contains(id)) model.add(id);
+            else model.remove(id);
+
+            if (before != null)
+            {
+                assertArrayEquals(before, toArray(bitmap));
+                assertArrayEquals(model.stream().mapToInt(Integer::intValue).toArray(), toArray(changed));
+            }
+            bitmap = changed;
+        }
+        assertArrayEquals(model.stream().mapToInt(Integer::intValue).toArray(), toArray(bitmap));
+    }
+
+    @Test
+    void groupedChangesDropABitmapLeftEmpty()
+    {
+        IdBitmap.Changes changes = new IdBitmap.Changes();
+        changes.add(3);
+        changes.add(70_000);
+        IdBitmap bitmap = changes.applyTo(null);
+        assertArrayEquals(new int[] {3, 70_000}, toArray(bitmap));
+
+        IdBitmap.Changes removals = new IdBitmap.Changes();
+        removals.remove(3);
+        removals.remove(70_000);
+        assertNull(removals.applyTo(bitmap));
+        assertArrayEquals(new int[] {3, 70_000}, toArray(bitmap));
+    }
+
+    /*
+     * Returns up to count distinct IDs in ascending order.
+     */
+    private static int[] randomIds(SplittableRandom random, int count)
+    {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            ids[i] = chunkId(random);
+        }
+        return Arrays.stream(ids).sorted().distinct().toArray();
+    }
+
+    /*
+     * Returns an ID from the start of one of the chunks.
+     */
+    private static int chunkId(SplittableRandom random)
+    {
+        return (random.nextInt(CHUNKS) << 16) + random.nextInt(SPAN);
+    }
+
+    /*
+     * Returns the IDs of a bitmap in ascending order.
+     */
+    private static int[] toArray(IdBitmap bitmap)
+    {
+        int[] ids = new int[bitmap.cardinality()];
+        bitmap.copyTo(ids, 0);
+        return ids;
+    }
+}
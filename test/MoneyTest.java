@@ -0,0 +1,133 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * The MoneyTest class checks the rounding of Money against BigDecimal, which rounds exactly, in
+ * every rounding mode: converting typed dollar amounts to micros, splitting amounts pro rata and
+ * dividing. It also checks that the exact cases need no rounding and that overflow throws.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+class MoneyTest
+{
+    // Random cases tried per rounding mode
+    private static final int CASES = 100_000;
+
+    @Test
+    void ofReadsDecimalAmountsExactly()
+    {
+        assertEquals(290_000, Money.of(0.29));
+        assertEquals(100_000_000, Money.of(100.0));
+        assertEquals(-1_234_567, Money.of(-1.234567));
+        assertEquals(19_990_000, Money.of(0.1 + 19.89));
+        assertEquals(290_000, Money.of(0.29, RoundingMode.UNNECESSARY));
+    }
+
+    @Test
+    void ofBreaksTiesByTheMode()
+    {
+        assertEquals(0, Money.of(0.0000005));
+        assertEquals(2, Money.of(0.0000015));
+        assertEquals(-2, Money.of(-0.0000025));
+        assertEquals(1, Money.of(0.0000005, RoundingMode.HALF_UP));
+        assertEquals(0, Money.of(0.0000005, RoundingMode.HALF_DOWN));
+        assertEquals(-1, Money.of(-0.0000005, RoundingMode.HALF_UP));
+        assertEquals(-1, Money.of(-0.0000001, RoundingMode.FLOOR));
+        assertEquals(0, Money.of(-0.0000001, RoundingMode.CEILING));
+    }
+
+    @Test
+    void ofRejectsAmountsItCannotHold()
+    {
+        assertThrows(ArithmeticException.class, () -> Money.of(Double.NaN));
+        assertThrows(ArithmeticException.class, () -> Money.of(Double.POSITIVE_INFINITY));
+        assertThrows(ArithmeticException.class, () -> Money.of(1e13));
+        assertThrows(ArithmeticException.class, () -> Money.of(0.0000001, RoundingMode.UNNECESSARY));
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = RoundingMode.class, names = "UNNECESSARY", mode = EnumSource.Mode.EXCLUDE)
+    void ofRoundsTypedAmountsLikeBigDecimal(RoundingMode mode)
+    {
+        // Amounts typed with up to seven decimals, so the seventh is the digit rounded away
+        SplittableRandom random = new SplittableRandom(mode.ordinal());
+        for (int i = 0; i < CASES; i++)
+        {
+            long sevenths = random.nextLong(-100_000_000_000_000L, 100_000_000_000_000L) / (random.nextBoolean() ? 1 : 10_000_000);
+            BigDecimal typed = BigDecimal.valueOf(sevenths, 7);
+            long expected = typed.movePointRight(6).setScale(0, mode).longValueExact();
+            assertEquals(expected, Money.of(typed.doubleValue(), mode), () -> typed + " " + mode);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = RoundingMode.class, names = "UNNECESSARY", mode = EnumSource.Mode.EXCLUDE)
+    void prorateRoundsLikeBigDecimal(RoundingMode mode)
+    {
+        SplittableRandom random = new SplittableRandom(mode.ordinal());
+        for (int i = 0; i < CASES; i++)
+        {
+            long amount = switch (random.nextInt(3))
+            {
+                case 0 -> random.nextLong(-1_000_000_000L, 1_000_000_000L);
+                case 1 -> random.nextLong();
+                default -> random.nextBoolean() ? Long.MAX_VALUE - random.nextInt(1000) : Long.MIN_VALUE + random.nextInt(1000);
+            };
+            int whole = 1 + random.nextInt(random.nextBoolean() ? 10 : Integer.MAX_VALUE);
+            int part = random.nextInt(whole + 1);
+            long expected = BigDecimal.valueOf(amount).multiply(BigDecimal.valueOf(part)).divide(BigDecimal.valueOf(whole), 0, mode).longValueExact();
+            assertEquals(expected, Money.prorate(amount, part, whole, mode), () -> amount + " * " + part + " / " + whole + " " + mode);
+        }
+    }
+
+    @Test
+    void prorateKeepsTheWholeAndSplitsTiesEvenly()
+    {
+        assertEquals(Long.MAX_VALUE, Money.prorate(Long.MAX_VALUE, 7, 7, Money.ROUNDING));
+        assertEquals(0, Money.prorate(Long.MIN_VALUE, 0, 3, Money.ROUNDING));
+        assertEquals(2, Money.prorate(5, 1, 2, RoundingMode.HALF_EVEN));
+        assertEquals(4, Money.prorate(7, 1, 2, RoundingMode.HALF_EVEN));
+        assertEquals(-2, Money.prorate(-5, 1, 2, RoundingMode.HALF_EVEN));
+        assertThrows(ArithmeticException.class, () -> Money.prorate(10, 1, 3, RoundingMode.UNNECESSARY));
+        assertThrows(IllegalArgumentException.class, () -> Money.prorate(10, 4, 3, Money.ROUNDING));
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = RoundingMode.class, names = "UNNECESSARY", mode = EnumSource.Mode.EXCLUDE)
+    void divideRoundsLikeBigDecimal(RoundingMode mode)
+    {
+        SplittableRandom random = new SplittableRandom(mode.ordinal());
+        for (int i = 0; i < CASES; i++)
+        {
+            long dividend = random.nextBoolean() ? random.nextLong() : random.nextLong(-1000, 1000);
+            long divisor = random.nextBoolean() ? random.nextLong() : random.nextLong(-10, 10);
+            if (divisor == 0 || (dividend == Long.MIN_VALUE && divisor == -1)) continue;
+            long expected = BigDecimal.valueOf(dividend).divide(BigDecimal.valueOf(divisor), 0, mode).longValueExact();
+            assertEquals(expected, Money.divide(dividend, divisor, mode), () -> dividend + " / " + divisor + " " + mode);
+        }
+    }
+
+    @Test
+    void overflowThrowsInsteadOfWrapping()
+    {
+        assertThrows(ArithmeticException.class, () -> Money.add(Long.MAX_VALUE, 1));
+        assertThrows(ArithmeticException.class, () -> Money.subtract(Long.MIN_VALUE, 1));
+        assertThrows(ArithmeticException.class, () -> Money.times(Long.MAX_VALUE / 2, 3));
+        assertThrows(ArithmeticException.class, () -> Money.divide(Long.MIN_VALUE, -1, Money.ROUNDING));
+        assertThrows(ArithmeticException.class, () -> Money.divide(1, 0, Money.ROUNDING));
+    }
+}
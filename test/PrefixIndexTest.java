@@ -0,0 +1,252 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The PrefixIndexTest class checks prefix search against a scan of every holding in the snapshot.
+ * The symbols and names are drawn from a few letters and words sharing prefixes, in mixed case, so
+ * most prefixes match many holdings and the queries run through the sorted, bitset and refining
+ * paths alike. Queries are both random and typed a character at a time, with backspaces, passing
+ * the previous matches along as the search panel does.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+class PrefixIndexTest
+{
+    // Holdings in the random portfolio, and random queries tried against it
+    private static final int HOLDINGS = 3000;
+    private static final int QUERIES = 5000;
+
+    // Words names are made from, several sharing a prefix
+    private static final String[] WORDS = {
+        "Apple", "Applied", "Apex", "Bank", "Banco", "Bancorp", "Global", "Gold", "Golden", "Growth",
+        "Fund", "Funds", "Index", "Income", "Tech", "Tesla", "Total", "Market", "Mining", "Value"
+    };
+
+    // Letters symbols are made from
+    private static final String SYMBOL_LETTERS = "ABCD";
+
+    @Test
+    void randomQueriesMatchAScanOfEveryHolding()
+    {
+        SplittableRandom random = new SplittableRandom(15);
+        PrefixIndex index = PrefixIndex.build(randomPortfolio(random).snapshot());
+
+        for (int i = 0; i < QUERIES; i++)
+        {
+            String symbol = randomSymbolPrefix(random);
+            String keywords = randomKeywords(random);
+            Double minPrice = random.nextInt(4) == 0 ? (double) random.nextInt(300) : null;
+            Double maxPrice = random.nextInt(4) == 0 ? (double) random.nextInt(200, 500) : null;
+            assertMatches(index, symbol, keywords, minPrice, maxPrice, index.search(symbol, keywords, minPrice, maxPrice, null));
+        }
+    }
+
+    @Test
+    void typingAQueryRefinesThePreviousMatchesCorrectly()
+    {
+        SplittableRandom random = new SplittableRandom(16);
+        PrefixIndex index = PrefixIndex.build(randomPortfolio(random).snapshot());
+
+        int refined = 0;
+        for (int i = 0; i < QUERIES / 10; i++)
+        {
+            // Type the symbol and then the keywords one character at a time, sometimes taking one back
+            String fullSymbol = randomSymbolPrefix(random);
+            String fullKeywords = randomKeywords(random);
+            Double maxPrice = random.nextInt(4) == 0 ? (double) random.nextInt(200, 500) : null;
+            String typed = fullSymbol + "|" + fullKeywords;
+            PrefixIndex.Matches previous = null;
+            for (int length = 0; length <= typed.length(); length++)
+            {
+                if (length > 1 && random.nextInt(8) == 0) length -= 2;
+                String text = typed.substring(0, length);
+                int split = text.indexOf('|');
+                String symbol = split < 0 ? text : text.substring(0, split);
+                String keywords = split < 0 ? "" : text.substring(split + 1);
+                previous = index.search(symbol, keywords, null, maxPrice, previous);
+                assertMatches(index, symbol, keywords, null, maxPrice, previous);
+                if (previous.isRefined()) refined++;
+            }
+        }
+
+        // The refining path must actually have been taken for the test to mean anything
+        assertTrue(refined > 0);
+    }
+
+    @Test
+    void matchesFromAnOlderIndexAreNotRefined()
+    {
+        SplittableRandom random = new SplittableRandom(17);
+        Portfolio portfolio = randomPortfolio(random);
+        PrefixIndex before = PrefixIndex.build(portfolio.snapshot());
+        PrefixIndex.Matches previous = before.search("ABCD", "", null, null, null);
+
+        // New holdings that extend the previous query must show up in the new index's results
+        portfolio.addInvestment("stock", "ABCDX", "Gold Tech", 10, 50.0);
+        portfolio.addInvestment("stock", "ABCDY", "Apex Fund", 10, 60.0);
+        PrefixIndex after = PrefixIndex.build(portfolio.snapshot());
+
+        PrefixIndex.Matches matches = after.search("ABCD", "g", null, null, previous);
+        assertMatches(after, "ABCD", "g", null, null, matches);
+        assertFalse(matches.isRefined());
+    }
+
+    @Test
+    void casesAndRepeatedKeywordsMatchOnce()
+    {
+        Portfolio portfolio = new Portfolio();
+        portfolio.addInvestment("stock", "aapl", "Apple apple APPLIED", 10, 150.0);
+        portfolio.addInvestment("mutual fund", "GLDX", "gold Golden", 20, 30.0);
+        portfolio.addInvestment("stock", "AMZN", "Amazon", 5, 100.0);
+        PrefixIndex index = PrefixIndex.build(portfolio.snapshot());
+
+        PrefixIndex.Matches matches = index.search(" AaP ", "  aPP\tappl ", null, null, null);
+        assertEquals(List.of("aapl"), symbols(matches));
+        assertEquals(List.of("GLDX"), symbols(index.search("", "GOLDE", null, null, null)));
+        assertEquals(List.of("aapl", "GLDX", "AMZN"), symbols(index.search("", "", null, null, null)));
+        assertEquals(List.of(), symbols(index.search("", "gold zzz", null, null, null)));
+        assertEquals(List.of("aapl", "AMZN"), symbols(index.search("a", "", 100.0, 150.0, null)));
+    }
+
+    @Test
+    void anEmptyPortfolioMatchesNothing()
+    {
+        PrefixIndex index = PrefixIndex.build(new Portfolio().snapshot());
+
+        assertEquals(0, index.search("", "", null, null, null).size());
+        assertEquals(0, index.search("A", "gold", null, null, null).size());
+    }
+
+    /*
+     * Checks the matches of a query against a scan of every holding in the index's snapshot.
+     */
+    private static void assertMatches(PrefixIndex index, String symbol, String keywords, Double minPrice, Double maxPrice, PrefixIndex.Matches matches)
+    {
+        List<String> expected = new ArrayList<>();
+        for (Investment investment : index.snapshot())
+        {
+            if (scanMatches(investment, symbol, keywords, minPrice, maxPrice)) expected.add(investment.getSymbol());
+        }
+        assertEquals(expected, symbols(matches), () -> "symbol '" + symbol + "' keywords '" + keywords + "' price " + minPrice + " to " + maxPrice);
+    }
+
+    /*
+     * Checks one holding against a query the slow way: a case-insensitive symbol prefix,
+     * a name word starting with each keyword, and the price range.
+     */
+    private static boolean scanMatches(Investment investment, String symbol, String keywords, Double minPrice, Double maxPrice)
+    {
+        if (!investment.getSymbol().toLowerCase(Locale.ROOT).startsWith(symbol.trim().toLowerCase(Locale.ROOT))) return false;
+        if (minPrice != null && investment.getPrice() < minPrice) return false;
+        if (maxPrice != null && investment.getPrice() > maxPrice) return false;
+        String[] words = investment.getName().toLowerCase(Locale.ROOT).split("\\s+");
+        for (String keyword : keywords.trim().toLowerCase(Locale.ROOT).split("\\s+"))
+        {
+            boolean found = false;
+            for (String word : words)
+            {
+                found |= word.startsWith(keyword);
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Returns the symbols of the matches in order.
+     */
+    private static List<String> symbols(PrefixIndex.Matches matches)
+    {
+        List<String> symbols = new ArrayList<>();
+        for (int i = 0; i < matches.size(); i++)
+        {
+            symbols.add(matches.get(i).getSymbol());
+        }
+        return symbols;
+    }
+
+    /*
+     * Builds a portfolio of stocks and mutual funds with short symbols and names of one to four words, in mixed case.
+     */
+    private static Portfolio randomPortfolio(SplittableRandom random)
+    {
+        Portfolio portfolio = new Portfolio();
+        Set<String> used = new HashSet<>();
+        while (used.size() < HOLDINGS)
+        {
+            StringBuilder symbol = new StringBuilder();
+            for (int length = 1 + random.nextInt(6); symbol.length() < length; )
+            {
+                symbol.append(SYMBOL_LETTERS.charAt(random.nextInt(SYMBOL_LETTERS.length())));
+            }
+            if (!used.add(symbol.toString())) continue;
+
+            StringBuilder name = new StringBuilder();
+            for (int words = 1 + random.nextInt(4); words > 0; words--)
+            {
+                if (name.length() > 0) name.append(' ');
+                name.append(mixCase(WORDS[random.nextInt(WORDS.length)], random));
+            }
+            String type = random.nextInt(3) == 0 ? "mutual fund" : "stock";
+            double price = (1 + random.nextInt(50_000)) / 100.0;
+            portfolio.addInvestment(type, symbol.toString(), name.toString(), 1 + random.nextInt(1000), price);
+        }
+        return portfolio;
+    }
+
+    /*
+     * Returns a symbol prefix of up to four letters, blank about a third of the time.
+     */
+    private static String randomSymbolPrefix(SplittableRandom random)
+    {
+        StringBuilder prefix = new StringBuilder();
+        for (int length = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(4); prefix.length() < length; )
+        {
+            prefix.append(SYMBOL_LETTERS.charAt(random.nextInt(SYMBOL_LETTERS.length())));
+        }
+        return mixCase(prefix.toString(), random);
+    }
+
+    /*
+     * Returns up to three keyword prefixes of the name words, in mixed case and with uneven spacing.
+     */
+    private static String randomKeywords(SplittableRandom random)
+    {
+        StringBuilder keywords = new StringBuilder();
+        for (int count = random.nextInt(4); count > 0; count--)
+        {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            keywords.append(random.nextBoolean() ? " " : "  ").append(mixCase(word.substring(0, 1 + random.nextInt(word.length())), random));
+        }
+        return keywords.toString();
+    }
+
+    /*
+     * Returns the text with each letter's case picked at random.
+     */
+    private static String mixCase(String text, SplittableRandom random)
+    {
+        StringBuilder mixed = new StringBuilder(text.length());
+        for (char c : text.toCharArray())
+        {
+            mixed.append(random.nextBoolean() ? Character.toUpperCase(c) : Character.toLowerCase(c));
+        }
+        return mixed.toString();
+    }
+}
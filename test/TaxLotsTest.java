@@ -0,0 +1,398 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The TaxLotsTest class checks the tax lots of a holding against a plain list of lots that makes
+ * the same changes. Versions share columns and claim slots as they grow, so the tests branch new
+ * versions from older ones, grow two versions from the same one, and push a version past its
+ * override limit and its column capacity, then check that every version still reads back the
+ * lots it was made with.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+class TaxLotsTest
+{
+    // One dollar in micros
+    private static final long DOLLAR = 1_000_000;
+
+    @Test
+    void fifoTakesTheOldestLotsAndSplitsThePartlySoldOneProRata()
+    {
+        TaxLots lots = TaxLots.of(10, 100 * DOLLAR).add(10, 200 * DOLLAR).add(10, 300 * DOLLAR);
+
+        TaxLots sold = lots.takeFirst(15);
+
+        assertEquals(200 * DOLLAR, sold.getTakenCost());
+        assertLots(sold, new long[][] {{2, 5, 100 * DOLLAR}, {3, 10, 300 * DOLLAR}});
+        assertEquals(4, sold.getNextId());
+    }
+
+    @Test
+    void lifoTakesTheNewestLots()
+    {
+        TaxLots lots = TaxLots.of(10, 100 * DOLLAR).add(10, 200 * DOLLAR).add(10, 300 * DOLLAR);
+
+        TaxLots sold = lots.takeLast(14);
+
+        assertEquals(380 * DOLLAR, sold.getTakenCost());
+        assertLots(sold, new long[][] {{1, 10, 100 * DOLLAR}, {2, 6, 120 * DOLLAR}});
+    }
+
+    @Test
+    void specificIdTakesTheNamedLotsInTheOrderNamed()
+    {
+        TaxLots lots = TaxLots.of(10, 100 * DOLLAR).add(10, 200 * DOLLAR).add(10, 300 * DOLLAR);
+
+        TaxLots sold = lots.take(new int[] {3, 1}, 13);
+
+        assertEquals(330 * DOLLAR, sold.getTakenCost());
+        assertLots(sold, new long[][] {{1, 7, 70 * DOLLAR}, {2, 10, 200 * DOLLAR}});
+        assertThrows(IllegalArgumentException.class, () -> sold.take(new int[] {3}, 1));
+        assertThrows(IllegalArgumentException.class, () -> sold.take(new int[] {2}, 11));
+    }
+
+    @Test
+    void partialSalesRoundTheKeptCostHalfEven()
+    {
+        // A lot of 3 units costing 10 micros keeps 2 units at 6.67 micros, rounded to 7
+        TaxLots lots = TaxLots.of(3, 10);
+
+        TaxLots sold = lots.takeFirst(1);
+
+        assertEquals(3, sold.getTakenCost());
+        assertEquals(7, sold.getTotalCost());
+    }
+
+    @Test
+    void averageCostSalesPoolTheDifferenceThatLaterLotSalesShare()
+    {
+        Portfolio portfolio = new Portfolio();
+        portfolio.addInvestment("stock", "AAA", "Alpha", 10, 10.0);
+        portfolio.addInvestment("stock", "AAA", "Alpha", 10, 20.0);
+
+        // Average cost splits the book value pro rata, while the oldest lot gives up its own cost
+        portfolio.sellInvestment("AAA", 5, 30.0, TaxLots.Method.AVERAGE_COST);
+        Investment holding = portfolio.snapshot().get(0);
+        assertEquals(239_985_000, holding.getBookValueMicros());
+        assertLots(holding.getLots(), new long[][] {{1, 5, 54_995_000}, {2, 10, 209_990_000}});
+
+        // A FIFO sale then takes its lots' cost plus a third of the -$25 the average-cost sale pooled
+        portfolio.sellInvestment("AAA", 10, 30.0, TaxLots.Method.FIFO);
+        holding = portfolio.snapshot().get(0);
+        assertEquals(96_661_667, holding.getBookValueMicros());
+        assertLots(holding.getLots(), new long[][] {{2, 5, 104_995_000}});
+    }
+
+    @Test
+    void salesBranchingFromAnOlderVersionLeaveEveryVersionIntact()
+    {
+        Model model = new Model().add(10, 100 * DOLLAR).add(20, 250 * DOLLAR).add(5, 75 * DOLLAR).add(8, 99 * DOLLAR).add(12, 180 * DOLLAR);
+        TaxLots base = model.build();
+
+        // Sell from the same older version by every method
+        TaxLots fifo = base.takeFirst(25);
+        TaxLots lifo = base.takeLast(15);
+        TaxLots named = base.take(new int[] {4, 2}, 13);
+        assertLots(fifo, model.copy().takeFirst(25).rows());
+        assertLots(lifo, model.copy().takeLast(15).rows());
+        assertLots(named, model.copy().take(new int[] {4, 2}, 13).rows());
+
+        // Grow every branch, then the base itself; each new lot takes the slot after the base's lots
+        TaxLots fifoBought = fifo.add(3, 33 * DOLLAR);
+        TaxLots lifoBought = lifo.add(4, 44 * DOLLAR);
+        TaxLots namedBought = named.add(6, 66 * DOLLAR);
+        TaxLots baseBought = base.add(7, 77 * DOLLAR);
+        assertLots(fifoBought, model.copy().takeFirst(25).add(3, 33 * DOLLAR).rows());
+        assertLots(lifoBought, model.copy().takeLast(15).add(4, 44 * DOLLAR).rows());
+        assertLots(namedBought, model.copy().take(new int[] {4, 2}, 13).add(6, 66 * DOLLAR).rows());
+        assertLots(baseBought, model.copy().add(7, 77 * DOLLAR).rows());
+
+        // The versions sold from are unchanged
+        assertLots(base, model.rows());
+        assertLots(fifo, model.copy().takeFirst(25).rows());
+        assertLots(lifo, model.copy().takeLast(15).rows());
+    }
+
+    @Test
+    void addingToAVersionWhoseNextSlotIsClaimedRecordsTheLotAsAnOverride()
+    {
+        Model model = new Model().add(10, 100 * DOLLAR).add(10, 200 * DOLLAR);
+        TaxLots base = model.build();
+
+        // The first add claims the slot after the base's lots, so the second one cannot
+        TaxLots first = base.add(1, 11 * DOLLAR);
+        TaxLots second = base.add(2, 22 * DOLLAR);
+        assertLots(first, model.copy().add(1, 11 * DOLLAR).rows());
+        assertLots(second, model.copy().add(2, 22 * DOLLAR).rows());
+
+        // Keep growing the overridden version well past the override limit
+        Model grown = model.copy().add(2, 22 * DOLLAR);
+        TaxLots lots = second;
+        for (int i = 0; i < 100; i++)
+        {
+            lots = lots.add(i + 1, (i + 1) * DOLLAR);
+            grown.add(i + 1, (i + 1) * DOLLAR);
+            assertLots(lots, grown.rows());
+        }
+        assertLots(first, model.copy().add(1, 11 * DOLLAR).rows());
+        assertLots(base, model.rows());
+    }
+
+    @Test
+    void buyingBackAfterALifoSaleDoesNotOverwriteTheLotsSold()
+    {
+        Model model = new Model().add(10, 100 * DOLLAR).add(10, 200 * DOLLAR).add(10, 300 * DOLLAR);
+        TaxLots base = model.build();
+
+        // The sale drops the newest lot from its range, but the base still owns that slot
+        TaxLots sold = base.takeLast(10);
+        TaxLots bought = sold.add(4, 48 * DOLLAR);
+
+        assertLots(bought, model.copy().takeLast(10).add(4, 48 * DOLLAR).rows());
+        assertLots(base, model.rows());
+    }
+
+    @Test
+    void salesFromTheMiddlePastTheOverrideLimitCompactTheLots()
+    {
+        Model model = new Model();
+        for (int i = 0; i < 80; i++) model.add(10, (10 + i) * DOLLAR);
+        TaxLots base = model.build();
+
+        // Leave every other lot partly sold, which the columns can only hold as overrides
+        TaxLots lots = base;
+        Model sold = model.copy();
+        for (int id = 2; id < 80; id += 2)
+        {
+            lots = lots.take(new int[] {id}, 3);
+            sold.take(new int[] {id}, 3);
+            assertLots(lots, sold.rows());
+        }
+
+        // Emptied lots in the middle stay out of every read
+        lots = lots.take(new int[] {41, 43}, 20);
+        sold.take(new int[] {41, 43}, 20);
+        assertLots(lots, sold.rows());
+        assertEquals(0, lots.getQuantity(41));
+        assertEquals(0, lots.getCost(43));
+        assertLots(base, model.rows());
+    }
+
+    @Test
+    void growingPastTheColumnsMovesTheLotsIntoLargerOnes()
+    {
+        TaxLots lots = TaxLots.of(1, DOLLAR);
+        Model model = new Model().add(1, DOLLAR);
+        List<TaxLots> versions = new ArrayList<>();
+        List<long[][]> expected = new ArrayList<>();
+        for (int i = 2; i <= 1000; i++)
+        {
+            lots = lots.add(i, i * DOLLAR);
+            model.add(i, i * DOLLAR);
+            if (i % 97 == 0)
+            {
+                versions.add(lots);
+                expected.add(model.rows());
+            }
+        }
+        assertLots(lots, model.rows());
+        for (int i = 0; i < versions.size(); i++) assertLots(versions.get(i), expected.get(i));
+    }
+
+    @Test
+    void randomChangesToRandomVersionsMatchAPlainList()
+    {
+        SplittableRandom random = new SplittableRandom(17);
+        List<TaxLots> versions = new ArrayList<>();
+        List<Model> models = new ArrayList<>();
+        Model first = new Model().add(1 + random.nextInt(100), 1 + random.nextLong(1_000 * DOLLAR));
+        versions.add(first.build());
+        models.add(first);
+
+        for (int step = 0; step < 20_000; step++)
+        {
+            // Change a random earlier version, often the latest
+            int from = random.nextInt(4) == 0 ? random.nextInt(versions.size()) : versions.size() - 1;
+            TaxLots lots = versions.get(from);
+            Model model = models.get(from).copy();
+            int quantity = lots.getQuantity();
+            int roll = random.nextInt(10);
+            if (roll < 4 || quantity < 2)
+            {
+                int units = 1 + random.nextInt(100);
+                long cost = random.nextLong(1_000 * DOLLAR);
+                lots = lots.add(units, cost);
+                model.add(units, cost);
+            }
+            else if (roll < 6)
+            {
+                int units = 1 + random.nextInt(quantity - 1);
+                lots = lots.takeFirst(units);
+                assertEquals(model.takeFirst(units).taken, lots.getTakenCost());
+            }
+            else if (roll < 8)
+            {
+                int units = 1 + random.nextInt(quantity - 1);
+                lots = lots.takeLast(units);
+                assertEquals(model.takeLast(units).taken, lots.getTakenCost());
+            }
+            else
+            {
+                int[] ids = model.someIds(random);
+                int held = model.unitsIn(ids);
+                if (held < 2) continue;
+                int units = 1 + random.nextInt(held - 1);
+                lots = lots.take(ids, units);
+                assertEquals(model.take(ids, units).taken, lots.getTakenCost());
+            }
+            assertLots(lots, model.rows());
+            versions.add(lots);
+            models.add(model);
+        }
+
+        // No later change disturbed an earlier version
+        for (int i = 0; i < versions.size(); i++) assertLots(versions.get(i), models.get(i).rows());
+    }
+
+    /*
+     * Checks the open lots, their totals and their lookups by number.
+     */
+    private static void assertLots(TaxLots lots, long[][] expected)
+    {
+        List<long[]> actual = new ArrayList<>();
+        lots.forEach((lotId, quantity, cost) -> actual.add(new long[] {lotId, quantity, cost}));
+        assertArrayEquals(expected, actual.toArray(new long[0][]));
+
+        int quantity = 0;
+        long totalCost = 0;
+        for (long[] lot : expected)
+        {
+            quantity += (int) lot[1];
+            totalCost += lot[2];
+            assertEquals(lot[1], lots.getQuantity((int) lot[0]));
+            assertEquals(lot[2], lots.getCost((int) lot[0]));
+        }
+        assertEquals(expected.length, lots.size());
+        assertEquals(quantity, lots.getQuantity());
+        assertEquals(totalCost, lots.getTotalCost());
+    }
+
+    /*
+     * A plain list of lots making the same changes as TaxLots, with the same pro rata rounding.
+     */
+    private static final class Model
+    {
+        private final List<long[]> lots = new ArrayList<>();
+        private int nextId = 1;
+        private long taken;
+
+        Model add(int quantity, long cost)
+        {
+            lots.add(new long[] {nextId++, quantity, cost});
+            return this;
+        }
+
+        Model takeFirst(int quantity)
+        {
+            taken = 0;
+            for (int i = 0; quantity > 0; i++) quantity = take(i, quantity);
+            lots.removeIf(lot -> lot[1] == 0);
+            return this;
+        }
+
+        Model takeLast(int quantity)
+        {
+            taken = 0;
+            for (int i = lots.size() - 1; quantity > 0; i--) quantity = take(i, quantity);
+            lots.removeIf(lot -> lot[1] == 0);
+            return this;
+        }
+
+        Model take(int[] ids, int quantity)
+        {
+            taken = 0;
+            for (int id : ids)
+            {
+                for (int i = 0; i < lots.size() && quantity > 0; i++)
+                {
+                    if (lots.get(i)[0] == id) quantity = take(i, quantity);
+                }
+            }
+            lots.removeIf(lot -> lot[1] == 0);
+            return this;
+        }
+
+        // Takes up to quantity units from one lot, returning the units still to take
+        private int take(int index, int quantity)
+        {
+            long[] lot = lots.get(index);
+            int units = (int) Math.min(lot[1], quantity);
+            long kept = units == lot[1] ? 0 : Money.prorate(lot[2], (int) lot[1] - units, (int) lot[1], Money.ROUNDING);
+            taken += lot[2] - kept;
+            lot[1] -= units;
+            lot[2] = kept;
+            return quantity - units;
+        }
+
+        // Picks one to three distinct open lot numbers in random order
+        int[] someIds(SplittableRandom random)
+        {
+            List<Integer> open = new ArrayList<>();
+            for (long[] lot : lots) open.add((int) lot[0]);
+            int count = Math.min(open.size(), 1 + random.nextInt(3));
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) ids[i] = open.remove(random.nextInt(open.size()));
+            return ids;
+        }
+
+        int unitsIn(int[] ids)
+        {
+            int units = 0;
+            for (long[] lot : lots)
+            {
+                for (int id : ids) if (lot[0] == id) units += (int) lot[1];
+            }
+            return units;
+        }
+
+        TaxLots build()
+        {
+            int[] ids = new int[lots.size()];
+            int[] quantities = new int[lots.size()];
+            long[] costs = new long[lots.size()];
+            for (int i = 0; i < lots.size(); i++)
+            {
+                ids[i] = (int) lots.get(i)[0];
+                quantities[i] = (int) lots.get(i)[1];
+                costs[i] = lots.get(i)[2];
+            }
+            return TaxLots.of(ids, quantities, costs, lots.size(), nextId);
+        }
+
+        Model copy()
+        {
+            Model copy = new Model();
+            for (long[] lot : lots) copy.lots.add(lot.clone());
+            copy.nextId = nextId;
+            return copy;
+        }
+
+        long[][] rows()
+        {
+            return lots.toArray(new long[0][]);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+// Package
+package ePortfolio;
+
+// Libraries
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The TradeJournalTest class checks that a portfolio recovered from its journal directory is the
+ * portfolio that was journaled: every holding with its quantity, price, book value and tax lots.
+ * Random buys, sells by every lot method, price updates and batches are journaled across automatic
+ * and explicit checkpoints and reopened; segments cut short or corrupted at the tail recover up to
+ * the last intact record; and a journal that cannot write stops the portfolio taking changes.
+ *
+ * @author Markus Gavra
+ * @version 3.0
+ * @since November 29th, 2024
+ */
+
+class TradeJournalTest
+{
+    // Symbols the random trades use
+    private static final int SYMBOLS = 40;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reopeningRecoversEveryJournaledTrade() throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(10);
+        Portfolio portfolio = new Portfolio();
+        try (TradeJournal journal = TradeJournal.open(portfolio, directory, 0))
+        {
+            for (int i = 0; i < 2000; i++)
+            {
+                trade(portfolio, random);
+            }
+        }
+
+        assertEquals(describe(portfolio), describe(recover()));
+    }
+
+    @Test
+    void checkpointsAndTheTradesAfterThemRecoverTogether() throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(11);
+        Portfolio portfolio = new Portfolio();
+        try (TradeJournal journal = TradeJournal.open(portfolio, directory, 97))
+        {
+            for (int i = 0; i < 1500; i++)
+            {
+                trade(portfolio, random);
+            }
+            journal.checkpoint();
+            for (int i = 0; i < 250; i++)
+            {
+                trade(portfolio, random);
+            }
+            assertNull(journal.getCheckpointFailure());
+        }
+
+        // Checkpoints dropped the segments they cover, so only the last few remain
+        List<Path> segments = segments();
+        assertTrue(segments.size() <= 2, segments::toString);
+        assertEquals(describe(portfolio), describe(recover()));
+    }
+
+    @Test
+    void recoveredPortfoliosKeepJournaling() throws IOException
+    {
+        // Recover, trade and close again several times, with checkpoints in between
+        SplittableRandom random = new SplittableRandom(12);
+        List<String> journaled = List.of();
+        for (int round = 0; round < 5; round++)
+        {
+            Portfolio portfolio = new Portfolio();
+            try (TradeJournal journal = TradeJournal.open(portfolio, directory, 50))
+            {
+                assertEquals(journaled, describe(portfolio));
+                for (int i = 0; i < 300; i++)
+                {
+                    trade(portfolio, random);
+                }
+            }
+            journaled = describe(portfolio);
+        }
+        assertEquals(journaled, describe(recover()));
+    }
+
+    @Test
+    void aTornLastRecordIsDropped() throws IOException
+    {
+        List<String> beforeLast = journalThenAddOneMore(13);
+
+        // Cut the last record short, as a crash in the middle of its write would
+        Path segment = lastSegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE))
+        {
+            channel.truncate(channel.size() - 3);
+        }
+
+        // Recovering again finds the same portfolio, now checkpointed without the dropped record
+        assertEquals(beforeLast, describe(recover()));
+        assertEquals(beforeLast, describe(recover()));
+    }
+
+    @Test
+    void aCorruptLastRecordIsDropped() throws IOException
+    {
+        List<String> beforeLast = journalThenAddOneMore(14);
+
+        // Flip a byte inside the last record, so its checksum no longer matches
+        Path segment = lastSegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            long position = channel.size() - 5;
+            channel.read(one, position);
+            one.put(0, (byte) (one.get(0) ^ 0x40)).rewind();
+            channel.write(one, position);
+        }
+
+        assertEquals(beforeLast, describe(recover()));
+    }
+
+    @Test
+    void garbageAfterTheLastRecordIsDroppedAndLaterTradesSurvive() throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(15);
+        Portfolio portfolio = new Portfolio();
+        try (TradeJournal journal = TradeJournal.open(portfolio, directory, 0))
+        {
+            for (int i = 0; i < 200; i++)
+            {
+                trade(portfolio, random);
+            }
+        }
+        Files.write(lastSegment(), new byte[] {7, 0, 0, 0, 1, 2}, StandardOpenOption.APPEND);
+
+        // Trades made after recovering past the garbage are journaled and recovered in turn
+        Portfolio recovered = new Portfolio();
+        try (TradeJournal journal = TradeJournal.open(recovered, directory, 0))
+        {
+            assertEquals(describe(portfolio), describe(recovered));
+            for (int i = 0; i < 200; i++)
+            {
+                trade(recovered, random);
+            }
+        }
+        assertEquals(describe(recovered), describe(recover()));
+    }
+
+    @Test
+    void aJournalThatCannotWriteStopsThePortfolioChanging() throws Exception
+    {
+        Portfolio portfolio = new Portfolio();
+        TradeJournal journal = TradeJournal.open(portfolio, directory, 0);
+        portfolio.addInvestment("stock", "AAA", "Alpha Co", 10, 5.0);
+
+        // Close the segment under the journal, so the next write fails
+        Field segment = TradeJournal.class.getDeclaredField("segment");
+        segment.setAccessible(true);
+        ((FileChannel) segment.get(journal)).close();
+
+        // The trade in flight was applied but is reported as not durable
+        assertThrows(UncheckedIOException.class, () -> portfolio.addInvestment("stock", "BBB", "Beta Co", 10, 5.0));
+        assertNotNull(journal.getFailure());
+
+        // Every later change is refused before it is made
+        assertRefusesChanges(portfolio);
+
+        // Closing reports the failure and leaves the portfolio refusing changes
+        assertThrows(IOException.class, journal::close);
+        assertThrows(IllegalStateException.class, () -> portfolio.addInvestment("stock", "DDD", "Delta Co", 1, 1.0));
+
+        // Recovery has only the trade that reached the disk
+        long cost = 50_000_000 + Investment.Stock.COMMISSION_FEE;
+        assertEquals(List.of("Stock AAA Alpha Co 10 5000000 " + cost + " lots 1:10:" + cost + " next 2"), describe(recover()));
+    }
+
+    @Test
+    void aCheckpointThatCannotWriteTheJournalStopsIt() throws Exception
+    {
+        Portfolio portfolio = new Portfolio();
+        TradeJournal journal = TradeJournal.open(portfolio, directory, 0);
+        portfolio.addInvestment("stock", "AAA", "Alpha Co", 10, 5.0);
+
+        // Close the segment under the journal, so the checkpoint cannot force it before switching segments
+        Field segment = TradeJournal.class.getDeclaredField("segment");
+        segment.setAccessible(true);
+        ((FileChannel) segment.get(journal)).close();
+        assertThrows(IOException.class, journal::checkpoint);
+
+        // The journal stopped at once, so the next trade is refused rather than applied and lost
+        assertNotNull(journal.getFailure());
+        assertRefusesChanges(portfolio);
+        assertThrows(IOException.class, journal::checkpoint);
+        assertThrows(IOException.class, journal::close);
+
+        long cost = 50_000_000 + Investment.Stock.COMMISSION_FEE;
+        assertEquals(List.of("Stock AAA Alpha Co 10 5000000 " + cost + " lots 1:10:" + cost + " next 2"), describe(recover()));
+    }
+
+    @Test
+    void recoveringIntoAPortfolioWithHoldingsIsRefused() throws IOException
+    {
+        try (TradeJournal journal = TradeJournal.open(new Portfolio(), directory, 0))
+        {
+            // An empty journal directory is all this needs
+        }
+
+        Portfolio portfolio = new Portfolio();
+        portfolio.addInvestment("stock", "AAA", "Alpha Co", 10, 5.0);
+        assertThrows(IllegalStateException.class, () -> TradeJournal.open(portfolio, directory, 0));
+    }
+
+    /*
+     * Checks that every kind of change to a portfolio with a stopped journal is refused and changes nothing.
+     */
+    private static void assertRefusesChanges(Portfolio portfolio)
+    {
+        List<String> stopped = describe(portfolio);
+        long version = portfolio.getVersion();
+        PriceBatch prices = new PriceBatch();
+        prices.add("AAA", 8.0);
+        TradeBatch trades = new TradeBatch();
+        trades.addPurchase("stock", "CCC", "Gamma Co", 1, 1.0);
+        assertThrows(IllegalStateException.class, () -> portfolio.addInvestment("stock", "AAA", "Alpha Co", 1, 6.0));
+        assertThrows(IllegalStateException.class, () -> portfolio.sellInvestment("AAA", 1, 6.0));
+        assertThrows(IllegalStateException.class, () -> portfolio.updatePrices("AAA", "Alpha Co", 7.0));
+        assertThrows(IllegalStateException.class, () -> portfolio.updatePrices(prices));
+        assertThrows(IllegalStateException.class, () -> portfolio.applyTrades(trades));
+        assertEquals(version, portfolio.getVersion());
+        assertEquals(stopped, describe(portfolio));
+    }
+
+    /*
+     * Journals random trades and then one more buy of a new symbol, returning the portfolio as it was before that buy.
+     */
+    private List<String> journalThenAddOneMore(long seed) throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(seed);
+        Portfolio portfolio = new Portfolio();
+        List<String> beforeLast;
+        try (TradeJournal journal = TradeJournal.open(portfolio, directory, 0))
+        {
+            for (int i = 0; i < 300; i++)
+            {
+                trade(portfolio, random);
+            }
+            beforeLast = describe(portfolio);
+            portfolio.addInvestment("stock", "LAST", "Last Trade Co", 5, 12.5);
+        }
+        return beforeLast;
+    }
+
+    /*
+     * Recovers a new portfolio from the journal directory and closes the journal again.
+     */
+    private Portfolio recover() throws IOException
+    {
+        Portfolio recovered = new Portfolio();
+        try (TradeJournal journal = TradeJournal.open(recovered, directory, 0))
+        {
+            return recovered;
+        }
+    }
+
+    /*
+     * Returns the journal segments in the directory.
+     */
+    private List<Path> segments() throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory))
+        {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    /*
+     * Returns the newest journal segment.
+     */
+    private Path lastSegment() throws IOException
+    {
+        List<Path> segments = segments();
+        return segments.get(segments.size() - 1);
+    }
+
+    /*
+     * Makes one random trade: a buy, a sell by any lot method or by lot IDs, a price update, a price batch or a trade batch.
+     */
+    private static void trade(Portfolio portfolio, SplittableRandom random)
+    {
+        int number = random.nextInt(SYMBOLS);
+        String symbol = "S" + number;
+        String name = "Symbol " + number + " Holdings";
+        String type = number % 3 == 0 ? "mutual fund" : "stock";
+        double price = (100 + random.nextInt(20_000)) / 100.0;
+        Investment held = find(portfolio, symbol);
+        int operation = held == null ? 0 : random.nextInt(7);
+        switch (operation)
+        {
+            case 0 -> portfolio.addInvestment(type, symbol, name, 1 + random.nextInt(100), price);
+            case 1 -> portfolio.sellInvestment(symbol, 1 + random.nextInt(held.getQuantity()), price);
+            case 2 ->
+            {
+                TaxLots.Method[] methods = {TaxLots.Method.AVERAGE_COST, TaxLots.Method.FIFO, TaxLots.Method.LIFO};
+                portfolio.sellInvestment(symbol, 1 + random.nextInt(held.getQuantity()), price, methods[random.nextInt(methods.length)]);
+            }
+            case 3 ->
+            {
+                // Sell part of one or two named lots
+                List<int[]> lots = new ArrayList<>();
+                held.getLots().forEach((lotId, quantity, cost) -> lots.add(new int[] {lotId, quantity}));
+                int[] first = lots.get(random.nextInt(lots.size()));
+                int[] second = lots.get(random.nextInt(lots.size()));
+                int[] lotIds = first == second ? new int[] {first[0]} : new int[] {second[0], first[0]};
+                int available = first[1] + (first == second ? 0 : second[1]);
+                portfolio.sellInvestment(symbol, 1 + random.nextInt(available), price, lotIds);
+            }
+            case 4 -> portfolio.updatePrices(symbol, name, price);
+            case 5 ->
+            {
+                PriceBatch batch = new PriceBatch();
+                for (int i = 1 + random.nextInt(5); i > 0; i--)
+                {
+                    batch.add("S" + random.nextInt(SYMBOLS), (100 + random.nextInt(20_000)) / 100.0);
+                }
+                portfolio.updatePrices(batch);
+            }
+            default ->
+            {
+                TradeBatch batch = new TradeBatch();
+                batch.addSale(symbol, 1 + random.nextInt(held.getQuantity()), price);
+                int other = random.nextInt(SYMBOLS);
+                batch.addPurchase(other % 3 == 0 ? "mutual fund" : "stock", "S" + other, "Symbol " + other + " Holdings", 1 + random.nextInt(100), price);
+                portfolio.applyTrades(batch);
+            }
+        }
+    }
+
+    /*
+     * Returns the holding with a symbol, or null if the portfolio has none.
+     */
+    private static Investment find(Portfolio portfolio, String symbol)
+    {
+        for (Investment investment : portfolio.snapshot())
+        {
+            if (investment.getSymbol().equals(symbol)) return investment;
+        }
+        return null;
+    }
+
+    /*
+     * Describes every holding in order, with its type, quantity, price, book value and tax lots.
+     */
+    private static List<String> describe(Portfolio portfolio)
+    {
+        List<String> holdings = new ArrayList<>();
+        for (Investment investment : portfolio.snapshot())
+        {
+            StringBuilder holding = new StringBuilder();
+            holding.append(investment.getClass().getSimpleName()).append(' ').append(investment.getSymbol()).append(' ').append(investment.getName())
+                .append(' ').append(investment.getQuantity()).append(' ').append(investment.getPriceMicros()).append(' ').append(investment.getBookValueMicros())
+                .append(" lots");
+            investment.getLots().forEach((lotId, quantity, cost) -> holding.append(' ').append(lotId).append(':').append(quantity).append(':').append(cost));
+            holdings.add(holding.append(" next ").append(investment.getLots().getNextId()).toString());
+        }
+        return holdings;
+    }
+}